@@ -0,0 +1,236 @@
+/*
+Copyright 2014 Maciej SIDOR [maciejsidor@gmail.com]
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+package com.googlecode.msidor.maven.plugins.hpalm.deliverynote;
+
+import java.io.File;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks of the plugin hot paths on synthetic HP ALM query results.
+ *
+ * <p>
+ * The mojo is configured the same way as the paging test case: 8 exported values, 4 change type filters and 1 value to update.
+ * The private methods are called through reflection, the cost of the call is negligible compared to the work done on the defects.
+ * Each benchmark processes all the defects of the result, so the throughput is given in results per second.
+ * </p>
+ *
+ * @author Maciej SIDOR
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HPALMMojoBenchmark
+{
+	/**
+	 * Count of defects in the query result
+	 */
+	@Param({ "100", "1000", "10000", "100000" })
+	public int				defects;
+
+	/**
+	 * Benchmarked mojo
+	 */
+	private HPALMMojo		mojo;
+
+	/**
+	 * Synthetic query result
+	 */
+	private String			xml;
+
+	/**
+	 * Entities parsed from the query result
+	 */
+	private List<Entity>	entities;
+
+	/**
+	 * Changes file written by generateChangesXML benchmark
+	 */
+	private File			changesFile;
+
+	private Method			processEntity;
+
+	private Method			generateHTML;
+
+	private Method			generateChangesXML;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception
+	{
+		changesFile = File.createTempFile("changes-benchmark", ".xml");
+
+		List<String> valuesToExport = new ArrayList<String>();
+		Map<String, String> translationOfValuesToExport = new HashMap<String, String>();
+		for (String name : new String[] { "id", "name", "owner", "detected-by", "creation-time", "detection-version", "severity", "user-04" })
+		{
+			valuesToExport.add(name);
+			translationOfValuesToExport.put(name, name.toUpperCase());
+		}
+
+		Map<String, String> valuesToUpdate = new LinkedHashMap<String, String>();
+		valuesToUpdate.put("status", "Delivered");
+
+		mojo = new HPALMMojo();
+		set("valuesToExport", valuesToExport);
+		set("translationOfValuesToExport", translationOfValuesToExport);
+		set("valuesToUpdate", valuesToUpdate);
+		set("changesOutputFilePath", changesFile.getPath());
+		set("changesProjectVersion", "1.0.0");
+		set("changesDevFiledMapping", "owner");
+		set("changesDescFiledMapping", "name");
+		set("changesDueToFiledMapping", "detected-by");
+		set("changesFixIssuesFilter", filter("user-04", "Defect"));
+		set("changesAddIssuesFilter", filter("user-04", "Evolution"));
+		set("changesUpdateIssuesFilter", filter("user-04", "Update"));
+		set("changesRemoveIssuesFilter", filter("user-04", "Removal"));
+
+		processEntity = method("processEntity", Entity.class);
+		generateHTML = method("generateHTML", StringBuilder.class, List.class);
+		generateChangesXML = method("generateChangesXML", List.class);
+
+		xml = generateQueryResult(defects);
+		entities = mojo.parse(xml);
+		if (entities == null || entities.size() != defects)
+			throw new IllegalStateException("Synthetic query result could not be parsed");
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown()
+	{
+		changesFile.delete();
+	}
+
+	@Benchmark
+	public List<Entity> parse()
+	{
+		return mojo.parse(xml);
+	}
+
+	@Benchmark
+	public void classify(Blackhole blackhole) throws Exception
+	{
+		for (Entity entity : entities)
+		{
+			processEntity.invoke(mojo, entity);
+			blackhole.consume(entity.changeType);
+		}
+	}
+
+	@Benchmark
+	public Object generateHTML() throws Exception
+	{
+		StringBuilder html = new StringBuilder();
+		generateHTML.invoke(mojo, html, entities);
+		return html;
+	}
+
+	@Benchmark
+	public void getUpdateStatement(Blackhole blackhole)
+	{
+		for (Entity entity : entities)
+			blackhole.consume(mojo.getUpdateStatement(entity));
+	}
+
+	@Benchmark
+	public void generateChangesXML() throws Exception
+	{
+		generateChangesXML.invoke(mojo, entities);
+	}
+
+	/**
+	 * Generate HP ALM query result with the given count of defects, each change type being equally represented
+	 * @param count count of defects
+	 * @return query result
+	 */
+	static String generateQueryResult(int count)
+	{
+		String[] types = { "Defect", "Evolution", "Update", "Removal" };
+		String[] severities = { "1-Critical", "2-High", "3-Medium", "4-Low" };
+
+		StringBuilder xml = new StringBuilder(count * 700);
+		xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n");
+		xml.append("<Entities TotalResults=\"").append(count).append("\">\n");
+		for (int i = 0; i < count; i++)
+		{
+			xml.append("\t<Entity Type=\"defect\">\n\t\t<Fields>\n");
+			appendField(xml, "id", String.valueOf(10000 + i));
+			appendField(xml, "name", "Synthetic defect number " + i + " & its <description>");
+			appendField(xml, "owner", "developer" + (i % 50));
+			appendField(xml, "detected-by", "tester" + (i % 20));
+			appendField(xml, "creation-time", "2014-05-" + (10 + i % 20));
+			appendField(xml, "detection-version", "1.0." + (i % 10));
+			appendField(xml, "severity", severities[i % severities.length]);
+			appendField(xml, "user-04", types[i % types.length]);
+			appendField(xml, "last-modified", "2014-05-" + (10 + i % 20) + " 10:00:00");
+			xml.append("\t\t</Fields>\n\t</Entity>\n");
+		}
+		xml.append("</Entities>\n");
+
+		return xml.toString();
+	}
+
+	private static void appendField(StringBuilder xml, String name, String value)
+	{
+		xml.append("\t\t\t<Field Name=\"").append(name).append("\">\n\t\t\t\t<Value>");
+		xml.append(value.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;"));
+		xml.append("</Value>\n\t\t\t</Field>\n");
+	}
+
+	private static Map<String, String> filter(String name, String value)
+	{
+		Map<String, String> filter = new HashMap<String, String>();
+		filter.put(name, value);
+		return filter;
+	}
+
+	private void set(String name, Object value) throws Exception
+	{
+		java.lang.reflect.Field field = HPALMMojo.class.getDeclaredField(name);
+		field.setAccessible(true);
+		field.set(mojo, value);
+	}
+
+	private static Method method(String name, Class<?>... parameterTypes) throws Exception
+	{
+		Method method = HPALMMojo.class.getDeclaredMethod(name, parameterTypes);
+		method.setAccessible(true);
+		return method;
+	}
+}
@@ -0,0 +1,43 @@
+/*
+Copyright 2014 Maciej SIDOR [maciejsidor@gmail.com]
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+package com.googlecode.msidor.maven.plugins.hpalm.deliverynote;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the plugin benchmarks with the allocation profiler, so the allocation rate is reported next to the throughput.
+ * All the benchmarks are run unless some are selected, the standard JMH options are accepted,
+ * e.g. HPALMMojoBenchmark -p defects=1000 to run a single result size or -rf json to save the results.
+ *
+ * @author Maciej SIDOR
+ *
+ */
+public class HPALMMojoBenchmarkRunner
+{
+	public static void main(String[] args) throws Exception
+	{
+		CommandLineOptions options = new CommandLineOptions(args);
+
+		OptionsBuilder builder = new OptionsBuilder();
+		builder.parent(options);
+		builder.addProfiler(GCProfiler.class);
+
+		new Runner(builder.build()).run();
+	}
+}
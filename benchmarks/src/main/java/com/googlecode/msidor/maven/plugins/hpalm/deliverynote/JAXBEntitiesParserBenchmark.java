@@ -0,0 +1,88 @@
+/*
+Copyright 2014 Maciej SIDOR [maciejsidor@gmail.com]
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+package com.googlecode.msidor.maven.plugins.hpalm.deliverynote;
+
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.bind.JAXBContext;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark of the per page parsing cost.
+ *
+ * <p>
+ * It compares the creation of JAXB context for each page (the former implementation) with the cached context and the pooled unmarshallers of JAXBEntitiesParser.
+ * The pages are synthetic HP ALM query results of the given size.
+ * Run it with several threads (e.g. -t 4) to measure the contention on the unmarshallers pool.
+ * </p>
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JAXBEntitiesParserBenchmark
+{
+	/**
+	 * Count of defects in the page
+	 */
+	@Param({ "100", "1000" })
+	public int					pageSize;
+
+	/**
+	 * Synthetic query result page
+	 */
+	private String				page;
+
+	/**
+	 * Parser with cached context and pooled unmarshallers
+	 */
+	private JAXBEntitiesParser	parser;
+
+	@Setup(Level.Trial)
+	public void setUp()
+	{
+		page = HPALMMojoBenchmark.generateQueryResult(pageSize);
+		parser = new JAXBEntitiesParser();
+	}
+
+	@Benchmark
+	public Object perPageContext() throws Exception
+	{
+		return JAXBContext.newInstance(EntitiesRoot.class).createUnmarshaller().unmarshal(new StringReader(page));
+	}
+
+	@Benchmark
+	public Object pooledUnmarshallers() throws Exception
+	{
+		return parser.parse(new StringReader(page));
+	}
+}
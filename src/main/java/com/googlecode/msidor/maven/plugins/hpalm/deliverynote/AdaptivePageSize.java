@@ -0,0 +1,295 @@
+/*
+Copyright 2014 Maciej SIDOR [maciejsidor@gmail.com]
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+package com.googlecode.msidor.maven.plugins.hpalm.deliverynote;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Adaptive HP ALM query page size.
+ *
+ * <p>
+ * The page size starts from the best size recorded for the server during previous runs (or from the maximal size if none has been recorded yet).
+ * It is divided by two each time the server rejects the requested size or when the retrieval time per entity gets notably worse than the best one observed at the same size.
+ * It is doubled back, up to the maximal size, as soon as the retrieval time per entity is worse than the one last observed with the doubled size,
+ * since the round trip of a smaller page is spread over fewer entities, and after a few pages to probe the doubled size again.
+ * The page size with the best retrieval time per entity is recorded in a properties file so the next runs may start with it.
+ * </p>
+ *
+ * @author Maciej SIDOR
+ *
+ */
+public class AdaptivePageSize
+{
+	/**
+	 * Ratio between the current and the best retrieval time per entity above which the page size is changed
+	 */
+	private static final double LATENCY_DEGRADATION_FACTOR = 1.5;
+
+	/**
+	 * Count of complete pages retrieved at the same size before the doubled size is probed
+	 */
+	private static final int PROBE_INTERVAL_PAGES = 4;
+
+	/**
+	 * Key of the server in the record file
+	 */
+	private final String	serverKey;
+
+	/**
+	 * File that holds the best page size for each server
+	 */
+	private final File		recordFile;
+
+	/**
+	 * The smallest page size that may be used
+	 */
+	private final int		minPageSize;
+
+	/**
+	 * The biggest page size that may be used
+	 */
+	private int				maxPageSize;
+
+	/**
+	 * Page size to use for the next request
+	 */
+	private int				pageSize;
+
+	/**
+	 * Page size with the best retrieval time per entity
+	 */
+	private int				bestPageSize				= -1;
+
+	/**
+	 * The best retrieval time per entity observed (in milliseconds)
+	 */
+	private double			bestLatencyPerEntity		= -1;
+
+	/**
+	 * The best retrieval time per entity observed for each page size (in milliseconds)
+	 */
+	private final Map<Integer, Double>	bestLatencyPerEntityBySize	= new HashMap<Integer, Double>();
+
+	/**
+	 * The last retrieval time per entity observed for each page size (in milliseconds)
+	 */
+	private final Map<Integer, Double>	lastLatencyPerEntityBySize	= new HashMap<Integer, Double>();
+
+	/**
+	 * Count of complete pages retrieved since the page size has been changed
+	 */
+	private int				pagesAtPageSize				= 0;
+
+	/**
+	 * Default constructor
+	 * @param serverKey key of the server in the record file
+	 * @param minPageSize the smallest page size that may be used
+	 * @param maxPageSize the biggest page size that may be used and the initial one if none has been recorded for the server
+	 * @param recordFile file that holds the best page size for each server, may be null
+	 */
+	public AdaptivePageSize(String serverKey, int minPageSize, int maxPageSize, File recordFile)
+	{
+		this.serverKey = serverKey;
+		this.recordFile = recordFile;
+		this.minPageSize = Math.max(1, minPageSize);
+		this.maxPageSize = Math.max(this.minPageSize, maxPageSize);
+		this.pageSize = this.maxPageSize;
+
+		Integer recordedPageSize = readRecordedPageSize();
+		if (recordedPageSize != null)
+		{
+			pageSize = Math.min(this.maxPageSize, Math.max(this.minPageSize, recordedPageSize.intValue()));
+		}
+	}
+
+	/**
+	 * @return page size to use for the next request
+	 */
+	public synchronized int getPageSize()
+	{
+		return pageSize;
+	}
+
+	/**
+	 * Notifies that the server rejected the current page size.
+	 * The page size is divided by two and the rejected size will not be used anymore.
+	 * @return false if the page size could not be decreased anymore
+	 */
+	public synchronized boolean pageRejected()
+	{
+		if (pageSize <= minPageSize)
+			return false;
+
+		maxPageSize = Math.max(minPageSize, pageSize - 1);
+		setPageSize(pageSize / 2);
+
+		if (bestPageSize > maxPageSize)
+		{
+			bestPageSize = -1;
+			bestLatencyPerEntity = -1;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Notifies that a page has been retrieved.
+	 * Only the complete pages are taken into account since the last page of result is usually smaller.
+	 * The retrieval time per entity is compared with the best one observed at the same size to detect the server slowing down,
+	 * and with the last one observed at the doubled size to step back to the more efficient size.
+	 * @param requestedPageSize page size of the request
+	 * @param countOfEntities count of entities returned
+	 * @param elapsedMillis time spent on the request and on parsing the result (in milliseconds)
+	 */
+	public synchronized void pageRetrieved(int requestedPageSize, int countOfEntities, long elapsedMillis)
+	{
+		if (countOfEntities <= 0 || countOfEntities < requestedPageSize)
+			return;
+
+		double latencyPerEntity = (double) elapsedMillis / countOfEntities;
+
+		if (bestLatencyPerEntity < 0 || latencyPerEntity <= bestLatencyPerEntity)
+		{
+			bestLatencyPerEntity = latencyPerEntity;
+			bestPageSize = requestedPageSize;
+		}
+
+		Double bestAtSize = bestLatencyPerEntityBySize.get(requestedPageSize);
+		if (bestAtSize == null || latencyPerEntity < bestAtSize.doubleValue())
+			bestLatencyPerEntityBySize.put(requestedPageSize, latencyPerEntity);
+		lastLatencyPerEntityBySize.put(requestedPageSize, latencyPerEntity);
+
+		// the pages requested before the last change of size are not representative anymore
+		if (requestedPageSize != pageSize)
+			return;
+
+		// the server slows down at this size
+		if (bestAtSize != null && latencyPerEntity > bestAtSize.doubleValue() * LATENCY_DEGRADATION_FACTOR && pageSize > minPageSize)
+		{
+			setPageSize(pageSize / 2);
+			return;
+		}
+
+		int doubledPageSize = Math.min(maxPageSize, pageSize * 2);
+		if (doubledPageSize == pageSize)
+			return;
+
+		// the round trip of smaller pages is spread over fewer entities, the doubled size may be more efficient even if the server slowed down
+		Double latencyAtDoubledSize = lastLatencyPerEntityBySize.get(doubledPageSize);
+		if ((latencyAtDoubledSize != null && latencyAtDoubledSize.doubleValue() < latencyPerEntity) || ++pagesAtPageSize >= PROBE_INTERVAL_PAGES)
+			setPageSize(doubledPageSize);
+	}
+
+	/**
+	 * Changes the page size to use for the next request
+	 * @param size new page size, bounded by the smallest and the biggest page sizes
+	 */
+	private void setPageSize(int size)
+	{
+		pageSize = Math.min(maxPageSize, Math.max(minPageSize, size));
+		pagesAtPageSize = 0;
+	}
+
+	/**
+	 * @return page size with the best retrieval time per entity or the current page size if none has been measured
+	 */
+	public synchronized int getBestPageSize()
+	{
+		return bestPageSize > 0 ? bestPageSize : pageSize;
+	}
+
+	/**
+	 * Saves the best page size to the record file
+	 * @throws IOException if the record file could not be written
+	 */
+	public synchronized void save() throws IOException
+	{
+		if (recordFile == null)
+			return;
+
+		Properties record = readRecord();
+		record.setProperty(serverKey, Integer.toString(getBestPageSize()));
+
+		if (recordFile.getParentFile() != null)
+			recordFile.getParentFile().mkdirs();
+
+		OutputStream os = new FileOutputStream(recordFile);
+		try
+		{
+			record.store(os, "HP ALM page sizes");
+		}
+		finally
+		{
+			os.close();
+		}
+	}
+
+	/**
+	 * @return page size recorded for the server or null if none
+	 */
+	private Integer readRecordedPageSize()
+	{
+		String value = readRecord().getProperty(serverKey);
+		if (value == null)
+			return null;
+
+		try
+		{
+			return Integer.valueOf(value.trim());
+		}
+		catch (NumberFormatException e)
+		{
+			return null;
+		}
+	}
+
+	/**
+	 * @return content of the record file, empty if the file does not exist or could not be read
+	 */
+	private Properties readRecord()
+	{
+		Properties record = new Properties();
+		if (recordFile == null || !recordFile.exists())
+			return record;
+
+		try
+		{
+			InputStream is = new FileInputStream(recordFile);
+			try
+			{
+				record.load(is);
+			}
+			finally
+			{
+				is.close();
+			}
+		}
+		catch (IOException e)
+		{
+			// ignore, the page size will be found again
+		}
+
+		return record;
+	}
+}
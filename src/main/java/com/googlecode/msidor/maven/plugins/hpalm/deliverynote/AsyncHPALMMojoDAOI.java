@@ -0,0 +1,112 @@
+/*
+Copyright 2014 Maciej SIDOR [maciejsidor@gmail.com]
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+package com.googlecode.msidor.maven.plugins.hpalm.deliverynote;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Future;
+
+/**
+ * HPALMMavenPlugin asynchronous Data Access Object interface.
+ * Each method starts the remote command and returns at once, the future gives the result once the command has completed.
+ * The future fails with the exception thrown by the matching method of HPALMMojoDAOI (MojoFailureException for HP ALM commands, XmlRpcException for Confluence ones),
+ * wrapped in ExecutionException.
+ *
+ * @author Maciej SIDOR
+ *
+ */
+public interface AsyncHPALMMojoDAOI
+{
+
+	/**
+	 * Update Confluence page with given content
+	 * @param cookie Confluence session authentication object
+	 * @param page Confluence page content
+	 * @param pageUpdateOptions Update options
+	 * @return completion of the update
+	 */
+	public abstract Future<Void> updateConfluencePage(Object cookie, HashMap<Object, Object> page, HashMap<Object, Object> pageUpdateOptions);
+
+	/**
+	 * Retrieves Confluence page content
+	 * @param cookie Confluence session authentication object
+	 * @param confluencePageID CID of Confluence page to retrieve
+	 * @return Confluence page content
+	 */
+	public abstract Future<HashMap<Object, Object>> getConfluencePage(Object cookie, String confluencePageID);
+
+	/**
+	 * Retrieves the child pages of Confluence page
+	 * @param cookie Confluence session authentication object
+	 * @param confluencePageID CID of the parent Confluence page
+	 * @return summaries of the child pages (id, title, parentId, space, url)
+	 */
+	public abstract Future<List<HashMap<Object, Object>>> getConfluenceChildPages(Object cookie, String confluencePageID);
+
+	/**
+	 * Stores Confluence page, the page is created if it has no id
+	 * @param cookie Confluence session authentication object
+	 * @param page Confluence page content, new page requires space, title, parentId and content
+	 * @return stored Confluence page
+	 */
+	public abstract Future<HashMap<Object, Object>> storeConfluencePage(Object cookie, HashMap<Object, Object> page);
+
+	/**
+	 * Authenticates to Confluence, the XML RPC Client must have been initialized by the synchronous Data Access Object
+	 * @param confleunceUser Confluence user
+	 * @param confluencePassword Confluence password
+	 * @return Confluence session authentication object
+	 */
+	public abstract Future<Object> authenticateToConfluence(String confleunceUser, String confluencePassword);
+
+	/**
+	 * Send content to target URL via PUT method
+	 * 
+	 * @param targetURL
+	 *            - target to send the content to
+	 * @param urlParameters
+	 *            - the content to be sent
+	 * @param cookie
+	 *            - cookie to be set in Cookie header file
+	 * @return response from the target URL
+	 */
+	public abstract Future<String> putToHPALM(String targetURL, String urlParameters, String cookie);
+
+	/**
+	 * Get the content from target URL via GET method
+	 * 
+	 * @param targetURL
+	 *            - target to get the content from
+	 * @param cookie
+	 *            - cookie to be set in Cookie header file
+	 * @return response from the target URL
+	 */
+	public abstract Future<String> getFromHPALM(String targetURL, String cookie);
+
+	/**
+	 * Authenticate to HP ALM
+	 * 
+	 * @param targetURL
+	 *            - target to authenticate to
+	 * @param username
+	 *            - HP ALM user
+	 * @param password
+	 *            - HP ALM password
+	 * @return authentication cookie
+	 */
+	public abstract Future<String> authenticateToHPALM(String targetURL, String username, String password);
+
+}
@@ -0,0 +1,274 @@
+/*
+Copyright 2014 Maciej SIDOR [maciejsidor@gmail.com]
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+package com.googlecode.msidor.maven.plugins.hpalm.deliverynote;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Change type rules compiled into a single matcher indexed by HP ALM field name.
+ *
+ * <p>
+ * The rules are evaluated in priority order, the first rule matching the defect gives its change type.
+ * The change type filters of the plugin configuration are compiled after the rules, in the order REMOVE, UPDATE, ADD, FIX,
+ * which gives the same result as the historical evaluation where the last matching filter won.
+ * Their values are compared literally, the | and ! syntax of ChangeTypeRule does not apply to them.
+ * </p>
+ *
+ * <p>
+ * The defect fields are read once: each field name gives the conditions it takes part in,
+ * so the cost of classification depends on the conditions of the fields present in the defect, not on the count of rules.
+ * The matcher is immutable and may be used by several threads at the same time.
+ * </p>
+ *
+ * @author Maciej SIDOR
+ *
+ */
+public class ChangeTypeClassifier
+{
+	/**
+	 * Index of no rule
+	 */
+	private static final int				NONE	= Integer.MAX_VALUE;
+
+	/**
+	 * Change type of each rule, in priority order
+	 */
+	private final String[]					types;
+
+	/**
+	 * Count of conditions of each rule, in priority order
+	 */
+	private final int[]						required;
+
+	/**
+	 * Conditions per HP ALM field name
+	 */
+	private final Map<String, Condition[]>	conditionsByField;
+
+	/**
+	 * Names of the fields the conditions apply to, in the order of the rules
+	 */
+	private final Set<String>				fieldNames;
+
+	/**
+	 * Index of the first rule without conditions, NONE if there is no such rule
+	 */
+	private final int						unconditional;
+
+	/**
+	 * Compile the rules
+	 * @param rules change type rules in priority order, may be null
+	 * @throws IllegalArgumentException if a rule has no type
+	 * @param changesFixIssuesFilter conditions of FIX type, may be null
+	 * @param changesAddIssuesFilter conditions of ADD type, may be null
+	 * @param changesUpdateIssuesFilter conditions of UPDATE type, may be null
+	 * @param changesRemoveIssuesFilter conditions of REMOVE type, may be null
+	 */
+	public ChangeTypeClassifier(List<ChangeTypeRule> rules, Map<String, String> changesFixIssuesFilter, Map<String, String> changesAddIssuesFilter, Map<String, String> changesUpdateIssuesFilter,
+			Map<String, String> changesRemoveIssuesFilter)
+	{
+		List<String> ruleTypes = new ArrayList<String>();
+		List<Integer> ruleSizes = new ArrayList<Integer>();
+		Map<String, List<Condition>> conditions = new HashMap<String, List<Condition>>();
+		Set<String> names = new LinkedHashSet<String>();
+
+		if (rules != null) for (ChangeTypeRule rule : rules)
+		{
+			if (rule.getType() == null)
+				throw new IllegalArgumentException("Change type rule " + rule.getConditions() + " has no type");
+
+			// absent or empty conditions are not bound by Maven, the rule matches every defect then
+			Map<String, String> ruleConditions = rule.getConditions();
+			addRule(ruleTypes, ruleSizes, conditions, names, rule.getType(), ruleConditions != null ? ruleConditions : new HashMap<String, String>(), false);
+		}
+
+		addRule(ruleTypes, ruleSizes, conditions, names, "REMOVE", changesRemoveIssuesFilter, true);
+		addRule(ruleTypes, ruleSizes, conditions, names, "UPDATE", changesUpdateIssuesFilter, true);
+		addRule(ruleTypes, ruleSizes, conditions, names, "ADD", changesAddIssuesFilter, true);
+		addRule(ruleTypes, ruleSizes, conditions, names, "FIX", changesFixIssuesFilter, true);
+		fieldNames = Collections.unmodifiableSet(names);
+
+		types = ruleTypes.toArray(new String[ruleTypes.size()]);
+		required = new int[types.length];
+		int firstUnconditional = NONE;
+		for (int i = required.length - 1; i >= 0; i--)
+		{
+			required[i] = ruleSizes.get(i).intValue();
+			if (required[i] == 0)
+				firstUnconditional = i;
+		}
+		unconditional = firstUnconditional;
+
+		conditionsByField = new HashMap<String, Condition[]>(conditions.size() * 2);
+		for (Map.Entry<String, List<Condition>> entry : conditions.entrySet())
+			conditionsByField.put(entry.getKey(), entry.getValue().toArray(new Condition[entry.getValue().size()]));
+	}
+
+	/**
+	 * Add the rule to the rules being compiled
+	 * @param ruleTypes change type of each rule
+	 * @param ruleSizes count of conditions of each rule
+	 * @param conditions conditions per field name
+	 * @param names names of the fields the conditions apply to
+	 * @param type change type of the rule
+	 * @param ruleConditions accepted values per field name, the rule is ignored if null
+	 * @param literal true if the values are compared literally
+	 */
+	private static void addRule(List<String> ruleTypes, List<Integer> ruleSizes, Map<String, List<Condition>> conditions, Set<String> names, String type, Map<String, String> ruleConditions,
+			boolean literal)
+	{
+		if (ruleConditions == null)
+			return;
+
+		int rule = ruleTypes.size();
+		ruleTypes.add(type);
+		ruleSizes.add(Integer.valueOf(ruleConditions.size()));
+
+		for (Map.Entry<String, String> entry : ruleConditions.entrySet())
+		{
+			names.add(entry.getKey());
+			List<Condition> fieldConditions = conditions.get(entry.getKey());
+			if (fieldConditions == null)
+			{
+				fieldConditions = new ArrayList<Condition>();
+				conditions.put(entry.getKey(), fieldConditions);
+			}
+			fieldConditions.add(literal ? new Condition(rule, new String[] { entry.getValue() }, false) : Condition.parse(rule, entry.getValue()));
+		}
+	}
+
+	/**
+	 * @return names of the fields the rules and filters apply to, they must be retrieved from HP ALM for the classification to work
+	 */
+	public Set<String> getFieldNames()
+	{
+		return fieldNames;
+	}
+
+	/**
+	 * @param entity entity to classify
+	 * @return change type of the first matching rule, null if no rule matches
+	 */
+	public String classify(Entity entity)
+	{
+		int best = unconditional;
+
+		if (entity.fields != null && !conditionsByField.isEmpty())
+		{
+			int[] counts = null;
+			int[] candidates = null;
+			int candidateCount = 0;
+
+			for (Field field : entity.fields)
+			{
+				Condition[] fieldConditions = conditionsByField.get(field.name);
+				if (fieldConditions == null)
+					continue;
+
+				if (counts == null)
+				{
+					counts = new int[types.length];
+					candidates = new int[types.length];
+				}
+
+				for (Condition condition : fieldConditions)
+				{
+					// the count only grows, so each rule becomes candidate at most once
+					if (condition.accepts(field.value) && ++counts[condition.rule] == required[condition.rule])
+						candidates[candidateCount++] = condition.rule;
+				}
+			}
+
+			// a field present several times may validate its condition more than once, such rule does not match
+			for (int i = 0; i < candidateCount; i++)
+			{
+				int rule = candidates[i];
+				if (rule < best && counts[rule] == required[rule])
+					best = rule;
+			}
+		}
+
+		return best == NONE ? null : types[best];
+	}
+
+	/**
+	 * Condition of a rule on a single field
+	 */
+	private static class Condition
+	{
+		/**
+		 * Index of the rule
+		 */
+		final int		rule;
+
+		/**
+		 * Accepted values, compared ignoring case
+		 */
+		final String[]	values;
+
+		/**
+		 * True if any value but the listed ones is accepted
+		 */
+		final boolean	negated;
+
+		Condition(int rule, String[] values, boolean negated)
+		{
+			this.rule = rule;
+			this.values = values;
+			this.negated = negated;
+		}
+
+		/**
+		 * @param rule index of the rule
+		 * @param expression accepted values, as described in ChangeTypeRule
+		 * @return condition
+		 */
+		static Condition parse(int rule, String expression)
+		{
+			String values = expression != null ? expression : "";
+			boolean negated = values.startsWith(ChangeTypeRule.NEGATION_PREFIX);
+			if (negated)
+				values = values.substring(ChangeTypeRule.NEGATION_PREFIX.length());
+
+			return new Condition(rule, values.split("\\" + ChangeTypeRule.VALUES_SEPARATOR, -1), negated);
+		}
+
+		/**
+		 * @param value field value
+		 * @return true if the value validates the condition
+		 */
+		boolean accepts(String value)
+		{
+			boolean listed = false;
+			for (String accepted : values)
+			{
+				if (accepted.equalsIgnoreCase(value))
+				{
+					listed = true;
+					break;
+				}
+			}
+
+			return listed != negated;
+		}
+	}
+}
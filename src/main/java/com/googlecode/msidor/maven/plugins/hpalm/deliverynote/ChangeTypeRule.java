@@ -0,0 +1,107 @@
+/*
+Copyright 2014 Maciej SIDOR [maciejsidor@gmail.com]
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+package com.googlecode.msidor.maven.plugins.hpalm.deliverynote;
+
+import java.util.Map;
+
+/**
+ * Rule that assigns a change type to the defects matching all its conditions.
+ *
+ * <p>
+ * Each condition maps HP ALM field name (case sensitive) to the accepted values, compared ignoring case:
+ * <ul>
+ * <li><code>Defect</code> accepts a single value</li>
+ * <li><code>Defect|Bug</code> accepts any of the values separated by |</li>
+ * <li><code>!Defect</code> or <code>!Defect|Bug</code> accepts any value but the listed ones, the field must be present though</li>
+ * </ul>
+ * A rule without conditions matches every defect, a rule without type is rejected.
+ * </p>
+ *
+ * Example of plugin configuration:
+ *
+ * <pre>
+ * &lt;changesTypeRules&gt;
+ *     &lt;changeTypeRule&gt;
+ *         &lt;type&gt;REMOVE&lt;/type&gt;
+ *         &lt;conditions&gt;
+ *             &lt;status&gt;Rejected|Duplicate&lt;/status&gt;
+ *         &lt;/conditions&gt;
+ *     &lt;/changeTypeRule&gt;
+ * &lt;/changesTypeRules&gt;
+ * </pre>
+ *
+ * @author Maciej SIDOR
+ *
+ */
+public class ChangeTypeRule
+{
+	/**
+	 * Separator of accepted values
+	 */
+	public static final String	VALUES_SEPARATOR	= "|";
+
+	/**
+	 * Prefix of negated condition
+	 */
+	public static final String	NEGATION_PREFIX		= "!";
+
+	/**
+	 * Change type assigned by the rule (FIX, ADD, UPDATE or REMOVE)
+	 */
+	private String				type				= null;
+
+	/**
+	 * Accepted values per HP ALM field name
+	 */
+	private Map<String, String>	conditions			= null;
+
+	/**
+	 * Constructor used by plugin configuration
+	 */
+	public ChangeTypeRule()
+	{
+	}
+
+	/**
+	 * @param type change type assigned by the rule
+	 * @param conditions accepted values per HP ALM field name
+	 */
+	public ChangeTypeRule(String type, Map<String, String> conditions)
+	{
+		this.type = type;
+		this.conditions = conditions;
+	}
+
+	public String getType()
+	{
+		return type;
+	}
+
+	public void setType(String type)
+	{
+		this.type = type;
+	}
+
+	public Map<String, String> getConditions()
+	{
+		return conditions;
+	}
+
+	public void setConditions(Map<String, String> conditions)
+	{
+		this.conditions = conditions;
+	}
+}
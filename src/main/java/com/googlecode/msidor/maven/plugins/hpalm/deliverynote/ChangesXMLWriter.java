@@ -0,0 +1,140 @@
+/*
+Copyright 2014 Maciej SIDOR [maciejsidor@gmail.com]
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+package com.googlecode.msidor.maven.plugins.hpalm.deliverynote;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.Charset;
+import java.util.Calendar;
+
+/**
+ * Incremental writer of changes XML file.
+ * The release header is written when the writer is created, then each entity is written as soon as it is given. 
+ * The file is completed by close method, or deleted by abort method if the execution failed.
+ *
+ * @author Maciej SIDOR
+ *
+ */
+public class ChangesXMLWriter
+{
+	/**
+	 * Output file writer
+	 */
+	private final BufferedWriter	writer;
+
+	/**
+	 * Output file
+	 */
+	private final File				file;
+
+	/**
+	 * True once the file is completed or deleted
+	 */
+	private boolean					closed	= false;
+
+	/**
+	 * Creates the changes file and writes its header
+	 * @param changesOutputFilePath path of the changes file
+	 * @param changesProjectVersion release version that will be assigned to the set of issues
+	 * @throws IOException if the file could not be written
+	 */
+	public ChangesXMLWriter(String changesOutputFilePath, String changesProjectVersion) throws IOException
+	{
+		file = new File( changesOutputFilePath );
+		writer = new BufferedWriter( new OutputStreamWriter( new FileOutputStream ( file ), Charset.forName( "UTF-8" )) );
+
+		writer.write( "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" );
+		writer.write( "<document>\n" );
+		writer.write( "<body>\n" );
+		writer.write( "<release version=\""+changesProjectVersion+"\" date=\""+Calendar.getInstance().getTime().toString()+"\">\n" );
+	}
+
+	/**
+	 * Writes the entity as release action
+	 * @param entity entity to write
+	 * @throws IOException if the file could not be written
+	 */
+	public void writeEntity(Entity entity) throws IOException
+	{
+		writeAction( entity.dev, entity.changeType, entity.id, entity.dueTo, entity.desc );
+	}
+
+	/**
+	 * Writes each entity of the columnar store as release action
+	 * @param store entities to write
+	 * @throws IOException if the file could not be written
+	 */
+	public void writeEntities(EntitiesColumnStore store) throws IOException
+	{
+		for ( int row = 0; row < store.size(); row++ )
+		{
+		    writeAction( store.getDev( row ), store.getChangeType( row ), store.getId( row ), store.getDueTo( row ), store.getDesc( row ) );
+		}
+	}
+
+	/**
+	 * Writes the release action
+	 * @param dev developer of the change
+	 * @param changeType type of the change
+	 * @param id issue identifier
+	 * @param dueTo reporter of the issue
+	 * @param desc description of the change
+	 * @throws IOException if the file could not be written
+	 */
+	private void writeAction(String dev, String changeType, String id, String dueTo, String desc) throws IOException
+	{
+		writer.write( "<action dev=\""+dev+"\" type=\""+changeType+"\" issue=\""+id+"\" due-to=\""+dueTo+"\">\n" );
+		writer.write( desc );
+		writer.write( "\n</action>\n" );
+	}
+
+	/**
+	 * Writes the end of the file and closes it
+	 * @throws IOException if the file could not be written
+	 */
+	public void close() throws IOException
+	{
+		closed = true;
+		writer.write( "</release>\n" );
+		writer.write( "</body>\n" );
+		writer.write( "</document>\n" );
+		writer.flush();
+		writer.close();
+	}
+
+	/**
+	 * Closes and deletes the incomplete file, does nothing if the file has been completed
+	 */
+	public void abort()
+	{
+		if ( closed )
+		    return;
+
+		closed = true;
+		try
+		{
+		    writer.close();
+		}
+		catch ( IOException e )
+		{
+		    // the file is deleted anyway
+		}
+		file.delete();
+	}
+}
@@ -0,0 +1,115 @@
+/*
+Copyright 2014 Maciej SIDOR [maciejsidor@gmail.com]
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+package com.googlecode.msidor.maven.plugins.hpalm.deliverynote;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Circuit breaker of requests to a server.
+ *
+ * <p>
+ * The circuit opens after the given count of consecutive failures, then the requests are rejected without being sent.
+ * Once the cooldown has elapsed a single trial request is allowed: the circuit closes if it succeeds, otherwise it opens again for another cooldown.
+ * Only the failures showing that the server is unavailable should be reported, a request rejected by a server that is up counts as success.
+ * </p>
+ *
+ * @author Maciej SIDOR
+ *
+ */
+public class CircuitBreaker
+{
+	/**
+	 * Count of consecutive failures opening the circuit
+	 */
+	private final int	threshold;
+
+	/**
+	 * Time the circuit stays open before the trial request (in nanoseconds)
+	 */
+	private final long	cooldown;
+
+	/**
+	 * Count of consecutive failures
+	 */
+	private int			failures		= 0;
+
+	/**
+	 * Time the circuit opened (in nanoseconds)
+	 */
+	private long		openedAt		= 0;
+
+	/**
+	 * True while the trial request is in progress
+	 */
+	private boolean		trialInProgress	= false;
+
+	/**
+	 * Default constructor
+	 * @param threshold count of consecutive failures opening the circuit
+	 * @param cooldownMillis time the circuit stays open before the trial request (in milliseconds)
+	 */
+	public CircuitBreaker(int threshold, long cooldownMillis)
+	{
+		if (threshold <= 0)
+			throw new IllegalArgumentException("Circuit breaker threshold must be greater than 0");
+
+		this.threshold = threshold;
+		this.cooldown = TimeUnit.MILLISECONDS.toNanos(Math.max(0, cooldownMillis));
+	}
+
+	/**
+	 * @return true if the request may be sent, false if the circuit is open
+	 */
+	public synchronized boolean allowRequest()
+	{
+		if (failures < threshold)
+			return true;
+
+		if (trialInProgress || System.nanoTime() - openedAt < cooldown)
+			return false;
+
+		trialInProgress = true;
+		return true;
+	}
+
+	/**
+	 * Report the success of request, the circuit closes
+	 */
+	public synchronized void succeeded()
+	{
+		failures = 0;
+		trialInProgress = false;
+	}
+
+	/**
+	 * Report the failure of request, the circuit opens if the threshold has been reached
+	 */
+	public synchronized void failed()
+	{
+		failures++;
+		trialInProgress = false;
+		if (failures >= threshold)
+			openedAt = System.nanoTime();
+	}
+
+	/**
+	 * @return true if the requests are currently rejected
+	 */
+	public synchronized boolean isOpen()
+	{
+		return failures >= threshold;
+	}
+}
@@ -0,0 +1,208 @@
+/*
+Copyright 2014 Maciej SIDOR [maciejsidor@gmail.com]
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+package com.googlecode.msidor.maven.plugins.hpalm.deliverynote;
+
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Section of CONFLUENCE page generated by the plugin for a release.
+ *
+ * <p>
+ * The section is enclosed between two anchor macros, invisible on the page:
+ * the first one names the release and the hash of the section content, the second one closes the section of the release.
+ * The anchors are looked up by their names only, since CONFLUENCE adds its own attributes to the macros it stores.
+ * This allows to tell whether the content generated for the release has changed and to replace the section instead of adding a new one.
+ * </p>
+ *
+ * @author Maciej SIDOR
+ *
+ */
+public class ConfluencePageSection
+{
+	/**
+	 * Prefix of the name of the anchor opening the section
+	 */
+	private static final String	BEGIN_PREFIX	= "hpalm-begin-";
+
+	/**
+	 * Prefix of the name of the anchor closing the section
+	 */
+	private static final String	END_PREFIX		= "hpalm-end-";
+
+	/**
+	 * Length of the content hash (hexadecimal MD5)
+	 */
+	private static final int	HASH_LENGTH		= 32;
+
+	private static final String	MACRO_START		= "<ac:structured-macro";
+
+	private static final String	MACRO_END		= "</ac:structured-macro>";
+
+	/**
+	 * Offset of the first character of the section
+	 */
+	private final int			start;
+
+	/**
+	 * Offset of the character following the section
+	 */
+	private final int			end;
+
+	/**
+	 * Hash of the section content
+	 */
+	private final String		hash;
+
+	private ConfluencePageSection(int start, int end, String hash)
+	{
+		this.start = start;
+		this.end = end;
+		this.hash = hash;
+	}
+
+	/**
+	 * Find the section of the release on the page
+	 * @param content page content
+	 * @param release release the section has been generated for
+	 * @return the section or null if the page has no section for the release
+	 */
+	public static ConfluencePageSection find(String content, String release)
+	{
+		String begin = BEGIN_PREFIX + release + "-";
+		for (int i = content.indexOf(begin); i >= 0; i = content.indexOf(begin, i + 1))
+		{
+			// the release might be the prefix of another one, the anchor name must end with the hash
+			int hashStart = i + begin.length();
+			if (hashStart + HASH_LENGTH >= content.length() || content.charAt(hashStart + HASH_LENGTH) != '<' || !isHash(content.substring(hashStart, hashStart + HASH_LENGTH)))
+				continue;
+
+			int start = content.lastIndexOf(MACRO_START, i);
+			int endAnchor = content.indexOf(">" + END_PREFIX + release + "<", hashStart);
+			int end = endAnchor >= 0 ? content.indexOf(MACRO_END, endAnchor) : -1;
+			if (start < 0 || end < 0)
+				continue;
+
+			return new ConfluencePageSection(start, end + MACRO_END.length(), content.substring(hashStart, hashStart + HASH_LENGTH));
+		}
+
+		return null;
+	}
+
+	/**
+	 * @param release release the section is generated for
+	 * @param hash hash of the section content
+	 * @return anchor opening the section
+	 */
+	public static String getBeginMarker(String release, String hash)
+	{
+		return getAnchor(BEGIN_PREFIX + release + "-" + hash);
+	}
+
+	/**
+	 * @param release release the section is generated for
+	 * @return anchor closing the section
+	 */
+	public static String getEndMarker(String release)
+	{
+		return getAnchor(END_PREFIX + release);
+	}
+
+	/**
+	 * @param release release the section is generated for
+	 * @return length of both anchors enclosing the section
+	 */
+	public static int getMarkersLength(String release)
+	{
+		return getBeginMarker(release, "").length() + HASH_LENGTH + getEndMarker(release).length();
+	}
+
+	/**
+	 * @param content buffer holding the section content
+	 * @param start offset of the first character of the section content
+	 * @param end offset of the character following the section content
+	 * @return hash of the section content
+	 */
+	public static String getHash(CharSequence content, int start, int end)
+	{
+		try
+		{
+			MessageDigest md5 = MessageDigest.getInstance("MD5");
+			md5.update(Charset.forName("UTF-8").encode(CharBuffer.wrap(content, start, end)));
+			byte[] digest = md5.digest();
+			StringBuilder hash = new StringBuilder(HASH_LENGTH);
+			for (byte b : digest)
+				hash.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+
+			return hash.toString();
+		}
+		catch (NoSuchAlgorithmException e)
+		{
+			throw new IllegalStateException("MD5 is not available", e);
+		}
+	}
+
+	/**
+	 * @return offset of the first character of the section
+	 */
+	public int getStart()
+	{
+		return start;
+	}
+
+	/**
+	 * @return offset of the character following the section
+	 */
+	public int getEnd()
+	{
+		return end;
+	}
+
+	/**
+	 * @return hash of the section content
+	 */
+	public String getHash()
+	{
+		return hash;
+	}
+
+	/**
+	 * @param name anchor name
+	 * @return anchor macro in CONFLUENCE storage format
+	 */
+	private static String getAnchor(String name)
+	{
+		return MACRO_START + " ac:name=\"anchor\"><ac:parameter ac:name=\"\">" + name + "</ac:parameter>" + MACRO_END;
+	}
+
+	/**
+	 * @param value string to check
+	 * @return true if the string is made of lower case hexadecimal digits
+	 */
+	private static boolean isHash(String value)
+	{
+		for (int i = 0; i < value.length(); i++)
+		{
+			char c = value.charAt(i);
+			if ((c < '0' || c > '9') && (c < 'a' || c > 'f'))
+				return false;
+		}
+
+		return true;
+	}
+}
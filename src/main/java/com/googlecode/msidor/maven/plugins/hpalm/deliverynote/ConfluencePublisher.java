@@ -0,0 +1,426 @@
+/*
+Copyright 2014 Maciej SIDOR [maciejsidor@gmail.com]
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+package com.googlecode.msidor.maven.plugins.hpalm.deliverynote;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Publication of the generated content to CONFLUENCE page.
+ *
+ * <p>
+ * The content is put with the update header under the given keyword, or at the top of page if none is given or found.
+ * With the section markers enabled, the section generated previously for the release is replaced and the page is not updated if the section has not changed.
+ * A table split into shards is put to child pages of the page, the page itself receiving the index of child pages.
+ * </p>
+ *
+ * @author Maciej SIDOR
+ *
+ */
+public class ConfluencePublisher
+{
+	/**
+	 * Maximal count of characters of CONFLUENCE page and HTML content written to debug log
+	 */
+	private static final int	DEBUG_PAYLOAD_LENGTH	= 2000;
+
+	/**
+	 * Data Access Object the pages are updated through
+	 */
+	private final HPALMMojoDAOI	dao;
+
+	/**
+	 * Log of the plugin
+	 */
+	private final Log			log;
+
+	/**
+	 * CONFLUENCE server address
+	 */
+	private final String		server;
+
+	/**
+	 * CONFLUENCE user name
+	 */
+	private final String		user;
+
+	/**
+	 * CONFLUENCE user password
+	 */
+	private final String		password;
+
+	/**
+	 * Identifier of the updated page
+	 */
+	private final String		pageID;
+
+	/**
+	 * Keyword under which the content is put, may be null
+	 */
+	private final String		keyWordForUpdate;
+
+	/**
+	 * Header put before the content
+	 */
+	private final String		updateHeader;
+
+	/**
+	 * True if the content is enclosed in the markers of the release
+	 */
+	private final boolean		skipUnchanged;
+
+	/**
+	 * Release the content is generated for
+	 */
+	private final String		release;
+
+	/**
+	 * Count of child pages retrieved and updated at the same time
+	 */
+	private final int			pagesConcurrency;
+
+	/**
+	 * Default constructor
+	 * @param dao Data Access Object the pages are updated through
+	 * @param log log of the plugin
+	 * @param server CONFLUENCE server address
+	 * @param user CONFLUENCE user name
+	 * @param password CONFLUENCE user password
+	 * @param pageID identifier of the updated page
+	 * @param keyWordForUpdate keyword under which the content is put, may be null
+	 * @param updateHeader header put before the content, may be null
+	 * @param skipUnchanged true if the content is enclosed in the markers of the release and not updated when it has not changed
+	 * @param release release the content is generated for, may be null
+	 * @param pagesConcurrency count of child pages retrieved and updated at the same time
+	 */
+	public ConfluencePublisher(HPALMMojoDAOI dao, Log log, String server, String user, String password, String pageID, String keyWordForUpdate, String updateHeader, boolean skipUnchanged, String release, int pagesConcurrency)
+	{
+		this.dao = dao;
+		this.log = log;
+		this.server = server;
+		this.user = user;
+		this.password = password;
+		this.pageID = pageID;
+		this.keyWordForUpdate = keyWordForUpdate;
+		this.updateHeader = updateHeader != null ? updateHeader : "";
+		this.skipUnchanged = skipUnchanged;
+		this.release = release != null ? release : "";
+		this.pagesConcurrency = pagesConcurrency;
+	}
+
+	/**
+	 * Update confluence page with given content and defined header under the given keyword (or at the top of page in none given)
+	 * @param contentToAdd - writer of the content to put to confluence page
+	 * @throws Exception if error occurred during the confluence page update
+	 */
+	public void updatePage(HTMLContentWriterI contentToAdd) throws Exception
+	{
+		dao.initializeXmlRpcClient(server);
+
+		Object result = dao.authenticateToConfluence(user, password);
+
+		// get the confluence page
+		HashMap<Object, Object> page = dao.getConfluencePage(result, pageID);
+		updatePage(result, page, contentToAdd);
+	}
+
+	/**
+	 * Split the table into child pages of confluence page and put the index of child pages to confluence page, as done by updatePage.
+	 * The child pages are retrieved, then created or updated, through the asynchronous Data Access Object, so the requests overlap.
+	 * The child pages that already contain the same table are not updated.
+	 * The child pages left over from a table split into more pages are emptied, as they are not linked by the index anymore.
+	 * @param tables - writer of the tables to put to child pages
+	 * @throws Exception if error occurred during the confluence pages update
+	 */
+	public void updatePages(ShardedHTMLTableWriter tables) throws Exception
+	{
+		List<StringBuilder> contents = tables.finish();
+
+		dao.initializeXmlRpcClient(server);
+
+		Object result = dao.authenticateToConfluence(user, password);
+
+		// get the confluence page and its current child pages
+		HashMap<Object, Object> page = dao.getConfluencePage(result, pageID);
+		Map<String, String> childPageIDs = new HashMap<String, String>();
+		for (HashMap<Object, Object> childPage : dao.getConfluenceChildPages(result, pageID))
+			childPageIDs.put(String.valueOf(childPage.get("title")), String.valueOf(childPage.get("id")));
+
+		String titlePrefix = page.get("title") + (release.length() > 0 ? " - " + release : "") + " - ";
+		final List<String> titles = new ArrayList<String>(contents.size());
+		for (int i = 0; i < contents.size(); i++)
+			titles.add(titlePrefix + (i + 1));
+
+		List<String> surplusTitles = new ArrayList<String>();
+		for (String title : childPageIDs.keySet())
+		{
+			if (isSurplusChildPage(title, titlePrefix, contents.size()))
+				surplusTitles.add(title);
+		}
+
+		ExecutorAsyncHPALMMojoDAO asyncDao = new ExecutorAsyncHPALMMojoDAO(dao, pagesConcurrency);
+		try
+		{
+			// retrieve the existing child pages
+			List<Future<HashMap<Object, Object>>> childPages = new ArrayList<Future<HashMap<Object, Object>>>(contents.size());
+			for (String title : titles)
+			{
+				String childPageID = childPageIDs.get(title);
+				childPages.add(childPageID != null ? asyncDao.getConfluencePage(result, childPageID) : null);
+			}
+			List<Future<HashMap<Object, Object>>> surplusPages = new ArrayList<Future<HashMap<Object, Object>>>(surplusTitles.size());
+			for (String title : surplusTitles)
+				surplusPages.add(asyncDao.getConfluencePage(result, childPageIDs.get(title)));
+
+			// create or update the child pages which content has changed
+			List<Future<?>> stores = new ArrayList<Future<?>>(contents.size());
+			for (int i = 0; i < contents.size(); i++)
+			{
+				HashMap<Object, Object> childPage = childPages.get(i) != null ? await(childPages.get(i)) : null;
+				Future<?> store = storeChildPage(asyncDao, result, page, childPage, titles.get(i), contents.get(i));
+				if (store != null)
+					stores.add(store);
+			}
+
+			int countOfUpdates = stores.size();
+
+			// empty the surplus child pages, unless already done by a previous execution
+			for (int i = 0; i < surplusTitles.size(); i++)
+			{
+				Future<?> store = storeChildPage(asyncDao, result, page, await(surplusPages.get(i)), surplusTitles.get(i), new StringBuilder());
+				if (store != null)
+					stores.add(store);
+			}
+
+			for (Future<?> store : stores)
+				await(store);
+
+			log.info(countOfUpdates + " of " + contents.size() + " CONFLUENCE child pages created or updated, the others are up to date");
+			if (stores.size() > countOfUpdates)
+				log.info((stores.size() - countOfUpdates) + " surplus CONFLUENCE child pages emptied");
+		}
+		finally
+		{
+			asyncDao.close();
+		}
+
+		// put the index of child pages to the confluence page
+		final int rowsPerPage = tables.getRowsPerTable();
+		final int rows = tables.getTotalRows();
+		updatePage(result, page, new HTMLContentWriterI()
+		{
+			public int getEstimatedLength()
+			{
+				return titles.size() * (100 + (titles.isEmpty() ? 0 : titles.get(0).length()));
+			}
+
+			public void writeContent(StringBuilder html)
+			{
+				html.append("<ul>");
+				for (int i = 0; i < titles.size(); i++)
+				{
+					html.append("<li><ac:link><ri:page ri:content-title=\"");
+					HTMLTableWriter.appendEscaped(html, titles.get(i));
+					html.append("\" /></ac:link> (").append(Math.min(rows, i * rowsPerPage + 1)).append(" - ").append(Math.min(rows, (i + 1) * rowsPerPage)).append(")</li>");
+				}
+				html.append("</ul>");
+			}
+		});
+	}
+
+	/**
+	 * Start creating or updating child page of confluence page with the table, enclosed in the markers of the release.
+	 * The existing page is not updated if it already contains the same table.
+	 * @param asyncDao - asynchronous Data Access Object
+	 * @param result - confluence session authentication object
+	 * @param parentPage - confluence page
+	 * @param childPage - the child page or null if it does not exist yet
+	 * @param title - title of the child page
+	 * @param table - the table to put to the child page
+	 * @return completion of the creation or the update, null if the page is up to date
+	 */
+	private Future<?> storeChildPage(AsyncHPALMMojoDAOI asyncDao, Object result, HashMap<Object, Object> parentPage, HashMap<Object, Object> childPage, String title, StringBuilder table)
+	{
+		String hash = ConfluencePageSection.getHash(table, 0, table.length());
+		StringBuilder content = new StringBuilder(table.length() + ConfluencePageSection.getMarkersLength(release));
+		content.append(ConfluencePageSection.getBeginMarker(release, hash)).append(table).append(ConfluencePageSection.getEndMarker(release));
+
+		if (childPage != null)
+		{
+			String currentContent = (String) childPage.get("content");
+			ConfluencePageSection section = currentContent != null ? ConfluencePageSection.find(currentContent, release) : null;
+			if (section != null && hash.equals(section.getHash()))
+			{
+				log.debug("CONFLUENCE page " + title + " is up to date");
+				return null;
+			}
+
+			log.debug("Updating CONFLUENCE page " + title);
+			childPage.put("content", content.toString());
+			return asyncDao.updateConfluencePage(result, childPage, new HashMap<Object, Object>());
+		}
+
+		log.debug("Creating CONFLUENCE page " + title);
+		HashMap<Object, Object> page = new HashMap<Object, Object>();
+		page.put("space", parentPage.get("space"));
+		page.put("parentId", pageID);
+		page.put("title", title);
+		page.put("content", content.toString());
+		return asyncDao.storeConfluencePage(result, page);
+	}
+
+	/**
+	 * @param title - title of the child page
+	 * @param titlePrefix - title of the child pages of the release without their number
+	 * @param countOfPages - count of child pages of the table
+	 * @return true if the child page belongs to the release but its number is beyond the child pages of the table
+	 */
+	private static boolean isSurplusChildPage(String title, String titlePrefix, int countOfPages)
+	{
+		if (!title.startsWith(titlePrefix))
+			return false;
+
+		try
+		{
+			return Integer.parseInt(title.substring(titlePrefix.length())) > countOfPages;
+		}
+		catch (NumberFormatException e)
+		{
+			return false;
+		}
+	}
+
+	/**
+	 * Wait for the completion of asynchronous command
+	 * @param future - completion of the command
+	 * @return result of the command
+	 * @throws Exception the exception the command failed with
+	 */
+	private static <T> T await(Future<T> future) throws Exception
+	{
+		try
+		{
+			return future.get();
+		}
+		catch (ExecutionException e)
+		{
+			if (e.getCause() instanceof Exception)
+				throw (Exception) e.getCause();
+			throw e;
+		}
+	}
+
+	/**
+	 * Update the confluence page with given content and defined header under the given keyword (or at the top of page in none given)
+	 * @param result - confluence session authentication object
+	 * @param page - the confluence page
+	 * @param contentToAdd - writer of the content to put to confluence page
+	 * @throws Exception if error occurred during the confluence page update
+	 */
+	private void updatePage(Object result, HashMap<Object, Object> page, HTMLContentWriterI contentToAdd) throws Exception
+	{
+		if (log.isDebugEnabled())
+		{
+			String currentPage = page.toString();
+			log.debug("Current CONFLUENCE page: " + abbreviate(currentPage, 0, currentPage.length()));
+		}
+
+		// try to find the keyword under which the content will be put, by default it is put at the top of page
+		String content = (String) page.get("content");
+		int start = 0;
+		int end = 0;
+
+		if (keyWordForUpdate != null)
+		{
+			int i = content.indexOf(keyWordForUpdate);
+			//if keyword was found
+			if (i >= 0)
+				start = end = i + keyWordForUpdate.length();
+		}
+
+		//if the section of the release was found it is replaced
+		ConfluencePageSection section = null;
+		if (skipUnchanged)
+		{
+			section = ConfluencePageSection.find(content, release);
+			if (section != null)
+			{
+				start = section.getStart();
+				end = section.getEnd();
+			}
+		}
+
+		// the content is written straight into the new page, the buffer is sized for the page not to be copied while it grows
+		int markersLength = skipUnchanged ? ConfluencePageSection.getMarkersLength(release) : 0;
+		StringBuilder html = new StringBuilder(content.length() - (end - start) + markersLength + updateHeader.length() + contentToAdd.getEstimatedLength());
+		html.append(content, 0, start);
+		int sectionStart = html.length();
+		html.append(updateHeader);
+		int contentStart = html.length();
+		contentToAdd.writeContent(html);
+
+		if (log.isDebugEnabled())
+			log.debug("Generated HTML code: " + abbreviate(html, contentStart, html.length()));
+
+		if (skipUnchanged)
+		{
+			String hash = ConfluencePageSection.getHash(html, sectionStart, html.length());
+			if (section != null && hash.equals(section.getHash()))
+			{
+				log.info("CONFLUENCE page already contains the same content for release " + release + ", no update needed");
+				return;
+			}
+
+			if (section != null)
+				log.info("Replacing the section of CONFLUENCE page generated previously for the release");
+
+			html.append(ConfluencePageSection.getEndMarker(release));
+			html.insert(sectionStart, ConfluencePageSection.getBeginMarker(release, hash));
+		}
+
+		html.append(content, end, content.length());
+		content = html.toString();
+
+		if (log.isDebugEnabled())
+			log.debug("and the new content: " + abbreviate(content, 0, content.length()));
+
+		// update confluence page
+		page.put("content", content);
+		HashMap<Object, Object> pageUpdateOptions = new HashMap<Object, Object>();
+		dao.updateConfluencePage(result, page, pageUpdateOptions);
+	}
+
+	/**
+	 * Abbreviate the payload written to debug log
+	 * @param payload payload
+	 * @param start offset of the first character to log
+	 * @param end offset of the character following the last one to log
+	 * @return at most DEBUG_PAYLOAD_LENGTH characters of the payload, followed by the count of characters omitted
+	 */
+	private static String abbreviate(CharSequence payload, int start, int end)
+	{
+		if (end - start <= DEBUG_PAYLOAD_LENGTH)
+			return payload.subSequence(start, end).toString();
+
+		return payload.subSequence(start, start + DEBUG_PAYLOAD_LENGTH) + "... (" + (end - start - DEBUG_PAYLOAD_LENGTH) + " more characters)";
+	}
+}
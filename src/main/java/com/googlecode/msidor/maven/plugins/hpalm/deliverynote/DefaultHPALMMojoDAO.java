@@ -16,15 +16,19 @@ limitations under the License.
 package com.googlecode.msidor.maven.plugins.hpalm.deliverynote;
 
 import java.io.BufferedReader;
+import java.io.Closeable;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.Reader;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 
 import org.apache.maven.plugin.MojoFailureException;
 import org.apache.xmlrpc.XmlRpcException;
@@ -41,13 +45,28 @@ import sun.misc.BASE64Encoder;
  *
  */
 @SuppressWarnings("restriction")
-public class DefaultHPALMMojoDAO implements HPALMMojoDAOI
+public class DefaultHPALMMojoDAO implements StreamingHPALMMojoDAOI
 {
+	/**
+	 * Count of characters of the error content kept in the failure details
+	 */
+	private static final int ERROR_CONTENT_LENGTH = 1024;
+
 	/**
 	 * The RPC client for connecting to Confluence
 	 */
 	private XmlRpcClient client;
 
+	/**
+	 * Statistics of data received from HP ALM
+	 */
+	private final TransferStatistics transferStatistics = new TransferStatistics();
+
+	/**
+	 * True if compressed responses are accepted from HP ALM
+	 */
+	private boolean compression = true;
+
 	/**
 	 * Default contructor
 	 */
@@ -83,6 +102,42 @@ public class DefaultHPALMMojoDAO implements HPALMMojoDAOI
 		return page;
 	}
 
+	/**
+	 * Retrieves the child pages of Confluence page
+	 * @param cookie Confluence session authentication object
+	 * @param confluencePageID CID of the parent Confluence page
+	 * @return summaries of the child pages (id, title, parentId, space, url)
+	 * @throws XmlRpcException
+	 */
+	@Override
+	public List<HashMap<Object, Object>> getConfluenceChildPages(Object cookie, String confluencePageID) throws XmlRpcException
+	{
+		Object[] children = (Object[]) client.execute("confluence2.getChildren", new Object[] { cookie, confluencePageID });
+		List<HashMap<Object, Object>> pages = new ArrayList<HashMap<Object, Object>>(children.length);
+		for (Object child : children)
+		{
+			@SuppressWarnings("unchecked")
+			HashMap<Object, Object> page = (HashMap<Object, Object>) child;
+			pages.add(page);
+		}
+		return pages;
+	}
+
+	/**
+	 * Stores Confluence page, the page is created if it has no id
+	 * @param cookie Confluence session authentication object
+	 * @param page Confluence page content, new page requires space, title, parentId and content
+	 * @return stored Confluence page
+	 * @throws XmlRpcException
+	 */
+	@Override
+	public HashMap<Object, Object> storeConfluencePage(Object cookie, HashMap<Object, Object> page) throws XmlRpcException
+	{
+		@SuppressWarnings("unchecked")
+		HashMap<Object, Object> storedPage = (HashMap<Object, Object>) client.execute("confluence2.storePage", new Object[] { cookie, page });
+		return storedPage;
+	}
+
 	/**
 	 * Authenticates to Confluence
 	 * @param confleunceUser Confluence user
@@ -129,6 +184,27 @@ public class DefaultHPALMMojoDAO implements HPALMMojoDAOI
 	 */
 	@Override
 	public String putToHPALM(String targetURL, String urlParameters, String cookie) throws MojoFailureException
+	{
+		return putToHPALM(targetURL, urlParameters, CONTENT_TYPE_XML, cookie);
+	}
+
+	/**
+	 * Send content of given type to target URL via PUT method
+	 * 
+	 * @param targetURL
+	 *            - target to send the content to
+	 * @param urlParameters
+	 *            - the content to be sent
+	 * @param contentType
+	 *            - type of the content to be sent
+	 * @param cookie
+	 *            - cookie to be set in Cookie header file
+	 * @return response from the target URL
+	 * @throws MojoFailureException
+	 *             if server responded with code different than 200
+	 */
+	@Override
+	public String putToHPALM(String targetURL, String urlParameters, String contentType, String cookie) throws MojoFailureException
 	{
 		HttpURLConnection connection = null;
 		MojoFailureException exceptionToThrow = null;
@@ -144,10 +220,11 @@ public class DefaultHPALMMojoDAO implements HPALMMojoDAOI
 			connection.setRequestMethod("PUT");
 
 			// set the header parameters
-			connection.setRequestProperty("Content-Type", "application/xml");
+			connection.setRequestProperty("Content-Type", contentType);
 			connection.setRequestProperty("Content-Length", "" + Integer.toString(urlParameters.getBytes().length));
 			connection.setRequestProperty("Content-Language", "en-US");
 			connection.setRequestProperty("Accept", "application/xml");
+			if (compression) connection.setRequestProperty("Accept-Encoding", TransferStatistics.ACCEPT_ENCODING);
 
 			// set the cookie if one has been given
 			if (cookie != null) connection.setRequestProperty("Cookie", cookie);
@@ -164,7 +241,7 @@ public class DefaultHPALMMojoDAO implements HPALMMojoDAOI
 
 			// Get Response
 			StringBuffer response = new StringBuffer();
-			InputStream is = connection.getInputStream();
+			InputStream is = transferStatistics.decode(connection.getInputStream(), connection.getContentEncoding());
 
 			// parse response
 			BufferedReader rd = new BufferedReader(new InputStreamReader(is));
@@ -183,11 +260,13 @@ public class DefaultHPALMMojoDAO implements HPALMMojoDAOI
 		catch (Exception e)
 		{
 			String detailInfo = null;
+			int responseCode = -1;
 
 			// in case of exception try to obtain more information
 			if (connection != null) try
 			{
-				detailInfo = "Response code: " + connection.getResponseCode();
+				responseCode = connection.getResponseCode();
+				detailInfo = "Response code: " + responseCode;
 				detailInfo += "; Response message: " + connection.getResponseMessage();
 			}
 			catch (IOException eInternal)
@@ -195,7 +274,7 @@ public class DefaultHPALMMojoDAO implements HPALMMojoDAOI
 			}
 
 			// prepare the exception to be thrown after the connection disposal
-			exceptionToThrow = new MojoFailureException(e, "Error occurced while posting data to HP ALM", "Error occurced while posting data to HP ALM: " + (detailInfo != null ? detailInfo : e.getMessage()));
+			exceptionToThrow = new HPALMResponseException(e, "Error occurced while posting data to HP ALM", "Error occurced while posting data to HP ALM: " + (detailInfo != null ? detailInfo : e.getMessage()), responseCode);
 		}
 		finally
 		{
@@ -224,10 +303,44 @@ public class DefaultHPALMMojoDAO implements HPALMMojoDAOI
 	 */
 	@Override
 	public String getFromHPALM(String targetURL, String cookie) throws MojoFailureException
+	{
+		final StringBuffer response = new StringBuffer();
+
+		getFromHPALM(targetURL, cookie, new HPALMResponseHandlerI()
+		{
+			public void handleResponse(InputStream is) throws Exception
+			{
+				BufferedReader rd = new BufferedReader(new InputStreamReader(is,Charset.forName( "UTF-8" )));
+				String line;
+				while ((line = rd.readLine()) != null)
+				{
+					response.append(line);
+					response.append('\r');
+				}
+			}
+		});
+
+		return response.toString();
+	}
+
+	/**
+	 * Get the content from target URL via GET method and pass it to the handler while it is received
+	 * 
+	 * @param targetURL
+	 *            - target to get the content from
+	 * @param cookie
+	 *            - cookie to be set in Cookie header file
+	 * @param handler
+	 *            - receiver of the response content
+	 * @throws MojoFailureException
+	 *             if server responded with code different than 200 or if the handler failed
+	 */
+	@Override
+	public void getFromHPALM(String targetURL, String cookie, HPALMResponseHandlerI handler) throws MojoFailureException
 	{
 		HttpURLConnection connection = null;
 		MojoFailureException exceptionToThrow = null;
-		String resultToReturn = null;
+		boolean responseReceived = false;
 
 		try
 		{
@@ -242,6 +355,7 @@ public class DefaultHPALMMojoDAO implements HPALMMojoDAOI
 			connection.setRequestProperty("Accept", "application/xml");
 			connection.setRequestProperty("Accept-Charset", "UTF-8");
 			connection.setRequestProperty("Content-Type", "application/x-www-form-urlencoded;charset=utf-8");
+			if (compression) connection.setRequestProperty("Accept-Encoding", TransferStatistics.ACCEPT_ENCODING);
 
 			// set the cookie if one has been given
 			if (cookie != null) connection.setRequestProperty("Cookie", cookie);
@@ -251,41 +365,56 @@ public class DefaultHPALMMojoDAO implements HPALMMojoDAOI
 			connection.setDoInput(true);
 			connection.setDoOutput(true);
 
+			// the request may be aborted from another thread by closing its connection
+			final HttpURLConnection abortableConnection = connection;
+			HPALMRequestHandle.connectionOpened(new Closeable()
+			{
+				public void close()
+				{
+					abortableConnection.disconnect();
+				}
+			});
+
 			// Get Response
-			StringBuffer response = new StringBuffer();
-			InputStream is = connection.getInputStream();
-			BufferedReader rd = new BufferedReader(new InputStreamReader(is,Charset.forName( "UTF-8" )));
-			String line;
-			while ((line = rd.readLine()) != null)
+			InputStream is = transferStatistics.decode(connection.getInputStream(), connection.getContentEncoding());
+			responseReceived = true;
+			try
 			{
-				response.append(line);
-				response.append('\r');
+				handler.handleResponse(is);
+			}
+			finally
+			{
+				is.close();
 			}
-			rd.close();
-
-			resultToReturn = response.toString();
 
 		}
 		// try to gently close the connection
 		catch (Exception e)
 		{
 			String detailInfo = null;
+			int responseCode = -1;
 
-			// in case of exception try to obtain more information
-			if (connection != null) try
+			// in case of exception try to obtain more information, a response that failed while being read (e.g. connection reset) has no meaningful code
+			// and the connection of an aborted request must not be used anymore
+			if (connection != null && !responseReceived && !HPALMRequestHandle.isCurrentRequestAborted()) try
 			{
-				detailInfo = "Response code: " + connection.getResponseCode();
+				responseCode = connection.getResponseCode();
+				detailInfo = "Response code: " + responseCode;
 				detailInfo += "; Response message: " + connection.getResponseMessage();
+
+				String errorContent = readErrorContent(connection.getErrorStream(), connection.getContentEncoding());
+				if (errorContent != null) detailInfo += "; Response content: " + errorContent;
 			}
 			catch (IOException eInternal)
 			{/* ignore */
 			}
 
 			// prepare the exception to be thrown after the connection disposal
-			exceptionToThrow = new MojoFailureException(e, "Error occurced while retrieving data from HP ALM", "Error occurced while retrieving data from HP ALM: " + (detailInfo != null ? detailInfo : e.getMessage()));
+			exceptionToThrow = new HPALMResponseException(e, "Error occurced while retrieving data from HP ALM", "Error occurced while retrieving data from HP ALM: " + (detailInfo != null ? detailInfo : e.getMessage()), responseCode);
 		}
 		finally
 		{
+			HPALMRequestHandle.connectionClosed();
 
 			if (connection != null)
 			{
@@ -294,8 +423,67 @@ public class DefaultHPALMMojoDAO implements HPALMMojoDAOI
 		}
 
 		if (exceptionToThrow != null) throw exceptionToThrow;
+	}
 
-		return resultToReturn;
+	/**
+	 * Read the beginning of the error content, HP ALM explains there why the request has been rejected
+	 * 
+	 * @param content
+	 *            - error content sent by the server, may be null
+	 * @param contentEncoding
+	 *            - encoding of the error content
+	 * @return the first characters of the error content or null if there is none or it could not be read
+	 */
+	protected String readErrorContent(InputStream content, String contentEncoding)
+	{
+		if (content == null) return null;
+
+		try
+		{
+			Reader reader = new InputStreamReader(transferStatistics.decode(content, contentEncoding), Charset.forName("UTF-8"));
+			try
+			{
+				char[] buffer = new char[ERROR_CONTENT_LENGTH];
+				int length = 0;
+				int read;
+				while (length < buffer.length && (read = reader.read(buffer, length, buffer.length - length)) > 0)
+					length += read;
+
+				return length > 0 ? new String(buffer, 0, length) : null;
+			}
+			finally
+			{
+				reader.close();
+			}
+		}
+		catch (IOException e)
+		{
+			return null;
+		}
+	}
+
+	/**
+	 * @return statistics of data received from HP ALM
+	 */
+	public TransferStatistics getTransferStatistics()
+	{
+		return transferStatistics;
+	}
+
+	/**
+	 * @return true if compressed responses are accepted from HP ALM
+	 */
+	public boolean isCompression()
+	{
+		return compression;
+	}
+
+	/**
+	 * @param compression true to accept compressed responses from HP ALM
+	 */
+	public void setCompression(boolean compression)
+	{
+		this.compression = compression;
 	}
 
 	/**
@@ -346,8 +534,10 @@ public class DefaultHPALMMojoDAO implements HPALMMojoDAOI
 			connection.setDoInput(true);
 			connection.setDoOutput(true);
 
-			// Get Response
-			connection.getResponseCode();
+			// Get Response, a rejected login must not be taken for a session
+			int responseCode = connection.getResponseCode();
+			if (responseCode < 200 || responseCode >= 300)
+				throw new IOException("Server returned HTTP response code: " + responseCode + " for URL: " + url);
 			resultToReturn = connection.getHeaderField("Set-Cookie");
 
 		}
@@ -355,11 +545,13 @@ public class DefaultHPALMMojoDAO implements HPALMMojoDAOI
 		catch (Exception e)
 		{
 			String detailInfo = null;
+			int responseCode = -1;
 
 			// in case of exception try to obtain more information
 			if (connection != null) try
 			{
-				detailInfo = "Response code: " + connection.getResponseCode();
+				responseCode = connection.getResponseCode();
+				detailInfo = "Response code: " + responseCode;
 				detailInfo += "; Response message: " + connection.getResponseMessage();
 			}
 			catch (IOException eInternal)
@@ -367,7 +559,7 @@ public class DefaultHPALMMojoDAO implements HPALMMojoDAOI
 			}
 
 			// prepare the exception to be thrown after the connection disposal
-			exceptionToThrow = new MojoFailureException(e, "Error occurced while authenticating to HP ALM", "Error occurced while retrieving authenticating to HP ALM: " + (detailInfo != null ? detailInfo : e.getMessage()));
+			exceptionToThrow = new HPALMResponseException(e, "Error occurced while authenticating to HP ALM", "Error occurced while retrieving authenticating to HP ALM: " + (detailInfo != null ? detailInfo : e.getMessage()), responseCode);
 		}
 		finally
 		{
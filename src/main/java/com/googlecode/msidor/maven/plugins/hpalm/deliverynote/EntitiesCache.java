@@ -0,0 +1,118 @@
+/*
+Copyright 2014 Maciej SIDOR [maciejsidor@gmail.com]
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+package com.googlecode.msidor.maven.plugins.hpalm.deliverynote;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import javax.xml.bind.annotation.XmlAttribute;
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlRootElement;
+
+/**
+ * @author Maciej SIDOR
+ *
+ * JAXB object representing the local cache of HP ALM query result used by incremental retrieval.
+ * The entities are stored with their raw fields, as retrieved from HP ALM.
+ */
+@XmlRootElement(name="EntitiesCache")
+public class EntitiesCache
+{
+	/**
+	 * Name of HP ALM field holding the time of the last modification of entity
+	 */
+	public static final String LAST_MODIFIED_FIELD = "last-modified";
+
+	@XmlAttribute(name="LastModified")
+	public String lastModified = null;
+
+	@XmlElement(name="Entity")
+	public List<Entity> entities = new ArrayList<Entity>();
+
+	/**
+	 * JAXB context of the cache
+	 */
+	private static JAXBContext context = null;
+
+	/**
+	 * Read the cache from file
+	 * @param file cache file
+	 * @return the cache or null if the file does not exist
+	 * @throws JAXBException if the file could not be read
+	 */
+	public static EntitiesCache load(File file) throws JAXBException
+	{
+		if ( !file.exists() )
+		    return null;
+
+		return (EntitiesCache) getContext().createUnmarshaller().unmarshal( file );
+	}
+
+	/**
+	 * Write the cache to file
+	 * @param file cache file
+	 * @throws JAXBException if the cache could not be written
+	 * @throws IOException if the directory of the file could not be created
+	 */
+	public void save(File file) throws JAXBException, IOException
+	{
+		if ( file.getParentFile() != null && !file.getParentFile().exists() && !file.getParentFile().mkdirs() )
+		    throw new IOException( "Could not create directory " + file.getParentFile() );
+
+		// write to temporary file first so the previous cache is not lost if the build is interrupted
+		File tmp = new File( file.getPath() + ".tmp" );
+		Marshaller marshaller = getContext().createMarshaller();
+		marshaller.setProperty( Marshaller.JAXB_ENCODING, "UTF-8" );
+		marshaller.marshal( this, tmp );
+
+		if ( ( file.exists() && !file.delete() ) || !tmp.renameTo( file ) )
+		    throw new IOException( "Could not replace " + file );
+	}
+
+	/**
+	 * Keep the latest modification time of the entity
+	 * @param entity entity retrieved from HP ALM
+	 */
+	public void updateLastModified(Entity entity)
+	{
+		if ( entity.fields != null ) for ( Field field : entity.fields )
+		{
+		    if ( LAST_MODIFIED_FIELD.equals( field.name ) && field.value != null )
+		    {
+		        // HP ALM dates (yyyy-MM-dd HH:mm:ss) are ordered lexicographically
+		        if ( lastModified == null || field.value.compareTo( lastModified ) > 0 )
+		            lastModified = field.value;
+		    }
+		}
+	}
+
+	/**
+	 * @return JAXB context of the cache
+	 * @throws JAXBException if the context could not be created
+	 */
+	private static synchronized JAXBContext getContext() throws JAXBException
+	{
+		if ( context == null )
+		    context = JAXBContext.newInstance( EntitiesCache.class );
+
+		return context;
+	}
+}
@@ -0,0 +1,412 @@
+/*
+Copyright 2014 Maciej SIDOR [maciejsidor@gmail.com]
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+package com.googlecode.msidor.maven.plugins.hpalm.deliverynote;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Columnar representation of HP ALM query result.
+ *
+ * <p>
+ * Each field name is stored once, as a column, and each entity is a row index.
+ * The values of low cardinality columns (e.g. status, severity, owner) are encoded as references to a dictionary of distinct values,
+ * the columns with too many distinct values (e.g. id, name) keep the values as they are.
+ * The attributes computed by the plugin (id, dev, desc, dueTo and change type) are stored the same way.
+ * </p>
+ *
+ * <p>
+ * The columns are looked up ignoring case and the last field wins if an entity has several fields with the same name,
+ * like the lookups on Entity. The store is filled through EntityHandlerI, so the entities may be encoded as soon as they are parsed.
+ * </p>
+ *
+ * @author Maciej SIDOR
+ *
+ */
+public class EntitiesColumnStore implements EntityHandlerI
+{
+	/**
+	 * Count of distinct values above which the column is not dictionary encoded anymore
+	 */
+	public static final int				MAX_DICTIONARY_SIZE	= 1024;
+
+	/**
+	 * Estimated size of object header and reference (in bytes), used to compare the memory footprints
+	 */
+	private static final int			OBJECT_SIZE			= 16;
+
+	private static final int			REFERENCE_SIZE		= 4;
+
+	/**
+	 * Columns per field name in lower case, in the order of the first appearance
+	 */
+	private final Map<String, Column>	columns				= new LinkedHashMap<String, Column>();
+
+	private final Column				ids					= new Column("id");
+
+	private final Column				devs				= new Column("dev");
+
+	private final Column				descs				= new Column("desc");
+
+	private final Column				dueTos				= new Column("dueTo");
+
+	private final Column				changeTypes			= new Column("changeType");
+
+	/**
+	 * Count of entities
+	 */
+	private int							size				= 0;
+
+	/**
+	 * Estimated memory footprint of the entities added, as Entity and Field objects (in bytes)
+	 */
+	private long						entitiesFootprint	= 0;
+
+	/**
+	 * Add the entity as the next row
+	 * @param entity entity processed by the plugin
+	 */
+	public void handleEntity(Entity entity)
+	{
+		int row = size++;
+
+		ids.set(row, entity.id);
+		devs.set(row, entity.dev);
+		descs.set(row, entity.desc);
+		dueTos.set(row, entity.dueTo);
+		changeTypes.set(row, entity.changeType);
+
+		entitiesFootprint += 5 * OBJECT_SIZE + 6 * REFERENCE_SIZE;
+		if (entity.fields != null)
+		{
+			entitiesFootprint += entity.fields.size() * (OBJECT_SIZE + 3 * REFERENCE_SIZE);
+			for (Field field : entity.fields)
+			{
+				if (field.name == null)
+					continue;
+
+				entitiesFootprint += getFootprint(field.name) + getFootprint(field.value);
+
+				String key = field.name.toLowerCase(Locale.ENGLISH);
+				Column column = columns.get(key);
+				if (column == null)
+				{
+					column = new Column(key);
+					columns.put(key, column);
+				}
+				column.set(row, field.value);
+			}
+		}
+	}
+
+	/**
+	 * Release the unused capacity, to be called once all the entities have been added
+	 */
+	public void trim()
+	{
+		for (Column column : columns.values())
+			column.trim(size);
+
+		ids.trim(size);
+		devs.trim(size);
+		descs.trim(size);
+		dueTos.trim(size);
+		changeTypes.trim(size);
+	}
+
+	/**
+	 * @return count of entities
+	 */
+	public int size()
+	{
+		return size;
+	}
+
+	/**
+	 * @param name field name, case is ignored
+	 * @return column of the field or null if no entity has such field
+	 */
+	public Column getColumn(String name)
+	{
+		return name != null ? columns.get(name.toLowerCase(Locale.ENGLISH)) : null;
+	}
+
+	public String getId(int row)
+	{
+		return ids.get(row);
+	}
+
+	public String getDev(int row)
+	{
+		return devs.get(row);
+	}
+
+	public String getDesc(int row)
+	{
+		return descs.get(row);
+	}
+
+	public String getDueTo(int row)
+	{
+		return dueTos.get(row);
+	}
+
+	public String getChangeType(int row)
+	{
+		return changeTypes.get(row);
+	}
+
+	/**
+	 * @return entities holding only their identifier, as needed by HP ALM update
+	 */
+	public List<Entity> getEntitiesToUpdate()
+	{
+		List<Entity> entities = new ArrayList<Entity>(size);
+		for (int row = 0; row < size; row++)
+		{
+			Entity entity = new Entity();
+			entity.id = ids.get(row);
+			entities.add(entity);
+		}
+
+		return entities;
+	}
+
+	/**
+	 * @return estimated memory footprint of the entities added, as Entity and Field objects (in bytes)
+	 */
+	public long getEntitiesFootprint()
+	{
+		return entitiesFootprint;
+	}
+
+	/**
+	 * @return estimated memory footprint of the store (in bytes)
+	 */
+	public long getFootprint()
+	{
+		long footprint = OBJECT_SIZE;
+		for (Column column : columns.values())
+			footprint += column.getFootprint();
+
+		return footprint + ids.getFootprint() + devs.getFootprint() + descs.getFootprint() + dueTos.getFootprint() + changeTypes.getFootprint();
+	}
+
+	@Override
+	public String toString()
+	{
+		int encoded = 0;
+		for (Column column : columns.values())
+			if (column.isEncoded())
+				encoded++;
+
+		return "Columnar store: " + size + " entities, " + columns.size() + " columns (" + encoded + " dictionary encoded), ~" + (getFootprint() / 1024) + " KB instead of ~" + (entitiesFootprint / 1024)
+				+ " KB as entities";
+	}
+
+	/**
+	 * @param value string
+	 * @return estimated memory footprint of the string (in bytes)
+	 */
+	private static long getFootprint(String value)
+	{
+		return value == null ? 0 : 2 * OBJECT_SIZE + 8 + 2 * value.length();
+	}
+
+	/**
+	 * Values of single field for all the entities
+	 */
+	public static class Column
+	{
+		/**
+		 * Dictionary reference of null value
+		 */
+		private static final int		NULL		= -1;
+
+		/**
+		 * Field name
+		 */
+		private final String			name;
+
+		/**
+		 * Rows having the field, even with null value
+		 */
+		private final BitSet			present		= new BitSet();
+
+		/**
+		 * Dictionary reference of the value of each row, null once the column is not encoded anymore
+		 */
+		private int[]					codes		= new int[16];
+
+		/**
+		 * Distinct values in reference order
+		 */
+		private List<String>			dictionary	= new ArrayList<String>();
+
+		/**
+		 * Dictionary reference per value, only used while the column is filled
+		 */
+		private Map<String, Integer>	references	= new HashMap<String, Integer>();
+
+		/**
+		 * Value of each row, used once the column has too many distinct values to be encoded
+		 */
+		private String[]				values		= null;
+
+		Column(String name)
+		{
+			this.name = name;
+		}
+
+		/**
+		 * @return field name in lower case
+		 */
+		public String getName()
+		{
+			return name;
+		}
+
+		/**
+		 * @return true if the values are dictionary encoded
+		 */
+		public boolean isEncoded()
+		{
+			return codes != null;
+		}
+
+		/**
+		 * @param row row index
+		 * @return true if the entity has the field, even with null value
+		 */
+		public boolean has(int row)
+		{
+			return present.get(row);
+		}
+
+		/**
+		 * @param row row index
+		 * @return value of the field or null if the entity has no such field
+		 */
+		public String get(int row)
+		{
+			if (!present.get(row))
+				return null;
+
+			if (codes == null)
+				return values[row];
+
+			int code = codes[row];
+			return code == NULL ? null : dictionary.get(code);
+		}
+
+		/**
+		 * @param row row index
+		 * @param value value of the field
+		 */
+		void set(int row, String value)
+		{
+			if (codes != null)
+			{
+				Integer code = value != null ? references.get(value) : Integer.valueOf(NULL);
+				if (code == null)
+				{
+					if (dictionary.size() >= MAX_DICTIONARY_SIZE)
+					{
+						decode();
+						set(row, value);
+						return;
+					}
+
+					code = Integer.valueOf(dictionary.size());
+					references.put(value, code);
+					dictionary.add(value);
+				}
+
+				if (row >= codes.length)
+					codes = Arrays.copyOf(codes, Math.max(row + 1, codes.length * 2));
+				codes[row] = code.intValue();
+			}
+			else
+			{
+				if (row >= values.length)
+					values = Arrays.copyOf(values, Math.max(row + 1, values.length * 2));
+				values[row] = value;
+			}
+
+			present.set(row);
+		}
+
+		/**
+		 * Stop dictionary encoding, the values are stored as they are
+		 */
+		private void decode()
+		{
+			values = new String[codes.length];
+			for (int row = present.nextSetBit(0); row >= 0; row = present.nextSetBit(row + 1))
+				values[row] = codes[row] == NULL ? null : dictionary.get(codes[row]);
+
+			codes = null;
+			dictionary = null;
+			references = null;
+		}
+
+		/**
+		 * Release the unused capacity
+		 * @param size count of rows
+		 */
+		void trim(int size)
+		{
+			references = null;
+			if (codes != null)
+			{
+				codes = Arrays.copyOf(codes, size);
+				dictionary = new ArrayList<String>(dictionary);
+			}
+			else
+			{
+				values = Arrays.copyOf(values, size);
+			}
+		}
+
+		/**
+		 * @return estimated memory footprint of the column (in bytes)
+		 */
+		long getFootprint()
+		{
+			long footprint = 3 * OBJECT_SIZE + present.size() / 8;
+			if (codes != null)
+			{
+				footprint += OBJECT_SIZE + 4L * codes.length + OBJECT_SIZE + REFERENCE_SIZE * dictionary.size();
+				for (String value : dictionary)
+					footprint += EntitiesColumnStore.getFootprint(value);
+			}
+			else
+			{
+				footprint += OBJECT_SIZE + REFERENCE_SIZE * values.length;
+				for (String value : values)
+					footprint += EntitiesColumnStore.getFootprint(value);
+			}
+
+			return footprint;
+		}
+	}
+}
@@ -0,0 +1,49 @@
+/*
+Copyright 2014 Maciej SIDOR [maciejsidor@gmail.com]
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+package com.googlecode.msidor.maven.plugins.hpalm.deliverynote;
+
+import java.io.InputStream;
+import java.io.Reader;
+
+/**
+ * Parser of HP ALM query results.
+ * An implementation of this interface should transform the HP ALM query result page to entities and pass them to the given handler.
+ *
+ * @author Maciej SIDOR
+ *
+ */
+public interface EntitiesParserI
+{
+
+	/**
+	 * Parse the HP ALM query result page
+	 * @param reader HP ALM query result
+	 * @param handler receiver of the parsed entities
+	 * @return total number of entities matching the query (TotalResults attribute) or null if not given
+	 * @throws Exception if the query result could not be parsed or an entity could not be handled
+	 */
+	public abstract Integer parse(Reader reader, EntityHandlerI handler) throws Exception;
+
+	/**
+	 * Parse the HP ALM query result page as received from the server, the encoding is read from the XML declaration
+	 * @param stream HP ALM query result
+	 * @param handler receiver of the parsed entities
+	 * @return total number of entities matching the query (TotalResults attribute) or null if not given
+	 * @throws Exception if the query result could not be parsed or an entity could not be handled
+	 */
+	public abstract Integer parse(InputStream stream, EntityHandlerI handler) throws Exception;
+
+}
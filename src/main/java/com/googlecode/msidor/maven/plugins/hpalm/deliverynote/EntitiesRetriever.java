@@ -0,0 +1,469 @@
+/*
+Copyright 2014 Maciej SIDOR [maciejsidor@gmail.com]
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+package com.googlecode.msidor.maven.plugins.hpalm.deliverynote;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Retrieval of HP ALM query results page by page.
+ *
+ * <p>
+ * The first page tells whether there are more pages to retrieve. The remaining pages are retrieved one after another,
+ * or in parallel when the total number of results is known and the fetch concurrency is above one.
+ * The entities are passed to the handler in the query order in both cases.
+ * With the adaptive page size, the page size is tuned during the retrieval and the best one is recorded for the next runs.
+ * The pages are parsed while they are received if the Data Access Object supports streaming.
+ * </p>
+ *
+ * @author Maciej SIDOR
+ *
+ */
+public class EntitiesRetriever
+{
+	/**
+	 * Data Access Object the pages are retrieved through
+	 */
+	private final HPALMMojoDAOI			dao;
+
+	/**
+	 * Parser of HP ALM query results
+	 */
+	private final EntitiesParserI		parser;
+
+	/**
+	 * Handler preparing each parsed entity before it is passed on
+	 */
+	private final EntityHandlerI		processor;
+
+	/**
+	 * Timing metrics of the execution, may be null
+	 */
+	private final ExecutionMetrics		metrics;
+
+	/**
+	 * Log of the plugin
+	 */
+	private final Log					log;
+
+	/**
+	 * HP ALM server address
+	 */
+	private final String				url;
+
+	/**
+	 * HP ALM URL of the defects collection
+	 */
+	private final String				defectsURL;
+
+	/**
+	 * Page size used unless the adaptive page size is enabled
+	 */
+	private final int					pageSize;
+
+	/**
+	 * Count of pages retrieved in parallel
+	 */
+	private final int					fetchConcurrency;
+
+	/**
+	 * The biggest adaptive page size, 0 if the adaptive page size is disabled
+	 */
+	private int							adaptivePageSizeMax	= 0;
+
+	/**
+	 * File where the best adaptive page size is recorded
+	 */
+	private File						adaptivePageSizeRecordFile;
+
+	/**
+	 * Adaptive page size of the current retrieval
+	 */
+	private AdaptivePageSize			pageSizeTuner		= null;
+
+	/**
+	 * Page size of the last page retrieved by fetchPage method
+	 */
+	private int							lastPageSize		= 0;
+
+	/**
+	 * Default constructor
+	 * @param dao Data Access Object the pages are retrieved through, may be null if only parsePage is used
+	 * @param parser parser of HP ALM query results
+	 * @param processor handler preparing each parsed entity before it is passed on
+	 * @param metrics timing metrics of the execution, may be null
+	 * @param log log of the plugin
+	 * @param url HP ALM server address
+	 * @param domain HP ALM domain
+	 * @param project HP ALM project
+	 * @param pageSize page size used unless the adaptive page size is enabled
+	 * @param fetchConcurrency count of pages retrieved in parallel
+	 */
+	public EntitiesRetriever(HPALMMojoDAOI dao, EntitiesParserI parser, EntityHandlerI processor, ExecutionMetrics metrics, Log log, String url, String domain, String project, int pageSize, int fetchConcurrency)
+	{
+		this.dao = dao;
+		this.parser = parser;
+		this.processor = processor;
+		this.metrics = metrics;
+		this.log = log;
+		this.url = url;
+		this.defectsURL = url + "/qcbin/rest/domains/" + domain + "/projects/" + project + "/defects";
+		this.pageSize = pageSize;
+		this.fetchConcurrency = fetchConcurrency;
+	}
+
+	/**
+	 * Enable the adaptive page size
+	 * @param max the biggest page size that may be used
+	 * @param recordFile file where the best page size found for each HP ALM server is recorded
+	 */
+	public void setAdaptivePageSize(int max, File recordFile)
+	{
+		this.adaptivePageSizeMax = max;
+		this.adaptivePageSizeRecordFile = recordFile;
+	}
+
+	/**
+	 * Query for entities in the HP ALM
+	 *
+	 * @param cokie HP ALM session authentication cookie
+	 * @param query HP ALM query statement
+	 * @param fields fields to retrieve, null to retrieve all the fields
+	 * @return List of entities from HP ALM
+	 * @throws Exception
+	 */
+	public List<Entity> retreiveEntities(String cokie, String query, String fields) throws Exception
+	{
+		final List<Entity> entities = new ArrayList<Entity>();
+
+		retreiveEntities(cokie, query, fields, new EntityHandlerI()
+		{
+			public void handleEntity(Entity entity)
+			{
+				entities.add(entity);
+			}
+		});
+
+		return entities;
+	}
+
+	/**
+	 * Query for entities in the HP ALM and pass them to the handler in the query order
+	 *
+	 * @param cokie HP ALM session authentication cookie
+	 * @param query HP ALM query statement
+	 * @param fields fields to retrieve, null to retrieve all the fields
+	 * @param handler receiver of the entities
+	 * @throws Exception
+	 */
+	public void retreiveEntities(String cokie, String query, String fields, EntityHandlerI handler) throws Exception
+	{
+		String queryParameters = "&query={" + query + "}" + (fields != null ? "&fields=" + fields : "");
+
+		pageSizeTuner = adaptivePageSizeMax > 0 ? new AdaptivePageSize(url, pageSize, adaptivePageSizeMax, adaptivePageSizeRecordFile) : null;
+
+		// the first page tells how many pages are left to retrieve
+		EntitiesRoot firstPage = fetchPage(cokie, queryParameters, 1);
+		int firstPageSize = lastPageSize;
+		handlePage(firstPage, handler);
+
+		if (firstPage != null && firstPage.entities != null && firstPage.entities.size() == firstPageSize)
+		{
+			if (fetchConcurrency > 1 && firstPage.totalResults != null)
+			{
+				retreivePagesConcurrently(cokie, queryParameters, handler, 1 + firstPageSize, firstPageSize, firstPage.totalResults.intValue());
+			}
+			else
+			{
+				if (fetchConcurrency > 1)
+				    log.warn("HP ALM did not return the total number of results, remaining pages will be retrieved sequentially");
+
+				retreivePagesSequentially(cokie, queryParameters, handler, 1 + firstPageSize);
+			}
+		}
+
+		if (pageSizeTuner != null)
+		{
+			log.info("Best HP ALM page size found: " + pageSizeTuner.getBestPageSize());
+			try
+			{
+				pageSizeTuner.save();
+			}
+			catch (IOException e)
+			{
+				log.warn("Could not record the HP ALM page size", e);
+			}
+		}
+	}
+
+	/**
+	 * Retrieve HP ALM query result pages one after another until a page is not full
+	 *
+	 * @param cokie HP ALM session authentication cookie
+	 * @param queryParameters query statement and fields parameters of HP ALM URL
+	 * @param handler receiver of the entities
+	 * @param startIndex index of the first entity to retrieve
+	 * @throws Exception
+	 */
+	private void retreivePagesSequentially(String cokie, String queryParameters, EntityHandlerI handler, int startIndex) throws Exception
+	{
+		boolean hasMoreEntities = true;
+		while (hasMoreEntities)
+		{
+			EntitiesRoot page = fetchPage(cokie, queryParameters, startIndex);
+			handlePage(page, handler);
+
+			startIndex += lastPageSize;
+			hasMoreEntities = (page != null && page.entities != null && page.entities.size() == lastPageSize);
+		}
+	}
+
+	/**
+	 * Retrieve HP ALM query result pages in parallel on a pool of fetchConcurrency threads.
+	 * The pages are passed to the handler in the order of their start index.
+	 * Since the total number of results is known, a page that could not be parsed or has no content fails the retrieval instead of being skipped.
+	 * At most twice fetchConcurrency pages are retrieved ahead of the handler to keep the memory usage bounded.
+	 *
+	 * @param cokie HP ALM session authentication cookie
+	 * @param queryParameters query statement and fields parameters of HP ALM URL
+	 * @param handler receiver of the entities
+	 * @param startIndex index of the first entity to retrieve
+	 * @param size page size
+	 * @param totalResults total number of entities matching the query
+	 * @throws Exception
+	 */
+	private void retreivePagesConcurrently(final String cokie, String queryParameters, EntityHandlerI handler, int startIndex, int size, int totalResults) throws Exception
+	{
+		LinkedList<Future<EntitiesRoot>> pages = new LinkedList<Future<EntitiesRoot>>();
+		int countOfPages = (totalResults - startIndex + size) / size;
+		if (countOfPages <= 0)
+		    return;
+
+		log.debug("Retrieving " + countOfPages + " remaining pages with " + fetchConcurrency + " threads");
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(fetchConcurrency, countOfPages));
+		try
+		{
+			int nextStartIndex = startIndex;
+			while (nextStartIndex <= totalResults || !pages.isEmpty())
+			{
+				// keep the pool busy
+				while (nextStartIndex <= totalResults && pages.size() < 2 * fetchConcurrency)
+				{
+					final String pageURL = getPageURL(queryParameters, nextStartIndex, size);
+					pages.add(executor.submit(new Callable<EntitiesRoot>()
+					{
+						public EntitiesRoot call() throws Exception
+						{
+							EntitiesRoot page = parsePage(dao.getFromHPALM(pageURL, cokie), null);
+							if (page == null)
+							    throw new MojoFailureException("HP ALM returned no content for " + pageURL);
+							return page;
+						}
+					}));
+					nextStartIndex += size;
+				}
+
+				// reassemble the pages in order
+				try
+				{
+					handlePage(pages.removeFirst().get(), handler);
+				}
+				catch (ExecutionException e)
+				{
+					if (e.getCause() instanceof Exception)
+					    throw (Exception) e.getCause();
+					throw e;
+				}
+			}
+		}
+		finally
+		{
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Pass the entities of the page to the handler
+	 *
+	 * @param page HP ALM query result page, may be null
+	 * @param handler receiver of the entities
+	 * @throws Exception
+	 */
+	private void handlePage(EntitiesRoot page, EntityHandlerI handler) throws Exception
+	{
+		if (page != null && page.entities != null)
+		    for (Entity entity : page.entities)
+		        handler.handleEntity(entity);
+	}
+
+	/**
+	 * Retrieve single HP ALM query result page.
+	 * With the adaptive page size, the page is requested again with smaller size when HP ALM rejects the request.
+	 * The size of the retrieved page is stored in lastPageSize field.
+	 *
+	 * @param cokie HP ALM session authentication cookie
+	 * @param queryParameters query statement and fields parameters of HP ALM URL
+	 * @param startIndex index of the first entity of the page
+	 * @return root of the query result page
+	 * @throws Exception
+	 */
+	private EntitiesRoot fetchPage(String cokie, String queryParameters, int startIndex) throws Exception
+	{
+		while (true)
+		{
+			int size = pageSizeTuner != null ? pageSizeTuner.getPageSize() : pageSize;
+			long startTime = System.currentTimeMillis();
+
+			EntitiesRoot page = null;
+			try
+			{
+				String pageURL = getPageURL(queryParameters, startIndex, size);
+				page = dao instanceof StreamingHPALMMojoDAOI ? fetchPageStream(pageURL, cokie) : parsePage(dao.getFromHPALM(pageURL, cokie), null);
+			}
+			catch (MojoFailureException e)
+			{
+				if (pageSizeTuner == null || !isPageSizeRejection(e) || !pageSizeTuner.pageRejected())
+				    throw e;
+
+				log.warn("HP ALM rejected the page size " + size + ", retrying with " + pageSizeTuner.getPageSize());
+				continue;
+			}
+
+			lastPageSize = size;
+
+			if (pageSizeTuner != null)
+			    pageSizeTuner.pageRetrieved(size, page != null && page.entities != null ? page.entities.size() : 0, System.currentTimeMillis() - startTime);
+
+			return page;
+		}
+	}
+
+	/**
+	 * Tells whether HP ALM failed the page request because of the requested page size.
+	 * The request entity too large response counts as rejection, so does the bad request or server error that mentions the page size,
+	 * any other failure (e.g. authentication, connection or circuit breaker) does not.
+	 *
+	 * @param e failure of the page request
+	 * @return true if the page size has been rejected
+	 */
+	private boolean isPageSizeRejection(MojoFailureException e)
+	{
+		if (!(e instanceof HPALMResponseException))
+		    return false;
+
+		int responseCode = ((HPALMResponseException) e).getResponseCode();
+		if (responseCode == 413)
+		    return true;
+
+		if (responseCode != 400 && responseCode != 500)
+		    return false;
+
+		String message = String.valueOf(e.getLongMessage() != null ? e.getLongMessage() : e.getMessage()).toLowerCase();
+		return message.contains("page size") || message.contains("page-size");
+	}
+
+	/**
+	 * Retrieve HP ALM query result page and parse it while it is received
+	 *
+	 * @param pageURL URL of the page
+	 * @param cokie HP ALM session authentication cookie
+	 * @return root of the query result page or null if the response has no content
+	 * @throws MojoFailureException if HP ALM could not be queried or the response could not be read or parsed
+	 */
+	private EntitiesRoot fetchPageStream(String pageURL, String cokie) throws MojoFailureException
+	{
+		final EntitiesRoot[] page = new EntitiesRoot[1];
+
+		((StreamingHPALMMojoDAOI) dao).getFromHPALM(pageURL, cokie, new HPALMResponseHandlerI()
+		{
+			public void handleResponse(InputStream response) throws Exception
+			{
+				// a retried request parses the page again from the beginning
+				page[0] = parsePage(null, response);
+			}
+		});
+
+		return page[0];
+	}
+
+	/**
+	 * Build the HP ALM URL of query result page
+	 *
+	 * @param queryParameters query statement and fields parameters of HP ALM URL
+	 * @param startIndex index of the first entity of the page
+	 * @param size page size
+	 * @return HP ALM query URL
+	 */
+	private String getPageURL(String queryParameters, int startIndex, int size)
+	{
+		String finalURL = defectsURL + "?page-size=" + size + "&start-index=" + startIndex + queryParameters;
+		log.debug("Final HP ALM url: " + finalURL);
+		return finalURL;
+	}
+
+	/**
+	 * Transform the HP ALM query result page to object representation
+	 *
+	 * @param xmlBody
+	 *            - result of HP ALM query as String, used if no stream is given
+	 * @param xmlStream
+	 *            - result of HP ALM query as received from the server, may be null
+	 * @return root of the query result page, null if there is neither body nor stream
+	 * @throws Exception
+	 *             if the result could not be read or parsed, a truncated result must not be taken for the last page
+	 */
+	public EntitiesRoot parsePage(String xmlBody, InputStream xmlStream) throws Exception
+	{
+		if (xmlBody == null && xmlStream == null)
+			return null;
+
+		final EntitiesRoot entitiesRoot = new EntitiesRoot();
+		entitiesRoot.entities = new ArrayList<Entity>();
+
+		EntityHandlerI handler = new EntityHandlerI()
+		{
+			public void handleEntity(Entity entity) throws Exception
+			{
+				processor.handleEntity(entity);
+				entitiesRoot.entities.add(entity);
+			}
+		};
+
+		// parse the XML body
+		long parseStart = System.nanoTime();
+		if (xmlStream != null)
+			entitiesRoot.totalResults = parser.parse(xmlStream, handler);
+		else
+			entitiesRoot.totalResults = parser.parse(new StringReader(xmlBody), handler);
+		if (metrics != null)
+			metrics.phaseEnded(ExecutionMetrics.PHASE_PARSE, parseStart);
+
+		return entitiesRoot;
+	}
+}
@@ -17,6 +17,7 @@ package com.googlecode.msidor.maven.plugins.hpalm.deliverynote;
 
 import java.util.List;
 
+import javax.xml.bind.annotation.XmlAttribute;
 import javax.xml.bind.annotation.XmlElement;
 import javax.xml.bind.annotation.XmlRootElement;
 
@@ -30,4 +31,7 @@ public class EntitiesRoot
 {
 	@XmlElement(name="Entity")
 	public List<Entity> entities = null;
+
+	@XmlAttribute(name="TotalResults")
+	public Integer totalResults = null;
 }
@@ -0,0 +1,393 @@
+/*
+Copyright 2014 Maciej SIDOR [maciejsidor@gmail.com]
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+package com.googlecode.msidor.maven.plugins.hpalm.deliverynote;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Binary snapshot of HP ALM query result.
+ *
+ * <p>
+ * The snapshot is made of:
+ * <ul>
+ * <li>a header: magic number, format version and the hash of the query that produced the entities</li>
+ * <li>a dictionary of all the distinct strings (field names, values, types and identifiers), each string is stored once</li>
+ * <li>an index of entities: the identifier of each entity and the offset of its record</li>
+ * <li>the entity records: the type and the fields, each one being a reference to the dictionary</li>
+ * </ul>
+ * The snapshot is read through a memory mapped file, thus only the dictionary is decoded upfront
+ * and an entity is decoded only when requested.
+ * </p>
+ *
+ * @author Maciej SIDOR
+ *
+ */
+public class EntitiesSnapshot
+{
+	/**
+	 * Snapshot file signature
+	 */
+	private static final int		MAGIC		= 0x48504153;
+
+	/**
+	 * Snapshot format version
+	 */
+	private static final int		VERSION		= 1;
+
+	/**
+	 * Dictionary reference of null value
+	 */
+	private static final int		NULL		= -1;
+
+	/**
+	 * Charset of the strings
+	 */
+	private static final Charset	UTF8		= Charset.forName("UTF-8");
+
+	/**
+	 * Hash of the query that produced the entities
+	 */
+	private final String			queryHash;
+
+	/**
+	 * Decoded dictionary
+	 */
+	private final String[]			dictionary;
+
+	/**
+	 * Dictionary reference of identifier of each entity, in the query order
+	 */
+	private final int[]				ids;
+
+	/**
+	 * Offset of the record of each entity, in the query order
+	 */
+	private final int[]				offsets;
+
+	/**
+	 * Index of entity in the query order per identifier
+	 */
+	private final Map<String, Integer>	indexById;
+
+	/**
+	 * Mapped records of entities
+	 */
+	private final ByteBuffer		records;
+
+	/**
+	 * Constructor used by open method
+	 * @param queryHash hash of the query that produced the entities
+	 * @param dictionary decoded dictionary
+	 * @param ids dictionary reference of identifier of each entity
+	 * @param offsets offset of the record of each entity
+	 * @param records mapped records of entities
+	 */
+	private EntitiesSnapshot(String queryHash, String[] dictionary, int[] ids, int[] offsets, ByteBuffer records)
+	{
+		this.queryHash = queryHash;
+		this.dictionary = dictionary;
+		this.ids = ids;
+		this.offsets = offsets;
+		this.records = records;
+
+		indexById = new HashMap<String, Integer>(ids.length * 2);
+		for (int i = 0; i < ids.length; i++)
+			if (ids[i] != NULL)
+				indexById.put(dictionary[ids[i]], Integer.valueOf(i));
+	}
+
+	/**
+	 * Write the snapshot of entities
+	 * @param file snapshot file
+	 * @param queryHash hash of the query that produced the entities
+	 * @param entities entities to save
+	 * @throws IOException if the file could not be written
+	 */
+	public static void write(File file, String queryHash, List<Entity> entities) throws IOException
+	{
+		// build the dictionary
+		Map<String, Integer> references = new HashMap<String, Integer>();
+		List<String> dictionary = new ArrayList<String>();
+		for (Entity entity : entities)
+		{
+			addToDictionary(references, dictionary, getId(entity));
+			addToDictionary(references, dictionary, entity.type);
+			if (entity.fields != null) for (Field field : entity.fields)
+			{
+				addToDictionary(references, dictionary, field.name);
+				addToDictionary(references, dictionary, field.value);
+			}
+		}
+
+		if (file.getParentFile() != null && !file.getParentFile().exists() && !file.getParentFile().mkdirs())
+			throw new IOException("Could not create directory " + file.getParentFile());
+
+		// write to temporary file first so the previous snapshot is not lost if the build is interrupted
+		File tmp = new File(file.getPath() + ".tmp");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 64 * 1024));
+		try
+		{
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			writeString(out, queryHash);
+
+			out.writeInt(dictionary.size());
+			for (String value : dictionary)
+				writeString(out, value);
+
+			// index: identifier and record offset of each entity
+			out.writeInt(entities.size());
+			int offset = 0;
+			for (Entity entity : entities)
+			{
+				out.writeInt(getReference(references, getId(entity)));
+				out.writeInt(offset);
+				offset += 8 + 8 * (entity.fields != null ? entity.fields.size() : 0);
+			}
+
+			// records
+			for (Entity entity : entities)
+			{
+				out.writeInt(getReference(references, entity.type));
+				out.writeInt(entity.fields != null ? entity.fields.size() : 0);
+				if (entity.fields != null) for (Field field : entity.fields)
+				{
+					out.writeInt(getReference(references, field.name));
+					out.writeInt(getReference(references, field.value));
+				}
+			}
+		}
+		finally
+		{
+			out.close();
+		}
+
+		if ((file.exists() && !file.delete()) || !tmp.renameTo(file))
+			throw new IOException("Could not replace " + file);
+	}
+
+	/**
+	 * Map the snapshot file and decode its dictionary and index
+	 * @param file snapshot file
+	 * @return the snapshot or null if the file does not exist
+	 * @throws IOException if the file could not be read or is not a snapshot
+	 */
+	public static EntitiesSnapshot open(File file) throws IOException
+	{
+		if (!file.exists())
+			return null;
+
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		MappedByteBuffer buffer;
+		try
+		{
+			// the mapping stays valid once the channel is closed
+			FileChannel channel = raf.getChannel();
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		finally
+		{
+			raf.close();
+		}
+
+		try
+		{
+			if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION)
+				throw new IOException("Unsupported snapshot file " + file);
+
+			String queryHash = readString(buffer);
+
+			String[] dictionary = new String[buffer.getInt()];
+			for (int i = 0; i < dictionary.length; i++)
+				dictionary[i] = readString(buffer);
+
+			int count = buffer.getInt();
+			int[] ids = new int[count];
+			int[] offsets = new int[count];
+			for (int i = 0; i < count; i++)
+			{
+				ids[i] = buffer.getInt();
+				offsets[i] = buffer.getInt();
+			}
+
+			return new EntitiesSnapshot(queryHash, dictionary, ids, offsets, buffer.slice());
+		}
+		catch (RuntimeException e)
+		{
+			throw new IOException("Corrupted snapshot file " + file + ": " + e);
+		}
+	}
+
+	/**
+	 * @return hash of the query that produced the entities
+	 */
+	public String getQueryHash()
+	{
+		return queryHash;
+	}
+
+	/**
+	 * @return count of entities
+	 */
+	public int size()
+	{
+		return ids.length;
+	}
+
+	/**
+	 * @return all the entities in the query order
+	 */
+	public List<Entity> getEntities()
+	{
+		List<Entity> entities = new ArrayList<Entity>(ids.length);
+		for (int i = 0; i < ids.length; i++)
+			entities.add(getEntity(i));
+
+		return entities;
+	}
+
+	/**
+	 * @param id entity identifier
+	 * @return entity or null if there is no entity with given identifier
+	 */
+	public Entity getEntity(String id)
+	{
+		Integer index = indexById.get(id);
+
+		return index != null ? getEntity(index.intValue()) : null;
+	}
+
+	/**
+	 * Decode the entity record
+	 * @param index index of entity in the query order
+	 * @return entity
+	 */
+	private Entity getEntity(int index)
+	{
+		// absolute reads keep the buffer usable by several threads
+		int position = offsets[index];
+
+		Entity entity = new Entity();
+		entity.type = lookup(records.getInt(position));
+
+		int count = records.getInt(position + 4);
+		entity.fields = new ArrayList<Field>(count);
+		for (int i = 0; i < count; i++)
+		{
+			Field field = new Field();
+			field.name = lookup(records.getInt(position + 8 + 8 * i));
+			field.value = lookup(records.getInt(position + 12 + 8 * i));
+			entity.fields.add(field);
+		}
+
+		return entity;
+	}
+
+	/**
+	 * @param reference dictionary reference
+	 * @return string referenced or null
+	 */
+	private String lookup(int reference)
+	{
+		return reference == NULL ? null : dictionary[reference];
+	}
+
+	/**
+	 * @param entity entity as retrieved from HP ALM
+	 * @return value of id field or null
+	 */
+	private static String getId(Entity entity)
+	{
+		if (entity.fields != null) for (Field field : entity.fields)
+			if ("id".equalsIgnoreCase(field.name))
+				return field.value;
+
+		return null;
+	}
+
+	/**
+	 * Add the string to dictionary if not already there
+	 * @param references dictionary reference per string
+	 * @param dictionary strings in reference order
+	 * @param value string to add, may be null
+	 */
+	private static void addToDictionary(Map<String, Integer> references, List<String> dictionary, String value)
+	{
+		if (value != null && !references.containsKey(value))
+		{
+			references.put(value, Integer.valueOf(dictionary.size()));
+			dictionary.add(value);
+		}
+	}
+
+	/**
+	 * @param references dictionary reference per string
+	 * @param value string, may be null
+	 * @return dictionary reference of the string
+	 */
+	private static int getReference(Map<String, Integer> references, String value)
+	{
+		return value == null ? NULL : references.get(value).intValue();
+	}
+
+	/**
+	 * Write the string as its length followed by its UTF-8 bytes
+	 * @param out output
+	 * @param value string to write, may be null
+	 * @throws IOException if the string could not be written
+	 */
+	private static void writeString(DataOutputStream out, String value) throws IOException
+	{
+		if (value == null)
+		{
+			out.writeInt(NULL);
+			return;
+		}
+
+		byte[] bytes = value.getBytes(UTF8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	/**
+	 * Read the string written by writeString method
+	 * @param buffer input
+	 * @return string read, may be null
+	 */
+	private static String readString(ByteBuffer buffer)
+	{
+		int length = buffer.getInt();
+		if (length == NULL)
+			return null;
+
+		byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return new String(bytes, UTF8);
+	}
+}
@@ -0,0 +1,114 @@
+/*
+Copyright 2014 Maciej SIDOR [maciejsidor@gmail.com]
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+package com.googlecode.msidor.maven.plugins.hpalm.deliverynote;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Summary of HP ALM entities update.
+ *
+ * <p>
+ * Keeps the count of updated entities, the count of retried update requests and the reason of failure of each entity that could not be updated.
+ * The summary may be filled by several threads at the same time.
+ * </p>
+ *
+ * @author Maciej SIDOR
+ *
+ */
+public class EntitiesUpdateSummary
+{
+	/**
+	 * Count of updated entities
+	 */
+	private int					countOfSucceeded	= 0;
+
+	/**
+	 * Count of retried update requests
+	 */
+	private int					countOfRetries		= 0;
+
+	/**
+	 * Reason of failure per entity identifier
+	 */
+	private Map<String, String>	failures			= new LinkedHashMap<String, String>();
+
+	/**
+	 * Records successful update of entity
+	 * @param id entity identifier
+	 */
+	public synchronized void succeeded(String id)
+	{
+		countOfSucceeded++;
+	}
+
+	/**
+	 * Records failed update of entity
+	 * @param id entity identifier
+	 * @param reason reason of failure
+	 */
+	public synchronized void failed(String id, String reason)
+	{
+		failures.put(id, reason);
+	}
+
+	/**
+	 * Records retried update of entity
+	 * @param id entity identifier
+	 */
+	public synchronized void retried(String id)
+	{
+		countOfRetries++;
+	}
+
+	/**
+	 * @return count of updated entities
+	 */
+	public synchronized int getCountOfSucceeded()
+	{
+		return countOfSucceeded;
+	}
+
+	/**
+	 * @return count of retried update requests
+	 */
+	public synchronized int getCountOfRetries()
+	{
+		return countOfRetries;
+	}
+
+	/**
+	 * @return reason of failure per entity identifier
+	 */
+	public synchronized Map<String, String> getFailures()
+	{
+		return new LinkedHashMap<String, String>(failures);
+	}
+
+	/**
+	 * @return true if at least one entity could not be updated
+	 */
+	public synchronized boolean hasFailures()
+	{
+		return !failures.isEmpty();
+	}
+
+	@Override
+	public synchronized String toString()
+	{
+		return "HP ALM entities update: " + countOfSucceeded + " succeeded, " + failures.size() + " failed, " + countOfRetries + " retried";
+	}
+}
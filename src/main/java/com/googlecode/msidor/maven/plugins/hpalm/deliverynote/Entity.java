@@ -15,17 +15,22 @@ limitations under the License.
  */
 package com.googlecode.msidor.maven.plugins.hpalm.deliverynote;
 
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 
 import javax.xml.bind.annotation.XmlAttribute;
 import javax.xml.bind.annotation.XmlElement;
 import javax.xml.bind.annotation.XmlElementWrapper;
 import javax.xml.bind.annotation.XmlRootElement;
+import javax.xml.bind.annotation.XmlTransient;
 
 /**
  * @author Maciej SIDOR
  * 
- * JAXB object representing defect
+ * JAXB object representing defect.
+ * The fields computed by the plugin are not bound to XML.
  */
 @XmlRootElement(name="Entity")
 public class Entity 
@@ -37,13 +42,74 @@ public class Entity
 	@XmlAttribute
 	public String type= null;
 
+	@XmlTransient
 	public String id;
 
+    @XmlTransient
     public String dev;
 
+    @XmlTransient
     public String desc;
 
+    @XmlTransient
     public String dueTo;
 
+    @XmlTransient
     public String changeType; 
+
+    /**
+     * Field values per field name in lower case, built at first lookup
+     */
+    @XmlTransient
+    private Map<String, String> index = null;
+
+    /**
+     * Build the index of field values, the last field wins if several fields have the same name ignoring case.
+     * Must be called again if the fields are modified after a lookup.
+     */
+    public void indexFields()
+    {
+        Map<String, String> values = new HashMap<String, String>( fields != null ? fields.size() * 2 : 1 );
+        if ( fields != null ) for ( Field field : fields )
+        {
+            if ( field.name != null )
+                values.put( normalize( field.name ), field.value );
+        }
+
+        index = values;
+    }
+
+    /**
+     * @param name field name, case is ignored
+     * @return true if the entity has a field with given name, even if its value is null
+     */
+    public boolean hasField(String name)
+    {
+        if ( index == null )
+            indexFields();
+
+        return name != null && index.containsKey( normalize( name ) );
+    }
+
+    /**
+     * @param name field name, case is ignored
+     * @return value of the field or null if the entity has no such field
+     */
+    public String getFieldValue(String name)
+    {
+        if ( index == null )
+            indexFields();
+
+        return name != null ? index.get( normalize( name ) ) : null;
+    }
+
+    /**
+     * @param name field name
+     * @return name used as index key
+     */
+    private static String normalize(String name)
+    {
+        // HP ALM field names are ASCII, lower case returns the same instance for most of them
+        return name.toLowerCase( Locale.ENGLISH );
+    }
 }
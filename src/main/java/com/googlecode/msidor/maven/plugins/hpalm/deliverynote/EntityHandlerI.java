@@ -0,0 +1,35 @@
+/*
+Copyright 2014 Maciej SIDOR [maciejsidor@gmail.com]
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+package com.googlecode.msidor.maven.plugins.hpalm.deliverynote;
+
+/**
+ * Receiver of HP ALM entities.
+ * An implementation of this interface is notified of each entity as soon as it has been parsed.
+ *
+ * @author Maciej SIDOR
+ *
+ */
+public interface EntityHandlerI
+{
+
+	/**
+	 * Handle the parsed entity
+	 * @param entity parsed entity
+	 * @throws Exception if the entity could not be handled
+	 */
+	public abstract void handleEntity(Entity entity) throws Exception;
+
+}
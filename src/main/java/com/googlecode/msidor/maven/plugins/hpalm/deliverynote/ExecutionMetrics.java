@@ -0,0 +1,364 @@
+/*
+Copyright 2014 Maciej SIDOR [maciejsidor@gmail.com]
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+package com.googlecode.msidor.maven.plugins.hpalm.deliverynote;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+
+/**
+ * Timing and I/O metrics of single plugin execution, written as JSON document.
+ *
+ * <p>
+ * The time of each phase is accumulated over all its occurrences, so the phases executed by several threads
+ * (e.g. the parsing of pages retrieved concurrently) may take longer than the execution itself.
+ * The latencies of the requests are counted per operation in histogram of fixed buckets,
+ * the percentiles are estimated as the upper bound of the bucket they fall in.
+ * The metrics may be updated by several threads at the same time.
+ * </p>
+ *
+ * Example of the document:
+ *
+ * <pre>
+ * {
+ *   "timestamp": "2014-05-05T10:00:00Z",
+ *   "durationMs": 1520.412,
+ *   "failed": false,
+ *   "phases": {
+ *     "fetch": { "count": 1, "totalMs": 1210.033 }
+ *   },
+ *   "requests": {
+ *     "hpalm.get": { "count": 3, "failures": 0, "totalMs": 1190.500, "minMs": 301.200, "maxMs": 512.700, "p50Ms": 500.000, "p95Ms": 512.700, "p99Ms": 512.700,
+ *                    "buckets": [ { "leMs": 1, "count": 0 }, ..., { "leMs": null, "count": 0 } ] }
+ *   },
+ *   "counters": {
+ *     "entities": 5
+ *   }
+ * }
+ * </pre>
+ *
+ * @author Maciej SIDOR
+ *
+ */
+public class ExecutionMetrics
+{
+	public static final String					PHASE_QUERY				= "query";
+
+	public static final String					PHASE_AUTHENTICATE		= "authenticate";
+
+	public static final String					PHASE_FETCH				= "fetch";
+
+	public static final String					PHASE_PARSE				= "parse";
+
+	public static final String					PHASE_HTML				= "html";
+
+	public static final String					PHASE_CONFLUENCE		= "confluence";
+
+	public static final String					PHASE_CHANGES			= "changes";
+
+	public static final String					PHASE_UPDATE			= "update";
+
+	public static final String					COUNT_ENTITIES			= "entities";
+
+	public static final String					COUNT_UPDATED			= "entitiesUpdated";
+
+	public static final String					COUNT_UPDATE_FAILURES	= "entityUpdateFailures";
+
+	public static final String					COUNT_UPDATE_RETRIES	= "entityUpdateRetries";
+
+	public static final String					COUNT_BYTES_IN			= "bytesIn";
+
+	public static final String					COUNT_BYTES_OUT			= "bytesOut";
+
+	public static final String					COUNT_NETWORK_BYTES_IN	= "networkBytesIn";
+
+	/**
+	 * Upper bounds of the latency histogram buckets (in milliseconds), the last bucket has no bound
+	 */
+	private static final long[]					BUCKETS					= { 1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000, 30000, 60000 };
+
+	private static final double					NANOS_PER_MILLI			= 1000000.0;
+
+	/**
+	 * Start of the execution
+	 */
+	private final long							startTime				= System.currentTimeMillis();
+
+	private final long							startNanos				= System.nanoTime();
+
+	/**
+	 * Count and total time (in nanoseconds) of each phase, in the order of the first occurrence
+	 */
+	private final Map<String, long[]>			phases					= new LinkedHashMap<String, long[]>();
+
+	/**
+	 * Latencies of the requests per operation, in the order of the first request
+	 */
+	private final Map<String, LatencyHistogram>	requests				= new LinkedHashMap<String, LatencyHistogram>();
+
+	/**
+	 * Counters, in the order of the first update
+	 */
+	private final Map<String, long[]>			counters				= new LinkedHashMap<String, long[]>();
+
+	/**
+	 * Add the time elapsed since the start of the phase
+	 * @param phase phase name
+	 * @param phaseStartNanos value of System.nanoTime() at the start of the phase
+	 */
+	public void phaseEnded(String phase, long phaseStartNanos)
+	{
+		addPhaseTime(phase, System.nanoTime() - phaseStartNanos);
+	}
+
+	/**
+	 * @param phase phase name
+	 * @param nanos time spent in the phase (in nanoseconds)
+	 */
+	public synchronized void addPhaseTime(String phase, long nanos)
+	{
+		long[] time = phases.get(phase);
+		if (time == null)
+		{
+			time = new long[2];
+			phases.put(phase, time);
+		}
+		time[0]++;
+		time[1] += nanos;
+	}
+
+	/**
+	 * @param phase phase name
+	 * @return time spent in the phase so far (in nanoseconds)
+	 */
+	public synchronized long getPhaseTime(String phase)
+	{
+		long[] time = phases.get(phase);
+		return time != null ? time[1] : 0;
+	}
+
+	/**
+	 * @param operation name of the requested operation, e.g. hpalm.get
+	 * @param nanos latency of the request (in nanoseconds)
+	 * @param failed true if the request failed
+	 */
+	public synchronized void addRequest(String operation, long nanos, boolean failed)
+	{
+		LatencyHistogram histogram = requests.get(operation);
+		if (histogram == null)
+		{
+			histogram = new LatencyHistogram();
+			requests.put(operation, histogram);
+		}
+		histogram.add(nanos, failed);
+	}
+
+	/**
+	 * @param counter counter name
+	 * @param value value added to the counter
+	 */
+	public synchronized void addCount(String counter, long value)
+	{
+		long[] count = counters.get(counter);
+		if (count == null)
+		{
+			count = new long[1];
+			counters.put(counter, count);
+		}
+		count[0] += value;
+	}
+
+	/**
+	 * @param counter counter name
+	 * @return value of the counter, 0 if never updated
+	 */
+	public synchronized long getCount(String counter)
+	{
+		long[] count = counters.get(counter);
+		return count != null ? count[0] : 0;
+	}
+
+	/**
+	 * Write the metrics to the file in UTF-8, the parent directories are created if needed
+	 * @param file JSON file
+	 * @param failed true if the execution failed
+	 * @throws IOException if the file could not be written
+	 */
+	public void write(File file, boolean failed) throws IOException
+	{
+		File parent = file.getAbsoluteFile().getParentFile();
+		if (parent != null && !parent.isDirectory() && !parent.mkdirs())
+			throw new IOException("Could not create directory " + parent);
+
+		Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+		try
+		{
+			write(writer, failed);
+		}
+		finally
+		{
+			writer.close();
+		}
+	}
+
+	/**
+	 * Write the metrics as JSON document
+	 * @param writer target of the document
+	 * @param failed true if the execution failed
+	 * @throws IOException if the document could not be written
+	 */
+	public synchronized void write(Writer writer, boolean failed) throws IOException
+	{
+		SimpleDateFormat timestamp = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'", Locale.ENGLISH);
+		timestamp.setTimeZone(TimeZone.getTimeZone("UTC"));
+
+		writer.write("{\n");
+		writer.write("  \"timestamp\": \"" + timestamp.format(new Date(startTime)) + "\",\n");
+		writer.write("  \"durationMs\": " + toMillis(System.nanoTime() - startNanos) + ",\n");
+		writer.write("  \"failed\": " + failed + ",\n");
+
+		writer.write("  \"phases\": {");
+		String separator = "\n";
+		for (Map.Entry<String, long[]> phase : phases.entrySet())
+		{
+			writer.write(separator + "    " + quote(phase.getKey()) + ": { \"count\": " + phase.getValue()[0] + ", \"totalMs\": " + toMillis(phase.getValue()[1]) + " }");
+			separator = ",\n";
+		}
+		writer.write(phases.isEmpty() ? "},\n" : "\n  },\n");
+
+		writer.write("  \"requests\": {");
+		separator = "\n";
+		for (Map.Entry<String, LatencyHistogram> request : requests.entrySet())
+		{
+			writer.write(separator + "    " + quote(request.getKey()) + ": ");
+			request.getValue().write(writer);
+			separator = ",\n";
+		}
+		writer.write(requests.isEmpty() ? "},\n" : "\n  },\n");
+
+		writer.write("  \"counters\": {");
+		separator = "\n";
+		for (Map.Entry<String, long[]> counter : counters.entrySet())
+		{
+			writer.write(separator + "    " + quote(counter.getKey()) + ": " + counter.getValue()[0]);
+			separator = ",\n";
+		}
+		writer.write(counters.isEmpty() ? "}\n" : "\n  }\n");
+		writer.write("}\n");
+	}
+
+	/**
+	 * @param nanos duration in nanoseconds
+	 * @return duration in milliseconds as JSON number
+	 */
+	private static String toMillis(long nanos)
+	{
+		return String.format(Locale.ROOT, "%.3f", Double.valueOf(nanos / NANOS_PER_MILLI));
+	}
+
+	/**
+	 * @param value string
+	 * @return string as JSON literal
+	 */
+	private static String quote(String value)
+	{
+		StringBuilder quoted = new StringBuilder(value.length() + 2).append('"');
+		for (int i = 0; i < value.length(); i++)
+		{
+			char c = value.charAt(i);
+			if (c == '"' || c == '\\')
+				quoted.append('\\').append(c);
+			else if (c < 0x20)
+				quoted.append(String.format("\\u%04x", Integer.valueOf(c)));
+			else
+				quoted.append(c);
+		}
+
+		return quoted.append('"').toString();
+	}
+
+	/**
+	 * Latencies of the requests of single operation
+	 */
+	private static class LatencyHistogram
+	{
+		/**
+		 * Count of requests per bucket
+		 */
+		private final long[]	counts		= new long[BUCKETS.length + 1];
+
+		private long			count		= 0;
+
+		private long			failures	= 0;
+
+		private long			totalNanos	= 0;
+
+		private long			minNanos	= Long.MAX_VALUE;
+
+		private long			maxNanos	= 0;
+
+		void add(long nanos, boolean failed)
+		{
+			int bucket = 0;
+			while (bucket < BUCKETS.length && nanos > BUCKETS[bucket] * 1000000L)
+				bucket++;
+
+			counts[bucket]++;
+			count++;
+			if (failed)
+				failures++;
+			totalNanos += nanos;
+			minNanos = Math.min(minNanos, nanos);
+			maxNanos = Math.max(maxNanos, nanos);
+		}
+
+		/**
+		 * @param percentile percentile (1 to 100)
+		 * @return upper bound of the bucket the percentile falls in, bounded by the maximal latency (in nanoseconds)
+		 */
+		long getPercentile(int percentile)
+		{
+			long rank = (long) Math.ceil(percentile / 100.0 * count);
+			long seen = 0;
+			for (int bucket = 0; bucket < BUCKETS.length; bucket++)
+			{
+				seen += counts[bucket];
+				if (seen >= rank)
+					return Math.min(maxNanos, BUCKETS[bucket] * 1000000L);
+			}
+
+			return maxNanos;
+		}
+
+		void write(Writer writer) throws IOException
+		{
+			writer.write("{ \"count\": " + count + ", \"failures\": " + failures + ", \"totalMs\": " + toMillis(totalNanos) + ", \"minMs\": " + toMillis(count > 0 ? minNanos : 0) + ", \"maxMs\": "
+					+ toMillis(maxNanos) + ", \"p50Ms\": " + toMillis(getPercentile(50)) + ", \"p95Ms\": " + toMillis(getPercentile(95)) + ", \"p99Ms\": " + toMillis(getPercentile(99))
+					+ ",\n      \"buckets\": [");
+			for (int bucket = 0; bucket < counts.length; bucket++)
+				writer.write((bucket > 0 ? ", " : " ") + "{ \"leMs\": " + (bucket < BUCKETS.length ? String.valueOf(BUCKETS[bucket]) : "null") + ", \"count\": " + counts[bucket] + " }");
+			writer.write(" ] }");
+		}
+	}
+}
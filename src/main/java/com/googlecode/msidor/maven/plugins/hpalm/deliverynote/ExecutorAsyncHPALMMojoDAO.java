@@ -0,0 +1,178 @@
+/*
+Copyright 2014 Maciej SIDOR [maciejsidor@gmail.com]
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+package com.googlecode.msidor.maven.plugins.hpalm.deliverynote;
+
+import java.io.Closeable;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Implementation of AsyncHPALMMojoDAOI that runs the commands of a synchronous Data Access Object on a pool of threads.
+ *
+ * <p>
+ * Any HPALMMojoDAOI implementation may be used asynchronously this way, including the test doubles.
+ * The synchronous Data Access Object must support concurrent calls, as the default and pooled ones do.
+ * The count of threads bounds the count of commands executed at the same time, the other ones wait in the queue.
+ * The threads are created on demand and do not prevent the JVM from exiting.
+ * </p>
+ *
+ * @author Maciej SIDOR
+ *
+ */
+public class ExecutorAsyncHPALMMojoDAO implements AsyncHPALMMojoDAOI, Closeable
+{
+	/**
+	 * Synchronous Data Access Object executing the commands
+	 */
+	private final HPALMMojoDAOI		delegate;
+
+	/**
+	 * Threads executing the commands
+	 */
+	private final ExecutorService	executor;
+
+	/**
+	 * Default constructor
+	 * @param delegate synchronous Data Access Object executing the commands
+	 * @param threads maximal count of commands executed at the same time
+	 */
+	public ExecutorAsyncHPALMMojoDAO(HPALMMojoDAOI delegate, int threads)
+	{
+		this.delegate = delegate;
+		this.executor = Executors.newFixedThreadPool(Math.max(1, threads), new ThreadFactory()
+		{
+			private final AtomicInteger	count	= new AtomicInteger();
+
+			public Thread newThread(Runnable runnable)
+			{
+				Thread thread = new Thread(runnable, "hpalm-dao-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * @return synchronous Data Access Object executing the commands
+	 */
+	public HPALMMojoDAOI getDelegate()
+	{
+		return delegate;
+	}
+
+	public Future<Void> updateConfluencePage(final Object cookie, final HashMap<Object, Object> page, final HashMap<Object, Object> pageUpdateOptions)
+	{
+		return executor.submit(new Callable<Void>()
+		{
+			public Void call() throws Exception
+			{
+				delegate.updateConfluencePage(cookie, page, pageUpdateOptions);
+				return null;
+			}
+		});
+	}
+
+	public Future<HashMap<Object, Object>> getConfluencePage(final Object cookie, final String confluencePageID)
+	{
+		return executor.submit(new Callable<HashMap<Object, Object>>()
+		{
+			public HashMap<Object, Object> call() throws Exception
+			{
+				return delegate.getConfluencePage(cookie, confluencePageID);
+			}
+		});
+	}
+
+	public Future<List<HashMap<Object, Object>>> getConfluenceChildPages(final Object cookie, final String confluencePageID)
+	{
+		return executor.submit(new Callable<List<HashMap<Object, Object>>>()
+		{
+			public List<HashMap<Object, Object>> call() throws Exception
+			{
+				return delegate.getConfluenceChildPages(cookie, confluencePageID);
+			}
+		});
+	}
+
+	public Future<HashMap<Object, Object>> storeConfluencePage(final Object cookie, final HashMap<Object, Object> page)
+	{
+		return executor.submit(new Callable<HashMap<Object, Object>>()
+		{
+			public HashMap<Object, Object> call() throws Exception
+			{
+				return delegate.storeConfluencePage(cookie, page);
+			}
+		});
+	}
+
+	public Future<Object> authenticateToConfluence(final String confleunceUser, final String confluencePassword)
+	{
+		return executor.submit(new Callable<Object>()
+		{
+			public Object call() throws Exception
+			{
+				return delegate.authenticateToConfluence(confleunceUser, confluencePassword);
+			}
+		});
+	}
+
+	public Future<String> putToHPALM(final String targetURL, final String urlParameters, final String cookie)
+	{
+		return executor.submit(new Callable<String>()
+		{
+			public String call() throws Exception
+			{
+				return delegate.putToHPALM(targetURL, urlParameters, cookie);
+			}
+		});
+	}
+
+	public Future<String> getFromHPALM(final String targetURL, final String cookie)
+	{
+		return executor.submit(new Callable<String>()
+		{
+			public String call() throws Exception
+			{
+				return delegate.getFromHPALM(targetURL, cookie);
+			}
+		});
+	}
+
+	public Future<String> authenticateToHPALM(final String targetURL, final String username, final String password)
+	{
+		return executor.submit(new Callable<String>()
+		{
+			public String call() throws Exception
+			{
+				return delegate.authenticateToHPALM(targetURL, username, password);
+			}
+		});
+	}
+
+	/**
+	 * Stop the threads, the commands not started yet are cancelled
+	 */
+	public void close()
+	{
+		executor.shutdownNow();
+	}
+}
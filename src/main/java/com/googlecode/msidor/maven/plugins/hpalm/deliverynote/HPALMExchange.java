@@ -0,0 +1,117 @@
+/*
+Copyright 2014 Maciej SIDOR [maciejsidor@gmail.com]
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+package com.googlecode.msidor.maven.plugins.hpalm.deliverynote;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+
+/**
+ * Exchange with HP ALM or Confluence recorded by RecordingHPALMMojoDAO and served back by ReplayHPALMMojoDAO.
+ *
+ * <p>
+ * The exchange is identified by the Data Access Object method and its key arguments (e.g. the target URL),
+ * the passwords and session cookies given by the plugin are never part of it.
+ * The failed exchanges keep the error message, the HTTP response code and whether HP ALM responded with an error, so the same error can be thrown again.
+ * </p>
+ *
+ * @author Maciej SIDOR
+ *
+ */
+public class HPALMExchange implements Serializable
+{
+	private static final long	serialVersionUID	= 1L;
+
+	/**
+	 * Data Access Object method and key arguments
+	 */
+	public String				key					= null;
+
+	/**
+	 * Result returned by the method, null for void methods
+	 */
+	public Object				response			= null;
+
+	/**
+	 * Short message of the error thrown by the method, null if the method succeeded
+	 */
+	public String				error				= null;
+
+	/**
+	 * Detailed message of the error thrown by the method
+	 */
+	public String				errorDetails		= null;
+
+	/**
+	 * True if the error thrown by the method has been HPALMResponseException
+	 */
+	public boolean				errorResponse		= false;
+
+	/**
+	 * HTTP response code of the error thrown by the method, -1 if unknown
+	 */
+	public int					errorResponseCode	= -1;
+
+	/**
+	 * Time spent by the method (in milliseconds)
+	 */
+	public long					duration			= 0;
+
+	/**
+	 * Write the exchange to file
+	 * @param file file to write to
+	 * @throws IOException if the exchange could not be written
+	 */
+	public void write(File file) throws IOException
+	{
+		ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(file));
+		try
+		{
+			out.writeObject(this);
+		}
+		finally
+		{
+			out.close();
+		}
+	}
+
+	/**
+	 * Read the exchange from file
+	 * @param file file to read from
+	 * @return exchange read
+	 * @throws IOException if the exchange could not be read
+	 */
+	public static HPALMExchange read(File file) throws IOException
+	{
+		ObjectInputStream in = new ObjectInputStream(new FileInputStream(file));
+		try
+		{
+			return (HPALMExchange) in.readObject();
+		}
+		catch (ClassNotFoundException e)
+		{
+			throw new IOException("Invalid exchange file " + file + ": " + e.getMessage());
+		}
+		finally
+		{
+			in.close();
+		}
+	}
+}
@@ -15,23 +15,29 @@ limitations under the License.
  */
 package com.googlecode.msidor.maven.plugins.hpalm.deliverynote;
 
-import java.io.BufferedWriter;
-import java.io.FileOutputStream;
-import java.io.OutputStreamWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
 import java.io.StringReader;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
-import java.nio.charset.Charset;
+import java.security.MessageDigest;
 import java.util.ArrayList;
-import java.util.Calendar;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
-import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBException;
-import javax.xml.bind.Unmarshaller;
 
 import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.MojoExecutionException;
@@ -184,6 +190,39 @@ public class HPALMMojo extends AbstractMojo
 	 * @parameter
 	 */
 	private String updateHeader = null;
+
+	/**
+	 * If true, the content added to CONFLUENCE page is enclosed between markers holding the release and the hash of the content.
+	 * The page is not updated if the section of the release is already on the page with the same content,
+	 * otherwise the section is replaced instead of adding a new one.
+	 * 
+	 * @parameter expression="${hpalm.confluence.skipUnchanged}"
+	 */
+	private boolean confluenceSkipUnchanged = false;
+
+	/**
+	 * If true, the special HTML characters (&amp; &lt; &gt; &quot; ') of the values and headers put in the CONFLUENCE table are escaped.
+	 * By default the values are put as they are, so HP ALM fields holding HTML markup are rendered.
+	 * 
+	 * @parameter expression="${hpalm.confluence.escapeValues}"
+	 */
+	private boolean confluenceEscapeValues = false;
+
+	/**
+	 * If positive, the table is split into child pages of the CONFLUENCE page, with this count of rows each.
+	 * The CONFLUENCE page gets an index of the child pages instead of the table.
+	 * The child pages are named after the page, the release and their number, the ones whose content has not changed are not updated.
+	 * 
+	 * @parameter expression="${hpalm.confluence.rowsPerPage}"
+	 */
+	private int confluenceRowsPerPage = 0;
+
+	/**
+	 * Count of CONFLUENCE child pages created or updated at the same time
+	 * 
+	 * @parameter expression="${hpalm.confluence.pagesConcurrency}"
+	 */
+	private int confluencePagesConcurrency = 4;
 	
     /**
      * Path that the changes fill will be created 
@@ -251,6 +290,15 @@ public class HPALMMojo extends AbstractMojo
      * @parameter
      */        
     private Map<String, String> changesRemoveIssuesFilter      = null;
+
+    /**
+     * Change type rules evaluated before the changes filters, the first rule matching the defect gives its type in chnages.xml.
+     * Unlike the filters, the rule conditions accept several values separated by | and negation with ! prefix.
+     * See ChangeTypeRule for the configuration details.
+     * 
+     * @parameter
+     */
+    private List<ChangeTypeRule> changesTypeRules              = null;
     
     /**
      * HP ALM defect filed that will be mapped to "dev" attribute in chnages.xml  
@@ -281,11 +329,332 @@ public class HPALMMojo extends AbstractMojo
      */    
 	private String 				changesProjectVersion		  = null;
 
-	
+    /**
+     * Number of HP ALM query result pages that are retrieved in parallel.
+     * When greater than 1, the total number of results is read from the first page and the remaining pages are fetched concurrently by a pool of that size.
+     * The default value (1) retrieves the pages one after another.
+     * 
+     * @parameter
+     */
+	private int					fetchConcurrency			  = 1;
+
+    /**
+     * Number of entities requested in each HP ALM query result page.
+     * When the adaptive page size is enabled, this is the smallest page size that may be used.
+     * 
+     * @parameter
+     */
+	private int					pageSize					  = 10;
+
+    /**
+     * Enables the adaptive page size.
+     * The page size starts from the best size found for the HP ALM server during the previous runs (or from adaptivePageSizeMax) 
+     * and is decreased when HP ALM rejects it or when the retrieval time per entity gets worse.
+     * 
+     * @parameter
+     */
+	private boolean				adaptivePageSize			  = false;
+
+    /**
+     * The biggest page size that may be used by the adaptive page size
+     * 
+     * @parameter
+     */
+	private int					adaptivePageSizeMax			  = 1000;
+
+    /**
+     * File where the best page size found for each HP ALM server is recorded.
+     * By default ~/.m2/hpalm-maven-plugin-page-size.properties is used.
+     * 
+     * @parameter
+     */
+	private String				adaptivePageSizeRecordFile	  = null;
+
+    /**
+     * Parser of HP ALM query results: "stax" (default) parses the entities one by one while "jaxb" unmarshalls the whole page at once.
+     * 
+     * @parameter
+     */
+	private String				parser						  = "stax";
+
+    /**
+     * Enables the streaming execution.
+     * The entities are passed from HP ALM query result pages through the classification straight to the changes file and CONFLUENCE table writers, 
+     * thus the memory usage does not depend on the count of entities.
+     * 
+     * @parameter
+     */
+	private boolean				streaming					  = false;
+
+    /**
+     * Maximal count of entities buffered between the HP ALM query and the writers in streaming execution
+     * 
+     * @parameter
+     */
+	private int					streamingBufferSize			  = 100;
+
+	/**
+	 * Delay before the first retry of HP ALM entity update (in milliseconds), multiplied by the attempt number for the next ones
+	 */
+	private static final long	UPDATE_RETRY_DELAY			  = 500;
+
+	/**
+	 * Maximal count of identifiers in HP ALM query retrieving the entities missing from the cache
+	 */
+	private static final int	INCREMENTAL_IDS_PER_QUERY	  = 100;
+
+    /**
+     * Maximal count of keep-alive connections to HP ALM server.
+     * When greater than 0, the connections to HP ALM are pooled instead of being opened for each request.
+     * 
+     * @parameter
+     */
+	private int					httpConnectionPoolSize		  = 0;
+
+    /**
+     * Time after which an idle pooled connection to HP ALM is closed (in milliseconds)
+     * 
+     * @parameter
+     */
+	private long				httpConnectionIdleTimeout	  = 30000;
+
+    /**
+     * Accepts gzip and deflate compressed responses from HP ALM.
+     * The count of bytes received and decompressed is logged at the end of execution.
+     * 
+     * @parameter
+     */
+	private boolean				httpCompression				  = true;
+
+    /**
+     * Enables the cache of HP ALM sessions.
+     * The session is shared by all the executions (e.g. reactor modules) that use the same HP ALM server and user within the JVM.
+     * When HP ALM rejects an expired session, the plugin authenticates again and retries the request once.
+     * 
+     * @parameter
+     */
+	private boolean				sessionCache				  = false;
+
+    /**
+     * Time to live of a cached HP ALM session (in seconds)
+     * 
+     * @parameter
+     */
+	private long				sessionCacheTimeToLive		  = 1800;
+
+    /**
+     * File where the HP ALM sessions are saved to be reused by the next builds. 
+     * The file is readable only by its owner. If not set, the sessions are cached only in memory.
+     * 
+     * @parameter
+     */
+	private String				sessionCacheFile			  = null;
+
+    /**
+     * Updates the HP ALM entities by batches sent in one request to the defects collection instead of one request per entity.
+     * The entities that could not be updated in bulk are updated one by one and each failure is reported separately.
+     * 
+     * @parameter
+     */
+	private boolean				bulkUpdate					  = false;
+
+    /**
+     * Maximal count of HP ALM entities updated in one bulk request
+     * 
+     * @parameter
+     */
+	private int					bulkUpdateBatchSize			  = 100;
+
+    /**
+     * Count of threads sending the HP ALM entities updates (one request per entity)
+     * 
+     * @parameter
+     */
+	private int					updateConcurrency			  = 1;
+
+    /**
+     * Maximal count of HP ALM entities update requests per second, 0 means no limit
+     * 
+     * @parameter
+     */
+	private double				updateRateLimit				  = 0;
+
+    /**
+     * Count of retries of HP ALM entity update that failed due to connection error or server overload (429, 502, 503 and 504 response codes)
+     * 
+     * @parameter
+     */
+	private int					updateRetries				  = 1;
+
+	/**
+	 * Rate limiter of HP ALM entities update requests, null if not limited
+	 */
+	private TokenBucketRateLimiter	updateRateLimiter		  = null;
+
+    /**
+     * Retrieves from HP ALM only the fields used by the plugin configuration (the exported fields, the fields mapped in changes file and the fields used by changes filters).
+     * May be set to false to retrieve all the fields of the defects, e.g. while debugging the configuration.
+     * 
+     * @parameter
+     */
+	private boolean				fieldsProjection			  = true;
+
+	/**
+	 * Fields retrieved from HP ALM, null if all the fields are retrieved
+	 */
+	private String				fields						  = null;
+
+    /**
+     * Keeps a local cache of the retrieved entities, thus the next executions download only the entities modified since the last one.
+     * The changes file and CONFLUENCE table are still generated from all the entities matching the query.
+     * 
+     * @parameter
+     */
+	private boolean				incremental					  = false;
+
+    /**
+     * Directory of the local caches of entities (one file per HP ALM query).
+     * By default ~/.m2/hpalm-maven-plugin-cache is used.
+     * 
+     * @parameter
+     */
+	private String				incrementalCacheDirectory	  = null;
+
+    /**
+     * File where the retrieved entities are saved in binary snapshot, the snapshot is not saved if not set.
+     * 
+     * @parameter expression="${hpalm.snapshotFile}"
+     */
+	private String				snapshotFile				  = null;
+
+    /**
+     * Reads the entities from the snapshot file instead of querying HP ALM, e.g. to generate the reports again.
+     * HP ALM is queried if the snapshot does not exist or has been produced by different query.
+     * 
+     * @parameter expression="${hpalm.useSnapshot}"
+     */
+	private boolean				useSnapshot					  = false;
+
+    /**
+     * Keeps the retrieved entities in a columnar store where the field names are stored once
+     * and the values of low cardinality fields are dictionary encoded, to reduce the memory used by large releases.
+     * The estimated memory footprint of the entities and of the store is reported.
+     * 
+     * @parameter expression="${hpalm.columnarStore}"
+     */
+	private boolean				columnarStore				  = false;
+
+    /**
+     * Directory where every exchange with HP ALM and Confluence is recorded, nothing is recorded if not set.
+     * The passwords and the session cookies are not recorded.
+     * 
+     * @parameter expression="${hpalm.record}"
+     */
+	private String				recordDirectory				  = null;
+
+    /**
+     * Directory of the exchanges recorded previously, if set the plugin replays them instead of contacting HP ALM and Confluence.
+     * 
+     * @parameter expression="${hpalm.replay}"
+     */
+	private String				replayDirectory				  = null;
+
+    /**
+     * Latency added to each replayed exchange (in milliseconds).
+     * 
+     * @parameter expression="${hpalm.replayLatency}"
+     */
+	private long				replayLatency				  = 0;
+
+    /**
+     * Factor of the recorded duration added to each replayed exchange, 1 replays the exchanges at the recorded speed.
+     * 
+     * @parameter expression="${hpalm.replayLatencyFactor}"
+     */
+	private double				replayLatencyFactor			  = 0;
+
+    /**
+     * Count of retries of HP ALM GET request that failed due to connection error or server overload (429, 502, 503 and 504 response codes), 0 means no retry.
+     * The delay before retry starts from fetchRetryDelay, is doubled at each attempt up to fetchRetryMaxDelay and is partly random.
+     * 
+     * @parameter expression="${hpalm.fetchRetries}"
+     */
+	private int					fetchRetries				  = 0;
+
+    /**
+     * Delay before the first retry of HP ALM GET request (in milliseconds)
+     * 
+     * @parameter expression="${hpalm.fetchRetryDelay}"
+     */
+	private long				fetchRetryDelay				  = 500;
+
+    /**
+     * Maximal delay before retry of HP ALM GET request (in milliseconds)
+     * 
+     * @parameter expression="${hpalm.fetchRetryMaxDelay}"
+     */
+	private long				fetchRetryMaxDelay			  = 10000;
+
+    /**
+     * Percentile of the observed HP ALM GET latencies (1 to 99) after which the request is sent again and the first response is used, 0 means no hedged request.
+     * The responses are not streamed to the parser when the requests are hedged, the request answering last is aborted.
+     * The hedged requests are sent by at most two threads per fetchConcurrency.
+     * 
+     * @parameter expression="${hpalm.fetchHedgePercentile}"
+     */
+	private int					fetchHedgePercentile		  = 0;
+
+    /**
+     * Count of consecutive HP ALM request failures due to connection error or server overload after which the requests fail immediately, 0 means no circuit breaker.
+     * 
+     * @parameter expression="${hpalm.circuitBreakerThreshold}"
+     */
+	private int					circuitBreakerThreshold		  = 0;
+
+    /**
+     * Time after which a single HP ALM request is let through the open circuit breaker to check whether HP ALM is back (in milliseconds)
+     * 
+     * @parameter expression="${hpalm.circuitBreakerCooldown}"
+     */
+	private long				circuitBreakerCooldown		  = 30000;
+
+    /**
+     * JSON file where the execution metrics are written (e.g. target/hpalm-metrics.json), null means no metrics:
+     * time of each phase, latency histogram of each kind of HP ALM and CONFLUENCE request, exchanged bytes and entity counts.
+     * 
+     * @parameter expression="${hpalm.metricsFile}"
+     */
+	private String				metricsFile					  = null;
+
+	/**
+	 * Plugin Data Access Object set by the caller, one is created for each execution if none has been set
+	 */
+	private HPALMMojoDAOI dao 						  = null;
+
+	/**
+	 * Data Access Object of the current execution, decorated with the features enabled by plugin configuration
+	 */
+	private HPALMMojoDAOI executionDao				  = null;
+
+	/**
+	 * Timing and I/O metrics of the current execution
+	 */
+	private ExecutionMetrics metrics				  = null;
+
+	/**
+	 * Retriever of HP ALM query result pages, created once the Data Access Object is decorated
+	 */
+	private EntitiesRetriever retriever			  = null;
+
 	/**
-	 * Plugin Data Access Object
+	 * Parser of HP ALM query results
 	 */
-	private HPALMMojoDAOI dao 						  = new DefaultHPALMMojoDAO();
+	private EntitiesParserI entitiesParser		  = null;
+
+	/**
+	 * Change type rules and filters compiled at first use
+	 */
+	private ChangeTypeClassifier changeTypeClassifier = null;
 
 	/**
 	 * <p>
@@ -295,68 +664,182 @@ public class HPALMMojo extends AbstractMojo
 	@Override
 	public void execute() throws MojoExecutionException, MojoFailureException
 	{
+		metrics = new ExecutionMetrics();
+		executionDao = dao != null ? dao : createDao();
 
-		/***********************************************************
-		 * Authenticate to HP ALM
-		 ***********************************************************/
-		getLog().info("Authenticating to HP ALM...");
-		String cokie = null;
+		boolean failed = true;
 		try
 		{
-		    cokie = dao.authenticateToHPALM(url, login, password);
+		    executionDao = decorateDao( executionDao );
+		    retriever = createEntitiesRetriever();
+
+		    executeGoal();
+		    failed = false;
 		}
-		catch(Exception e)
+		finally
 		{
-		    throw new MojoExecutionException( "Could not authenticate to HP ALM", e );
+		    releaseDao();
+		    writeMetrics( failed );
 		}
+	}
+
+	/**
+	 * Execute the goal phases
+	 * 
+	 * @throws MojoExecutionException
+	 */
+	private void executeGoal() throws MojoExecutionException
+	{
 
 		/***********************************************************
 		 * Prepare HP ALM query statement
 		 ***********************************************************/
 		getLog().info("Preparing HP ALM query statement...");
+		long phaseStart = System.nanoTime();
 		try
         {
             buildQueryStatement();
+            buildFieldsProjection();
         }
         catch ( Exception e )
         {
             throw new MojoExecutionException( "Could not produce HP ALM query", e );
         }
-		
-		
-		
-        /***********************************************************
-		 * Retrieve entities
+		metrics.phaseEnded( ExecutionMetrics.PHASE_QUERY, phaseStart );
+
+		/***********************************************************
+		 * Read entities from snapshot
 		 ***********************************************************/
-		getLog().info("Executing HP ALM query...");
-		List<Entity> entities = null;
+		List<Entity> entities = useSnapshot ? readSnapshot() : null;
 
-		try
-        {
-            entities = retreiveEntities(cokie);
-        }
-        catch ( Exception e )
-        {
-            throw new MojoExecutionException( "Could not execute HP ALM query", e );
-        }
+		/***********************************************************
+		 * Authenticate to HP ALM
+		 ***********************************************************/
+		String cokie = null;
+		if ( entities == null || ( valuesToUpdate != null && valuesToUpdate.size() > 0 ) )
+		{
+		    getLog().info("Authenticating to HP ALM...");
+		    phaseStart = System.nanoTime();
+		    try
+		    {
+		        cokie = executionDao.authenticateToHPALM(url, login, password);
+		    }
+		    catch(Exception e)
+		    {
+		        throw new MojoExecutionException( "Could not authenticate to HP ALM", e );
+		    }
+		    metrics.phaseEnded( ExecutionMetrics.PHASE_AUTHENTICATE, phaseStart );
+		}
 		
 		
 		
+		if ( entities == null && streaming )
+		{
+		    if ( incremental )
+		        getLog().warn( "Incremental retrieval is not available in streaming mode, all the entities will be retrieved" );
+
+		    executeStreaming( cokie );
+		    return;
+		}
+
         /***********************************************************
-		 * Generate summary HTML table report for CONLUENCE
+		 * Retrieve entities
 		 ***********************************************************/
-		if(confluenceServer!=null)
+		EntitiesColumnStore store = null;
+		if ( entities == null )
 		{
-			getLog().info("Generating summary HTML table report for CONLUENCE...");
-			StringBuilder html = null;
+		    getLog().info("Executing HP ALM query...");
+		    phaseStart = System.nanoTime();
+		    try
+		    {
+		        if ( columnarStore && !incremental && snapshotFile == null )
+		        {
+		            // the entities are encoded as soon as they are parsed, the list of entities is never built
+		            store = new EntitiesColumnStore();
+		            retriever.retreiveEntities( cokie, query, fields, store );
+		        }
+		        else
+		        {
+		            entities = incremental ? retreiveEntitiesIncrementally(cokie) : retriever.retreiveEntities( cokie, query, fields );
+		        }
+		    }
+		    catch ( Exception e )
+		    {
+		        throw new MojoExecutionException( "Could not execute HP ALM query", e );
+		    }
+		    metrics.phaseEnded( ExecutionMetrics.PHASE_FETCH, phaseStart );
+
+		    if ( snapshotFile != null )
+		        writeSnapshot( entities );
+		}
+
+		if ( columnarStore )
+		{
+		    if ( store == null )
+		    {
+		        store = new EntitiesColumnStore();
+		        for ( Entity entity : entities )
+		            store.handleEntity( entity );
+		        entities = null;
+		    }
+		    store.trim();
+		    getLog().info( store.toString() );
+		}
+		metrics.addCount( ExecutionMetrics.COUNT_ENTITIES, store != null ? store.size() : entities.size() );
+		
+		
+		
+        /***********************************************************
+		 * Generate summary HTML table report for CONLUENCE
+		 ***********************************************************/
+		if(confluenceServer!=null && confluenceRowsPerPage > 0)
+		{
+			getLog().info("Generating summary HTML table report for CONLUENCE child pages...");
+			phaseStart = System.nanoTime();
+			ShardedHTMLTableWriter tables = new ShardedHTMLTableWriter( confluenceRowsPerPage, valuesToExport, translationOfValuesToExport, confluenceEscapeValues );
+			if ( store != null )
+			    tables.writeEntities( store );
+			else
+			    for ( Entity entity : entities )
+			        tables.writeEntity( entity );
+			metrics.phaseEnded( ExecutionMetrics.PHASE_HTML, phaseStart );
+
+			getLog().info("Updating CONLUENCE pages...");
+			phaseStart = System.nanoTime();
 			try
 	        {
-	            html = generateHTML(entities);
+	            createConfluencePublisher().updatePages( tables );
 	        }
 	        catch ( Exception e )
 	        {
-	            throw new MojoExecutionException( "Could not Generate summary HTML table report for CONLUENCE", e );
+	            throw new MojoExecutionException( "Could not update CONLUENCE page", e );
 	        }
+			metrics.phaseEnded( ExecutionMetrics.PHASE_CONFLUENCE, phaseStart );
+		}
+		else if(confluenceServer!=null)
+		{
+			getLog().info("Generating summary HTML table report for CONLUENCE...");
+
+			// the table is generated straight into the updated page
+			final List<Entity> tableEntities = entities;
+			final EntitiesColumnStore tableStore = store;
+			HTMLContentWriterI html = new HTMLContentWriterI()
+			{
+			    public int getEstimatedLength()
+			    {
+			        return HTMLTableWriter.estimateLength( valuesToExport.size(), tableStore != null ? tableStore.size() : tableEntities.size() );
+			    }
+
+			    public void writeContent(StringBuilder html) throws Exception
+			    {
+			        long htmlStart = System.nanoTime();
+			        if ( tableStore != null )
+			            generateHTML( html, tableStore );
+			        else
+			            generateHTML( html, tableEntities );
+			        metrics.phaseEnded( ExecutionMetrics.PHASE_HTML, htmlStart );
+			    }
+			};
 		
 		
         /***********************************************************
@@ -364,14 +847,18 @@ public class HPALMMojo extends AbstractMojo
 		 ***********************************************************/
 
 			getLog().info("Updating CONLUENCE page...");
+			phaseStart = System.nanoTime();
+			long htmlTime = metrics.getPhaseTime( ExecutionMetrics.PHASE_HTML );
 			try
 	        {
-	            updateConfluencePage( html.toString() );
+	            createConfluencePublisher().updatePage( html );
 	        }
 	        catch ( Exception e )
 	        {
 	            throw new MojoExecutionException( "Could not update CONLUENCE page", e );
 	        }
+			// the table is generated while the page is updated, its time is not counted twice
+			metrics.addPhaseTime( ExecutionMetrics.PHASE_CONFLUENCE, System.nanoTime() - phaseStart - ( metrics.getPhaseTime( ExecutionMetrics.PHASE_HTML ) - htmlTime ) );
 		}
 		
 		
@@ -382,15 +869,20 @@ public class HPALMMojo extends AbstractMojo
 		if(changesOutputFilePath!=null)
 		{
     		getLog().info("Generating changes file...");
+    		phaseStart = System.nanoTime();
             try
             {
-                generateChangesXML(entities);
+                if ( store != null )
+                    generateChangesXML(store);
+                else
+                    generateChangesXML(entities);
                 
             }
             catch ( Exception e )
             {
                 throw new MojoExecutionException( "Could not generate changes file", e );
             }
+            metrics.phaseEnded( ExecutionMetrics.PHASE_CHANGES, phaseStart );
 		}
 
 		/***********************************************************
@@ -399,14 +891,80 @@ public class HPALMMojo extends AbstractMojo
 		if(valuesToUpdate!= null && valuesToUpdate.size()>0)
 		{
     		getLog().info("Updating HP ALM entities...");
+    		phaseStart = System.nanoTime();
     		try
             {
-                updateEntities(cokie, entities);
+                updateEntities(cokie, store != null ? store.getEntitiesToUpdate() : entities);
             }
             catch ( Exception e )
             {
                 throw new MojoExecutionException( "Could not update HP ALM entities", e );
             }
+            metrics.phaseEnded( ExecutionMetrics.PHASE_UPDATE, phaseStart );
+		}
+	}
+
+	/**
+	 * Streaming execution: the entities are retrieved by a separate thread and passed through a bounded buffer 
+	 * straight to the changes file and CONFLUENCE table writers.
+	 * Only the identifiers of entities are kept for the HP ALM update.
+	 * 
+	 * @param cokie HP ALM session cookie
+	 * @throws MojoExecutionException
+	 */
+	private void executeStreaming(String cokie) throws MojoExecutionException
+	{
+		boolean update = valuesToUpdate != null && valuesToUpdate.size() > 0;
+		HTMLTableWriter htmlWriter = null;
+		ShardedHTMLTableWriter shardedHtmlWriter = null;
+		ChangesXMLWriter changesWriter = null;
+
+		if ( confluenceServer != null )
+		    if ( confluenceRowsPerPage > 0 )
+		        shardedHtmlWriter = new ShardedHTMLTableWriter( confluenceRowsPerPage, valuesToExport, translationOfValuesToExport, confluenceEscapeValues );
+		    else
+		        htmlWriter = new HTMLTableWriter( new StringBuilder(), valuesToExport, translationOfValuesToExport, confluenceEscapeValues );
+
+		if ( changesOutputFilePath != null )
+		{
+		    try
+		    {
+		        changesWriter = new ChangesXMLWriter( changesOutputFilePath, changesProjectVersion );
+		    }
+		    catch ( Exception e )
+		    {
+		        throw new MojoExecutionException( "Could not generate changes file", e );
+		    }
+		}
+
+		try
+		{
+		    StreamingExecution execution = new StreamingExecution( retriever, confluenceServer != null ? createConfluencePublisher() : null, streamingBufferSize, metrics, getLog() );
+		    List<Entity> entitiesToUpdate = execution.execute( cokie, query, fields, htmlWriter, shardedHtmlWriter, changesWriter, update );
+
+		    /***********************************************************
+		     * Update HP ALM entities
+		     ***********************************************************/
+		    if ( update )
+		    {
+		        getLog().info("Updating HP ALM entities...");
+		        long phaseStart = System.nanoTime();
+		        try
+		        {
+		            updateEntities(cokie, entitiesToUpdate);
+		        }
+		        catch(Exception e)
+		        {
+		            throw new MojoExecutionException( "Could not update HP ALM entities", e );
+		        }
+		        metrics.phaseEnded( ExecutionMetrics.PHASE_UPDATE, phaseStart );
+		    }
+		}
+		finally
+		{
+		    // a failed execution must not leave a partial changes file behind
+		    if ( changesWriter != null )
+		        changesWriter.abort();
 		}
 	}
 
@@ -419,14 +977,253 @@ public class HPALMMojo extends AbstractMojo
 	 */
 	private void updateEntities(String cokie, List<Entity> entities) throws Exception
 	{
+		updateRateLimiter = updateRateLimit > 0 ? new TokenBucketRateLimiter( updateRateLimit ) : null;
+
+		if ( bulkUpdate )
+		{
+			reportUpdateSummary( updateEntitiesInBulk( cokie, entities ) );
+			return;
+		}
+
+		if ( updateConcurrency > 1 || updateRateLimiter != null )
+		{
+			reportUpdateSummary( updateEntitiesConcurrently( cokie, entities ) );
+			return;
+		}
+
 		for (Entity entity : entities)
 		{
 			String xml = getUpdateStatement(entity);
 			getLog().debug("Update statement: " + xml);
-			dao.putToHPALM(url + "/qcbin/rest/domains/" + domain + "/projects/" + project + "/defects/" + entity.id, xml, cokie);
+			executionDao.putToHPALM(url + "/qcbin/rest/domains/" + domain + "/projects/" + project + "/defects/" + entity.id, xml, cokie);
+		}
+	}
+
+	/**
+	 * Updating given entities in HP ALM by batches sent to the defects collection.
+	 * The entities of a batch that failed or that are missing from the server response are updated one by one.
+	 * Once the server refuses the bulk operation, all the remaining entities are updated one by one.
+	 * 
+	 * @param cokie HP ALM session cookie
+	 * @param entities List of entities to update
+	 * @return summary of the update
+	 */
+	private EntitiesUpdateSummary updateEntitiesInBulk(String cokie, List<Entity> entities) throws InterruptedException
+	{
+		EntitiesUpdateSummary summary = new EntitiesUpdateSummary();
+		int batchSize = Math.max( 1, bulkUpdateBatchSize );
+		boolean bulkSupported = true;
+
+		for ( int i = 0; i < entities.size(); i += batchSize )
+		{
+			List<Entity> batch = entities.subList( i, Math.min( entities.size(), i + batchSize ) );
+			List<Entity> notUpdated = batch;
+
+			if ( bulkSupported )
+			{
+				try
+				{
+					String xml = getBulkUpdateStatement( batch );
+					getLog().debug( "Bulk update statement: " + xml );
+					String response = executionDao.putToHPALM( url + "/qcbin/rest/domains/" + domain + "/projects/" + project + "/defects", xml, HPALMMojoDAOI.CONTENT_TYPE_XML_COLLECTION, cokie );
+
+					notUpdated = getEntitiesMissingFromResponse( batch, response );
+					for ( Entity entity : batch )
+						if ( !notUpdated.contains( entity ) )
+						    summary.succeeded( entity.id );
+				}
+				catch ( MojoFailureException e )
+				{
+					int responseCode = e instanceof HPALMResponseException ? ( (HPALMResponseException) e ).getResponseCode() : -1;
+					if ( responseCode == 405 || responseCode == 415 || responseCode == 501 )
+					{
+						bulkSupported = false;
+						getLog().warn( "HP ALM refused the bulk update (response code " + responseCode + "), updating the entities one by one" );
+					}
+					else
+					{
+						getLog().warn( "Bulk update of " + batch.size() + " HP ALM entities failed, updating them one by one: " + getFailureReason( e ) );
+					}
+				}
+			}
+
+			for ( Entity entity : notUpdated )
+				updateEntity( cokie, entity, summary );
+		}
+
+		return summary;
+	}
+
+	/**
+	 * Updating given entities in HP ALM with one request per entity sent by a pool of threads.
+	 * The tasks are submitted through a bounded queue, thus the calling thread updates the entities itself when all the threads are busy.
+	 * 
+	 * @param cokie HP ALM session cookie
+	 * @param entities List of entities to update
+	 * @return summary of the update
+	 * @throws Exception if the update has been interrupted
+	 */
+	private EntitiesUpdateSummary updateEntitiesConcurrently(final String cokie, List<Entity> entities) throws Exception
+	{
+		final EntitiesUpdateSummary summary = new EntitiesUpdateSummary();
+		int threads = Math.max( 1, updateConcurrency );
+
+		ExecutorService executor = new ThreadPoolExecutor( threads, threads, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>( 2 * threads ), new ThreadPoolExecutor.CallerRunsPolicy() );
+		try
+		{
+			List<Future<?>> futures = new ArrayList<Future<?>>();
+			for ( final Entity entity : entities )
+			{
+				futures.add( executor.submit( new Callable<Object>()
+				{
+					@Override
+					public Object call() throws Exception
+					{
+						updateEntity( cokie, entity, summary );
+						return null;
+					}
+				} ) );
+			}
+
+			for ( Future<?> future : futures )
+			{
+				try
+				{
+					future.get();
+				}
+				catch ( ExecutionException e )
+				{
+					if ( e.getCause() instanceof Exception )
+					    throw (Exception) e.getCause();
+					throw e;
+				}
+			}
+		}
+		finally
+		{
+			executor.shutdownNow();
+		}
+
+		return summary;
+	}
+
+	/**
+	 * Updating single entity in HP ALM, the failure is recorded in the summary.
+	 * The update is retried if it failed due to connection error or server overload.
+	 * 
+	 * @param cokie HP ALM session cookie
+	 * @param entity entity to update
+	 * @param summary summary of the update
+	 * @throws InterruptedException if interrupted while waiting for the rate limiter or before retry 
+	 */
+	private void updateEntity(String cokie, Entity entity, EntitiesUpdateSummary summary) throws InterruptedException
+	{
+		String xml = getUpdateStatement( entity );
+		getLog().debug( "Update statement: " + xml );
+
+		for ( int attempt = 0;; attempt++ )
+		{
+			if ( updateRateLimiter != null )
+			    updateRateLimiter.acquire();
+
+			try
+			{
+				executionDao.putToHPALM( url + "/qcbin/rest/domains/" + domain + "/projects/" + project + "/defects/" + entity.id, xml, cokie );
+				summary.succeeded( entity.id );
+				return;
+			}
+			catch ( MojoFailureException e )
+			{
+				if ( attempt >= updateRetries || !isRetriable( e ) )
+				{
+					summary.failed( entity.id, getFailureReason( e ) );
+					return;
+				}
+
+				getLog().debug( "Retrying update of HP ALM entity " + entity.id + ": " + getFailureReason( e ) );
+				summary.retried( entity.id );
+				Thread.sleep( UPDATE_RETRY_DELAY * ( attempt + 1 ) );
+			}
 		}
 	}
 
+	/**
+	 * @param e exception thrown by Data Access Object
+	 * @return true if the request failed due to connection error or server overload
+	 */
+	private boolean isRetriable(MojoFailureException e)
+	{
+		return e instanceof HPALMResponseException && ( (HPALMResponseException) e ).isRetriable();
+	}
+
+	/**
+	 * @param e exception thrown by Data Access Object
+	 * @return detailed message of the exception if available, its message otherwise
+	 */
+	private String getFailureReason(MojoFailureException e)
+	{
+		return e.getLongMessage() != null ? e.getLongMessage() : e.getMessage();
+	}
+
+	/**
+	 * Finds the entities of the batch that do not appear in the bulk update response.
+	 * 
+	 * @param batch entities sent to HP ALM
+	 * @param response HP ALM response to bulk update
+	 * @return the entities that have not been updated
+	 * @throws MojoFailureException if the response could not be parsed, none of the entities is then known as updated
+	 */
+	private List<Entity> getEntitiesMissingFromResponse(List<Entity> batch, String response) throws MojoFailureException
+	{
+		final Set<String> updatedIds = new HashSet<String>();
+		try
+		{
+			getEntitiesParser().parse( new StringReader( response ), new EntityHandlerI()
+			{
+				@Override
+				public void handleEntity(Entity entity)
+				{
+					if ( entity.fields != null ) for ( Field field : entity.fields )
+						if ( field.name.equalsIgnoreCase( "id" ) )
+						    updatedIds.add( field.value );
+				}
+			} );
+		}
+		catch ( Exception e )
+		{
+			throw new MojoFailureException( "Could not parse HP ALM bulk update response: " + e.getMessage() );
+		}
+
+		List<Entity> notUpdated = new ArrayList<Entity>();
+		for ( Entity entity : batch )
+			if ( !updatedIds.contains( entity.id ) )
+			    notUpdated.add( entity );
+
+		return notUpdated;
+	}
+
+	/**
+	 * Log the update summary
+	 * 
+	 * @param summary summary of the update
+	 * @throws MojoFailureException if at least one entity could not be updated
+	 */
+	private void reportUpdateSummary(EntitiesUpdateSummary summary) throws MojoFailureException
+	{
+		getLog().info( summary.toString() );
+		metrics.addCount( ExecutionMetrics.COUNT_UPDATED, summary.getCountOfSucceeded() );
+		metrics.addCount( ExecutionMetrics.COUNT_UPDATE_RETRIES, summary.getCountOfRetries() );
+		metrics.addCount( ExecutionMetrics.COUNT_UPDATE_FAILURES, summary.getFailures().size() );
+		if ( !summary.hasFailures() )
+		    return;
+
+		Map<String, String> failures = summary.getFailures();
+		for ( Map.Entry<String, String> failure : failures.entrySet() )
+			getLog().error( "Could not update HP ALM entity " + failure.getKey() + ": " + failure.getValue() );
+
+		throw new MojoFailureException( "Could not update " + failures.size() + " HP ALM entities: " + failures.keySet() );
+	}
+
 	/**
 	 * Generate changes XML
 	 * 
@@ -435,99 +1232,296 @@ public class HPALMMojo extends AbstractMojo
 	 */
 	private void generateChangesXML(List<Entity> entities) throws Exception
 	{
-		BufferedWriter writer = new BufferedWriter( new OutputStreamWriter( new FileOutputStream ( changesOutputFilePath ), Charset.forName( "UTF-8" )) );
-		            
-		writer.write( "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" );
-		writer.write( "<document>\n" );
-		writer.write( "<body>\n" );
-		writer.write( "<release version=\""+changesProjectVersion+"\" date=\""+Calendar.getInstance().getTime().toString()+"\">\n" );
-		                
+		ChangesXMLWriter writer = new ChangesXMLWriter( changesOutputFilePath, changesProjectVersion );
+
 		//put all the issues
 		for ( Entity entity : entities )
 		{
-		    writer.write( "<action dev=\""+entity.dev+"\" type=\""+entity.changeType+"\" issue=\""+entity.id+"\" due-to=\""+entity.dueTo+"\">\n" );
-		    writer.write( entity.desc );
-		    writer.write( "\n</action>\n" );                    
+		    writer.writeEntity( entity );
 		}
-		
-		writer.write( "</release>\n" );
-        writer.write( "</body>\n" );		
-		writer.write( "</document>\n" );
-		writer.flush();
+
 		writer.close();
 	}
 
 	/**
 	 * Generate HTML table
 	 * 
+	 * @param html buffer the table is appended to
 	 * @param entities list of entities to export to HTML
-	 * @return HTML content
 	 */
-	private StringBuilder generateHTML(List<Entity> entities) throws Exception
+	private void generateHTML(StringBuilder html, List<Entity> entities) throws Exception
 	{
-		StringBuilder html;
-		html = new StringBuilder();
-		html.append( "<table><tbody>" );
-		// --[get headers row]--
-		html.append( "<tr>" );
-		// for each columns defined
-		for ( String key : valuesToExport )
-		{
-		    String value = null;
-
-		    // check if translation is defined
-		    if ( translationOfValuesToExport != null && translationOfValuesToExport.containsKey( key ) )
-		        value = translationOfValuesToExport.get( key );
-		    else
-		        value = key;
-
-		    // for null values use NBSP
-		    if ( value == null || value.trim().isEmpty() )
-		        value = "&nbsp;";
+		HTMLTableWriter writer = new HTMLTableWriter( html, valuesToExport, translationOfValuesToExport, confluenceEscapeValues );
 
-		    html.append( "<th>" + value + "</th>" );
-		}
-		html.append( "</tr>" );
 		// --[get entity row]--
 		for ( Entity entity : entities )
 		{
-		    getHTMLForEntity( entity, html );
+		    writer.writeEntity( entity );
 		}
-		html.append( "</tbody></table>" );
-		getLog().debug( "Generated HTML code: " + html );
-		return html;
+
+		writer.finish();
+	}
+
+	/**
+	 * Generate changes XML from columnar store
+	 * 
+	 * @param store entities to export
+	 * @throws Exception
+	 */
+	private void generateChangesXML(EntitiesColumnStore store) throws Exception
+	{
+		ChangesXMLWriter writer = new ChangesXMLWriter( changesOutputFilePath, changesProjectVersion );
+		writer.writeEntities( store );
+		writer.close();
 	}
 
 	/**
-	 * Query for entities in the HP ALM
+	 * Generate HTML table from columnar store
+	 * 
+	 * @param html buffer the table is appended to
+	 * @param store entities to export to HTML
+	 */
+	private void generateHTML(StringBuilder html, EntitiesColumnStore store) throws Exception
+	{
+		HTMLTableWriter writer = new HTMLTableWriter( html, valuesToExport, translationOfValuesToExport, confluenceEscapeValues );
+		writer.writeEntities( store );
+		writer.finish();
+	}
+
+	/**
+	 * Query for entities in the HP ALM using the local cache of the previous results. 
+	 * Only the identifiers of entities matching the query and the entities modified since the last retrieval are downloaded,
+	 * the other entities are taken from the cache. 
+	 * All the entities are retrieved if there is no cache yet.
 	 * 
 	 * @param cokie HP ALM session authentication cookie
 	 * @return List of entities from HP ALM
 	 * @throws Exception
 	 */
-	private List<Entity> retreiveEntities(String cokie) throws Exception
+	private List<Entity> retreiveEntitiesIncrementally(String cokie) throws Exception
 	{
-		List<Entity> entities;
-		boolean hasMoreEntities = true;
-		int startIndex = 1;
-		entities = new ArrayList<Entity>();
-		while ( hasMoreEntities )
+		File cacheFile = getIncrementalCacheFile();
+		EntitiesCache cache = null;
+		try
+		{
+		    cache = EntitiesCache.load( cacheFile );
+		}
+		catch ( JAXBException e )
+		{
+		    getLog().warn( "Could not read HP ALM entities cache " + cacheFile + ", all the entities will be retrieved", e );
+		}
+
+		List<Entity> entities = null;
+		if ( cache == null || cache.lastModified == null )
+		{
+		    getLog().info( "No HP ALM entities cache found, retrieving all the entities..." );
+		    entities = retriever.retreiveEntities( cokie, query, fields );
+
+		    cache = new EntitiesCache();
+		    for ( Entity entity : entities )
+		        cache.updateLastModified( entity );
+		}
+		else
 		{
-		    String finalURL = url + "/qcbin/rest/domains/" + domain + "/projects/" + project + "/defects?page-size=10&start-index=" + startIndex + "&query={" + query + "}";
-		    getLog().debug( "Final HP ALM url: " + finalURL );
-		    String res = dao.getFromHPALM( finalURL, cokie );
+		    // the identifiers of entities matching the query tell which entities have been added to or removed from the result
+		    List<Entity> members = retriever.retreiveEntities( cokie, query, "id" );
 
-		    List<Entity> entitiesToAdd = parse( res );
+		    String since = cache.lastModified;
+		    String modifiedQuery = EntitiesCache.LAST_MODIFIED_FIELD + "[%3E%3D%22" + encode( since ) + "%22]";
+		    List<Entity> modified = retriever.retreiveEntities( cokie, query.length() > 0 ? query + ";" + modifiedQuery : modifiedQuery, fields );
 
-		    if ( entitiesToAdd != null )
-		        entities.addAll( entitiesToAdd );
+		    Map<String, Entity> entitiesById = new HashMap<String, Entity>();
+		    for ( Entity entity : cache.entities )
+		    {
+		        processEntity( entity );
+		        entitiesById.put( entity.id, entity );
+		    }
+		    mergeEntities( cache, entitiesById, modified );
+
+		    // the entities matching the query that are not in cache yet are retrieved by identifiers
+		    List<String> missingIds = new ArrayList<String>();
+		    for ( Entity member : members )
+		        if ( !entitiesById.containsKey( member.id ) )
+		            missingIds.add( member.id );
+
+		    for ( int i = 0; i < missingIds.size(); i += INCREMENTAL_IDS_PER_QUERY )
+		    {
+		        StringBuilder idsQuery = new StringBuilder( "id[" );
+		        for ( int j = i; j < Math.min( missingIds.size(), i + INCREMENTAL_IDS_PER_QUERY ); j++ )
+		            idsQuery.append( j > i ? "%20OR%20" : "" ).append( encode( missingIds.get( j ) ) );
+		        idsQuery.append( "]" );
+
+		        mergeEntities( cache, entitiesById, retriever.retreiveEntities( cokie, idsQuery.toString(), fields ) );
+		    }
 
-		    startIndex += 10;
-		    hasMoreEntities = ( entities != null && entities.size() == 10 );
+		    // keep the query order and drop the entities that do not match the query anymore
+		    entities = new ArrayList<Entity>();
+		    for ( Entity member : members )
+		    {
+		        Entity entity = entitiesById.get( member.id );
+		        if ( entity != null )
+		            entities.add( entity );
+		    }
+
+		    getLog().info( "HP ALM entities: " + modified.size() + " modified since " + since + ", " + missingIds.size() + " missing from cache, " + entities.size() + " in total" );
+		}
+
+		cache.entities = entities;
+		try
+		{
+		    cache.save( cacheFile );
 		}
+		catch ( Exception e )
+		{
+		    getLog().warn( "Could not write HP ALM entities cache " + cacheFile, e );
+		}
+
 		return entities;
 	}
 
+	/**
+	 * Replace the cached entities by their up to date version
+	 * 
+	 * @param cache cache of entities
+	 * @param entitiesById cached entities per identifier
+	 * @param entities entities retrieved from HP ALM
+	 */
+	private void mergeEntities(EntitiesCache cache, Map<String, Entity> entitiesById, List<Entity> entities)
+	{
+		for ( Entity entity : entities )
+		{
+		    entitiesById.put( entity.id, entity );
+		    cache.updateLastModified( entity );
+		}
+	}
+
+	/**
+	 * @return file where the best page size found for each HP ALM server is recorded
+	 */
+	private File getAdaptivePageSizeRecordFile()
+	{
+		if ( adaptivePageSizeRecordFile != null )
+		    return new File( adaptivePageSizeRecordFile );
+
+		return new File( System.getProperty( "user.home" ), ".m2/hpalm-maven-plugin-page-size.properties" );
+	}
+
+	/**
+	 * @return file of the local cache of entities, one per HP ALM query and fields
+	 * @throws MojoExecutionException if the name of the file could not be computed
+	 */
+	private File getIncrementalCacheFile() throws MojoExecutionException
+	{
+		File directory = incrementalCacheDirectory != null ? new File( incrementalCacheDirectory ) : new File( System.getProperty( "user.home" ), ".m2/hpalm-maven-plugin-cache" );
+
+		return new File( directory, getQueryHash() + ".xml" );
+	}
+
+	/**
+	 * @return hash of HP ALM server, project, query statement and fields
+	 * @throws MojoExecutionException if the hash could not be computed
+	 */
+	private String getQueryHash() throws MojoExecutionException
+	{
+		try
+		{
+		    MessageDigest md = MessageDigest.getInstance( "MD5" );
+		    byte[] digest = md.digest( ( url + "|" + domain + "|" + project + "|" + query + "|" + fields ).getBytes( "UTF-8" ) );
+
+		    StringBuilder hash = new StringBuilder();
+		    for ( byte b : digest )
+		        hash.append( Integer.toHexString( ( b & 0xFF ) | 0x100 ).substring( 1 ) );
+
+		    return hash.toString();
+		}
+		catch ( Exception e )
+		{
+		    throw new MojoExecutionException( "Could not compute the hash of HP ALM query", e );
+		}
+	}
+
+	/**
+	 * Read the entities from snapshot file if it has been produced by the same query
+	 * 
+	 * @return List of entities or null if there is no valid snapshot
+	 * @throws MojoExecutionException if the hash of query could not be computed
+	 */
+	private List<Entity> readSnapshot() throws MojoExecutionException
+	{
+		if ( snapshotFile == null )
+		{
+		    getLog().warn( "No snapshot file configured, the entities will be retrieved from HP ALM" );
+		    return null;
+		}
+
+		long start = System.currentTimeMillis();
+		EntitiesSnapshot snapshot = null;
+		try
+		{
+		    snapshot = EntitiesSnapshot.open( new File( snapshotFile ) );
+		}
+		catch ( IOException e )
+		{
+		    getLog().warn( "Could not read snapshot " + snapshotFile + ", the entities will be retrieved from HP ALM", e );
+		    return null;
+		}
+
+		if ( snapshot == null )
+		{
+		    getLog().info( "No snapshot " + snapshotFile + " found, the entities will be retrieved from HP ALM" );
+		    return null;
+		}
+
+		if ( !getQueryHash().equals( snapshot.getQueryHash() ) )
+		{
+		    getLog().info( "Snapshot " + snapshotFile + " has been produced by another query, the entities will be retrieved from HP ALM" );
+		    return null;
+		}
+
+		List<Entity> entities = snapshot.getEntities();
+		for ( Entity entity : entities )
+		    processEntity( entity );
+
+		getLog().info( "Read " + entities.size() + " entities from snapshot " + snapshotFile + " in " + ( System.currentTimeMillis() - start ) + " ms" );
+		return entities;
+	}
+
+	/**
+	 * Save the entities to snapshot file
+	 * 
+	 * @param entities List of entities retrieved from HP ALM
+	 * @throws MojoExecutionException if the hash of query could not be computed
+	 */
+	private void writeSnapshot(List<Entity> entities) throws MojoExecutionException
+	{
+		try
+		{
+		    EntitiesSnapshot.write( new File( snapshotFile ), getQueryHash(), entities );
+		}
+		catch ( IOException e )
+		{
+		    getLog().warn( "Could not write snapshot " + snapshotFile, e );
+		}
+	}
+
+	/**
+	 * Encode the value for HP ALM query statement
+	 * @param value value to encode
+	 * @return encoded value
+	 */
+	private String encode(String value)
+	{
+		try
+		{
+		    // the + signs are not parsed as the spaces thus additional conversion to %20 is needed
+		    return URLEncoder.encode( value, "UTF-8" ).replace( "+", "%20" );
+		}
+		catch ( UnsupportedEncodingException e )
+		{
+		    throw new IllegalStateException( e );
+		}
+	}
+
 	/**
 	 * Building HP ALM query statement
 	 */
@@ -562,79 +1556,65 @@ public class HPALMMojo extends AbstractMojo
 	}
 
 	/**
-	 * Update confluence page with given content and defined header under the given keyword (or at the top of page in none given)
-	 * @param contentToAdd - content to put to confluence page
-	 * @throws Exception if error occurred during the confluence page update
+	 * Building the list of fields retrieved from HP ALM: the entity identifier, the exported fields, 
+	 * the fields mapped in changes file and the fields used by changes filters
 	 */
-	private void updateConfluencePage(String contentToAdd) throws Exception
+	private void buildFieldsProjection()
 	{
-		dao.initializeXmlRpcClient(confluenceServer);
-
-		Object result = dao.authenticateToConfluence(confleunceUser,confluencePassword);
-
-		// get the confluence page
-		HashMap<Object, Object> page = dao.getConfluencePage(result,confluencePageID);
-		getLog().debug("Current CONFLUENCE page: " + page);
-
-		// try to find the keyword under which the content will be put
-		String content = (String) page.get("content");
-        int i = -1;
-
-        if ( confluenceKeyWordForUpdate != null )
-            i = content.indexOf( confluenceKeyWordForUpdate );
-
-        if ( updateHeader == null )
-            updateHeader = "";
+		if ( !fieldsProjection )
+		{
+		    getLog().debug( "Fields projection disabled, all the fields will be retrieved" );
+		    return;
+		}
 
-        //if keyword was found
-        if ( i >= 0 )
-        {
-            i += confluenceKeyWordForUpdate.length();
-            content = content.substring( 0, i ) + updateHeader + contentToAdd + content.substring( i );
-        }
-        else
-        {
-            content = updateHeader + contentToAdd + content;
-        }
-	    
+		Set<String> names = new LinkedHashSet<String>();
+		names.add( "id" );
+		if ( valuesToExport != null )
+		    names.addAll( valuesToExport );
+		addFieldName( names, changesDevFiledMapping );
+		addFieldName( names, changesDescFiledMapping );
+		addFieldName( names, changesDueToFiledMapping );
+		if ( changesFixIssuesFilter != null )
+		    names.addAll( changesFixIssuesFilter.keySet() );
+		if ( changesAddIssuesFilter != null )
+		    names.addAll( changesAddIssuesFilter.keySet() );
+		if ( changesUpdateIssuesFilter != null )
+		    names.addAll( changesUpdateIssuesFilter.keySet() );
+		if ( changesRemoveIssuesFilter != null )
+		    names.addAll( changesRemoveIssuesFilter.keySet() );
+		// the fields of change type rules, without them the rules could never match
+		names.addAll( getChangeTypeClassifier().getFieldNames() );
+		if ( incremental )
+		    names.add( EntitiesCache.LAST_MODIFIED_FIELD );
+
+		StringBuilder projection = new StringBuilder();
+		for ( String name : names )
+		{
+		    try
+		    {
+		        name = URLEncoder.encode( name, "UTF-8" ).replace( "+", "%20" );
+		    }
+		    catch ( UnsupportedEncodingException e )
+		    {
+		        e.printStackTrace();
+		    }
 
-		getLog().debug("and the new content: " + content);
+		    projection.append( projection.length() > 0 ? "," : "" ).append( name );
+		}
 
-		// update confluence page
-		page.put("content", content);
-		HashMap<Object, Object> pageUpdateOptions = new HashMap<Object, Object>();
-		dao.updateConfluencePage(result, page, pageUpdateOptions);
+		fields = projection.toString();
+		getLog().debug( "Final HP ALM fields: " + fields );
 	}
 
 	/**
-	 * Wraps HP ALM entity with HTML table row tags
-	 * 
-	 * @param entity
-	 *            - the entity to be transformed to HTML table row
-	 * @param html
-	 *            - the String Builder instance to append the content to
+	 * Add the field name to the set if given
+	 * @param names set of field names
+	 * @param name field name, may be null
 	 */
-	private void getHTMLForEntity(Entity entity, StringBuilder html)
+	private void addFieldName(Set<String> names, String name)
 	{
-		html.append("<tr>");
-		// for each column configured
-		for (String key : valuesToExport)
-		{
-			// get the value from entity for corresponding column
-			String value = "&nbsp;";
-			if (entity.fields != null)
-			{
-				List<Field> fields = entity.fields;
-				for (Field field : fields)
-					if (key.equalsIgnoreCase(field.name))
-					{
-						value = field.value;
-					}
-			}
-
-			html.append("<td>" + value + "</td>");
-		}
-		html.append("</tr>");
+		if ( name != null && name.trim().length() > 0 )
+		    names.add( name.trim() );
 	}
 
 	/**
@@ -659,6 +1639,32 @@ public class HPALMMojo extends AbstractMojo
 		return xml;
 	}
 
+	/**
+	 * Prepare bulk update statement for entities
+	 * 
+	 * @param entities
+	 *            - entities to update
+	 * @return update statement for the defects collection
+	 */
+	public String getBulkUpdateStatement(List<Entity> entities)
+	{
+		StringBuilder xml = new StringBuilder( "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\" ?><Entities>" );
+
+		for ( Entity entity : entities )
+		{
+			xml.append( "<Entity Type=\"defect\"><Fields>" );
+			xml.append( "<Field Name=\"id\"><Value>" ).append( entity.id ).append( "</Value></Field>" );
+
+			for ( Map.Entry<String, String> value : valuesToUpdate.entrySet() )
+				xml.append( "<Field Name=\"" ).append( value.getKey() ).append( "\"><Value>" ).append( value.getValue() ).append( "</Value></Field>" );
+
+			xml.append( "</Fields></Entity>" );
+		}
+		xml.append( "</Entities>" );
+
+		return xml.toString();
+	}
+
 	/**
 	 * Transform the entities to object representation
 	 * 
@@ -669,128 +1675,269 @@ public class HPALMMojo extends AbstractMojo
 	 */
 	public List<Entity> parse(String xmlBody)
 	{
-		JAXBContext context;
+		EntitiesRoot entitiesRoot = parseEntitiesRoot(xmlBody);
+
+		return entitiesRoot != null ? entitiesRoot.entities : null;
+	}
+
+	/**
+	 * Transform the HP ALM query result page to object representation
+	 * 
+	 * @param xmlBody
+	 *            - result of HP ALM query containing entity definitions to
+	 *            parse
+	 * @return root of the query result page
+	 */
+	public EntitiesRoot parseEntitiesRoot(String xmlBody)
+	{
 		try
 		{
-			// get the XML parser
-			context = JAXBContext.newInstance(EntitiesRoot.class);
-			Unmarshaller unmarshaller = context.createUnmarshaller();
+			if (retriever == null)
+				retriever = createEntitiesRetriever();
+			return retriever.parsePage(xmlBody, null);
+		}
+		catch (Exception e)
+		{
+			getLog().error("Could not parse HP ALM query result", e);
+		}
 
-			// parse the XML body
-			StringReader reader = new StringReader(xmlBody);
-			EntitiesRoot entitiesRoot = (EntitiesRoot) unmarshaller.unmarshal(reader);
-			
-			//parse some attributes to simplify the defects processing
-			if (entitiesRoot != null)
-			{
-				if (entitiesRoot.entities != null) for (Entity entity : entitiesRoot.entities)
-				{
-				    
-		            int countOfFixTypeConditionsValidated    = 0;
-		            int countOfAddTypeConditionsValidated    = 0;
-		            int countOfUpdateTypeConditionsValidated = 0;
-		            int countOfRemoveTypeConditionsValidated = 0;
-				    
-		            //parse the attributes
-					if (entity.fields != null) for (Field field : entity.fields)
-					{
-					    
-			            // update the ID filed of entity due to simplify the entities identification.					    
-						if (field.name.equalsIgnoreCase("id"))
-						{
-							entity.id = field.value;
-
-						}
-						if (field.name.equalsIgnoreCase(changesDevFiledMapping))
-                        {
-                            entity.dev = field.value;
-  
-                        }
-                        if (field.name.equalsIgnoreCase(changesDescFiledMapping))
-                        {
-                            entity.desc = field.value;
-     
-                        }				
-                        if (field.name.equalsIgnoreCase(changesDueToFiledMapping))
-                        {
-                            entity.dueTo = field.value;
-       
-                        }
-                        
-                        //check changes filter for add type issues
-                        if( changesAddIssuesFilter!=null && changesAddIssuesFilter.containsKey(field.name))
-                        {
-                            if(changesAddIssuesFilter.get( field.name ).equalsIgnoreCase( field.value))
-                                countOfAddTypeConditionsValidated++;
-                        }
-                        
-                        //check changes filter for fix type issues
-                        if( changesFixIssuesFilter!=null && changesFixIssuesFilter.containsKey(field.name))
-                        {
-                            if(changesFixIssuesFilter.get( field.name ).equalsIgnoreCase( field.value))
-                                countOfFixTypeConditionsValidated++;
-                        }    
-                        
-                        //check changes filter for update type issues
-                        if( changesUpdateIssuesFilter!=null && changesUpdateIssuesFilter.containsKey(field.name))
-                        {
-                            if(changesUpdateIssuesFilter.get( field.name ).equalsIgnoreCase( field.value))
-                                countOfUpdateTypeConditionsValidated++;
-                        }           
-                        
-                        //check changes filter for remove type issues
-                        if( changesRemoveIssuesFilter!=null && changesRemoveIssuesFilter.containsKey(field.name))
-                        {
-                            if(changesRemoveIssuesFilter.get( field.name ).equalsIgnoreCase( field.value))
-                                countOfRemoveTypeConditionsValidated++;
-                        }                             
-						
-					}
-					
-					//set the issue type
-					                    
-                    //check changes filter for fix type issues
-                    if( changesFixIssuesFilter!=null && changesFixIssuesFilter.size()==countOfFixTypeConditionsValidated)
-                    {
-                        entity.changeType="FIX";
-                    }
-                    
-                    //check changes filter for add type issues
-                    if( changesAddIssuesFilter!=null && changesAddIssuesFilter.size()==countOfAddTypeConditionsValidated)
-                    {
-                    	entity.changeType="ADD";
-                    }
-                    
-                    
-                    //check changes filter for update type issues
-                    if( changesUpdateIssuesFilter!=null && changesUpdateIssuesFilter.size()==countOfUpdateTypeConditionsValidated)
-                    {
-                    	entity.changeType="UPDATE";
-                    }           
-                    
-                    //check changes filter for remove type issues
-                    if( changesRemoveIssuesFilter!=null && changesRemoveIssuesFilter.size()==countOfRemoveTypeConditionsValidated)
-                    {
-                    	entity.changeType="REMOVE";
-                    }     					
-					
-					
-					
-				}
+		return null;
+	}
 
-				return entitiesRoot.entities;
-			}
+	/**
+	 * Parse some attributes of entity to simplify the defects processing
+	 * 
+	 * @param entity
+	 *            - entity to process
+	 */
+	private void processEntity(Entity entity)
+	{
+		//index the fields once, the reports read them by name
+		entity.indexFields();
 
+		//parse the attributes
+		// update the ID filed of entity due to simplify the entities identification.
+		if (entity.hasField("id"))
+		{
+			entity.id = entity.getFieldValue("id");
 		}
-		catch (JAXBException e)
+		if (entity.hasField(changesDevFiledMapping))
 		{
-			e.printStackTrace();
+			entity.dev = entity.getFieldValue(changesDevFiledMapping);
+		}
+		if (entity.hasField(changesDescFiledMapping))
+		{
+			entity.desc = entity.getFieldValue(changesDescFiledMapping);
+		}
+		if (entity.hasField(changesDueToFiledMapping))
+		{
+			entity.dueTo = entity.getFieldValue(changesDueToFiledMapping);
 		}
 
-		return null;
+		//set the issue type
+		String changeType = getChangeTypeClassifier().classify( entity );
+		if ( changeType != null )
+		{
+		    entity.changeType = changeType;
+		}
+	}
+
+	/**
+	 * @return change type rules and filters compiled into single matcher
+	 */
+	private ChangeTypeClassifier getChangeTypeClassifier()
+	{
+		// the classifier is immutable, compiling it twice on concurrent pages is harmless
+		if ( changeTypeClassifier == null )
+		{
+		    changeTypeClassifier = new ChangeTypeClassifier( changesTypeRules, changesFixIssuesFilter, changesAddIssuesFilter, changesUpdateIssuesFilter, changesRemoveIssuesFilter );
+		}
+
+		return changeTypeClassifier;
+	}
+
+	/**
+	 * @return parser of HP ALM query results selected in plugin configuration
+	 */
+	private EntitiesParserI getEntitiesParser()
+	{
+		if ( entitiesParser == null )
+		{
+		    if ( "jaxb".equalsIgnoreCase( parser ) )
+		        entitiesParser = new JAXBEntitiesParser();
+		    else
+		        entitiesParser = new StAXEntitiesParser();
+		}
 
+		return entitiesParser;
 	}
 	
+	/**
+	 * @return retriever of HP ALM query result pages through the current Data Access Object
+	 */
+	private EntitiesRetriever createEntitiesRetriever()
+	{
+		EntitiesRetriever entitiesRetriever = new EntitiesRetriever( executionDao, getEntitiesParser(), new EntityHandlerI()
+		{
+		    public void handleEntity(Entity entity)
+		    {
+		        processEntity( entity );
+		    }
+		}, metrics, getLog(), url, domain, project, pageSize, fetchConcurrency );
+
+		if ( adaptivePageSize )
+		    entitiesRetriever.setAdaptivePageSize( adaptivePageSizeMax, getAdaptivePageSizeRecordFile() );
+
+		return entitiesRetriever;
+	}
+
+	/**
+	 * @return publisher of the generated content to CONFLUENCE page defined by the plugin configuration
+	 */
+	private ConfluencePublisher createConfluencePublisher()
+	{
+		return new ConfluencePublisher( executionDao, getLog(), confluenceServer, confleunceUser, confluencePassword, confluencePageID, confluenceKeyWordForUpdate, updateHeader, confluenceSkipUnchanged, changesProjectVersion, confluencePagesConcurrency );
+	}
+
+	/**
+	 * @return Data Access Object defined by the plugin configuration
+	 * @throws MojoExecutionException if the recorded exchanges could not be read
+	 */
+	private HPALMMojoDAOI createDao() throws MojoExecutionException
+	{
+		if ( replayDirectory != null )
+		{
+		    getLog().info( "Replaying HP ALM and Confluence exchanges from " + replayDirectory );
+		    try
+		    {
+		        return new ReplayHPALMMojoDAO( new File( replayDirectory ), replayLatency, replayLatencyFactor );
+		    }
+		    catch ( IOException e )
+		    {
+		        throw new MojoExecutionException( "Could not read recorded exchanges", e );
+		    }
+		}
+
+		DefaultHPALMMojoDAO dao = null;
+		if ( httpConnectionPoolSize > 0 )
+		{
+		    getLog().debug( "Using pool of " + httpConnectionPoolSize + " HP ALM connections" );
+		    dao = new PooledHPALMMojoDAO( httpConnectionPoolSize, httpConnectionIdleTimeout );
+		}
+		else
+		{
+		    dao = new DefaultHPALMMojoDAO();
+		}
+		dao.setCompression( httpCompression );
+
+		return dao;
+	}
+
+	/**
+	 * Add the features enabled by plugin configuration on top of the Data Access Object
+	 * 
+	 * @param dao Data Access Object to decorate
+	 * @return decorated Data Access Object
+	 * @throws MojoExecutionException if the recording directory could not be created
+	 */
+	private HPALMMojoDAOI decorateDao(HPALMMojoDAOI dao) throws MojoExecutionException
+	{
+		// closest to the connections, so each request sent is measured
+		if ( metricsFile != null )
+		    dao = new MetricsHPALMMojoDAO( dao, metrics );
+
+		if ( recordDirectory != null )
+		{
+		    getLog().info( "Recording HP ALM and Confluence exchanges to " + recordDirectory );
+		    try
+		    {
+		        dao = new RecordingHPALMMojoDAO( dao, new File( recordDirectory ), getLog() );
+		    }
+		    catch ( IOException e )
+		    {
+		        throw new MojoExecutionException( "Could not record exchanges", e );
+		    }
+		}
+
+		if ( sessionCache )
+		    dao = new SessionCachingHPALMMojoDAO( dao, new HPALMSessionCache( sessionCacheTimeToLive * 1000, sessionCacheFile != null ? new File( sessionCacheFile ) : null ) );
+
+		if ( fetchRetries > 0 || fetchHedgePercentile > 0 || circuitBreakerThreshold > 0 )
+		    dao = new ResilientHPALMMojoDAO( dao, fetchRetries, fetchRetryDelay, fetchRetryMaxDelay, fetchHedgePercentile, fetchConcurrency, circuitBreakerThreshold > 0 ? new CircuitBreaker( circuitBreakerThreshold, circuitBreakerCooldown ) : null );
+
+		return dao;
+	}
+
+	/**
+	 * Log the connection statistics and release the resources held by Data Access Object of the execution.
+	 * The Data Access Object set by the caller is left open, only the decorators and the one created by the execution are closed.
+	 */
+	private void releaseDao()
+	{
+		HPALMMojoDAOI base = executionDao;
+		while ( base instanceof HPALMMojoDAODecorator )
+		{
+		    if ( base instanceof ResilientHPALMMojoDAO )
+		        getLog().info( ( (ResilientHPALMMojoDAO) base ).getStatistics() );
+
+		    try
+		    {
+		        ( (HPALMMojoDAODecorator) base ).release();
+		    }
+		    catch ( IOException e )
+		    {
+		        getLog().warn( "Could not release HP ALM connections", e );
+		    }
+
+		    base = ( (HPALMMojoDAODecorator) base ).getDelegate();
+		}
+
+		if ( base instanceof PooledHPALMMojoDAO )
+		    getLog().debug( ( (PooledHPALMMojoDAO) base ).getStatistics() );
+
+		if ( base instanceof DefaultHPALMMojoDAO )
+		{
+		    TransferStatistics transferStatistics = ( (DefaultHPALMMojoDAO) base ).getTransferStatistics();
+		    getLog().info( transferStatistics.toString() );
+		    metrics.addCount( ExecutionMetrics.COUNT_NETWORK_BYTES_IN, transferStatistics.getReceivedBytes() );
+		}
+
+		if ( base != dao && base instanceof Closeable )
+		{
+		    try
+		    {
+		        ( (Closeable) base ).close();
+		    }
+		    catch ( IOException e )
+		    {
+		        getLog().warn( "Could not release HP ALM connections", e );
+		    }
+		}
+
+		executionDao = null;
+	}
+
+	/**
+	 * Write the execution metrics to metricsFile, if any
+	 * 
+	 * @param failed true if the execution failed
+	 */
+	private void writeMetrics(boolean failed)
+	{
+		if ( metricsFile == null )
+		    return;
+
+		try
+		{
+		    metrics.write( new File( metricsFile ), failed );
+		    getLog().info( "Execution metrics written to " + metricsFile );
+		}
+		catch ( IOException e )
+		{
+		    getLog().warn( "Could not write execution metrics to " + metricsFile, e );
+		}
+	}
+
 	public HPALMMojoDAOI getDao()
 	{
 		return dao;
@@ -0,0 +1,174 @@
+/*
+Copyright 2014 Maciej SIDOR [maciejsidor@gmail.com]
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+package com.googlecode.msidor.maven.plugins.hpalm.deliverynote;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.List;
+
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.xmlrpc.XmlRpcException;
+
+/**
+ * Base of HPALMMavenPluginDAOI implementations that add a feature on top of another Data Access Object.
+ * Each method passes the call to the decorated Data Access Object, subclasses override the ones they extend.
+ * The responses are streamed when the decorated Data Access Object supports it.
+ *
+ * @author Maciej SIDOR
+ *
+ */
+public abstract class HPALMMojoDAODecorator implements StreamingHPALMMojoDAOI, Closeable
+{
+	/**
+	 * Decorated Data Access Object
+	 */
+	protected final HPALMMojoDAOI	delegate;
+
+	/**
+	 * Default constructor
+	 * @param delegate decorated Data Access Object
+	 */
+	protected HPALMMojoDAODecorator(HPALMMojoDAOI delegate)
+	{
+		this.delegate = delegate;
+	}
+
+	@Override
+	public void updateConfluencePage(Object cookie, HashMap<Object, Object> page, HashMap<Object, Object> pageUpdateOptions) throws XmlRpcException
+	{
+		delegate.updateConfluencePage(cookie, page, pageUpdateOptions);
+	}
+
+	@Override
+	public HashMap<Object, Object> getConfluencePage(Object cookie, String confluencePageID) throws XmlRpcException
+	{
+		return delegate.getConfluencePage(cookie, confluencePageID);
+	}
+
+	@Override
+	public List<HashMap<Object, Object>> getConfluenceChildPages(Object cookie, String confluencePageID) throws XmlRpcException
+	{
+		return delegate.getConfluenceChildPages(cookie, confluencePageID);
+	}
+
+	@Override
+	public HashMap<Object, Object> storeConfluencePage(Object cookie, HashMap<Object, Object> page) throws XmlRpcException
+	{
+		return delegate.storeConfluencePage(cookie, page);
+	}
+
+	@Override
+	public Object authenticateToConfluence(String confleunceUser, String confluencePassword) throws XmlRpcException
+	{
+		return delegate.authenticateToConfluence(confleunceUser, confluencePassword);
+	}
+
+	@Override
+	public void initializeXmlRpcClient(String confluenceServer) throws MalformedURLException
+	{
+		delegate.initializeXmlRpcClient(confluenceServer);
+	}
+
+	@Override
+	public String putToHPALM(String targetURL, String urlParameters, String cookie) throws MojoFailureException
+	{
+		return putToHPALM(targetURL, urlParameters, CONTENT_TYPE_XML, cookie);
+	}
+
+	@Override
+	public String putToHPALM(String targetURL, String urlParameters, String contentType, String cookie) throws MojoFailureException
+	{
+		return delegate.putToHPALM(targetURL, urlParameters, contentType, cookie);
+	}
+
+	@Override
+	public String getFromHPALM(String targetURL, String cookie) throws MojoFailureException
+	{
+		return delegate.getFromHPALM(targetURL, cookie);
+	}
+
+	/**
+	 * Streams the response if the decorated Data Access Object supports it, otherwise streams the response read as String
+	 */
+	@Override
+	public void getFromHPALM(String targetURL, String cookie, HPALMResponseHandlerI handler) throws MojoFailureException
+	{
+		if (delegate instanceof StreamingHPALMMojoDAOI)
+			((StreamingHPALMMojoDAOI) delegate).getFromHPALM(targetURL, cookie, handler);
+		else
+			handleResponse(delegate.getFromHPALM(targetURL, cookie), handler);
+	}
+
+	@Override
+	public String authenticateToHPALM(String targetURL, String username, String password) throws MojoFailureException
+	{
+		return delegate.authenticateToHPALM(targetURL, username, password);
+	}
+
+	/**
+	 * Pass the response read as String to the handler
+	 * @param response response content, the handler is not called if null
+	 * @param handler receiver of the response content
+	 * @throws MojoFailureException if the handler failed, as HPALMResponseException without response code like a response that failed while being read
+	 */
+	protected static void handleResponse(String response, HPALMResponseHandlerI handler) throws MojoFailureException
+	{
+		if (response == null)
+			return;
+
+		try
+		{
+			handler.handleResponse(new ByteArrayInputStream(response.getBytes(Charset.forName("UTF-8"))));
+		}
+		catch (Exception e)
+		{
+			throw new HPALMResponseException(e, "Could not handle HP ALM response", "Could not handle HP ALM response: " + e.getMessage(), -1);
+		}
+	}
+
+	/**
+	 * Release the resources of this decorator and of decorated Data Access Object
+	 * @throws IOException
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		release();
+
+		if (delegate instanceof Closeable)
+			((Closeable) delegate).close();
+	}
+
+	/**
+	 * Release the resources of this decorator only, decorated Data Access Object is left open
+	 * @throws IOException
+	 */
+	public void release() throws IOException
+	{
+	}
+
+	/**
+	 * @return decorated Data Access Object
+	 */
+	public HPALMMojoDAOI getDelegate()
+	{
+		return delegate;
+	}
+}
@@ -17,6 +17,7 @@ package com.googlecode.msidor.maven.plugins.hpalm.deliverynote;
 
 import java.net.MalformedURLException;
 import java.util.HashMap;
+import java.util.List;
 
 import org.apache.maven.plugin.MojoFailureException;
 import org.apache.xmlrpc.XmlRpcException;
@@ -31,6 +32,12 @@ import org.apache.xmlrpc.XmlRpcException;
 public interface HPALMMojoDAOI
 {
 
+	/** Content type of single HP ALM entity */
+	public static final String	CONTENT_TYPE_XML			= "application/xml";
+
+	/** Content type of HP ALM entities collection, used by bulk operations */
+	public static final String	CONTENT_TYPE_XML_COLLECTION	= "application/xml;type=collection";
+
 	/**
 	 * Update Confluence page with given content
 	 * @param cookie Confluence session authentication object
@@ -49,6 +56,24 @@ public interface HPALMMojoDAOI
 	 */
 	public abstract HashMap<Object, Object> getConfluencePage(Object cookie, String confluencePageID) throws XmlRpcException;
 
+	/**
+	 * Retrieves the child pages of Confluence page
+	 * @param cookie Confluence session authentication object
+	 * @param confluencePageID CID of the parent Confluence page
+	 * @return summaries of the child pages (id, title, parentId, space, url)
+	 * @throws XmlRpcException
+	 */
+	public abstract List<HashMap<Object, Object>> getConfluenceChildPages(Object cookie, String confluencePageID) throws XmlRpcException;
+
+	/**
+	 * Stores Confluence page, the page is created if it has no id
+	 * @param cookie Confluence session authentication object
+	 * @param page Confluence page content, new page requires space, title, parentId and content
+	 * @return stored Confluence page
+	 * @throws XmlRpcException
+	 */
+	public abstract HashMap<Object, Object> storeConfluencePage(Object cookie, HashMap<Object, Object> page) throws XmlRpcException;
+
 	/**
 	 * Authenticates to Confluence
 	 * @param confleunceUser Confluence user
@@ -80,6 +105,23 @@ public interface HPALMMojoDAOI
 	 */
 	public abstract String putToHPALM(String targetURL, String urlParameters, String cookie) throws MojoFailureException;
 
+	/**
+	 * Send content of given type to target URL via PUT method
+	 * 
+	 * @param targetURL
+	 *            - target to send the content to
+	 * @param urlParameters
+	 *            - the content to be sent
+	 * @param contentType
+	 *            - type of the content to be sent
+	 * @param cookie
+	 *            - cookie to be set in Cookie header file
+	 * @return response from the target URL
+	 * @throws MojoFailureException
+	 *             if server responded with code different than 200
+	 */
+	public abstract String putToHPALM(String targetURL, String urlParameters, String contentType, String cookie) throws MojoFailureException;
+
 	/**
 	 * Get the content from target URL via GET method
 	 * 
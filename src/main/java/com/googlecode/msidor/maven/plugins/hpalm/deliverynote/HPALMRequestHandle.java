@@ -0,0 +1,146 @@
+/*
+Copyright 2014 Maciej SIDOR [maciejsidor@gmail.com]
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+package com.googlecode.msidor.maven.plugins.hpalm.deliverynote;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Handle that lets another thread abort the HP ALM request sent by the thread the handle is attached to.
+ *
+ * <p>
+ * The thread attaches the handle before sending the request through the Data Access Objects.
+ * DefaultHPALMMojoDAO and PooledHPALMMojoDAO register the connection of the request with the handle of the current thread,
+ * aborting the handle closes that connection, so a thread blocked while waiting for or reading the response fails at once
+ * instead of holding the connection until the server answers. Interrupting the thread would not unblock the socket read.
+ * </p>
+ *
+ */
+public class HPALMRequestHandle
+{
+	/**
+	 * Handle attached to the current thread
+	 */
+	private static final ThreadLocal<HPALMRequestHandle>	CURRENT		= new ThreadLocal<HPALMRequestHandle>();
+
+	/**
+	 * Connection of the request in progress, null if none
+	 */
+	private Closeable										connection	= null;
+
+	/**
+	 * True once the request has been aborted
+	 */
+	private boolean											aborted		= false;
+
+	/**
+	 * Attach the handle to the current thread, the requests the thread sends until the handle is detached may be aborted through it
+	 */
+	public void attach()
+	{
+		CURRENT.set(this);
+	}
+
+	/**
+	 * Detach the handle from the current thread
+	 */
+	public void detach()
+	{
+		CURRENT.remove();
+	}
+
+	/**
+	 * Abort the request, its connection is closed
+	 */
+	public synchronized void abort()
+	{
+		aborted = true;
+		closeQuietly(connection);
+	}
+
+	/**
+	 * @return true if the request has been aborted
+	 */
+	public synchronized boolean isAborted()
+	{
+		return aborted;
+	}
+
+	/**
+	 * Register the connection of the request sent by the current thread, does nothing if no handle is attached to the thread
+	 * @param connection connection of the request, closing it aborts the request
+	 * @throws IOException if the request has already been aborted, the connection is then closed
+	 */
+	public static void connectionOpened(Closeable connection) throws IOException
+	{
+		HPALMRequestHandle handle = CURRENT.get();
+		if (handle != null)
+			handle.setConnection(connection);
+	}
+
+	/**
+	 * Unregister the connection of the request sent by the current thread once the request is over
+	 */
+	public static void connectionClosed()
+	{
+		HPALMRequestHandle handle = CURRENT.get();
+		if (handle != null)
+			handle.clearConnection();
+	}
+
+	/**
+	 * @return true if the request sent by the current thread has been aborted
+	 */
+	public static boolean isCurrentRequestAborted()
+	{
+		HPALMRequestHandle handle = CURRENT.get();
+		return handle != null && handle.isAborted();
+	}
+
+	/**
+	 * @param connection connection of the request in progress
+	 * @throws IOException if the request has already been aborted
+	 */
+	private synchronized void setConnection(Closeable connection) throws IOException
+	{
+		if (aborted)
+		{
+			closeQuietly(connection);
+			throw new IOException("HP ALM request has been aborted");
+		}
+
+		this.connection = connection;
+	}
+
+	private synchronized void clearConnection()
+	{
+		connection = null;
+	}
+
+	/**
+	 * @param connection connection to close, may be null
+	 */
+	private static void closeQuietly(Closeable connection)
+	{
+		if (connection != null) try
+		{
+			connection.close();
+		}
+		catch (IOException e)
+		{/* ignore */
+		}
+	}
+}
@@ -0,0 +1,63 @@
+/*
+Copyright 2014 Maciej SIDOR [maciejsidor@gmail.com]
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+package com.googlecode.msidor.maven.plugins.hpalm.deliverynote;
+
+import org.apache.maven.plugin.MojoFailureException;
+
+/**
+ * Exception thrown by Data Access Object when HP ALM server responded with an error code.
+ *
+ * @author Maciej SIDOR
+ *
+ */
+public class HPALMResponseException extends MojoFailureException
+{
+	private static final long	serialVersionUID	= 1L;
+
+	/**
+	 * HTTP response code
+	 */
+	private final int			responseCode;
+
+	/**
+	 * Default constructor
+	 * @param source the source of exception
+	 * @param shortMessage short message
+	 * @param longMessage long message
+	 * @param responseCode HTTP response code
+	 */
+	public HPALMResponseException(Object source, String shortMessage, String longMessage, int responseCode)
+	{
+		super(source, shortMessage, longMessage);
+		this.responseCode = responseCode;
+	}
+
+	/**
+	 * @return HTTP response code
+	 */
+	public int getResponseCode()
+	{
+		return responseCode;
+	}
+
+	/**
+	 * @return true if the request failed due to connection error or server overload (429, 502, 503 and 504 response codes), so it may succeed if sent again
+	 */
+	public boolean isRetriable()
+	{
+		return responseCode == -1 || responseCode == 429 || responseCode == 502 || responseCode == 503 || responseCode == 504;
+	}
+}
@@ -0,0 +1,39 @@
+/*
+Copyright 2014 Maciej SIDOR [maciejsidor@gmail.com]
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+package com.googlecode.msidor.maven.plugins.hpalm.deliverynote;
+
+import java.io.InputStream;
+
+/**
+ * Receiver of HP ALM response content.
+ * An implementation of this interface reads the response while it is received, the connection is released once it returns.
+ * A failure while reading the response is reported by the Data Access Object as HPALMResponseException without response code (-1),
+ * the request may then be retried and the handler called again: it must start over and drop what it read from the failed response.
+ *
+ * @author Maciej SIDOR
+ *
+ */
+public interface HPALMResponseHandlerI
+{
+
+	/**
+	 * Handle the response content
+	 * @param response decompressed response content, the handler does not need to close it
+	 * @throws Exception if the response could not be read or handled, it must not be swallowed so a truncated response is not taken for a complete one
+	 */
+	public abstract void handleResponse(InputStream response) throws Exception;
+
+}
@@ -0,0 +1,238 @@
+/*
+Copyright 2014 Maciej SIDOR [maciejsidor@gmail.com]
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+package com.googlecode.msidor.maven.plugins.hpalm.deliverynote;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Cache of HP ALM sessions.
+ *
+ * <p>
+ * The session cookies are kept per HP ALM server address and user in a store shared by the whole JVM,
+ * thus all the modules of a reactor build can use the same session.
+ * Optionally the sessions are also saved to a file readable only by its owner, so they can be used by the next builds.
+ * The passwords are never stored. A session is dropped once its time to live is exceeded.
+ * </p>
+ *
+ * @author Maciej SIDOR
+ *
+ */
+public class HPALMSessionCache
+{
+	/**
+	 * Sessions shared by the JVM, the values are formatted as "creation time;cookie"
+	 */
+	private static final Map<String, String>	sessions	= new HashMap<String, String>();
+
+	/**
+	 * Time to live of a session (in milliseconds)
+	 */
+	private final long							timeToLive;
+
+	/**
+	 * File where the sessions are saved, may be null
+	 */
+	private final File							file;
+
+	/**
+	 * Default constructor
+	 * @param timeToLive time to live of a session (in milliseconds)
+	 * @param file file where the sessions are saved, may be null
+	 */
+	public HPALMSessionCache(long timeToLive, File file)
+	{
+		this.timeToLive = timeToLive;
+		this.file = file;
+	}
+
+	/**
+	 * @param url HP ALM server address
+	 * @param login HP ALM user
+	 * @return session cookie or null if there is no valid session cached
+	 */
+	public String get(String url, String login)
+	{
+		String key = getKey(url, login);
+
+		synchronized (sessions)
+		{
+			String session = sessions.get(key);
+
+			// the session might have been saved by another build
+			if (session == null && file != null)
+			{
+				session = readFile().getProperty(key);
+				if (session != null)
+					sessions.put(key, session);
+			}
+
+			if (session == null)
+				return null;
+
+			int separator = session.indexOf(';');
+			long creationTime = 0;
+			try
+			{
+				creationTime = Long.parseLong(session.substring(0, separator));
+			}
+			catch (RuntimeException e)
+			{
+				// malformed entry
+			}
+
+			if (System.currentTimeMillis() - creationTime > timeToLive)
+			{
+				sessions.remove(key);
+				return null;
+			}
+
+			return session.substring(separator + 1);
+		}
+	}
+
+	/**
+	 * Caches the session
+	 * @param url HP ALM server address
+	 * @param login HP ALM user
+	 * @param cookie session cookie
+	 * @throws IOException if the session could not be saved to file
+	 */
+	public void put(String url, String login, String cookie) throws IOException
+	{
+		if (cookie == null)
+			return;
+
+		String key = getKey(url, login);
+		String session = System.currentTimeMillis() + ";" + cookie;
+
+		synchronized (sessions)
+		{
+			sessions.put(key, session);
+
+			if (file != null)
+			{
+				Properties saved = readFile();
+				saved.setProperty(key, session);
+				writeFile(saved);
+			}
+		}
+	}
+
+	/**
+	 * Drops the session if it is still the cached one
+	 * @param url HP ALM server address
+	 * @param login HP ALM user
+	 * @param cookie session cookie that is not valid anymore
+	 * @throws IOException if the session could not be removed from file
+	 */
+	public void invalidate(String url, String login, String cookie) throws IOException
+	{
+		String key = getKey(url, login);
+
+		synchronized (sessions)
+		{
+			String session = sessions.get(key);
+			if (session == null || !session.endsWith(";" + cookie))
+				return;
+
+			sessions.remove(key);
+
+			if (file != null)
+			{
+				Properties saved = readFile();
+				saved.remove(key);
+				writeFile(saved);
+			}
+		}
+	}
+
+	/**
+	 * @param url HP ALM server address
+	 * @param login HP ALM user
+	 * @return key of the session
+	 */
+	private String getKey(String url, String login)
+	{
+		return url + "|" + login;
+	}
+
+	/**
+	 * @return the sessions saved to file, empty if the file does not exist or could not be read
+	 */
+	private Properties readFile()
+	{
+		Properties saved = new Properties();
+		if (!file.exists())
+			return saved;
+
+		try
+		{
+			InputStream is = new FileInputStream(file);
+			try
+			{
+				saved.load(is);
+			}
+			finally
+			{
+				is.close();
+			}
+		}
+		catch (IOException e)
+		{
+			// ignore, the session will be created again
+		}
+
+		return saved;
+	}
+
+	/**
+	 * Saves the sessions to file that is readable and writable only by its owner
+	 * @param saved sessions to save
+	 * @throws IOException if the file could not be written
+	 */
+	private void writeFile(Properties saved) throws IOException
+	{
+		if (file.getParentFile() != null)
+			file.getParentFile().mkdirs();
+
+		// restrict the permissions before writing the sessions
+		if (!file.exists())
+			file.createNewFile();
+		file.setReadable(false, false);
+		file.setWritable(false, false);
+		file.setExecutable(false, false);
+		file.setReadable(true, true);
+		file.setWritable(true, true);
+
+		OutputStream os = new FileOutputStream(file);
+		try
+		{
+			saved.store(os, "HP ALM sessions");
+		}
+		finally
+		{
+			os.close();
+		}
+	}
+}
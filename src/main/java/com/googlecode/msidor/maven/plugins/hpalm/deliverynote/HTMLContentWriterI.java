@@ -0,0 +1,40 @@
+/*
+Copyright 2014 Maciej SIDOR [maciejsidor@gmail.com]
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+package com.googlecode.msidor.maven.plugins.hpalm.deliverynote;
+
+/**
+ * Writer of the HTML content added to CONFLUENCE page.
+ * The content is written straight into the buffer of the updated page, at the place where it is added.
+ *
+ * @author Maciej SIDOR
+ *
+ */
+public interface HTMLContentWriterI
+{
+
+	/**
+	 * @return estimated length of the content, used to size the buffer of the page
+	 */
+	public abstract int getEstimatedLength();
+
+	/**
+	 * Write the content
+	 * @param html buffer of the page the content is appended to
+	 * @throws Exception if the content could not be written
+	 */
+	public abstract void writeContent(StringBuilder html) throws Exception;
+
+}
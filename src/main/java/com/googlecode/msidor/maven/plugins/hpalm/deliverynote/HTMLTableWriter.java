@@ -0,0 +1,230 @@
+/*
+Copyright 2014 Maciej SIDOR [maciejsidor@gmail.com]
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+package com.googlecode.msidor.maven.plugins.hpalm.deliverynote;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Incremental writer of the summary HTML table published on CONFLUENCE.
+ * The headers row is written when the writer is created, then each entity is written as table row as soon as it is given.
+ * The table may be written straight into the buffer of CONFLUENCE page, so the content is not copied once more.
+ *
+ * @author Maciej SIDOR
+ *
+ */
+public class HTMLTableWriter
+{
+	/**
+	 * Estimated length of a value, used to estimate the length of the table
+	 */
+	private static final int	ESTIMATED_VALUE_LENGTH	= 16;
+
+	/**
+	 * HTML content
+	 */
+	private final StringBuilder	html;
+
+	/**
+	 * List of defect fields that are exported as table columns
+	 */
+	private final List<String>	valuesToExport;
+
+	/**
+	 * True if the special HTML characters of the values are escaped
+	 */
+	private final boolean		escape;
+
+	/**
+	 * Writes the table headers, the values are written as they are
+	 * @param valuesToExport list of defect fields that are exported as table columns
+	 * @param translationOfValuesToExport translations of the defect fields used as column headers, may be null
+	 */
+	public HTMLTableWriter(List<String> valuesToExport, Map<String, String> translationOfValuesToExport)
+	{
+		this( new StringBuilder(), valuesToExport, translationOfValuesToExport, false );
+	}
+
+	/**
+	 * Writes the table headers
+	 * @param html buffer the table is appended to
+	 * @param valuesToExport list of defect fields that are exported as table columns
+	 * @param translationOfValuesToExport translations of the defect fields used as column headers, may be null
+	 * @param escape true to escape the special HTML characters of the values and headers
+	 */
+	public HTMLTableWriter(StringBuilder html, List<String> valuesToExport, Map<String, String> translationOfValuesToExport, boolean escape)
+	{
+		this.html = html;
+		this.valuesToExport = valuesToExport;
+		this.escape = escape;
+
+		html.append( "<table><tbody>" );
+		// --[get headers row]--
+		html.append( "<tr>" );
+		// for each columns defined
+		for ( String key : valuesToExport )
+		{
+		    String value = null;
+
+		    // check if translation is defined
+		    if ( translationOfValuesToExport != null && translationOfValuesToExport.containsKey( key ) )
+		        value = translationOfValuesToExport.get( key );
+		    else
+		        value = key;
+
+		    html.append( "<th>" );
+		    // for null values use NBSP
+		    if ( value == null || value.trim().isEmpty() )
+		        html.append( "&nbsp;" );
+		    else
+		        append( value );
+		    html.append( "</th>" );
+		}
+		html.append( "</tr>" );
+	}
+
+	/**
+	 * Wraps HP ALM entity with HTML table row tags
+	 * 
+	 * @param entity
+	 *            - the entity to be transformed to HTML table row
+	 */
+	public void writeEntity(Entity entity)
+	{
+		html.append("<tr>");
+		// for each column configured
+		for (String key : valuesToExport)
+		{
+			html.append("<td>");
+			// get the value from entity for corresponding column
+			if (entity.hasField(key))
+				append(entity.getFieldValue(key));
+			else
+				html.append("&nbsp;");
+			html.append("</td>");
+		}
+		html.append("</tr>");
+	}
+
+	/**
+	 * Wraps each entity of the columnar store with HTML table row tags, the columns are looked up once
+	 * 
+	 * @param store
+	 *            - the entities to be transformed to HTML table rows
+	 */
+	public void writeEntities(EntitiesColumnStore store)
+	{
+		writeEntities(store, 0, store.size());
+	}
+
+	/**
+	 * Wraps the entities of the columnar store in the given range of rows with HTML table row tags, the columns are looked up once
+	 * 
+	 * @param store
+	 *            - the entities to be transformed to HTML table rows
+	 * @param fromRow
+	 *            - index of the first row to write
+	 * @param toRow
+	 *            - index of the row following the last one to write
+	 */
+	public void writeEntities(EntitiesColumnStore store, int fromRow, int toRow)
+	{
+		EntitiesColumnStore.Column[] columns = new EntitiesColumnStore.Column[valuesToExport.size()];
+		for (int i = 0; i < columns.length; i++)
+			columns[i] = store.getColumn(valuesToExport.get(i));
+
+		for (int row = fromRow; row < toRow; row++)
+		{
+			html.append("<tr>");
+			for (EntitiesColumnStore.Column column : columns)
+			{
+				html.append("<td>");
+				if (column != null && column.has(row))
+					append(column.get(row));
+				else
+					html.append("&nbsp;");
+				html.append("</td>");
+			}
+			html.append("</tr>");
+		}
+	}
+
+	/**
+	 * Closes the table
+	 * @return HTML content
+	 */
+	public StringBuilder finish()
+	{
+		html.append( "</tbody></table>" );
+		return html;
+	}
+
+	/**
+	 * @param columns count of exported fields
+	 * @param rows count of entities
+	 * @return estimated length of the table
+	 */
+	public static int estimateLength(int columns, int rows)
+	{
+		long length = 40 + (long) (columns + 1) * (rows + 1) * (9 + ESTIMATED_VALUE_LENGTH);
+		return (int) Math.min(length, Integer.MAX_VALUE / 2);
+	}
+
+	/**
+	 * Append the value, escaped if requested
+	 * @param value value to append, null is written as "null"
+	 */
+	private void append(String value)
+	{
+		if (!escape || value == null)
+			html.append(value);
+		else
+			appendEscaped(html, value);
+	}
+
+	/**
+	 * Append the value with the special HTML characters escaped
+	 * @param html buffer the value is appended to
+	 * @param value value to append
+	 */
+	public static void appendEscaped(StringBuilder html, String value)
+	{
+		for (int i = 0; i < value.length(); i++)
+		{
+			char c = value.charAt(i);
+			switch (c)
+			{
+				case '&':
+					html.append("&amp;");
+					break;
+				case '<':
+					html.append("&lt;");
+					break;
+				case '>':
+					html.append("&gt;");
+					break;
+				case '"':
+					html.append("&quot;");
+					break;
+				case '\'':
+					html.append("&#39;");
+					break;
+				default:
+					html.append(c);
+			}
+		}
+	}
+}
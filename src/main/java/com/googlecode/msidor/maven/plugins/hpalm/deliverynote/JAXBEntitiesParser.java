@@ -0,0 +1,165 @@
+/*
+Copyright 2014 Maciej SIDOR [maciejsidor@gmail.com]
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+package com.googlecode.msidor.maven.plugins.hpalm.deliverynote;
+
+import java.io.InputStream;
+import java.io.Reader;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Unmarshaller;
+import javax.xml.transform.stream.StreamSource;
+
+/**
+ * JAXB parser of HP ALM query results.
+ *
+ * <p>
+ * The JAXB context is created only once per plugin class loader since its creation is expensive.
+ * The unmarshallers are not thread safe thus each parsing borrows one from a small pool and returns it afterwards.
+ * This allows to parse several pages at the same time.
+ * Since the whole page is unmarshalled at once, its memory footprint is bigger than the one of StAXEntitiesParser.
+ * </p>
+ *
+ * @author Maciej SIDOR
+ *
+ */
+public class JAXBEntitiesParser implements EntitiesParserI
+{
+	/**
+	 * Maximal count of idle unmarshallers kept in the pool
+	 */
+	private static final int						POOL_SIZE	= 8;
+
+	/**
+	 * Idle unmarshallers
+	 */
+	private static final BlockingQueue<Unmarshaller>	pool		= new ArrayBlockingQueue<Unmarshaller>(POOL_SIZE);
+
+	/**
+	 * JAXB context of HP ALM entities
+	 */
+	private static JAXBContext						context		= null;
+
+	/**
+	 * Default constructor
+	 */
+	public JAXBEntitiesParser()
+	{
+	}
+
+	/**
+	 * Transform the HP ALM query result page to object representation
+	 * @param reader HP ALM query result
+	 * @return root of the query result page
+	 * @throws JAXBException if the query result could not be parsed
+	 */
+	public EntitiesRoot parse(Reader reader) throws JAXBException
+	{
+		return unmarshal(new StreamSource(reader));
+	}
+
+	/**
+	 * Transform the HP ALM query result page to object representation, the encoding is read from the XML declaration
+	 * @param stream HP ALM query result
+	 * @return root of the query result page
+	 * @throws JAXBException if the query result could not be parsed
+	 */
+	public EntitiesRoot parse(InputStream stream) throws JAXBException
+	{
+		return unmarshal(new StreamSource(stream));
+	}
+
+	/**
+	 * @param source HP ALM query result
+	 * @return root of the query result page
+	 * @throws JAXBException if the query result could not be parsed
+	 */
+	private EntitiesRoot unmarshal(StreamSource source) throws JAXBException
+	{
+		Unmarshaller unmarshaller = pool.poll();
+		if (unmarshaller == null)
+			unmarshaller = getContext().createUnmarshaller();
+
+		try
+		{
+			return (EntitiesRoot) unmarshaller.unmarshal(source);
+		}
+		finally
+		{
+			// the unmarshaller is dropped if the pool is full
+			pool.offer(unmarshaller);
+		}
+	}
+
+	/**
+	 * Parse the HP ALM query result page
+	 * @param reader HP ALM query result
+	 * @param handler receiver of the parsed entities
+	 * @return total number of entities matching the query (TotalResults attribute) or null if not given
+	 * @throws Exception if the query result could not be parsed or an entity could not be handled
+	 */
+	@Override
+	public Integer parse(Reader reader, EntityHandlerI handler) throws Exception
+	{
+		return handle(parse(reader), handler);
+	}
+
+	/**
+	 * Parse the HP ALM query result page, the encoding is read from the XML declaration
+	 * @param stream HP ALM query result
+	 * @param handler receiver of the parsed entities
+	 * @return total number of entities matching the query (TotalResults attribute) or null if not given
+	 * @throws Exception if the query result could not be parsed or an entity could not be handled
+	 */
+	@Override
+	public Integer parse(InputStream stream, EntityHandlerI handler) throws Exception
+	{
+		return handle(parse(stream), handler);
+	}
+
+	/**
+	 * Pass the entities of the page to the handler
+	 * @param entitiesRoot root of the query result page, may be null
+	 * @param handler receiver of the parsed entities
+	 * @return total number of entities matching the query (TotalResults attribute) or null if not given
+	 * @throws Exception if an entity could not be handled
+	 */
+	private Integer handle(EntitiesRoot entitiesRoot, EntityHandlerI handler) throws Exception
+	{
+		if (entitiesRoot == null)
+			return null;
+
+		if (entitiesRoot.entities != null)
+			for (Entity entity : entitiesRoot.entities)
+				handler.handleEntity(entity);
+
+		return entitiesRoot.totalResults;
+	}
+
+	/**
+	 * @return JAXB context of HP ALM entities
+	 * @throws JAXBException if the context could not be created
+	 */
+	public static synchronized JAXBContext getContext() throws JAXBException
+	{
+		if (context == null)
+			context = JAXBContext.newInstance(EntitiesRoot.class);
+
+		return context;
+	}
+}
@@ -0,0 +1,267 @@
+/*
+Copyright 2014 Maciej SIDOR [maciejsidor@gmail.com]
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+package com.googlecode.msidor.maven.plugins.hpalm.deliverynote;
+
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.xmlrpc.XmlRpcException;
+
+/**
+ * Implementation of HPALMMavenPluginDAOI that records the latency of each request and the size of the exchanged contents.
+ *
+ * <p>
+ * The latencies are recorded per operation (hpalm.get, hpalm.put, hpalm.authenticate and confluence.*).
+ * The contents are counted in UTF-8 bytes, after decompression: the PUT bodies and CONFLUENCE page contents sent as bytes out,
+ * the HP ALM responses and CONFLUENCE page contents received as bytes in.
+ * The latency of streamed response includes the time the handler takes to read it.
+ * </p>
+ *
+ * @author Maciej SIDOR
+ *
+ */
+public class MetricsHPALMMojoDAO extends HPALMMojoDAODecorator
+{
+	/**
+	 * Metrics the requests are recorded to
+	 */
+	private final ExecutionMetrics	metrics;
+
+	/**
+	 * Default constructor
+	 * @param delegate decorated Data Access Object
+	 * @param metrics metrics the requests are recorded to
+	 */
+	public MetricsHPALMMojoDAO(HPALMMojoDAOI delegate, ExecutionMetrics metrics)
+	{
+		super(delegate);
+		this.metrics = metrics;
+	}
+
+	@Override
+	public void updateConfluencePage(Object cookie, HashMap<Object, Object> page, HashMap<Object, Object> pageUpdateOptions) throws XmlRpcException
+	{
+		long start = System.nanoTime();
+		boolean failed = true;
+		try
+		{
+			delegate.updateConfluencePage(cookie, page, pageUpdateOptions);
+			failed = false;
+		}
+		finally
+		{
+			metrics.addRequest("confluence.updatePage", System.nanoTime() - start, failed);
+		}
+		metrics.addCount(ExecutionMetrics.COUNT_BYTES_OUT, getContentLength(page));
+	}
+
+	@Override
+	public HashMap<Object, Object> getConfluencePage(Object cookie, String confluencePageID) throws XmlRpcException
+	{
+		long start = System.nanoTime();
+		boolean failed = true;
+		HashMap<Object, Object> page = null;
+		try
+		{
+			page = delegate.getConfluencePage(cookie, confluencePageID);
+			failed = false;
+		}
+		finally
+		{
+			metrics.addRequest("confluence.getPage", System.nanoTime() - start, failed);
+		}
+		metrics.addCount(ExecutionMetrics.COUNT_BYTES_IN, getContentLength(page));
+
+		return page;
+	}
+
+	@Override
+	public List<HashMap<Object, Object>> getConfluenceChildPages(Object cookie, String confluencePageID) throws XmlRpcException
+	{
+		long start = System.nanoTime();
+		boolean failed = true;
+		try
+		{
+			List<HashMap<Object, Object>> pages = delegate.getConfluenceChildPages(cookie, confluencePageID);
+			failed = false;
+			return pages;
+		}
+		finally
+		{
+			metrics.addRequest("confluence.getChildPages", System.nanoTime() - start, failed);
+		}
+	}
+
+	@Override
+	public HashMap<Object, Object> storeConfluencePage(Object cookie, HashMap<Object, Object> page) throws XmlRpcException
+	{
+		long start = System.nanoTime();
+		boolean failed = true;
+		HashMap<Object, Object> stored = null;
+		try
+		{
+			stored = delegate.storeConfluencePage(cookie, page);
+			failed = false;
+		}
+		finally
+		{
+			metrics.addRequest("confluence.storePage", System.nanoTime() - start, failed);
+		}
+		metrics.addCount(ExecutionMetrics.COUNT_BYTES_OUT, getContentLength(page));
+
+		return stored;
+	}
+
+	@Override
+	public Object authenticateToConfluence(String confleunceUser, String confluencePassword) throws XmlRpcException
+	{
+		long start = System.nanoTime();
+		boolean failed = true;
+		try
+		{
+			Object token = delegate.authenticateToConfluence(confleunceUser, confluencePassword);
+			failed = false;
+			return token;
+		}
+		finally
+		{
+			metrics.addRequest("confluence.authenticate", System.nanoTime() - start, failed);
+		}
+	}
+
+	@Override
+	public String putToHPALM(String targetURL, String urlParameters, String contentType, String cookie) throws MojoFailureException
+	{
+		long start = System.nanoTime();
+		boolean failed = true;
+		String response = null;
+		try
+		{
+			response = delegate.putToHPALM(targetURL, urlParameters, contentType, cookie);
+			failed = false;
+		}
+		finally
+		{
+			metrics.addRequest("hpalm.put", System.nanoTime() - start, failed);
+			metrics.addCount(ExecutionMetrics.COUNT_BYTES_OUT, getLength(urlParameters));
+		}
+		metrics.addCount(ExecutionMetrics.COUNT_BYTES_IN, getLength(response));
+
+		return response;
+	}
+
+	@Override
+	public String getFromHPALM(String targetURL, String cookie) throws MojoFailureException
+	{
+		long start = System.nanoTime();
+		boolean failed = true;
+		String response = null;
+		try
+		{
+			response = delegate.getFromHPALM(targetURL, cookie);
+			failed = false;
+		}
+		finally
+		{
+			metrics.addRequest("hpalm.get", System.nanoTime() - start, failed);
+		}
+		metrics.addCount(ExecutionMetrics.COUNT_BYTES_IN, getLength(response));
+
+		return response;
+	}
+
+	/**
+	 * Counts the bytes read by the handler
+	 */
+	@Override
+	public void getFromHPALM(String targetURL, String cookie, final HPALMResponseHandlerI handler) throws MojoFailureException
+	{
+		final AtomicLong received = new AtomicLong();
+		long start = System.nanoTime();
+		boolean failed = true;
+		try
+		{
+			super.getFromHPALM(targetURL, cookie, new HPALMResponseHandlerI()
+			{
+				public void handleResponse(InputStream response) throws Exception
+				{
+					handler.handleResponse(new TransferStatistics.CountingInputStream(response, received));
+				}
+			});
+			failed = false;
+		}
+		finally
+		{
+			metrics.addRequest("hpalm.get", System.nanoTime() - start, failed);
+			metrics.addCount(ExecutionMetrics.COUNT_BYTES_IN, received.get());
+		}
+	}
+
+	@Override
+	public String authenticateToHPALM(String targetURL, String username, String password) throws MojoFailureException
+	{
+		long start = System.nanoTime();
+		boolean failed = true;
+		try
+		{
+			String cookie = delegate.authenticateToHPALM(targetURL, username, password);
+			failed = false;
+			return cookie;
+		}
+		finally
+		{
+			metrics.addRequest("hpalm.authenticate", System.nanoTime() - start, failed);
+		}
+	}
+
+	/**
+	 * @param page CONFLUENCE page, may be null
+	 * @return length of the page content in UTF-8 bytes
+	 */
+	private static long getContentLength(HashMap<Object, Object> page)
+	{
+		Object content = page != null ? page.get("content") : null;
+		return content instanceof String ? getLength((String) content) : 0;
+	}
+
+	/**
+	 * @param value string, may be null
+	 * @return length of the string in UTF-8 bytes, computed without encoding it
+	 */
+	private static long getLength(String value)
+	{
+		if (value == null)
+			return 0;
+
+		long length = value.length();
+		for (int i = 0; i < value.length(); i++)
+		{
+			char c = value.charAt(i);
+			// each half of surrogate pair counts for 2 of the 4 bytes
+			if (c >= 0xD800 && c <= 0xDFFF)
+				length++;
+			else if (c >= 0x800)
+				length += 2;
+			else if (c >= 0x80)
+				length++;
+		}
+
+		return length;
+	}
+}
@@ -0,0 +1,495 @@
+/*
+Copyright 2014 Maciej SIDOR [maciejsidor@gmail.com]
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+package com.googlecode.msidor.maven.plugins.hpalm.deliverynote;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.URI;
+import java.nio.charset.Charset;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.codec.binary.Base64;
+import org.apache.http.Header;
+import org.apache.http.HttpClientConnection;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.config.ConnectionConfig;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.ConnectionRequest;
+import org.apache.http.conn.HttpConnectionFactory;
+import org.apache.http.conn.ManagedHttpClientConnection;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.ManagedHttpClientConnectionFactory;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.util.EntityUtils;
+import org.apache.maven.plugin.MojoFailureException;
+
+/**
+ * Implementation of HPALMMavenPluginDAOI that keeps persistent connections to HP ALM server.
+ *
+ * <p>
+ * Unlike DefaultHPALMMojoDAO that opens and closes new connection (and TLS session) for each request,
+ * this Data Access Object leases the connections from a pool of keep-alive connections per host.
+ * The connections that stay idle longer than the given time are evicted from the pool.
+ * The pool statistics (hits, new connections and time spent waiting for a lease) are available through getStatistics method.
+ * Confluence requests are executed the same way as in DefaultHPALMMojoDAO.
+ * </p>
+ *
+ * @author Maciej SIDOR
+ *
+ */
+public class PooledHPALMMojoDAO extends DefaultHPALMMojoDAO implements Closeable
+{
+	/**
+	 * Pool of connections to HP ALM
+	 */
+	private final PoolingHttpClientConnectionManager	connectionManager;
+
+	/**
+	 * HTTP client using the pool
+	 */
+	private final CloseableHttpClient					httpClient;
+
+	/**
+	 * Count of connections leased from the pool
+	 */
+	private final AtomicLong							countOfLeases			= new AtomicLong();
+
+	/**
+	 * Count of connections opened
+	 */
+	private final AtomicLong							countOfNewConnections	= new AtomicLong();
+
+	/**
+	 * Time spent waiting for a lease (in nanoseconds)
+	 */
+	private final AtomicLong							leaseWaitTime			= new AtomicLong();
+
+	/**
+	 * Default contructor
+	 * @param poolSize maximal count of connections per host
+	 * @param idleTimeout time after which an idle connection is evicted from the pool (in milliseconds)
+	 */
+	public PooledHPALMMojoDAO(int poolSize, long idleTimeout)
+	{
+		// count the connections opened by the pool
+		final HttpConnectionFactory<HttpRoute, ManagedHttpClientConnection> connectionFactory = new HttpConnectionFactory<HttpRoute, ManagedHttpClientConnection>()
+		{
+			@Override
+			public ManagedHttpClientConnection create(HttpRoute route, ConnectionConfig config)
+			{
+				countOfNewConnections.incrementAndGet();
+				return ManagedHttpClientConnectionFactory.INSTANCE.create(route, config);
+			}
+		};
+
+		// honor the javax.net.ssl system properties the same way as HttpURLConnection does
+		connectionManager = new PoolingHttpClientConnectionManager(RegistryBuilder.<ConnectionSocketFactory> create()
+				.register("http", PlainConnectionSocketFactory.getSocketFactory())
+				.register("https", SSLConnectionSocketFactory.getSystemSocketFactory())
+				.build(), connectionFactory)
+		{
+			@Override
+			public ConnectionRequest requestConnection(HttpRoute route, Object state)
+			{
+				final ConnectionRequest request = super.requestConnection(route, state);
+
+				// measure the time spent waiting for a lease
+				return new ConnectionRequest()
+				{
+					@Override
+					public boolean cancel()
+					{
+						return request.cancel();
+					}
+
+					@Override
+					public HttpClientConnection get(long timeout, TimeUnit tunit) throws InterruptedException, ExecutionException, ConnectionPoolTimeoutException
+					{
+						long start = System.nanoTime();
+						try
+						{
+							return request.get(timeout, tunit);
+						}
+						finally
+						{
+							leaseWaitTime.addAndGet(System.nanoTime() - start);
+							countOfLeases.incrementAndGet();
+						}
+					}
+				};
+			}
+		};
+		connectionManager.setMaxTotal(poolSize);
+		connectionManager.setDefaultMaxPerRoute(poolSize);
+
+		// the cookies and the compression are handled by the plugin
+		httpClient = HttpClients.custom()
+				.setConnectionManager(connectionManager)
+				.disableCookieManagement()
+				.disableContentCompression()
+				.useSystemProperties()
+				.evictExpiredConnections()
+				.evictIdleConnections(idleTimeout, TimeUnit.MILLISECONDS)
+				.build();
+	}
+
+	/**
+	 * Send content of given type to target URL via PUT method
+	 *
+	 * @param targetURL
+	 *            - target to send the content to
+	 * @param urlParameters
+	 *            - the content to be sent
+	 * @param contentType
+	 *            - type of the content to be sent
+	 * @param cookie
+	 *            - cookie to be set in Cookie header file
+	 * @return response from the target URL
+	 * @throws MojoFailureException
+	 *             if server responded with code different than 200
+	 */
+	@Override
+	public String putToHPALM(String targetURL, String urlParameters, String contentType, String cookie) throws MojoFailureException
+	{
+		HttpPut request = new HttpPut(toURI(targetURL));
+
+		// set the header parameters
+		request.setHeader("Content-Language", "en-US");
+		request.setHeader("Accept", "application/xml");
+		ByteArrayEntity entity = new ByteArrayEntity(urlParameters.getBytes());
+		entity.setContentType(contentType);
+		request.setEntity(entity);
+
+		return execute(request, cookie, "Error occurced while posting data to HP ALM");
+	}
+
+	/**
+	 * Get the content from target URL via GET method
+	 *
+	 * @param targetURL
+	 *            - target to get the content from
+	 * @param cookie
+	 *            - cookie to be set in Cookie header file
+	 * @return response from the target URL
+	 * @throws MojoFailureException
+	 *             if server responded with code different than 200
+	 */
+	@Override
+	public String getFromHPALM(String targetURL, String cookie) throws MojoFailureException
+	{
+		return execute(createGetRequest(targetURL), cookie, "Error occurced while retrieving data from HP ALM");
+	}
+
+	/**
+	 * Get the content from target URL via GET method and pass it to the handler while it is received
+	 *
+	 * @param targetURL
+	 *            - target to get the content from
+	 * @param cookie
+	 *            - cookie to be set in Cookie header file
+	 * @param handler
+	 *            - receiver of the response content
+	 * @throws MojoFailureException
+	 *             if server responded with code different than 2xx or if the handler failed
+	 */
+	@Override
+	public void getFromHPALM(String targetURL, String cookie, HPALMResponseHandlerI handler) throws MojoFailureException
+	{
+		execute(createGetRequest(targetURL), cookie, "Error occurced while retrieving data from HP ALM", handler);
+	}
+
+	/**
+	 * @param targetURL target to get the content from
+	 * @return GET request with the header parameters set
+	 */
+	private HttpGet createGetRequest(String targetURL)
+	{
+		HttpGet request = new HttpGet(toURI(targetURL));
+
+		// set the header parameters
+		request.setHeader("Accept", "application/xml");
+		request.setHeader("Accept-Charset", "UTF-8");
+		request.setHeader("Content-Type", "application/x-www-form-urlencoded;charset=utf-8");
+
+		return request;
+	}
+
+	/**
+	 * Authenticate to HP ALM
+	 *
+	 * @param targetURL
+	 *            - target to authenticate to
+	 * @param username
+	 *            - HP ALM user
+	 * @param password
+	 *            - HP ALM password
+	 * @return authentication cookie
+	 * @throws MojoFailureException
+	 *             if server responded with code different than 200
+	 */
+	@Override
+	public String authenticateToHPALM(String targetURL, String username, String password) throws MojoFailureException
+	{
+		HttpPost request = new HttpPost(toURI(targetURL + "/qcbin/authentication-point/authenticate"));
+
+		// prepare the authorization statement
+		if (username != null && password != null)
+		{
+			request.setHeader("Authorization", "Basic " + Base64.encodeBase64String((username + ":" + password).getBytes()));
+		}
+
+		CloseableHttpResponse response = null;
+		try
+		{
+			response = httpClient.execute(request);
+
+			// consume the content to give the connection back to the pool
+			EntityUtils.consume(response.getEntity());
+
+			int responseCode = response.getStatusLine().getStatusCode();
+			if (responseCode < 200 || responseCode >= 300)
+				throw new IOException("Server returned HTTP response code: " + responseCode + " for URL: " + request.getURI());
+
+			Header cookie = response.getLastHeader("Set-Cookie");
+			return cookie != null ? cookie.getValue() : null;
+		}
+		catch (Exception e)
+		{
+			throw new HPALMResponseException(e, "Error occurced while authenticating to HP ALM", "Error occurced while retrieving authenticating to HP ALM: " + getDetailInfo(response, e), getResponseCode(response));
+		}
+		finally
+		{
+			closeResponse(response);
+		}
+	}
+
+	/**
+	 * Execute the request on a pooled connection
+	 * @param request request to execute
+	 * @param cookie cookie to be set in Cookie header file
+	 * @param errorMessage message of the exception thrown in case of error
+	 * @return response from the target URL
+	 * @throws MojoFailureException if server responded with code different than 2xx
+	 */
+	private String execute(HttpUriRequest request, String cookie, String errorMessage) throws MojoFailureException
+	{
+		// stays null if the response has no content
+		final String[] content = new String[1];
+
+		execute(request, cookie, errorMessage, new HPALMResponseHandlerI()
+		{
+			public void handleResponse(InputStream response) throws Exception
+			{
+				Reader reader = new InputStreamReader(response, Charset.forName("UTF-8"));
+				StringBuilder text = new StringBuilder();
+				char[] buffer = new char[8192];
+				int n;
+				while ((n = reader.read(buffer)) >= 0)
+					text.append(buffer, 0, n);
+
+				content[0] = text.toString();
+			}
+		});
+
+		return content[0];
+	}
+
+	/**
+	 * Execute the request on a pooled connection and pass the response content to the handler
+	 * @param request request to execute
+	 * @param cookie cookie to be set in Cookie header file
+	 * @param errorMessage message of the exception thrown in case of error
+	 * @param handler receiver of the decompressed response content, not called if the response has no content
+	 * @throws MojoFailureException if server responded with code different than 2xx or if the handler failed
+	 */
+	private void execute(final HttpUriRequest request, String cookie, String errorMessage, HPALMResponseHandlerI handler) throws MojoFailureException
+	{
+		// set the cookie if one has been given
+		if (cookie != null) request.setHeader("Cookie", cookie);
+		if (isCompression()) request.setHeader("Accept-Encoding", TransferStatistics.ACCEPT_ENCODING);
+
+		CloseableHttpResponse response = null;
+		boolean responseReceived = false;
+		String errorContent = null;
+		try
+		{
+			// the request may be aborted from another thread, its connection is then shut down instead of going back to the pool
+			HPALMRequestHandle.connectionOpened(new Closeable()
+			{
+				public void close()
+				{
+					request.abort();
+				}
+			});
+
+			response = httpClient.execute(request);
+			HttpEntity entity = response.getEntity();
+
+			int responseCode = response.getStatusLine().getStatusCode();
+			if (responseCode < 200 || responseCode >= 300)
+			{
+				// consuming the error content gives the connection back to the pool
+				if (entity != null)
+				{
+					Header contentEncoding = entity.getContentEncoding();
+					errorContent = readErrorContent(entity.getContent(), contentEncoding != null ? contentEncoding.getValue() : null);
+				}
+				EntityUtils.consume(entity);
+				throw new IOException("Server returned HTTP response code: " + responseCode + " for URL: " + request.getURI());
+			}
+
+			if (entity != null)
+			{
+				// reading the whole content gives the connection back to the pool
+				Header contentEncoding = entity.getContentEncoding();
+				InputStream content = getTransferStatistics().decode(entity.getContent(), contentEncoding != null ? contentEncoding.getValue() : null);
+				responseReceived = true;
+				try
+				{
+					handler.handleResponse(content);
+				}
+				finally
+				{
+					content.close();
+				}
+			}
+		}
+		catch (Exception e)
+		{
+			// a response that failed while being read (e.g. connection reset) has no meaningful code
+			throw new HPALMResponseException(e, errorMessage, errorMessage + ": " + getDetailInfo(response, e) + (errorContent != null ? "; Response content: " + errorContent : ""), responseReceived ? -1 : getResponseCode(response));
+		}
+		finally
+		{
+			HPALMRequestHandle.connectionClosed();
+			closeResponse(response);
+		}
+	}
+
+	/**
+	 * HP ALM query URLs contain characters that are accepted by HttpURLConnection but not by java.net.URI (e.g. the braces around the query),
+	 * those characters are percent-encoded while the already encoded ones are left untouched
+	 * @param targetURL target URL as built by the plugin
+	 * @return target URI
+	 */
+	private URI toURI(String targetURL)
+	{
+		StringBuilder uri = new StringBuilder(targetURL.length() + 16);
+		for (int i = 0; i < targetURL.length(); i += Character.charCount(targetURL.codePointAt(i)))
+		{
+			int c = targetURL.codePointAt(i);
+			if (c <= ' ' || c >= 0x7F || "\"<>{}|\\^`".indexOf(c) >= 0)
+			{
+				byte[] bytes = new String(Character.toChars(c)).getBytes(Charset.forName("UTF-8"));
+				for (byte b : bytes)
+					uri.append('%').append(Character.toUpperCase(Character.forDigit((b >> 4) & 0xF, 16))).append(Character.toUpperCase(Character.forDigit(b & 0xF, 16)));
+			}
+			else
+			{
+				uri.append((char) c);
+			}
+		}
+
+		return URI.create(uri.toString());
+	}
+
+	/**
+	 * @param response server response, may be null
+	 * @param e exception that occurred
+	 * @return response code and message if available, exception message otherwise
+	 */
+	private String getDetailInfo(HttpResponse response, Exception e)
+	{
+		if (response != null)
+			return "Response code: " + response.getStatusLine().getStatusCode() + "; Response message: " + response.getStatusLine().getReasonPhrase();
+
+		return e.getMessage();
+	}
+
+	/**
+	 * @param response server response, may be null
+	 * @return response code or -1 if no response has been received
+	 */
+	private int getResponseCode(HttpResponse response)
+	{
+		return response != null ? response.getStatusLine().getStatusCode() : -1;
+	}
+
+	/**
+	 * Close the response, the connection goes back to the pool if its content has been consumed
+	 * @param response response to close, may be null
+	 */
+	private void closeResponse(CloseableHttpResponse response)
+	{
+		if (response != null) try
+		{
+			response.close();
+		}
+		catch (IOException e)
+		{/* ignore */
+		}
+	}
+
+	/**
+	 * @return pool statistics: connections leased, pool hits, new connections and time spent waiting for a lease
+	 */
+	public String getStatistics()
+	{
+		long leases = countOfLeases.get();
+		long newConnections = countOfNewConnections.get();
+
+		return "HP ALM connection pool: " + leases + " leases, " + Math.max(0, leases - newConnections) + " hits, " + newConnections + " new connections, "
+				+ TimeUnit.NANOSECONDS.toMillis(leaseWaitTime.get()) + " ms waiting for a lease; " + connectionManager.getTotalStats();
+	}
+
+	public long getCountOfLeases()
+	{
+		return countOfLeases.get();
+	}
+
+	public long getCountOfNewConnections()
+	{
+		return countOfNewConnections.get();
+	}
+
+	/**
+	 * Close the pooled connections
+	 * @throws IOException
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		httpClient.close();
+	}
+}
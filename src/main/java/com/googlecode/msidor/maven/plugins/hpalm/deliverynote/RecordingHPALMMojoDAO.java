@@ -0,0 +1,296 @@
+/*
+Copyright 2014 Maciej SIDOR [maciejsidor@gmail.com]
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+package com.googlecode.msidor.maven.plugins.hpalm.deliverynote;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugin.logging.Log;
+import org.apache.xmlrpc.XmlRpcException;
+
+/**
+ * Implementation of HPALMMavenPluginDAOI that records every exchange with HP ALM and Confluence to a directory.
+ *
+ * <p>
+ * Each call of the decorated Data Access Object is saved as HPALMExchange in a separate file,
+ * the files are numbered in the order the calls have been completed.
+ * The exchanges recorded before to the same directory are deleted, so they are not replayed with the new ones.
+ * The recorded exchanges may be served back by ReplayHPALMMojoDAO, e.g. to profile the plugin on real data without network.
+ * The passwords and the session cookies are not recorded.
+ * An exchange that could not be saved is reported as warning and does not break the call.
+ * </p>
+ *
+ * @author Maciej SIDOR
+ *
+ */
+public class RecordingHPALMMojoDAO extends HPALMMojoDAODecorator
+{
+	/**
+	 * Filter of the files of recorded exchanges
+	 */
+	static final FilenameFilter	EXCHANGE_FILES	= new FilenameFilter()
+	{
+		public boolean accept(File dir, String name)
+		{
+			return name.startsWith("exchange-") && name.endsWith(".ser");
+		}
+	};
+
+	/**
+	 * Directory of the recorded exchanges
+	 */
+	private final File			directory;
+
+	/**
+	 * Number of the last recorded exchange
+	 */
+	private final AtomicInteger	sequence	= new AtomicInteger();
+
+	/**
+	 * Log of the plugin
+	 */
+	private final Log			log;
+
+	/**
+	 * Default constructor
+	 * @param delegate decorated Data Access Object
+	 * @param directory directory of the recorded exchanges
+	 * @param log log of the plugin
+	 * @throws IOException if the directory could not be created or the previous exchanges could not be deleted
+	 */
+	public RecordingHPALMMojoDAO(HPALMMojoDAOI delegate, File directory, Log log) throws IOException
+	{
+		super(delegate);
+		this.directory = directory;
+		this.log = log;
+
+		if (!directory.exists() && !directory.mkdirs())
+			throw new IOException("Could not create directory " + directory);
+
+		// the numbering starts again, the previous exchanges would be replayed with the new ones
+		File[] previous = directory.listFiles(EXCHANGE_FILES);
+		if (previous == null)
+			throw new IOException("Could not read directory " + directory);
+		for (File file : previous)
+		{
+			if (!file.delete())
+				throw new IOException("Could not delete previous exchange " + file);
+		}
+	}
+
+	@Override
+	public void updateConfluencePage(Object cookie, HashMap<Object, Object> page, HashMap<Object, Object> pageUpdateOptions) throws XmlRpcException
+	{
+		String key = "updateConfluencePage " + (page != null ? page.get("id") : null);
+		long start = System.nanoTime();
+		try
+		{
+			delegate.updateConfluencePage(cookie, page, pageUpdateOptions);
+			record(key, null, null, start);
+		}
+		catch (XmlRpcException e)
+		{
+			record(key, null, e, start);
+			throw e;
+		}
+	}
+
+	@Override
+	public HashMap<Object, Object> getConfluencePage(Object cookie, String confluencePageID) throws XmlRpcException
+	{
+		String key = "getConfluencePage " + confluencePageID;
+		long start = System.nanoTime();
+		try
+		{
+			HashMap<Object, Object> page = delegate.getConfluencePage(cookie, confluencePageID);
+			record(key, page, null, start);
+			return page;
+		}
+		catch (XmlRpcException e)
+		{
+			record(key, null, e, start);
+			throw e;
+		}
+	}
+
+	@Override
+	public List<HashMap<Object, Object>> getConfluenceChildPages(Object cookie, String confluencePageID) throws XmlRpcException
+	{
+		String key = "getConfluenceChildPages " + confluencePageID;
+		long start = System.nanoTime();
+		try
+		{
+			List<HashMap<Object, Object>> pages = delegate.getConfluenceChildPages(cookie, confluencePageID);
+			record(key, pages, null, start);
+			return pages;
+		}
+		catch (XmlRpcException e)
+		{
+			record(key, null, e, start);
+			throw e;
+		}
+	}
+
+	@Override
+	public HashMap<Object, Object> storeConfluencePage(Object cookie, HashMap<Object, Object> page) throws XmlRpcException
+	{
+		String key = "storeConfluencePage " + (page != null ? page.get("title") : null);
+		long start = System.nanoTime();
+		try
+		{
+			HashMap<Object, Object> storedPage = delegate.storeConfluencePage(cookie, page);
+			record(key, storedPage, null, start);
+			return storedPage;
+		}
+		catch (XmlRpcException e)
+		{
+			record(key, null, e, start);
+			throw e;
+		}
+	}
+
+	@Override
+	public Object authenticateToConfluence(String confleunceUser, String confluencePassword) throws XmlRpcException
+	{
+		String key = "authenticateToConfluence " + confleunceUser;
+		long start = System.nanoTime();
+		try
+		{
+			// the session is not recorded
+			Object result = delegate.authenticateToConfluence(confleunceUser, confluencePassword);
+			record(key, null, null, start);
+			return result;
+		}
+		catch (XmlRpcException e)
+		{
+			record(key, null, e, start);
+			throw e;
+		}
+	}
+
+	@Override
+	public void initializeXmlRpcClient(String confluenceServer) throws MalformedURLException
+	{
+		delegate.initializeXmlRpcClient(confluenceServer);
+	}
+
+	@Override
+	public String putToHPALM(String targetURL, String urlParameters, String contentType, String cookie) throws MojoFailureException
+	{
+		String key = "putToHPALM " + targetURL;
+		long start = System.nanoTime();
+		try
+		{
+			String response = delegate.putToHPALM(targetURL, urlParameters, contentType, cookie);
+			record(key, response, null, start);
+			return response;
+		}
+		catch (MojoFailureException e)
+		{
+			record(key, null, e, start);
+			throw e;
+		}
+	}
+
+	@Override
+	public String getFromHPALM(String targetURL, String cookie) throws MojoFailureException
+	{
+		String key = "getFromHPALM " + targetURL;
+		long start = System.nanoTime();
+		try
+		{
+			String response = delegate.getFromHPALM(targetURL, cookie);
+			record(key, response, null, start);
+			return response;
+		}
+		catch (MojoFailureException e)
+		{
+			record(key, null, e, start);
+			throw e;
+		}
+	}
+
+	/**
+	 * The response is read as String to be recorded, then passed to the handler
+	 */
+	@Override
+	public void getFromHPALM(String targetURL, String cookie, HPALMResponseHandlerI handler) throws MojoFailureException
+	{
+		handleResponse(getFromHPALM(targetURL, cookie), handler);
+	}
+
+	@Override
+	public String authenticateToHPALM(String targetURL, String username, String password) throws MojoFailureException
+	{
+		String key = "authenticateToHPALM " + targetURL + " " + username;
+		long start = System.nanoTime();
+		try
+		{
+			// the session cookie is not recorded
+			String cookie = delegate.authenticateToHPALM(targetURL, username, password);
+			record(key, null, null, start);
+			return cookie;
+		}
+		catch (MojoFailureException e)
+		{
+			record(key, null, e, start);
+			throw e;
+		}
+	}
+
+	/**
+	 * Save the exchange, the failure to save it is logged and does not break the call
+	 * @param key Data Access Object method and key arguments
+	 * @param response result returned by the method
+	 * @param error error thrown by the method, null if the method succeeded
+	 * @param start time the call has been started (in nanoseconds)
+	 */
+	private void record(String key, Object response, Exception error, long start)
+	{
+		HPALMExchange exchange = new HPALMExchange();
+		exchange.key = key;
+		exchange.response = response;
+		exchange.duration = (System.nanoTime() - start) / 1000000;
+
+		if (error != null)
+		{
+			exchange.error = error.getMessage();
+			if (error instanceof MojoFailureException)
+				exchange.errorDetails = ((MojoFailureException) error).getLongMessage();
+			if (error instanceof HPALMResponseException)
+			{
+				exchange.errorResponse = true;
+				exchange.errorResponseCode = ((HPALMResponseException) error).getResponseCode();
+			}
+		}
+
+		File file = new File(directory, String.format("exchange-%06d.ser", Integer.valueOf(sequence.incrementAndGet())));
+		try
+		{
+			exchange.write(file);
+		}
+		catch (IOException e)
+		{
+			log.warn("Could not record HP ALM exchange " + key + " to " + file + ": " + e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,224 @@
+/*
+Copyright 2014 Maciej SIDOR [maciejsidor@gmail.com]
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+package com.googlecode.msidor.maven.plugins.hpalm.deliverynote;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.xmlrpc.XmlRpcException;
+
+/**
+ * Implementation of HPALMMavenPluginDAOI that serves the exchanges recorded by RecordingHPALMMojoDAO.
+ *
+ * <p>
+ * Each call is answered with the next exchange recorded for the same method and key arguments,
+ * the last exchange is served again once all the recorded ones have been consumed.
+ * The recorded errors are thrown again. An artificial latency may be added to each call,
+ * either fixed or proportional to the time measured at recording, to simulate slow servers.
+ * </p>
+ *
+ * @author Maciej SIDOR
+ *
+ */
+public class ReplayHPALMMojoDAO implements HPALMMojoDAOI
+{
+	/**
+	 * Session returned by authentication methods, the real sessions are not recorded
+	 */
+	public static final String						REPLAY_SESSION	= "REPLAY_SESSION";
+
+	/**
+	 * Recorded exchanges per method and key arguments, in the recording order
+	 */
+	private final Map<String, LinkedList<HPALMExchange>>	exchanges		= new HashMap<String, LinkedList<HPALMExchange>>();
+
+	/**
+	 * Latency added to each call (in milliseconds)
+	 */
+	private final long								latency;
+
+	/**
+	 * Factor of the recorded duration added to each call
+	 */
+	private final double							latencyFactor;
+
+	/**
+	 * Default constructor
+	 * @param directory directory of the recorded exchanges
+	 * @param latency latency added to each call (in milliseconds)
+	 * @param latencyFactor factor of the recorded duration added to each call, 1 replays at the recorded speed
+	 * @throws IOException if the exchanges could not be read
+	 */
+	public ReplayHPALMMojoDAO(File directory, long latency, double latencyFactor) throws IOException
+	{
+		this.latency = latency;
+		this.latencyFactor = latencyFactor;
+
+		File[] files = directory.listFiles(RecordingHPALMMojoDAO.EXCHANGE_FILES);
+
+		if (files == null)
+			throw new IOException("Could not read recorded exchanges from " + directory);
+
+		// the names are zero padded so the natural order is the recording order
+		Arrays.sort(files);
+		for (File file : files)
+		{
+			HPALMExchange exchange = HPALMExchange.read(file);
+			LinkedList<HPALMExchange> queue = exchanges.get(exchange.key);
+			if (queue == null)
+			{
+				queue = new LinkedList<HPALMExchange>();
+				exchanges.put(exchange.key, queue);
+			}
+			queue.add(exchange);
+		}
+	}
+
+	public void updateConfluencePage(Object cookie, HashMap<Object, Object> page, HashMap<Object, Object> pageUpdateOptions) throws XmlRpcException
+	{
+		replayConfluence("updateConfluencePage " + (page != null ? page.get("id") : null));
+	}
+
+	@SuppressWarnings("unchecked")
+	public HashMap<Object, Object> getConfluencePage(Object cookie, String confluencePageID) throws XmlRpcException
+	{
+		return (HashMap<Object, Object>) replayConfluence("getConfluencePage " + confluencePageID);
+	}
+
+	@SuppressWarnings("unchecked")
+	public List<HashMap<Object, Object>> getConfluenceChildPages(Object cookie, String confluencePageID) throws XmlRpcException
+	{
+		return (List<HashMap<Object, Object>>) replayConfluence("getConfluenceChildPages " + confluencePageID);
+	}
+
+	@SuppressWarnings("unchecked")
+	public HashMap<Object, Object> storeConfluencePage(Object cookie, HashMap<Object, Object> page) throws XmlRpcException
+	{
+		return (HashMap<Object, Object>) replayConfluence("storeConfluencePage " + (page != null ? page.get("title") : null));
+	}
+
+	public Object authenticateToConfluence(String confleunceUser, String confluencePassword) throws XmlRpcException
+	{
+		replayConfluence("authenticateToConfluence " + confleunceUser);
+		return REPLAY_SESSION;
+	}
+
+	public void initializeXmlRpcClient(String confluenceServer) throws MalformedURLException
+	{
+		// nothing to initialize
+	}
+
+	public String putToHPALM(String targetURL, String urlParameters, String cookie) throws MojoFailureException
+	{
+		return putToHPALM(targetURL, urlParameters, CONTENT_TYPE_XML, cookie);
+	}
+
+	public String putToHPALM(String targetURL, String urlParameters, String contentType, String cookie) throws MojoFailureException
+	{
+		return (String) replayHPALM("putToHPALM " + targetURL);
+	}
+
+	public String getFromHPALM(String targetURL, String cookie) throws MojoFailureException
+	{
+		return (String) replayHPALM("getFromHPALM " + targetURL);
+	}
+
+	public String authenticateToHPALM(String targetURL, String username, String password) throws MojoFailureException
+	{
+		replayHPALM("authenticateToHPALM " + targetURL + " " + username);
+		return REPLAY_SESSION;
+	}
+
+	/**
+	 * Replay HP ALM exchange
+	 * @param key method and key arguments
+	 * @return recorded response
+	 * @throws MojoFailureException if the exchange has not been recorded or if it has failed
+	 */
+	private Object replayHPALM(String key) throws MojoFailureException
+	{
+		HPALMExchange exchange = next(key);
+		if (exchange == null)
+			throw new MojoFailureException("No recorded exchange for " + key);
+
+		if (exchange.error != null && exchange.errorResponse)
+			throw new HPALMResponseException(this, exchange.error, exchange.errorDetails, exchange.errorResponseCode);
+
+		if (exchange.error != null)
+			throw new MojoFailureException(this, exchange.error, exchange.errorDetails);
+
+		return exchange.response;
+	}
+
+	/**
+	 * Replay Confluence exchange
+	 * @param key method and key arguments
+	 * @return recorded response
+	 * @throws XmlRpcException if the exchange has not been recorded or if it has failed
+	 */
+	private Object replayConfluence(String key) throws XmlRpcException
+	{
+		HPALMExchange exchange = next(key);
+		if (exchange == null)
+			throw new XmlRpcException("No recorded exchange for " + key);
+
+		if (exchange.error != null)
+			throw new XmlRpcException(exchange.error);
+
+		return exchange.response;
+	}
+
+	/**
+	 * Take the next recorded exchange and wait for the simulated latency
+	 * @param key method and key arguments
+	 * @return recorded exchange or null if there is none
+	 */
+	private HPALMExchange next(String key)
+	{
+		HPALMExchange exchange;
+		synchronized (exchanges)
+		{
+			LinkedList<HPALMExchange> queue = exchanges.get(key);
+			if (queue == null || queue.isEmpty())
+				return null;
+
+			// the last exchange is kept for the repeated calls
+			exchange = queue.size() > 1 ? queue.removeFirst() : queue.getFirst();
+		}
+
+		long delay = latency + (long) (exchange.duration * latencyFactor);
+		if (delay > 0)
+		{
+			try
+			{
+				Thread.sleep(delay);
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		return exchange;
+	}
+}
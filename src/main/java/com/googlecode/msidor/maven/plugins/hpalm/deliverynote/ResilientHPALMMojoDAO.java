@@ -0,0 +1,555 @@
+/*
+Copyright 2014 Maciej SIDOR [maciejsidor@gmail.com]
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+package com.googlecode.msidor.maven.plugins.hpalm.deliverynote;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.maven.plugin.MojoFailureException;
+
+/**
+ * Implementation of HPALMMavenPluginDAOI that makes the HP ALM requests resilient to server failures.
+ *
+ * <p>
+ * The GET requests, which are idempotent, are retried when they fail due to connection error or server overload,
+ * after a delay doubled at each attempt and randomized so the clients do not retry all together.
+ * A streamed response that fails while being read is retried as well, the handler starts over as required by HPALMResponseHandlerI.
+ * </p>
+ *
+ * <p>
+ * The GET requests may be hedged: when the response takes longer than the given percentile of the latencies observed so far,
+ * the same request is sent again and the first response is used. The other request is aborted through its connection, see HPALMRequestHandle.
+ * The hedging threads are bounded to two per thread fetching concurrently. The responses are not streamed when the requests are hedged.
+ * </p>
+ *
+ * <p>
+ * All the HP ALM requests may go through a circuit breaker, so the requests fail fast while HP ALM is unavailable instead of waiting for the timeouts.
+ * The retries, hedged requests and rejected requests are counted.
+ * </p>
+ *
+ * @author Maciej SIDOR
+ *
+ */
+public class ResilientHPALMMojoDAO extends HPALMMojoDAODecorator
+{
+	/**
+	 * Count of latest latencies kept to compute the percentile
+	 */
+	private static final int		LATENCY_SAMPLES		= 256;
+
+	/**
+	 * Count of latencies needed before the requests are hedged
+	 */
+	private static final int		MIN_LATENCY_SAMPLES	= 20;
+
+	/**
+	 * Maximal count of retries of GET request
+	 */
+	private final int				retries;
+
+	/**
+	 * Delay before the first retry (in milliseconds)
+	 */
+	private final long				retryDelay;
+
+	/**
+	 * Maximal delay before retry (in milliseconds)
+	 */
+	private final long				maxRetryDelay;
+
+	/**
+	 * Percentile of latencies after which GET request is hedged, 0 if the requests are not hedged
+	 */
+	private final int				hedgePercentile;
+
+	/**
+	 * Circuit breaker of HP ALM requests, null if none
+	 */
+	private final CircuitBreaker	circuitBreaker;
+
+	/**
+	 * Threads sending the hedged requests, null if the requests are not hedged
+	 */
+	private final ExecutorService	hedgingExecutor;
+
+	/**
+	 * Latest latencies of successful GET requests (in milliseconds), used as ring buffer
+	 */
+	private final long[]			latencies			= new long[LATENCY_SAMPLES];
+
+	/**
+	 * Count of latencies recorded
+	 */
+	private int						latencyCount		= 0;
+
+	private final Random			random				= new Random();
+
+	private final AtomicInteger		retried				= new AtomicInteger();
+
+	private final AtomicInteger		hedged				= new AtomicInteger();
+
+	private final AtomicInteger		hedgesWon			= new AtomicInteger();
+
+	private final AtomicInteger		rejected			= new AtomicInteger();
+
+	/**
+	 * Default constructor
+	 * @param delegate decorated Data Access Object
+	 * @param retries maximal count of retries of GET request
+	 * @param retryDelay delay before the first retry (in milliseconds)
+	 * @param maxRetryDelay maximal delay before retry (in milliseconds)
+	 * @param hedgePercentile percentile of latencies after which GET request is hedged (1 to 99), 0 if the requests are not hedged
+	 * @param hedgeConcurrency count of threads sending GET requests concurrently, each one needs two hedging threads
+	 * @param circuitBreaker circuit breaker of HP ALM requests, may be null
+	 */
+	public ResilientHPALMMojoDAO(HPALMMojoDAOI delegate, int retries, long retryDelay, long maxRetryDelay, int hedgePercentile, int hedgeConcurrency, CircuitBreaker circuitBreaker)
+	{
+		super(delegate);
+		this.retries = Math.max(0, retries);
+		this.retryDelay = Math.max(1, retryDelay);
+		this.maxRetryDelay = Math.max(this.retryDelay, maxRetryDelay);
+		this.hedgePercentile = Math.max(0, Math.min(99, hedgePercentile));
+		this.circuitBreaker = circuitBreaker;
+		this.hedgingExecutor = this.hedgePercentile > 0 ? createHedgingExecutor(2 * Math.max(1, hedgeConcurrency)) : null;
+	}
+
+	@Override
+	public String putToHPALM(String targetURL, String urlParameters, String contentType, String cookie) throws MojoFailureException
+	{
+		beforeRequest();
+		try
+		{
+			String response = delegate.putToHPALM(targetURL, urlParameters, contentType, cookie);
+			afterRequest(null);
+			return response;
+		}
+		catch (MojoFailureException e)
+		{
+			afterRequest(e);
+			throw e;
+		}
+	}
+
+	@Override
+	public String authenticateToHPALM(String targetURL, String username, String password) throws MojoFailureException
+	{
+		beforeRequest();
+		try
+		{
+			String cookie = delegate.authenticateToHPALM(targetURL, username, password);
+			afterRequest(null);
+			return cookie;
+		}
+		catch (MojoFailureException e)
+		{
+			afterRequest(e);
+			throw e;
+		}
+	}
+
+	/**
+	 * Get the content from target URL via GET method, hedged and retried if needed
+	 */
+	@Override
+	public String getFromHPALM(String targetURL, String cookie) throws MojoFailureException
+	{
+		for (int attempt = 0;; attempt++)
+		{
+			try
+			{
+				return hedgePercentile > 0 ? getHedged(targetURL, cookie) : get(targetURL, cookie);
+			}
+			catch (MojoFailureException e)
+			{
+				if (!isRetriable(e, attempt))
+					throw e;
+			}
+			backOff(attempt);
+		}
+	}
+
+	/**
+	 * Get the content from target URL via GET method and pass it to the handler, retried if the response could not be received or read.
+	 * The response is read as String if the requests are hedged.
+	 */
+	@Override
+	public void getFromHPALM(String targetURL, String cookie, HPALMResponseHandlerI handler) throws MojoFailureException
+	{
+		if (hedgePercentile > 0)
+		{
+			handleResponse(getFromHPALM(targetURL, cookie), handler);
+			return;
+		}
+
+		for (int attempt = 0;; attempt++)
+		{
+			beforeRequest();
+			long start = System.currentTimeMillis();
+			try
+			{
+				super.getFromHPALM(targetURL, cookie, handler);
+				afterRequest(null);
+				recordLatency(System.currentTimeMillis() - start);
+				return;
+			}
+			catch (MojoFailureException e)
+			{
+				afterRequest(e);
+				if (!isRetriable(e, attempt))
+					throw e;
+			}
+			backOff(attempt);
+		}
+	}
+
+	/**
+	 * @return count of retries, hedged requests and requests rejected by the circuit breaker
+	 */
+	public String getStatistics()
+	{
+		return "HP ALM requests resilience: " + retried.get() + " retries, " + hedged.get() + " hedged requests (" + hedgesWon.get() + " answered first), " + rejected.get()
+				+ " requests rejected by the circuit breaker";
+	}
+
+	public int getRetries()
+	{
+		return retried.get();
+	}
+
+	public int getHedges()
+	{
+		return hedged.get();
+	}
+
+	public int getRejections()
+	{
+		return rejected.get();
+	}
+
+	/**
+	 * Stop the hedging threads
+	 * @throws IOException
+	 */
+	@Override
+	public void release() throws IOException
+	{
+		if (hedgingExecutor != null)
+			hedgingExecutor.shutdownNow();
+	}
+
+	/**
+	 * Single GET request through the circuit breaker
+	 * @param targetURL target to get the content from
+	 * @param cookie cookie to be set in Cookie header file
+	 * @return response from the target URL
+	 * @throws MojoFailureException if the request failed or has been rejected
+	 */
+	private String get(String targetURL, String cookie) throws MojoFailureException
+	{
+		beforeRequest();
+		long start = System.currentTimeMillis();
+		try
+		{
+			String response = delegate.getFromHPALM(targetURL, cookie);
+			afterRequest(null);
+			recordLatency(System.currentTimeMillis() - start);
+			return response;
+		}
+		catch (MojoFailureException e)
+		{
+			afterRequest(e);
+			throw e;
+		}
+	}
+
+	/**
+	 * GET request sent again if it takes longer than the percentile of latencies, the first response is used
+	 * @param targetURL target to get the content from
+	 * @param cookie cookie to be set in Cookie header file
+	 * @return response from the target URL
+	 * @throws MojoFailureException if both requests failed
+	 */
+	private String getHedged(final String targetURL, final String cookie) throws MojoFailureException
+	{
+		long threshold = getHedgeThreshold();
+		if (threshold < 0)
+			return get(targetURL, cookie);
+
+		CompletionService<String> requests = new ExecutorCompletionService<String>(hedgingExecutor);
+		HedgedRequest firstRequest = new HedgedRequest(targetURL, cookie);
+		HedgedRequest secondRequest = null;
+		Future<String> first = requests.submit(firstRequest);
+		Future<String> second = null;
+		try
+		{
+			Future<String> done = requests.poll(threshold, TimeUnit.MILLISECONDS);
+			if (done == null)
+			{
+				hedged.incrementAndGet();
+				secondRequest = new HedgedRequest(targetURL, cookie);
+				second = requests.submit(secondRequest);
+				done = requests.take();
+			}
+
+			try
+			{
+				return getResponse(done, second);
+			}
+			catch (ExecutionException e)
+			{
+				if (second == null)
+					throw unwrap(e);
+
+				// the other request may still succeed
+				try
+				{
+					return getResponse(requests.take(), second);
+				}
+				catch (ExecutionException ignored)
+				{
+					throw unwrap(e);
+				}
+			}
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new MojoFailureException(e, "HP ALM request has been interrupted", "HP ALM request has been interrupted: " + targetURL);
+		}
+		finally
+		{
+			// the blocking socket reads ignore the interruption, the request still in progress is aborted through its connection
+			first.cancel(false);
+			firstRequest.handle.abort();
+			if (second != null)
+			{
+				second.cancel(false);
+				secondRequest.handle.abort();
+			}
+		}
+	}
+
+	/**
+	 * @param threads maximal count of hedging threads
+	 * @return executor of the hedged requests, its threads are daemons that stop after a minute of inactivity
+	 */
+	private static ExecutorService createHedgingExecutor(int threads)
+	{
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory()
+		{
+			private final AtomicInteger	count	= new AtomicInteger();
+
+			public Thread newThread(Runnable runnable)
+			{
+				Thread thread = new Thread(runnable, "hpalm-hedging-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		executor.allowCoreThreadTimeOut(true);
+
+		return executor;
+	}
+
+	/**
+	 * GET request sent by a hedging thread, it may be aborted through its handle once the other request has answered
+	 */
+	private class HedgedRequest implements Callable<String>
+	{
+		private final String				targetURL;
+
+		private final String				cookie;
+
+		/**
+		 * Handle that aborts the request
+		 */
+		private final HPALMRequestHandle	handle	= new HPALMRequestHandle();
+
+		/**
+		 * Default constructor
+		 * @param targetURL target to get the content from
+		 * @param cookie cookie to be set in Cookie header file
+		 */
+		public HedgedRequest(String targetURL, String cookie)
+		{
+			this.targetURL = targetURL;
+			this.cookie = cookie;
+		}
+
+		public String call() throws Exception
+		{
+			if (handle.isAborted())
+				throw new MojoFailureException("HP ALM request has been aborted: " + targetURL);
+
+			beforeRequest();
+			handle.attach();
+			long start = System.currentTimeMillis();
+			try
+			{
+				String response = delegate.getFromHPALM(targetURL, cookie);
+				afterRequest(null);
+				recordLatency(System.currentTimeMillis() - start);
+				return response;
+			}
+			catch (MojoFailureException e)
+			{
+				// the aborted request does not tell anything about HP ALM availability
+				if (!handle.isAborted())
+					afterRequest(e);
+				throw e;
+			}
+			finally
+			{
+				handle.detach();
+			}
+		}
+	}
+
+	/**
+	 * @param done completed request
+	 * @param second hedged request, null if none
+	 * @return response of the completed request
+	 * @throws ExecutionException if the request failed
+	 * @throws InterruptedException never, the request has completed
+	 */
+	private String getResponse(Future<String> done, Future<String> second) throws ExecutionException, InterruptedException
+	{
+		String response = done.get();
+		if (done == second)
+			hedgesWon.incrementAndGet();
+		return response;
+	}
+
+	/**
+	 * @return latency after which the request is hedged (in milliseconds), -1 if there are not enough latencies yet
+	 */
+	private long getHedgeThreshold()
+	{
+		long[] samples;
+		synchronized (latencies)
+		{
+			if (latencyCount < MIN_LATENCY_SAMPLES)
+				return -1;
+
+			samples = Arrays.copyOf(latencies, Math.min(latencyCount, LATENCY_SAMPLES));
+		}
+
+		Arrays.sort(samples);
+		int index = (int) Math.ceil(hedgePercentile / 100.0 * samples.length) - 1;
+		return samples[Math.max(0, index)];
+	}
+
+	/**
+	 * @param latency latency of successful GET request (in milliseconds)
+	 */
+	private void recordLatency(long latency)
+	{
+		synchronized (latencies)
+		{
+			latencies[latencyCount % LATENCY_SAMPLES] = latency;
+			latencyCount++;
+		}
+	}
+
+	/**
+	 * @param e failure of GET request
+	 * @param attempt number of the failed attempt, starting from 0
+	 * @return true if the request may be retried
+	 */
+	private boolean isRetriable(MojoFailureException e, int attempt)
+	{
+		if (attempt >= retries || !(e instanceof HPALMResponseException) || !((HPALMResponseException) e).isRetriable())
+			return false;
+
+		// no point to wait while the requests are rejected
+		return circuitBreaker == null || !circuitBreaker.isOpen();
+	}
+
+	/**
+	 * Wait before the retry, the delay is doubled at each attempt and the second half of it is random
+	 * @param attempt number of the failed attempt, starting from 0
+	 * @throws MojoFailureException if interrupted while waiting
+	 */
+	private void backOff(int attempt) throws MojoFailureException
+	{
+		retried.incrementAndGet();
+		long delay = Math.min(maxRetryDelay, retryDelay << Math.min(attempt, 20));
+		long half = delay / 2;
+		try
+		{
+			Thread.sleep(delay - half + (long) (random.nextDouble() * half));
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new MojoFailureException(e, "HP ALM request has been interrupted", "HP ALM request has been interrupted while waiting for retry");
+		}
+	}
+
+	/**
+	 * Check that the circuit breaker lets the request through
+	 * @throws HPALMResponseException if the circuit is open
+	 */
+	private void beforeRequest() throws HPALMResponseException
+	{
+		if (circuitBreaker != null && !circuitBreaker.allowRequest())
+		{
+			rejected.incrementAndGet();
+			throw new HPALMResponseException(this, "HP ALM is unavailable", "HP ALM request rejected by the circuit breaker after too many consecutive failures", 503);
+		}
+	}
+
+	/**
+	 * Report the outcome of the request to the circuit breaker, only the connection errors and server overloads count as failures
+	 * @param e failure of the request, null if it succeeded
+	 */
+	private void afterRequest(MojoFailureException e)
+	{
+		if (circuitBreaker == null)
+			return;
+
+		if (e instanceof HPALMResponseException && ((HPALMResponseException) e).isRetriable())
+			circuitBreaker.failed();
+		else
+			circuitBreaker.succeeded();
+	}
+
+	/**
+	 * @param e failure of hedged request
+	 * @return the exception the request failed with
+	 */
+	private static MojoFailureException unwrap(ExecutionException e)
+	{
+		if (e.getCause() instanceof MojoFailureException)
+			return (MojoFailureException) e.getCause();
+		if (e.getCause() instanceof RuntimeException)
+			throw (RuntimeException) e.getCause();
+
+		return new MojoFailureException(e.getCause(), "HP ALM request failed", "HP ALM request failed: " + e.getCause());
+	}
+}
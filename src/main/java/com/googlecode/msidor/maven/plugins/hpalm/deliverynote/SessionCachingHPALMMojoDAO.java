@@ -0,0 +1,249 @@
+/*
+Copyright 2014 Maciej SIDOR [maciejsidor@gmail.com]
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+package com.googlecode.msidor.maven.plugins.hpalm.deliverynote;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+
+import org.apache.maven.plugin.MojoFailureException;
+
+/**
+ * Implementation of HPALMMavenPluginDAOI that reuses the HP ALM sessions.
+ *
+ * <p>
+ * The authentication returns the session cached for the server and the user if there is a valid one,
+ * otherwise it authenticates with the decorated Data Access Object and caches the new session.
+ * When HP ALM responds to a request with 401 code (the cached session has expired on server side),
+ * this Data Access Object authenticates again and retries the request once with the new session.
+ * The following requests made with the expired session cookie use the new one.
+ * </p>
+ *
+ * @author Maciej SIDOR
+ *
+ */
+public class SessionCachingHPALMMojoDAO extends HPALMMojoDAODecorator
+{
+	/**
+	 * Cache of sessions
+	 */
+	private final HPALMSessionCache	cache;
+
+	/**
+	 * HP ALM server address of the last authentication
+	 */
+	private String					url;
+
+	/**
+	 * HP ALM user of the last authentication
+	 */
+	private String					username;
+
+	/**
+	 * HP ALM password of the last authentication
+	 */
+	private String					password;
+
+	/**
+	 * Session cookie that is not valid anymore
+	 */
+	private String					expiredCookie;
+
+	/**
+	 * Session cookie that replaced the expired one
+	 */
+	private String					currentCookie;
+
+	/**
+	 * Default constructor
+	 * @param delegate decorated Data Access Object
+	 * @param cache cache of sessions
+	 */
+	public SessionCachingHPALMMojoDAO(HPALMMojoDAOI delegate, HPALMSessionCache cache)
+	{
+		super(delegate);
+		this.cache = cache;
+	}
+
+	/**
+	 * Authenticate to HP ALM or return the cached session
+	 *
+	 * @param targetURL
+	 *            - target to authenticate to
+	 * @param username
+	 *            - HP ALM user
+	 * @param password
+	 *            - HP ALM password
+	 * @return authentication cookie
+	 * @throws MojoFailureException
+	 *             if server responded with code different than 200
+	 */
+	@Override
+	public synchronized String authenticateToHPALM(String targetURL, String username, String password) throws MojoFailureException
+	{
+		this.url = targetURL;
+		this.username = username;
+		this.password = password;
+
+		String cookie = cache.get(targetURL, username);
+		if (cookie != null)
+			return cookie;
+
+		cookie = delegate.authenticateToHPALM(targetURL, username, password);
+		try
+		{
+			cache.put(targetURL, username, cookie);
+		}
+		catch (IOException e)
+		{
+			throw new MojoFailureException(e, "Could not cache HP ALM session", "Could not cache HP ALM session: " + e.getMessage());
+		}
+
+		return cookie;
+	}
+
+	/**
+	 * Send content to target URL via PUT method, re-authenticates once if the session has expired
+	 *
+	 * @param targetURL
+	 *            - target to send the content to
+	 * @param urlParameters
+	 *            - the content to be sent
+	 * @param contentType
+	 *            - type of the content to be sent
+	 * @param cookie
+	 *            - cookie to be set in Cookie header file
+	 * @return response from the target URL
+	 * @throws MojoFailureException
+	 *             if server responded with code different than 200
+	 */
+	@Override
+	public String putToHPALM(String targetURL, String urlParameters, String contentType, String cookie) throws MojoFailureException
+	{
+		cookie = getValidCookie(cookie);
+		try
+		{
+			return delegate.putToHPALM(targetURL, urlParameters, contentType, cookie);
+		}
+		catch (HPALMResponseException e)
+		{
+			if (e.getResponseCode() != HttpURLConnection.HTTP_UNAUTHORIZED)
+				throw e;
+
+			return delegate.putToHPALM(targetURL, urlParameters, contentType, reauthenticate(cookie));
+		}
+	}
+
+	/**
+	 * Get the content from target URL via GET method, re-authenticates once if the session has expired
+	 *
+	 * @param targetURL
+	 *            - target to get the content from
+	 * @param cookie
+	 *            - cookie to be set in Cookie header file
+	 * @return response from the target URL
+	 * @throws MojoFailureException
+	 *             if server responded with code different than 200
+	 */
+	@Override
+	public String getFromHPALM(String targetURL, String cookie) throws MojoFailureException
+	{
+		cookie = getValidCookie(cookie);
+		try
+		{
+			return delegate.getFromHPALM(targetURL, cookie);
+		}
+		catch (HPALMResponseException e)
+		{
+			if (e.getResponseCode() != HttpURLConnection.HTTP_UNAUTHORIZED)
+				throw e;
+
+			return delegate.getFromHPALM(targetURL, reauthenticate(cookie));
+		}
+	}
+
+	/**
+	 * Get the content from target URL via GET method and pass it to the handler, re-authenticates once if the session has expired
+	 *
+	 * @param targetURL
+	 *            - target to get the content from
+	 * @param cookie
+	 *            - cookie to be set in Cookie header file
+	 * @param handler
+	 *            - receiver of the response content
+	 * @throws MojoFailureException
+	 *             if server responded with code different than 200 or if the handler failed
+	 */
+	@Override
+	public void getFromHPALM(String targetURL, String cookie, HPALMResponseHandlerI handler) throws MojoFailureException
+	{
+		cookie = getValidCookie(cookie);
+		try
+		{
+			super.getFromHPALM(targetURL, cookie, handler);
+		}
+		catch (HPALMResponseException e)
+		{
+			// the handler is not called when the session has expired
+			if (e.getResponseCode() != HttpURLConnection.HTTP_UNAUTHORIZED)
+				throw e;
+
+			super.getFromHPALM(targetURL, reauthenticate(cookie), handler);
+		}
+	}
+
+	/**
+	 * @param cookie session cookie given by the caller
+	 * @return the new session cookie if the given one has expired, the given one otherwise
+	 */
+	private synchronized String getValidCookie(String cookie)
+	{
+		if (cookie != null && cookie.equals(expiredCookie))
+			return currentCookie;
+
+		return cookie;
+	}
+
+	/**
+	 * Drops the expired session and authenticates again
+	 * @param cookie expired session cookie
+	 * @return new session cookie
+	 * @throws MojoFailureException if the authentication failed
+	 */
+	private synchronized String reauthenticate(String cookie) throws MojoFailureException
+	{
+		// another thread might have already authenticated again
+		if (cookie != null && cookie.equals(expiredCookie) && currentCookie != null)
+			return currentCookie;
+
+		if (url == null)
+			throw new MojoFailureException("HP ALM session has expired and no authentication has been made");
+
+		try
+		{
+			cache.invalidate(url, username, cookie);
+		}
+		catch (IOException e)
+		{
+			// the session will be replaced in the file anyway
+		}
+
+		String newCookie = authenticateToHPALM(url, username, password);
+		expiredCookie = cookie;
+		currentCookie = newCookie;
+
+		return newCookie;
+	}
+}
@@ -0,0 +1,174 @@
+/*
+Copyright 2014 Maciej SIDOR [maciejsidor@gmail.com]
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+package com.googlecode.msidor.maven.plugins.hpalm.deliverynote;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Incremental writer of the summary HTML table split into tables of limited count of rows.
+ * Each table has its own headers row, so it can be published on its own CONFLUENCE page.
+ *
+ * @author Maciej SIDOR
+ *
+ */
+public class ShardedHTMLTableWriter
+{
+	/**
+	 * Tables written so far, the last one is still open
+	 */
+	private final List<StringBuilder>	tables				= new ArrayList<StringBuilder>();
+
+	/**
+	 * Maximal count of rows per table
+	 */
+	private final int					rowsPerTable;
+
+	/**
+	 * List of defect fields that are exported as table columns
+	 */
+	private final List<String>			valuesToExport;
+
+	/**
+	 * Translations of the defect fields used as column headers
+	 */
+	private final Map<String, String>	translationOfValuesToExport;
+
+	/**
+	 * True if the special HTML characters of the values are escaped
+	 */
+	private final boolean				escape;
+
+	/**
+	 * Writer of the current table
+	 */
+	private HTMLTableWriter				writer				= null;
+
+	/**
+	 * Count of rows of the current table
+	 */
+	private int							rows				= 0;
+
+	/**
+	 * Count of rows of all tables
+	 */
+	private int							totalRows			= 0;
+
+	/**
+	 * @param rowsPerTable maximal count of rows per table
+	 * @param valuesToExport list of defect fields that are exported as table columns
+	 * @param translationOfValuesToExport translations of the defect fields used as column headers, may be null
+	 * @param escape true to escape the special HTML characters of the values and headers
+	 */
+	public ShardedHTMLTableWriter(int rowsPerTable, List<String> valuesToExport, Map<String, String> translationOfValuesToExport, boolean escape)
+	{
+		this.rowsPerTable = Math.max(1, rowsPerTable);
+		this.valuesToExport = valuesToExport;
+		this.translationOfValuesToExport = translationOfValuesToExport;
+		this.escape = escape;
+	}
+
+	/**
+	 * Write the entity as row of the current table, a new table is started if the current one is full
+	 * @param entity the entity to be transformed to HTML table row
+	 */
+	public void writeEntity(Entity entity)
+	{
+		nextRows();
+		writer.writeEntity(entity);
+		rows++;
+		totalRows++;
+	}
+
+	/**
+	 * Write each entity of the columnar store as row, the tables are filled one after another
+	 * @param store the entities to be transformed to HTML table rows
+	 */
+	public void writeEntities(EntitiesColumnStore store)
+	{
+		int row = 0;
+		while (row < store.size())
+		{
+			int count = nextRows();
+			int toRow = Math.min(store.size(), row + count);
+			writer.writeEntities(store, row, toRow);
+
+			rows += toRow - row;
+			totalRows += toRow - row;
+			row = toRow;
+		}
+	}
+
+	/**
+	 * Closes the last table
+	 * @return tables, a single empty table if no entity has been written
+	 */
+	public List<StringBuilder> finish()
+	{
+		if (writer == null)
+			startTable();
+
+		writer.finish();
+		return tables;
+	}
+
+	/**
+	 * @return maximal count of rows per table
+	 */
+	public int getRowsPerTable()
+	{
+		return rowsPerTable;
+	}
+
+	/**
+	 * @return count of rows of all tables
+	 */
+	public int getTotalRows()
+	{
+		return totalRows;
+	}
+
+	/**
+	 * Start a new table if the current one is full
+	 * @return count of rows that can still be written to the current table
+	 */
+	private int nextRows()
+	{
+		if (writer == null)
+		{
+			startTable();
+		}
+		else if (rows >= rowsPerTable)
+		{
+			writer.finish();
+			startTable();
+		}
+
+		return rowsPerTable - rows;
+	}
+
+	/**
+	 * Start a new table
+	 */
+	private void startTable()
+	{
+		StringBuilder html = new StringBuilder();
+		tables.add(html);
+		writer = new HTMLTableWriter(html, valuesToExport, translationOfValuesToExport, escape);
+		rows = 0;
+	}
+}
@@ -0,0 +1,189 @@
+/*
+Copyright 2014 Maciej SIDOR [maciejsidor@gmail.com]
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+package com.googlecode.msidor.maven.plugins.hpalm.deliverynote;
+
+import java.io.InputStream;
+import java.io.Reader;
+import java.util.ArrayList;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Streaming parser of HP ALM query results based on StAX.
+ *
+ * <p>
+ * Each entity is passed to the handler as soon as its &lt;Entity&gt; element is closed,
+ * thus the memory used by the parser depends on the size of single entity instead of the size of the whole page.
+ * The entities are built the same way as the JAXB parser does: only the &lt;Entity&gt; elements directly under &lt;Entities&gt; root are read
+ * (nested ones, like related entities, are skipped) and the fields without &lt;Value&gt; element have null value.
+ * </p>
+ *
+ * @author Maciej SIDOR
+ *
+ */
+public class StAXEntitiesParser implements EntitiesParserI
+{
+	/**
+	 * Depth of the &lt;Entity&gt; elements
+	 */
+	private static final int				ENTITY_DEPTH	= 2;
+
+	/**
+	 * Factory of XML readers, thread safe once configured
+	 */
+	private static final XMLInputFactory	factory			= createFactory();
+
+	/**
+	 * Default constructor
+	 */
+	public StAXEntitiesParser()
+	{
+	}
+
+	/**
+	 * Parse the HP ALM query result page
+	 * @param reader HP ALM query result
+	 * @param handler receiver of the parsed entities
+	 * @return total number of entities matching the query (TotalResults attribute) or null if not given
+	 * @throws Exception if the query result could not be parsed or an entity could not be handled
+	 */
+	@Override
+	public Integer parse(Reader reader, EntityHandlerI handler) throws Exception
+	{
+		return parse(factory.createXMLStreamReader(reader), handler);
+	}
+
+	/**
+	 * Parse the HP ALM query result page, the encoding is read from the XML declaration
+	 * @param stream HP ALM query result
+	 * @param handler receiver of the parsed entities
+	 * @return total number of entities matching the query (TotalResults attribute) or null if not given
+	 * @throws Exception if the query result could not be parsed or an entity could not be handled
+	 */
+	@Override
+	public Integer parse(InputStream stream, EntityHandlerI handler) throws Exception
+	{
+		return parse(factory.createXMLStreamReader(stream), handler);
+	}
+
+	/**
+	 * Parse the HP ALM query result page
+	 * @param xml reader of HP ALM query result, closed once parsed
+	 * @param handler receiver of the parsed entities
+	 * @return total number of entities matching the query (TotalResults attribute) or null if not given
+	 * @throws Exception if the query result could not be parsed or an entity could not be handled
+	 */
+	private Integer parse(XMLStreamReader xml, EntityHandlerI handler) throws Exception
+	{
+		try
+		{
+			Integer totalResults = null;
+			Entity entity = null;
+			Field field = null;
+			int depth = 0;
+
+			while (xml.hasNext())
+			{
+				int event = xml.next();
+
+				if (event == XMLStreamConstants.START_ELEMENT)
+				{
+					depth++;
+					String name = xml.getLocalName();
+
+					if (depth == 1 && "Entities".equals(name))
+					{
+						totalResults = parseInteger(xml.getAttributeValue(null, "TotalResults"));
+					}
+					else if (depth == ENTITY_DEPTH && "Entity".equals(name))
+					{
+						entity = new Entity();
+						entity.type = xml.getAttributeValue(null, "type");
+					}
+					else if (entity != null && depth == ENTITY_DEPTH + 1 && "Fields".equals(name))
+					{
+						if (entity.fields == null)
+							entity.fields = new ArrayList<Field>();
+					}
+					else if (entity != null && entity.fields != null && depth == ENTITY_DEPTH + 2 && "Field".equals(name))
+					{
+						field = new Field();
+						field.name = xml.getAttributeValue(null, "Name");
+						entity.fields.add(field);
+					}
+					else if (field != null && depth == ENTITY_DEPTH + 3 && "Value".equals(name))
+					{
+						// reading the text moves the reader to the end of the element
+						field.value = xml.getElementText();
+						depth--;
+					}
+				}
+				else if (event == XMLStreamConstants.END_ELEMENT)
+				{
+					if (depth == ENTITY_DEPTH + 2)
+					{
+						field = null;
+					}
+					else if (depth == ENTITY_DEPTH && entity != null)
+					{
+						handler.handleEntity(entity);
+						entity = null;
+					}
+					depth--;
+				}
+			}
+
+			return totalResults;
+		}
+		finally
+		{
+			xml.close();
+		}
+	}
+
+	/**
+	 * @param value attribute value
+	 * @return integer representation of value or null if the value is not a number
+	 */
+	private Integer parseInteger(String value)
+	{
+		if (value == null)
+			return null;
+
+		try
+		{
+			return Integer.valueOf(value.trim());
+		}
+		catch (NumberFormatException e)
+		{
+			return null;
+		}
+	}
+
+	/**
+	 * @return XML input factory that does not resolve DTDs nor external entities
+	 */
+	private static XMLInputFactory createFactory()
+	{
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+		factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+		return factory;
+	}
+}
@@ -0,0 +1,315 @@
+/*
+Copyright 2014 Maciej SIDOR [maciejsidor@gmail.com]
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+package com.googlecode.msidor.maven.plugins.hpalm.deliverynote;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Streaming execution of the goal.
+ *
+ * <p>
+ * The entities are retrieved by a separate thread and passed through a bounded buffer
+ * straight to the changes file and CONFLUENCE table writers, so they are never all held in memory.
+ * Once all the entities are written, the CONFLUENCE pages are updated and the changes file is completed.
+ * Only the identifiers of entities are kept for the HP ALM update.
+ * </p>
+ *
+ * @author Maciej SIDOR
+ *
+ */
+public class StreamingExecution
+{
+	/**
+	 * Marker of the end of entities in streaming execution buffer
+	 */
+	private static final Entity			END_OF_ENTITIES	= new Entity();
+
+	/**
+	 * Time in milliseconds the retrieval thread waits for room in the buffer before checking if the writers are still reading it
+	 */
+	private static final long			BUFFER_WAIT		= 100;
+
+	/**
+	 * Retriever of the entities
+	 */
+	private final EntitiesRetriever		retriever;
+
+	/**
+	 * Publisher of the CONFLUENCE table, may be null
+	 */
+	private final ConfluencePublisher	publisher;
+
+	/**
+	 * Count of entities retrieved ahead of the writers
+	 */
+	private final int					bufferSize;
+
+	/**
+	 * Timing metrics of the execution
+	 */
+	private final ExecutionMetrics		metrics;
+
+	/**
+	 * Log of the plugin
+	 */
+	private final Log					log;
+
+	/**
+	 * Default constructor
+	 * @param retriever retriever of the entities
+	 * @param publisher publisher of the CONFLUENCE table, may be null if no table is written
+	 * @param bufferSize count of entities retrieved ahead of the writers
+	 * @param metrics timing metrics of the execution
+	 * @param log log of the plugin
+	 */
+	public StreamingExecution(EntitiesRetriever retriever, ConfluencePublisher publisher, int bufferSize, ExecutionMetrics metrics, Log log)
+	{
+		this.retriever = retriever;
+		this.publisher = publisher;
+		this.bufferSize = Math.max(1, bufferSize);
+		this.metrics = metrics;
+		this.log = log;
+	}
+
+	/**
+	 * Retrieve the entities and write them as they come, then update the CONFLUENCE page and complete the changes file.
+	 * The changes file is left incomplete if the execution fails, the caller is expected to abort it.
+	 *
+	 * @param cokie HP ALM session cookie
+	 * @param query HP ALM query statement
+	 * @param fields fields to retrieve, null to retrieve all the fields
+	 * @param htmlWriter writer of the CONFLUENCE table, may be null
+	 * @param shardedHtmlWriter writer of the CONFLUENCE child pages tables, may be null
+	 * @param changesWriter writer of the changes file, may be null
+	 * @param update true if the entities are to be updated in HP ALM
+	 * @return the entities to update, holding only their identifiers, or null if update is false
+	 * @throws MojoExecutionException
+	 */
+	public List<Entity> execute(final String cokie, final String query, final String fields, HTMLTableWriter htmlWriter, ShardedHTMLTableWriter shardedHtmlWriter, ChangesXMLWriter changesWriter, boolean update) throws MojoExecutionException
+	{
+		log.info("Executing HP ALM query in streaming mode...");
+		long phaseStart = System.nanoTime();
+
+		final BlockingQueue<Entity> buffer = new ArrayBlockingQueue<Entity>(bufferSize);
+		// set once the writers stop reading the buffer, so the retrieval thread does not wait for room forever
+		final AtomicBoolean aborted = new AtomicBoolean();
+		ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactory()
+		{
+			private final AtomicInteger	count	= new AtomicInteger();
+
+			public Thread newThread(Runnable runnable)
+			{
+				Thread thread = new Thread(runnable, "hpalm-streaming-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		List<Entity> entitiesToUpdate = update ? new ArrayList<Entity>() : null;
+		int countOfEntities = 0;
+
+		try
+		{
+			/***********************************************************
+			 * Retrieve entities in background
+			 ***********************************************************/
+			Future<Object> retrieval = executor.submit(new Callable<Object>()
+			{
+				public Object call() throws Exception
+				{
+					try
+					{
+						retriever.retreiveEntities(cokie, query, fields, new EntityHandlerI()
+						{
+							public void handleEntity(Entity entity) throws Exception
+							{
+								if (!enqueue(buffer, entity, aborted))
+									throw new InterruptedException("Streaming execution has been aborted");
+							}
+						});
+					}
+					finally
+					{
+						try
+						{
+							enqueue(buffer, END_OF_ENTITIES, aborted);
+						}
+						catch (InterruptedException e)
+						{
+							// the writers have stopped reading the buffer, nobody waits for the marker
+						}
+					}
+					return null;
+				}
+			});
+
+			/***********************************************************
+			 * Write the entities as they come
+			 ***********************************************************/
+			Entity entity = null;
+			while ((entity = buffer.take()) != END_OF_ENTITIES)
+			{
+				long writeStart = System.nanoTime();
+				if (htmlWriter != null)
+					htmlWriter.writeEntity(entity);
+				if (shardedHtmlWriter != null)
+					shardedHtmlWriter.writeEntity(entity);
+				if (htmlWriter != null || shardedHtmlWriter != null)
+					metrics.phaseEnded(ExecutionMetrics.PHASE_HTML, writeStart);
+
+				if (changesWriter != null)
+				{
+					writeStart = System.nanoTime();
+					try
+					{
+						changesWriter.writeEntity(entity);
+					}
+					catch (Exception e)
+					{
+						throw new MojoExecutionException("Could not generate changes file", e);
+					}
+					metrics.phaseEnded(ExecutionMetrics.PHASE_CHANGES, writeStart);
+				}
+
+				countOfEntities++;
+
+				// only the identifier is needed to update the entity, the fields and their index are left to the garbage collector
+				if (update)
+				{
+					Entity entityToUpdate = new Entity();
+					entityToUpdate.id = entity.id;
+					entitiesToUpdate.add(entityToUpdate);
+				}
+			}
+
+			try
+			{
+				retrieval.get();
+			}
+			catch (ExecutionException e)
+			{
+				throw new MojoExecutionException("Could not execute HP ALM query", e.getCause());
+			}
+			// the entities are written while they are retrieved, the fetch phase includes the writing
+			metrics.phaseEnded(ExecutionMetrics.PHASE_FETCH, phaseStart);
+			metrics.addCount(ExecutionMetrics.COUNT_ENTITIES, countOfEntities);
+		}
+		catch (InterruptedException e)
+		{
+			throw new MojoExecutionException("HP ALM query has been interrupted", e);
+		}
+		finally
+		{
+			aborted.set(true);
+			executor.shutdownNow();
+		}
+
+		/***********************************************************
+		 * Update CONLUENCE
+		 ***********************************************************/
+		if (htmlWriter != null)
+		{
+			log.info("Updating CONLUENCE page...");
+			phaseStart = System.nanoTime();
+			try
+			{
+				final StringBuilder html = htmlWriter.finish();
+				publisher.updatePage(new HTMLContentWriterI()
+				{
+					public int getEstimatedLength()
+					{
+						return html.length();
+					}
+
+					public void writeContent(StringBuilder content)
+					{
+						content.append(html);
+					}
+				});
+			}
+			catch (Exception e)
+			{
+				throw new MojoExecutionException("Could not update CONLUENCE page", e);
+			}
+			metrics.phaseEnded(ExecutionMetrics.PHASE_CONFLUENCE, phaseStart);
+		}
+		if (shardedHtmlWriter != null)
+		{
+			log.info("Updating CONLUENCE pages...");
+			phaseStart = System.nanoTime();
+			try
+			{
+				publisher.updatePages(shardedHtmlWriter);
+			}
+			catch (Exception e)
+			{
+				throw new MojoExecutionException("Could not update CONLUENCE page", e);
+			}
+			metrics.phaseEnded(ExecutionMetrics.PHASE_CONFLUENCE, phaseStart);
+		}
+
+		/***********************************************************
+		 * Complete changes file
+		 ***********************************************************/
+		if (changesWriter != null)
+		{
+			phaseStart = System.nanoTime();
+			try
+			{
+				changesWriter.close();
+			}
+			catch (Exception e)
+			{
+				throw new MojoExecutionException("Could not generate changes file", e);
+			}
+			metrics.phaseEnded(ExecutionMetrics.PHASE_CHANGES, phaseStart);
+		}
+
+		return entitiesToUpdate;
+	}
+
+	/**
+	 * Put the entity in the buffer, waiting for room as long as the writers are reading it
+	 * @param buffer buffer of the entities
+	 * @param entity entity to put
+	 * @param aborted set once the writers have stopped reading the buffer
+	 * @return true if the entity has been put, false if the writers have stopped reading the buffer
+	 * @throws InterruptedException
+	 */
+	private static boolean enqueue(BlockingQueue<Entity> buffer, Entity entity, AtomicBoolean aborted) throws InterruptedException
+	{
+		while (!buffer.offer(entity, BUFFER_WAIT, TimeUnit.MILLISECONDS))
+		{
+			if (aborted.get())
+				return false;
+		}
+		return true;
+	}
+}
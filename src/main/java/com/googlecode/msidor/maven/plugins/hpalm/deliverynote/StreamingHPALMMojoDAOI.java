@@ -0,0 +1,45 @@
+/*
+Copyright 2014 Maciej SIDOR [maciejsidor@gmail.com]
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+package com.googlecode.msidor.maven.plugins.hpalm.deliverynote;
+
+import org.apache.maven.plugin.MojoFailureException;
+
+/**
+ * HPALMMavenPlugin Data Access Object interface that streams HP ALM responses.
+ * An implementation of this interface passes the response content to the handler as it is received,
+ * instead of building the whole response as String, so large query result pages are parsed without being copied.
+ *
+ * @author Maciej SIDOR
+ *
+ */
+public interface StreamingHPALMMojoDAOI extends HPALMMojoDAOI
+{
+
+	/**
+	 * Get the content from target URL via GET method and pass it to the handler
+	 * 
+	 * @param targetURL
+	 *            - target to get the content from
+	 * @param cookie
+	 *            - cookie to be set in Cookie header file
+	 * @param handler
+	 *            - receiver of the response content, called only if server responded with code 2xx
+	 * @throws MojoFailureException
+	 *             if server responded with code different than 2xx or if the handler failed
+	 */
+	public abstract void getFromHPALM(String targetURL, String cookie, HPALMResponseHandlerI handler) throws MojoFailureException;
+
+}
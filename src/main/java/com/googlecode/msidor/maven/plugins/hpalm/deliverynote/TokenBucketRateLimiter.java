@@ -0,0 +1,98 @@
+/*
+Copyright 2014 Maciej SIDOR [maciejsidor@gmail.com]
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+package com.googlecode.msidor.maven.plugins.hpalm.deliverynote;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket rate limiter.
+ *
+ * <p>
+ * The bucket is refilled with the given count of tokens per second and holds at most one second worth of tokens,
+ * thus short bursts are allowed while the average rate never exceeds the limit.
+ * Each request takes one token and waits if the bucket is empty.
+ * </p>
+ *
+ * @author Maciej SIDOR
+ *
+ */
+public class TokenBucketRateLimiter
+{
+	/**
+	 * Time needed to refill one token (in nanoseconds)
+	 */
+	private final long		refillInterval;
+
+	/**
+	 * Maximal count of tokens in the bucket
+	 */
+	private final double	capacity;
+
+	/**
+	 * Count of tokens currently in the bucket
+	 */
+	private double			tokens;
+
+	/**
+	 * Time of the last refill (in nanoseconds)
+	 */
+	private long			lastRefill;
+
+	/**
+	 * Default constructor
+	 * @param permitsPerSecond maximal count of requests per second
+	 */
+	public TokenBucketRateLimiter(double permitsPerSecond)
+	{
+		if (permitsPerSecond <= 0)
+			throw new IllegalArgumentException("Rate limit must be greater than 0");
+
+		this.refillInterval = (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond);
+		this.capacity = Math.max(1, permitsPerSecond);
+		this.tokens = capacity;
+		this.lastRefill = System.nanoTime();
+	}
+
+	/**
+	 * Takes one token, waits until one is available if the bucket is empty
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public void acquire() throws InterruptedException
+	{
+		long waitTime;
+		synchronized (this)
+		{
+			refill();
+
+			// the token is reserved now, the caller waits until it is refilled
+			tokens -= 1;
+			waitTime = tokens >= 0 ? 0 : (long) (-tokens * refillInterval);
+		}
+
+		if (waitTime > 0)
+			TimeUnit.NANOSECONDS.sleep(waitTime);
+	}
+
+	/**
+	 * Adds the tokens refilled since the last refill
+	 */
+	private void refill()
+	{
+		long now = System.nanoTime();
+		tokens = Math.min(capacity, tokens + (double) (now - lastRefill) / refillInterval);
+		lastRefill = now;
+	}
+}
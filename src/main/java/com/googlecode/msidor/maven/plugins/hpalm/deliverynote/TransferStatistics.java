@@ -0,0 +1,232 @@
+/*
+Copyright 2014 Maciej SIDOR [maciejsidor@gmail.com]
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+package com.googlecode.msidor.maven.plugins.hpalm.deliverynote;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Statistics of data received from HP ALM.
+ *
+ * <p>
+ * Decodes the gzip and deflate compressed responses while they are read
+ * and counts the bytes received from the network as well as the bytes after decompression,
+ * so the bandwidth saved by the compression can be measured.
+ * The statistics may be updated by several threads at the same time.
+ * </p>
+ *
+ * @author Maciej SIDOR
+ *
+ */
+public class TransferStatistics
+{
+	/**
+	 * Value of Accept-Encoding header for the supported encodings
+	 */
+	public static final String	ACCEPT_ENCODING		= "gzip, deflate";
+
+	/**
+	 * Count of bytes received from the network
+	 */
+	private final AtomicLong	receivedBytes		= new AtomicLong();
+
+	/**
+	 * Count of bytes after decompression
+	 */
+	private final AtomicLong	decodedBytes		= new AtomicLong();
+
+	/**
+	 * Count of compressed responses
+	 */
+	private final AtomicLong	compressedResponses	= new AtomicLong();
+
+	/**
+	 * Count of responses
+	 */
+	private final AtomicLong	responses			= new AtomicLong();
+
+	/**
+	 * Wraps the response stream so it is decompressed and counted while read
+	 * @param is response stream as received from the network
+	 * @param contentEncoding value of Content-Encoding header, may be null
+	 * @return decoded response stream
+	 * @throws IOException if the compressed stream header could not be read
+	 */
+	public InputStream decode(InputStream is, String contentEncoding) throws IOException
+	{
+		responses.incrementAndGet();
+		InputStream decoded = new CountingInputStream(is, receivedBytes);
+
+		if (contentEncoding != null)
+		{
+			String encoding = contentEncoding.trim().toLowerCase();
+			if (encoding.equals("gzip") || encoding.equals("x-gzip"))
+			{
+				compressedResponses.incrementAndGet();
+				decoded = new GZIPInputStream(decoded);
+			}
+			else if (encoding.equals("deflate"))
+			{
+				compressedResponses.incrementAndGet();
+				decoded = inflate(decoded);
+			}
+		}
+
+		return new CountingInputStream(decoded, decodedBytes);
+	}
+
+	/**
+	 * Some servers send raw deflate data instead of zlib stream required by the HTTP specification, both are accepted
+	 * @param is deflate compressed stream
+	 * @return decompressed stream
+	 * @throws IOException if the stream header could not be read
+	 */
+	private InputStream inflate(InputStream is) throws IOException
+	{
+		PushbackInputStream pis = new PushbackInputStream(is, 2);
+		byte[] header = new byte[2];
+		int read = 0;
+		while (read < header.length)
+		{
+			int n = pis.read(header, read, header.length - read);
+			if (n < 0)
+				break;
+			read += n;
+		}
+		pis.unread(header, 0, read);
+
+		// zlib header: deflate method and header checksum
+		boolean zlib = read == 2 && (header[0] & 0x0F) == 8 && (((header[0] & 0xFF) << 8) | (header[1] & 0xFF)) % 31 == 0;
+
+		return new EndingInflaterInputStream(pis, new Inflater(!zlib));
+	}
+
+	/**
+	 * @return count of bytes received from the network
+	 */
+	public long getReceivedBytes()
+	{
+		return receivedBytes.get();
+	}
+
+	/**
+	 * @return count of bytes after decompression
+	 */
+	public long getDecodedBytes()
+	{
+		return decodedBytes.get();
+	}
+
+	@Override
+	public String toString()
+	{
+		long received = receivedBytes.get();
+		long decoded = decodedBytes.get();
+
+		return "HP ALM transfer: " + responses.get() + " responses (" + compressedResponses.get() + " compressed), " + received + " bytes received, " + decoded + " bytes decoded"
+				+ (decoded > 0 ? ", " + (100 * (decoded - received) / decoded) + "% saved" : "");
+	}
+
+	/**
+	 * Stream that adds the count of bytes read to a counter
+	 */
+	static class CountingInputStream extends FilterInputStream
+	{
+		/**
+		 * Counter of bytes read
+		 */
+		private final AtomicLong	counter;
+
+		/**
+		 * Default constructor
+		 * @param in stream to count
+		 * @param counter counter of bytes read
+		 */
+		public CountingInputStream(InputStream in, AtomicLong counter)
+		{
+			super(in);
+			this.counter = counter;
+		}
+
+		@Override
+		public int read() throws IOException
+		{
+			int b = super.read();
+			if (b >= 0)
+				counter.incrementAndGet();
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException
+		{
+			int n = super.read(b, off, len);
+			if (n > 0)
+				counter.addAndGet(n);
+			return n;
+		}
+
+		@Override
+		public long skip(long n) throws IOException
+		{
+			long skipped = super.skip(n);
+			counter.addAndGet(skipped);
+			return skipped;
+		}
+
+		@Override
+		public boolean markSupported()
+		{
+			return false;
+		}
+	}
+
+	/**
+	 * Inflater stream that releases the native memory of its inflater when closed,
+	 * InflaterInputStream does it only for the inflater it has created itself
+	 */
+	private static class EndingInflaterInputStream extends InflaterInputStream
+	{
+		/**
+		 * Default constructor
+		 * @param in compressed stream
+		 * @param inflater inflater owned by this stream
+		 */
+		public EndingInflaterInputStream(InputStream in, Inflater inflater)
+		{
+			super(in, inflater);
+		}
+
+		@Override
+		public void close() throws IOException
+		{
+			try
+			{
+				super.close();
+			}
+			finally
+			{
+				inf.end();
+			}
+		}
+	}
+}
@@ -20,8 +20,11 @@ import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
 import java.net.MalformedURLException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Hashtable;
+import java.util.List;
+import java.util.Vector;
 
 import org.apache.maven.plugin.MojoFailureException;
 import org.apache.xmlrpc.XmlRpcException;
@@ -40,11 +43,19 @@ public class HPALMMojoDAOMockup implements HPALMMojoDAOI
 	private Hashtable<String, String> 					fromHPALMResultFiles 	= null;
 	private Hashtable<String, HashMap<Object, Object>> 	confluencePages 		= null;
 	private HashMap<Object, Object> 					updatedConfluencePage	= null;	
+	private List<HashMap<Object, Object>>				storedConfluencePages	= new Vector<HashMap<Object, Object>>();
+	private int											lastConfluencePageID	= 90000000;
 	private String 										confleunceUser 			= null;
 	private String 										confluencePassword 		= null;
 	private String 										username 				= null;
 	private String 										password 				= null;	
 	private Logger										logger 					= null;
+	private List<String>								toHPALMRequests			= new Vector<String>();
+	private List<String>								toHPALMContents			= new Vector<String>();
+	private List<String>								toHPALMContentTypes		= new Vector<String>();
+	private Hashtable<String, String>					toHPALMResponses		= new Hashtable<String, String>();
+	private Hashtable<String, Integer>					toHPALMErrors			= new Hashtable<String, Integer>();
+	private Hashtable<String, int[]>					fromHPALMErrors			= new Hashtable<String, int[]>();
 
 	@Override
 	
@@ -56,12 +67,70 @@ public class HPALMMojoDAOMockup implements HPALMMojoDAOI
 	 * @param pageUpdateOptions Update options
 	 * @throws XmlRpcException
 	 */	
-	public void updateConfluencePage(Object cookie, HashMap<Object, Object> page, HashMap<Object, Object> pageUpdateOptions) throws XmlRpcException
+	public synchronized void updateConfluencePage(Object cookie, HashMap<Object, Object> page, HashMap<Object, Object> pageUpdateOptions) throws XmlRpcException
 	{
 		if(logger!=null) 
 			logger.info("HPALMMojoDAOMockup.updateConfluencePage: "+cookie+page+pageUpdateOptions);
 
 		updatedConfluencePage = page;
+		storedConfluencePages.add(page);
+	}
+
+	@Override
+	/**
+	 * Retrieves the child pages of Confluence page.
+	 * This implementation returns the pages set in confluencePages field which parentId is confluencePageID.
+	 * @param cookie Confluence session authentication object
+	 * @param confluencePageID CID of the parent Confluence page
+	 * @return summaries of the child pages
+	 * @throws XmlRpcException
+	 */
+	public synchronized List<HashMap<Object, Object>> getConfluenceChildPages(Object cookie, String confluencePageID) throws XmlRpcException
+	{
+		if(logger!=null) 
+			logger.info("HPALMMojoDAOMockup.getConfluenceChildPages: "+cookie+confluencePageID);
+
+		List<HashMap<Object, Object>> children = new ArrayList<HashMap<Object, Object>>();
+		if(confluencePages!=null)
+		{
+			for(HashMap<Object, Object> page : confluencePages.values())
+			{
+				if(confluencePageID.equals(String.valueOf(page.get("parentId"))))
+				{
+					HashMap<Object, Object> summary = new HashMap<Object, Object>();
+					summary.put("id", page.get("id"));
+					summary.put("title", page.get("title"));
+					summary.put("parentId", page.get("parentId"));
+					children.add(summary);
+				}
+			}
+		}
+
+		return children;
+	}
+
+	@Override
+	/**
+	 * Stores Confluence page.
+	 * This implementation gives an id to the new page and adds it to confluencePages field under cookie+id key, the page is also added to storedConfluencePages field.
+	 * @param cookie Confluence session authentication object
+	 * @param page Confluence page content
+	 * @return stored Confluence page
+	 * @throws XmlRpcException
+	 */
+	public synchronized HashMap<Object, Object> storeConfluencePage(Object cookie, HashMap<Object, Object> page) throws XmlRpcException
+	{
+		if(logger!=null) 
+			logger.info("HPALMMojoDAOMockup.storeConfluencePage: "+cookie+page);
+
+		HashMap<Object, Object> storedPage = new HashMap<Object, Object>(page);
+		if(!storedPage.containsKey("id"))
+			storedPage.put("id", String.valueOf(++lastConfluencePageID));
+
+		addConfluencePage(cookie+String.valueOf(storedPage.get("id")), storedPage);
+		storedConfluencePages.add(storedPage);
+
+		return storedPage;
 	}
 
 	@Override
@@ -73,7 +142,7 @@ public class HPALMMojoDAOMockup implements HPALMMojoDAOI
 	 * @return Confluence page content
 	 * @throws XmlRpcException
 	 */	
-	public HashMap<Object, Object> getConfluencePage(Object cookie, String confluencePageID) throws XmlRpcException
+	public synchronized HashMap<Object, Object> getConfluencePage(Object cookie, String confluencePageID) throws XmlRpcException
 	{	
 		if(logger!=null) 
 			logger.info("HPALMMojoDAOMockup.getConfluencePage: "+cookie+confluencePageID);
@@ -118,7 +187,7 @@ public class HPALMMojoDAOMockup implements HPALMMojoDAOI
 	@Override
 	/**
 	 * Send content to target URL via PUT method.
-	 * This implementation practically does nothing.
+	 * This implementation sends the content as single entity.
 	 * @param targetURL
 	 *            - target to send the content to
 	 * @param urlParameters
@@ -130,17 +199,57 @@ public class HPALMMojoDAOMockup implements HPALMMojoDAOI
 	 *             if server responded with code different than 200
 	 */	
 	public String putToHPALM(String targetURL, String urlParameters, String cookie) throws MojoFailureException
+	{
+		return putToHPALM(targetURL, urlParameters, CONTENT_TYPE_XML, cookie);
+	}
+
+	@Override
+	/**
+	 * Send content of given type to target URL via PUT method.
+	 * This implementation records the target URL, the content and its type in toHPALMRequests, toHPALMContents and toHPALMContentTypes fields 
+	 * and fails with the response code registered in toHPALMErrors field under targetURL key.
+	 * It returns the response registered in toHPALMResponses field under targetURL key, 
+	 * otherwise the sent content for a collection of entities, as HP ALM does after bulk update, and a dummy content for a single entity.
+	 * @param targetURL
+	 *            - target to send the content to
+	 * @param urlParameters
+	 *            - the content to be sent
+	 * @param contentType
+	 *            - type of the content to be sent
+	 * @param cookie
+	 *            - cookie to be set in Cookie header file
+	 * @return response from the target URL
+	 * @throws MojoFailureException
+	 *             if server responded with code different than 200
+	 */	
+	public synchronized String putToHPALM(String targetURL, String urlParameters, String contentType, String cookie) throws MojoFailureException
 	{
 		if(logger!=null) 
-			logger.info("HPALMMojoDAOMockup.putToHPALM: "+targetURL+urlParameters+cookie);
+			logger.info("HPALMMojoDAOMockup.putToHPALM: "+targetURL+urlParameters+contentType+cookie);
+		
+		toHPALMRequests.add(targetURL);
+		toHPALMContents.add(urlParameters);
+		toHPALMContentTypes.add(contentType);
+		
+		if(toHPALMErrors.containsKey(targetURL))
+		{
+			int responseCode = toHPALMErrors.get(targetURL).intValue();
+			throw new HPALMResponseException(this, "Error occurced while posting data to HP ALM", "Response code: "+responseCode, responseCode);
+		}
 		
-		return "content";
+		if(toHPALMResponses.containsKey(targetURL))
+		{
+			return toHPALMResponses.get(targetURL);
+		}
+		
+		return CONTENT_TYPE_XML_COLLECTION.equals(contentType) ? urlParameters : "content";
 	}
 
 	@Override
 	/**
 	 * Get the content from target URL via GET method.
-	 * This implementation returns the content of XML file that was registered in fromHPALMResultFiles filed under targetURL+cookie key.  
+	 * This implementation returns the content of XML file that was registered in fromHPALMResultFiles filed under targetURL+cookie key,
+	 * unless an error registered in fromHPALMErrors field under the same key has not been raised the registered count of times yet.
 	 * @param targetURL
 	 *            - target to get the content from
 	 * @param cookie
@@ -154,6 +263,19 @@ public class HPALMMojoDAOMockup implements HPALMMojoDAOI
 		if(logger!=null) 
 			logger.info("HPALMMojoDAOMockup.getFromHPALM: "+targetURL+cookie);
 		
+		int[] error = fromHPALMErrors.get(targetURL+cookie);
+		if(error!=null)
+		{
+			synchronized(error)
+			{
+				if(error[1]>0)
+				{
+					error[1]--;
+					throw new HPALMResponseException(this, "Error occurced while getting data from HP ALM", "Response code: "+error[0], error[0]);
+				}
+			}
+		}
+		
 		if(fromHPALMResultFiles!=null && fromHPALMResultFiles.containsKey(targetURL+cookie))
 		{
 			return readFromFile(fromHPALMResultFiles.get(targetURL+cookie));
@@ -247,6 +369,37 @@ public class HPALMMojoDAOMockup implements HPALMMojoDAOI
 		
 	}
 
+	/**
+	 * Add fake HP ALM error response to toHPALMErrors field
+	 * @param targetURL
+	 * @param responseCode
+	 */
+	public void addToHPALMError(String targetURL, int responseCode)
+	{
+		toHPALMErrors.put(targetURL, Integer.valueOf(responseCode));
+	}
+
+	/**
+	 * Add fake HP ALM response to toHPALMResponses field
+	 * @param targetURL
+	 * @param response
+	 */
+	public void addToHPALMResponse(String targetURL, String response)
+	{
+		toHPALMResponses.put(targetURL, response);
+	}
+
+	/**
+	 * Add fake HP ALM error response to fromHPALMErrors field
+	 * @param key targetURL+cookie
+	 * @param responseCode
+	 * @param count count of requests failing with the error before the content is returned
+	 */
+	public void addFromHPALMError(String key, int responseCode, int count)
+	{
+		fromHPALMErrors.put(key, new int[] { responseCode, count });
+	}
+
 	/*-------------------------Getters and setters------------------------------*/
 	
 	public String getConfluencePassword()
@@ -299,11 +452,31 @@ public class HPALMMojoDAOMockup implements HPALMMojoDAOI
 		this.logger = logger;
 	}
 
+	public List<String> getToHPALMRequests()
+	{
+		return toHPALMRequests;
+	}
+
+	public List<String> getToHPALMContents()
+	{
+		return toHPALMContents;
+	}
+
+	public List<String> getToHPALMContentTypes()
+	{
+		return toHPALMContentTypes;
+	}
+
 	public HashMap<Object, Object> getUpdatedConfluencePage()
 	{
 		return updatedConfluencePage;
 	}
 
+	public List<HashMap<Object, Object>> getStoredConfluencePages()
+	{
+		return storedConfluencePages;
+	}
+
 	public void setUpdatedConfluencePage(HashMap<Object, Object> updatedConfluencePage)
 	{
 		this.updatedConfluencePage = updatedConfluencePage;
@@ -20,6 +20,7 @@ import java.io.FileReader;
 import java.io.Reader;
 import java.security.MessageDigest;
 import java.util.HashMap;
+import java.util.List;
 
 import org.apache.maven.plugin.testing.AbstractMojoTestCase;
 import org.codehaus.plexus.logging.Logger;
@@ -33,6 +34,10 @@ import org.codehaus.plexus.logging.Logger;
  * <ul>
  * <li>5 HP ALM Defects : 2 Defects, 1 Evolution, 1 Upgrade and 1 Delete</li>
  * <li>Confleunce page set</li>
+ * <li>Same results expected with the entities kept in columnar store</li>
+ * <li>Confluence page not updated twice with the same content when the section markers are enabled</li>
+ * <li>Special HTML characters of Confluence table escaped on demand</li>
+ * <li>Confluence table split into child pages, unchanged child pages not updated</li>
  * <li>Plugin configuration file: src/test/resources/com/googlecode/msidor/maven/plugins/hpalm/deliverynote/plugin-conf.xml</li>
  * <li>HP ALM Entities file: src/test/resources/com/googlecode/msidor/maven/plugins/hpalm/deliverynote/hpalm-entities-query-result.xml</li>
  * </ul>
@@ -82,7 +87,7 @@ public class HPALMMojoDefaultTestCase extends AbstractMojoTestCase
 		dao.setLogger(logger);
 
 		// add the result from HP ALM
-		dao.addToFromHPALMResultFiles("http://alm.organization.net:8080/qcbin/rest/domains/DEP1/projects/PROJECT_1/defects?page-size=10&start-index=1&query={planned-closing-ver[%22%24%7Bproject.version%7D%22];project[%22Test%20Project%22];status[%22Corrected%22]}LWSSO_COOKIE_KEY=yv5W1bsYKsX-zzlWWq4jdL9qICd-6wYEeq69dwww67lfg1tLMVFXPdXDOZgbUWTUNUKRVPkdlz2Fjfo58B62Mp-dDLpfCPETEXWNFx4wT5Ic1lKtz8YSgz8C3DujgbsbETjVBe_ryFZHxFqmJev2w0mqmo2LIR8aTw9f4tQ2BJjY1xkNLQDt4p8_4g_25OP9wQZ-emAvkBc1lAjuXsXOZpNw7jXRvnaSjkaXt0uIcoU.; Path=/", "src/test/resources/com/googlecode/msidor/maven/plugins/hpalm/deliverynote/hpalm-entities-query-result.xml");
+		dao.addToFromHPALMResultFiles("http://alm.organization.net:8080/qcbin/rest/domains/DEP1/projects/PROJECT_1/defects?page-size=10&start-index=1&query={planned-closing-ver[%22%24%7Bproject.version%7D%22];project[%22Test%20Project%22];status[%22Corrected%22]}&fields=id,name,owner,detected-by,creation-time,detection-version,severity,user-04LWSSO_COOKIE_KEY=yv5W1bsYKsX-zzlWWq4jdL9qICd-6wYEeq69dwww67lfg1tLMVFXPdXDOZgbUWTUNUKRVPkdlz2Fjfo58B62Mp-dDLpfCPETEXWNFx4wT5Ic1lKtz8YSgz8C3DujgbsbETjVBe_ryFZHxFqmJev2w0mqmo2LIR8aTw9f4tQ2BJjY1xkNLQDt4p8_4g_25OP9wQZ-emAvkBc1lAjuXsXOZpNw7jXRvnaSjkaXt0uIcoU.; Path=/", "src/test/resources/com/googlecode/msidor/maven/plugins/hpalm/deliverynote/hpalm-entities-query-result.xml");
 
 		// add the confluence page
 		HashMap<Object, Object> page = new HashMap<Object, Object>();
@@ -130,7 +135,181 @@ public class HPALMMojoDefaultTestCase extends AbstractMojoTestCase
 		logger.info("Test accomplished succesfully");
 		
 	}
-	
+
+	/**
+	 * Same as the default test case with the entities kept in columnar store, the results must be identical
+	 * @throws Exception
+	 *             if any
+	 */
+	public void testColumnarStore() throws Exception
+	{
+		File changesFile = new File("out/changes.xml");
+		String initialContent = "<p>begining of the page</p><p>end of the page</p>";
+
+		HPALMMojoDAOMockup dao = executeWithConfluencePage(initialContent);
+		String checksum = createChecksum(new FileReader(changesFile));
+		Object content = dao.getUpdatedConfluencePage().get("content");
+		assertEquals("Changes file is different than expected","762c771d601e29faf8aff196d869453a",checksum);
+
+		dao = executeWithConfluencePage(initialContent, "columnarStore", Boolean.TRUE);
+		assertEquals("Changes file is different with columnar store",checksum,createChecksum(new FileReader(changesFile)));
+		assertEquals("Confluence page is different with columnar store",content,dao.getUpdatedConfluencePage().get("content"));
+	}
+
+	/**
+	 * The CONFLUENCE page is updated only if the content generated for the release has changed
+	 * @throws Exception
+	 *             if any
+	 */
+	public void testSkipUnchangedConfluenceUpdate() throws Exception
+	{
+		String initialContent = "<p>begining of the page</p><p>end of the page</p>";
+
+		//first execution adds the section of the release
+		HPALMMojoDAOMockup dao = executeWithConfluencePage(initialContent, "confluenceSkipUnchanged", Boolean.TRUE);
+		HashMap<Object, Object> updatedPage = dao.getUpdatedConfluencePage();
+		assertNotNull("Confluence page has not been updated",updatedPage);
+		String content = (String) updatedPage.get("content");
+		assertTrue("Section markers not found",content.contains("hpalm-begin-") && content.contains("hpalm-end-"));
+		assertTrue("Page content has been lost",content.endsWith(initialContent));
+
+		//same content, no update
+		dao = executeWithConfluencePage(content, "confluenceSkipUnchanged", Boolean.TRUE);
+		assertNull("Confluence page has been updated while the content has not changed",dao.getUpdatedConfluencePage());
+
+		//changed content, the section is replaced
+		String changedContent = content.replaceFirst("(hpalm-begin-[^<]*-)[0-9a-f]{32}", "$1" + "00000000000000000000000000000000");
+		dao = executeWithConfluencePage(changedContent, "confluenceSkipUnchanged", Boolean.TRUE);
+		updatedPage = dao.getUpdatedConfluencePage();
+		assertNotNull("Confluence page has not been updated while the content has changed",updatedPage);
+		assertEquals("Section has not been replaced",content,updatedPage.get("content"));
+	}
+
+	/**
+	 * The special HTML characters of the table are escaped on demand
+	 * @throws Exception
+	 *             if any
+	 */
+	public void testEscapeConfluenceValues() throws Exception
+	{
+		HashMap<String, String> translations = new HashMap<String, String>();
+		translations.put("id", "<ID>");
+		translations.put("name", "R&D name");
+
+		HPALMMojoDAOMockup dao = executeWithConfluencePage("", "translationOfValuesToExport", translations);
+		String content = (String) dao.getUpdatedConfluencePage().get("content");
+		assertTrue("Headers should not be escaped by default",content.contains("<th><ID></th><th>R&D name</th>"));
+
+		dao = executeWithConfluencePage("", "translationOfValuesToExport", translations, "confluenceEscapeValues", Boolean.TRUE);
+		String escapedContent = (String) dao.getUpdatedConfluencePage().get("content");
+		assertTrue("Headers have not been escaped",escapedContent.contains("<th>&lt;ID&gt;</th><th>R&amp;D name</th>"));
+		assertEquals("Values without special characters should not change",content.substring(content.indexOf("</tr>")),escapedContent.substring(escapedContent.indexOf("</tr>")));
+	}
+
+	/**
+	 * The table is split into CONFLUENCE child pages, the pages which content has not changed are not updated
+	 * @throws Exception
+	 *             if any
+	 */
+	public void testConfluenceChildPages() throws Exception
+	{
+		//5 defects, 2 per page
+		HPALMMojoDAOMockup dao = executeWithConfluencePage("<p>page</p>", "confluenceRowsPerPage", Integer.valueOf(2), "changesProjectVersion", "1.0.0");
+		List<HashMap<Object, Object>> storedPages = dao.getStoredConfluencePages();
+		assertEquals("Child pages and index expected",4,storedPages.size());
+
+		String index = (String) dao.getUpdatedConfluencePage().get("content");
+		for (int i = 1; i <= 3; i++)
+		{
+			String title = "Project1 Release Notes - 1.0.0 - " + i;
+			assertTrue("Child page not linked: " + title,index.contains("ri:content-title=\"" + title + "\""));
+
+			boolean stored = false;
+			for (HashMap<Object, Object> storedPage : storedPages)
+				stored |= title.equals(storedPage.get("title")) && "24391678".equals(storedPage.get("parentId")) && "Doc".equals(storedPage.get("space"));
+			assertTrue("Child page not created: " + title,stored);
+		}
+		assertTrue("Rows of the last child page expected",index.contains("(5 - 5)"));
+
+		//same defects, only the index is updated
+		storedPages.clear();
+		executeWithConfluencePage(dao, "confluenceRowsPerPage", Integer.valueOf(2), "changesProjectVersion", "1.0.0");
+		assertEquals("Child pages should not be updated",1,storedPages.size());
+
+		//changed table, the child pages are updated
+		HashMap<String, String> translations = new HashMap<String, String>();
+		translations.put("id", "Identifier");
+		storedPages.clear();
+		executeWithConfluencePage(dao, "confluenceRowsPerPage", Integer.valueOf(2), "changesProjectVersion", "1.0.0", "translationOfValuesToExport", translations);
+		assertEquals("Child pages should be updated",4,storedPages.size());
+		assertEquals("Child pages should not be created again",3,dao.getConfluenceChildPages("479a88d7bb","24391678").size());
+
+		//3 defects per page, the last child page is emptied and not linked anymore
+		storedPages.clear();
+		executeWithConfluencePage(dao, "confluenceRowsPerPage", Integer.valueOf(3), "changesProjectVersion", "1.0.0", "translationOfValuesToExport", translations);
+		assertEquals("Child pages should be updated and the surplus one emptied",4,storedPages.size());
+		//the new index is put at the top of the page, above the previous ones
+		index = (String) dao.getUpdatedConfluencePage().get("content");
+		index = index.substring(0, index.indexOf("</ul>"));
+		assertTrue("Child page not linked",index.contains("Project1 Release Notes - 1.0.0 - 2"));
+		assertFalse("Surplus child page still linked",index.contains("Project1 Release Notes - 1.0.0 - 3"));
+		for (HashMap<Object, Object> storedPage : storedPages)
+		{
+			if ("Project1 Release Notes - 1.0.0 - 3".equals(storedPage.get("title")))
+				assertFalse("Surplus child page not emptied",((String) storedPage.get("content")).contains("<tr"));
+		}
+
+		//the surplus child page is already empty
+		storedPages.clear();
+		executeWithConfluencePage(dao, "confluenceRowsPerPage", Integer.valueOf(3), "changesProjectVersion", "1.0.0", "translationOfValuesToExport", translations);
+		assertEquals("Surplus child page should not be emptied again",1,storedPages.size());
+	}
+
+	/**
+	 * Executes the goal on the default configuration
+	 * @param content initial content of the CONFLUENCE page
+	 * @param settings names and values of the plugin parameters to change
+	 * @return DAO mockup used by the execution
+	 * @throws Exception
+	 *             if any
+	 */
+	private HPALMMojoDAOMockup executeWithConfluencePage(String content, Object... settings) throws Exception
+	{
+		HPALMMojoDAOMockup dao = new HPALMMojoDAOMockup();
+		dao.setLogger(getContainer().getLogger());
+		dao.addToFromHPALMResultFiles("http://alm.organization.net:8080/qcbin/rest/domains/DEP1/projects/PROJECT_1/defects?page-size=10&start-index=1&query={planned-closing-ver[%22%24%7Bproject.version%7D%22];project[%22Test%20Project%22];status[%22Corrected%22]}&fields=id,name,owner,detected-by,creation-time,detection-version,severity,user-04LWSSO_COOKIE_KEY=yv5W1bsYKsX-zzlWWq4jdL9qICd-6wYEeq69dwww67lfg1tLMVFXPdXDOZgbUWTUNUKRVPkdlz2Fjfo58B62Mp-dDLpfCPETEXWNFx4wT5Ic1lKtz8YSgz8C3DujgbsbETjVBe_ryFZHxFqmJev2w0mqmo2LIR8aTw9f4tQ2BJjY1xkNLQDt4p8_4g_25OP9wQZ-emAvkBc1lAjuXsXOZpNw7jXRvnaSjkaXt0uIcoU.; Path=/", "src/test/resources/com/googlecode/msidor/maven/plugins/hpalm/deliverynote/hpalm-entities-query-result.xml");
+
+		HashMap<Object, Object> page = new HashMap<Object, Object>();
+		page.put("id", Integer.valueOf(25200500));
+		page.put("space", "Doc");
+		page.put("title", "Project1 Release Notes");
+		page.put("content", content);
+		dao.addConfluencePage("479a88d7bb24391678", page);
+
+		return executeWithConfluencePage(dao, settings);
+	}
+
+	/**
+	 * Executes the goal on the default configuration with given DAO mockup
+	 * @param dao DAO mockup holding the HP ALM result and the CONFLUENCE pages
+	 * @param settings names and values of the plugin parameters to change
+	 * @return DAO mockup used by the execution
+	 * @throws Exception
+	 *             if any
+	 */
+	private HPALMMojoDAOMockup executeWithConfluencePage(HPALMMojoDAOMockup dao, Object... settings) throws Exception
+	{
+		File pom = getTestFile("src/test/resources/com/googlecode/msidor/maven/plugins/hpalm/deliverynote/plugin-conf.xml");
+
+		HPALMMojo myMojo = (HPALMMojo) lookupMojo("generate-change", pom);
+		myMojo.setDao(dao);
+		for (int i = 0; i < settings.length; i += 2)
+			setVariableValueToObject(myMojo, (String) settings[i], settings[i + 1]);
+		myMojo.execute();
+
+		return dao;
+	}
+
     /**
      * Calculate checksum for file
      * @param filename Path to file
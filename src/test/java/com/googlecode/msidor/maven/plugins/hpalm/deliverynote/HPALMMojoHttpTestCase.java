@@ -0,0 +1,317 @@
+/*
+Copyright 2014 Maciej SIDOR [maciejsidor@gmail.com]
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+package com.googlecode.msidor.maven.plugins.hpalm.deliverynote;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.codec.binary.Base64;
+import org.apache.maven.plugin.testing.AbstractMojoTestCase;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * HTTP test case.
+ * This test case validates the Data Access Objects against a real HTTP server started on a local port.
+ * Here are some details about the test configuration:
+ * <ul>
+ * <li>HP ALM authentication point accepting user/password with basic authentication</li>
+ * <li>HP ALM defects collection answering GET with empty result and PUT with the sent content</li>
+ * <li>HP ALM resource rejecting the page size</li>
+ * <li>Fast resource answering at once</li>
+ * <li>Slow resource sending its content byte by byte on the first request, until the client closes the connection</li>
+ * </ul>
+ *
+ */
+@SuppressWarnings("restriction")
+public class HPALMMojoHttpTestCase extends AbstractMojoTestCase
+{
+	private static final String	CONTENT			= "<Entities TotalResults=\"0\"/>";
+
+	private static final String	COOKIE			= "LWSSO_COOKIE_KEY=yv5W1bsYKsX; Path=/";
+
+	private static final String	DEFECTS			= "/qcbin/rest/domains/DEP1/projects/PROJECT_1/defects";
+
+	private static final String	REJECTION		= "<QCRestException><Title>The page size requested is greater than the maximum page size</Title></QCRestException>";
+
+	private HttpServer			server			= null;
+
+	private String				baseURL			= null;
+
+	/**
+	 * Count of requests of the slow resource
+	 */
+	private final AtomicInteger	slowRequests	= new AtomicInteger();
+
+	/**
+	 * Released when the client closes the connection of the slow response
+	 */
+	private final CountDownLatch	slowAborted		= new CountDownLatch(1);
+
+	/**
+	 * Method, raw query, cookie, content type and content of the last request of the defects collection
+	 */
+	private volatile String[]	lastRequest		= null;
+
+	/** {@inheritDoc} */
+	protected void setUp() throws Exception
+	{
+		// required
+		super.setUp();
+
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/qcbin/authentication-point/authenticate", new HttpHandler()
+		{
+			public void handle(HttpExchange exchange) throws IOException
+			{
+				read(exchange.getRequestBody());
+
+				String expected = "Basic " + Base64.encodeBase64String("user:password".getBytes("UTF-8"));
+				if (!expected.equals(exchange.getRequestHeaders().getFirst("Authorization")))
+				{
+					exchange.sendResponseHeaders(401, -1);
+					exchange.close();
+					return;
+				}
+
+				exchange.getResponseHeaders().set("Set-Cookie", COOKIE);
+				exchange.sendResponseHeaders(200, -1);
+				exchange.close();
+			}
+		});
+		server.createContext(DEFECTS, new HttpHandler()
+		{
+			public void handle(HttpExchange exchange) throws IOException
+			{
+				String content = read(exchange.getRequestBody());
+				lastRequest = new String[] { exchange.getRequestMethod(), exchange.getRequestURI().getRawQuery(), exchange.getRequestHeaders().getFirst("Cookie"),
+						exchange.getRequestHeaders().getFirst("Content-Type"), content };
+
+				respond(exchange, exchange.getRequestMethod().equals("PUT") ? content : CONTENT);
+			}
+		});
+		server.createContext("/qcbin/rest/domains/DEP1/projects/PROJECT_1/requirements", new HttpHandler()
+		{
+			public void handle(HttpExchange exchange) throws IOException
+			{
+				byte[] bytes = REJECTION.getBytes("UTF-8");
+				exchange.sendResponseHeaders(500, bytes.length);
+				OutputStream os = exchange.getResponseBody();
+				os.write(bytes);
+				os.close();
+			}
+		});
+		server.createContext("/fast", new HttpHandler()
+		{
+			public void handle(HttpExchange exchange) throws IOException
+			{
+				respond(exchange, CONTENT);
+			}
+		});
+		server.createContext("/slow", new HttpHandler()
+		{
+			public void handle(HttpExchange exchange) throws IOException
+			{
+				if (slowRequests.incrementAndGet() > 1)
+				{
+					respond(exchange, CONTENT);
+					return;
+				}
+
+				exchange.sendResponseHeaders(200, 0);
+				OutputStream os = exchange.getResponseBody();
+				try
+				{
+					for (int i = 0; i < 200; i++)
+					{
+						os.write(' ');
+						os.flush();
+						Thread.sleep(50);
+					}
+				}
+				catch (IOException e)
+				{
+					slowAborted.countDown();
+				}
+				catch (InterruptedException e)
+				{
+					Thread.currentThread().interrupt();
+				}
+				finally
+				{
+					exchange.close();
+				}
+			}
+		});
+		server.setExecutor(Executors.newCachedThreadPool());
+		server.start();
+
+		baseURL = "http://127.0.0.1:" + server.getAddress().getPort();
+	}
+
+	/** {@inheritDoc} */
+	protected void tearDown() throws Exception
+	{
+		server.stop(0);
+
+		// required
+		super.tearDown();
+	}
+
+	/**
+	 * Hedges the slow request and checks that the first response is used while the slow request is aborted through its connection
+	 * @throws Exception
+	 *             if any
+	 */
+	public void testHedgedRequestAborted() throws Exception
+	{
+		ResilientHPALMMojoDAO dao = new ResilientHPALMMojoDAO(new DefaultHPALMMojoDAO(), 0, 1, 1, 50, 1, null);
+		try
+		{
+			// latencies of the fast requests give the hedging threshold
+			for (int i = 0; i < 20; i++)
+				assertEquals(CONTENT + "\r", dao.getFromHPALM(baseURL + "/fast", null));
+
+			long start = System.currentTimeMillis();
+			assertEquals(CONTENT + "\r", dao.getFromHPALM(baseURL + "/slow", null));
+			assertTrue("Hedged request has not answered first", System.currentTimeMillis() - start < 5000);
+			assertEquals(1, dao.getHedges());
+
+			assertTrue("Slow request has not been aborted", slowAborted.await(5, TimeUnit.SECONDS));
+		}
+		finally
+		{
+			dao.close();
+		}
+	}
+
+	/**
+	 * Authenticates through a new connection and checks that a rejected login is reported instead of returning no session
+	 * @throws Exception
+	 *             if any
+	 */
+	public void testDefaultHPALMMojoDAOAuthentication() throws Exception
+	{
+		DefaultHPALMMojoDAO dao = new DefaultHPALMMojoDAO();
+		try
+		{
+			dao.authenticateToHPALM(baseURL, "user", "wrong");
+			fail("Wrong password was accepted");
+		}
+		catch (HPALMResponseException e)
+		{
+			assertEquals(401, e.getResponseCode());
+		}
+
+		assertEquals(COOKIE, dao.authenticateToHPALM(baseURL, "user", "password"));
+	}
+
+	/**
+	 * Authenticates, queries and updates the defects through the pooled connections and checks that a single keep-alive connection is used
+	 * @throws Exception
+	 *             if any
+	 */
+	public void testPooledHPALMMojoDAO() throws Exception
+	{
+		PooledHPALMMojoDAO dao = new PooledHPALMMojoDAO(2, 60000);
+		try
+		{
+			try
+			{
+				dao.authenticateToHPALM(baseURL, "user", "wrong");
+				fail("Wrong password was accepted");
+			}
+			catch (HPALMResponseException e)
+			{
+				assertEquals(401, e.getResponseCode());
+			}
+
+			String cookie = dao.authenticateToHPALM(baseURL, "user", "password");
+			assertEquals(COOKIE, cookie);
+
+			// the query braces are encoded, the already encoded characters are left untouched
+			for (int i = 0; i < 3; i++)
+				assertEquals(CONTENT, dao.getFromHPALM(baseURL + DEFECTS + "?page-size=2&query={status[%22Corrected%22]}", cookie));
+			assertEquals("GET", lastRequest[0]);
+			assertEquals("page-size=2&query=%7Bstatus[%22Corrected%22]%7D", lastRequest[1]);
+			assertEquals(COOKIE, lastRequest[2]);
+
+			String entities = "<Entities><Entity Type=\"defect\"><Fields><Field Name=\"id\"><Value>1</Value></Field></Fields></Entity></Entities>";
+			assertEquals(entities, dao.putToHPALM(baseURL + DEFECTS, entities, HPALMMojoDAOI.CONTENT_TYPE_XML_COLLECTION, cookie));
+			assertEquals("PUT", lastRequest[0]);
+			assertEquals(HPALMMojoDAOI.CONTENT_TYPE_XML_COLLECTION, lastRequest[3]);
+			assertEquals(entities, lastRequest[4]);
+
+			try
+			{
+				dao.getFromHPALM(baseURL + "/qcbin/rest/domains/DEP1/projects/PROJECT_1/requirements?page-size=5000", cookie);
+				fail("Rejected page size was not reported");
+			}
+			catch (HPALMResponseException e)
+			{
+				assertEquals(500, e.getResponseCode());
+				assertTrue("Missing error content in " + e.getLongMessage(), e.getLongMessage().endsWith(REJECTION));
+			}
+
+			assertEquals(7, dao.getCountOfLeases());
+			assertEquals(1, dao.getCountOfNewConnections());
+		}
+		finally
+		{
+			dao.close();
+		}
+	}
+
+	/**
+	 * @param is request content
+	 * @return request content as text
+	 * @throws IOException if the content could not be read
+	 */
+	private static String read(InputStream is) throws IOException
+	{
+		ByteArrayOutputStream content = new ByteArrayOutputStream();
+		byte[] buffer = new byte[1024];
+		int n;
+		while ((n = is.read(buffer)) >= 0)
+			content.write(buffer, 0, n);
+
+		return content.toString("UTF-8");
+	}
+
+	/**
+	 * @param exchange HTTP exchange
+	 * @param content content of the response
+	 * @throws IOException if the response could not be sent
+	 */
+	private static void respond(HttpExchange exchange, String content) throws IOException
+	{
+		byte[] bytes = content.getBytes("UTF-8");
+		exchange.getResponseHeaders().set("Content-Type", "application/xml");
+		exchange.sendResponseHeaders(200, bytes.length);
+		OutputStream os = exchange.getResponseBody();
+		os.write(bytes);
+		os.close();
+	}
+}
@@ -0,0 +1,927 @@
+/*
+Copyright 2014 Maciej SIDOR [maciejsidor@gmail.com]
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+package com.googlecode.msidor.maven.plugins.hpalm.deliverynote;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.apache.maven.plugin.testing.AbstractMojoTestCase;
+import org.codehaus.plexus.logging.Logger;
+
+/**
+ * Paging test case.
+ * This is black box kind of test that validates the retrieval of HP ALM query result split into several pages.
+ * Here are some details about the test configuration:
+ * <ul>
+ * <li>5 HP ALM Defects returned in 3 pages of 2 defects</li>
+ * <li>Pages retrieved by 2 threads and parsed with JAXB parser</li>
+ * <li>Incremental retrieval of 1 modified defect, 1 defect not matching the query anymore</li>
+ * <li>Defects saved to and read from binary snapshot</li>
+ * <li>Exchanges with HP ALM recorded and replayed, including the failed ones</li>
+ * <li>Change type rules evaluated before the changes filters</li>
+ * <li>Pages failing with server overload retried</li>
+ * <li>Data Access Object set by the caller neither decorated twice nor closed</li>
+ * <li>Adaptive page size decreased only when HP ALM rejects the page size</li>
+ * <li>Adaptive page size not collapsing on slow links, where the round trip dominates the retrieval time</li>
+ * <li>Streamed page failing while it is read</li>
+ * <li>Streaming writer failing while the retrieval waits for room in the buffer</li>
+ * <li>Corrupt page retrieved concurrently</li>
+ * <li>Execution metrics written as JSON</li>
+ * <li>Plugin configuration file: src/test/resources/com/googlecode/msidor/maven/plugins/hpalm/deliverynote/plugin-conf-paging.xml</li>
+ * <li>HP ALM Entities files: src/test/resources/com/googlecode/msidor/maven/plugins/hpalm/deliverynote/hpalm-entities-page-*.xml</li>
+ * </ul>
+ *
+ */
+public class HPALMMojoPagingTestCase extends AbstractMojoTestCase
+{
+	static final String			RESOURCES	= "src/test/resources/com/googlecode/msidor/maven/plugins/hpalm/deliverynote/";
+
+	static final String			QUERY		= "http://alm.organization.net:8080/qcbin/rest/domains/DEP1/projects/PROJECT_1/defects?page-size=2&start-index=%d&query={planned-closing-ver[%%22%%24%%7Bproject.version%%7D%%22];project[%%22Test%%20Project%%22];status[%%22Corrected%%22]";
+
+	static final String			FIELDS		= "&fields=id,name,owner,detected-by,creation-time,detection-version,severity,user-04";
+
+	static final String			QUERY_URL	= QUERY + "}" + FIELDS;
+
+	static final String			COOKIE		= "LWSSO_COOKIE_KEY=yv5W1bsYKsX-zzlWWq4jdL9qICd-6wYEeq69dwww67lfg1tLMVFXPdXDOZgbUWTUNUKRVPkdlz2Fjfo58B62Mp-dDLpfCPETEXWNFx4wT5Ic1lKtz8YSgz8C3DujgbsbETjVBe_ryFZHxFqmJev2w0mqmo2LIR8aTw9f4tQ2BJjY1xkNLQDt4p8_4g_25OP9wQZ-emAvkBc1lAjuXsXOZpNw7jXRvnaSjkaXt0uIcoU.; Path=/";
+
+	/** {@inheritDoc} */
+	protected void setUp() throws Exception
+	{
+		// required
+		super.setUp();
+	}
+
+	/** {@inheritDoc} */
+	protected void tearDown() throws Exception
+	{
+		// required
+		super.tearDown();
+	}
+
+	/**
+	 * Retrieves the pages in parallel and checks that the issues are exported in the query order
+	 * @throws Exception
+	 *             if any
+	 */
+	public void testConcurrentPaging() throws Exception
+	{
+		executeAndValidate(false);
+	}
+
+	/**
+	 * Retrieves the pages in parallel in streaming execution and checks that the issues are exported in the query order
+	 * @throws Exception
+	 *             if any
+	 */
+	public void testStreamingExecution() throws Exception
+	{
+		executeAndValidate(true);
+	}
+
+	/**
+	 * Fails the changes writer while the retrieval thread waits for room in the streaming buffer: the thread must not be left blocked
+	 * @throws Exception
+	 *             if any
+	 */
+	public void testStreamingWriterFailure() throws Exception
+	{
+		Logger logger = getContainer().getLogger();
+		logger.info("Launching streaming writer failure test case");
+
+		HPALMMojoDAOMockup dao = new HPALMMojoDAOMockup();
+		dao.setLogger(logger);
+		for (int page = 1; page <= 3; page++)
+		{
+			dao.addToFromHPALMResultFiles(String.format(QUERY_URL, Integer.valueOf(2 * page - 1)) + COOKIE, RESOURCES + "hpalm-entities-page-" + page + ".xml");
+		}
+
+		ExecutionMetrics metrics = new ExecutionMetrics();
+		EntitiesRetriever retriever = new EntitiesRetriever(dao, new StAXEntitiesParser(), new EntityHandlerI()
+		{
+			public void handleEntity(Entity entity)
+			{
+			}
+		}, metrics, new SystemStreamLog(), "http://alm.organization.net:8080", "DEP1", "PROJECT_1", 2, 1);
+
+		ChangesXMLWriter changesWriter = new ChangesXMLWriter("out/changes-streaming-failure.xml", "1.0")
+		{
+			public void writeEntity(Entity entity) throws IOException
+			{
+				throw new IOException("No space left on device");
+			}
+		};
+
+		try
+		{
+			new StreamingExecution(retriever, null, 1, metrics, new SystemStreamLog()).execute(COOKIE, "planned-closing-ver[%22%24%7Bproject.version%7D%22];project[%22Test%20Project%22];status[%22Corrected%22]", FIELDS.substring("&fields=".length()), null, null, changesWriter, false);
+			fail("Changes writer failure has been ignored");
+		}
+		catch (MojoExecutionException e)
+		{
+			assertTrue("Unexpected failure: " + e.getCause(), e.getCause() instanceof IOException);
+		}
+		finally
+		{
+			changesWriter.abort();
+		}
+
+		for (Thread thread : Thread.getAllStackTraces().keySet())
+		{
+			if (thread.getName().startsWith("hpalm-streaming-"))
+			{
+				thread.join(5000);
+				assertFalse("Retrieval thread left blocked on the streaming buffer", thread.isAlive());
+			}
+		}
+
+		logger.info("Test accomplished succesfully");
+	}
+
+	/**
+	 * Retrieves all the pages first, then only the modified defect and the identifiers of defects matching the query
+	 * @throws Exception
+	 *             if any
+	 */
+	public void testIncrementalRetrieval() throws Exception
+	{
+		Logger logger = getContainer().getLogger();
+		logger.info("Launching incremental paging test case");
+
+		//cleanup the OUT direcotry
+		File changesFile = new File("out/changes-paging.xml");
+		File cacheDirectory = new File("out/cache");
+		if (cacheDirectory.exists())
+			for (File file : cacheDirectory.listFiles())
+				file.delete();
+
+		//first execution retrieves all the pages
+		HPALMMojoDAOMockup dao = new HPALMMojoDAOMockup();
+		dao.setLogger(logger);
+		for (int page = 1; page <= 3; page++)
+		{
+			dao.addToFromHPALMResultFiles(String.format(QUERY + "}" + FIELDS + ",last-modified", Integer.valueOf(2 * page - 1)) + COOKIE, RESOURCES + "hpalm-entities-page-" + page + ".xml");
+		}
+
+		changesFile.delete();
+		lookupIncrementalMojo(dao).execute();
+		assertEquals("[FIX 20601, ADD 20602, FIX 20603, UPDATE 20604, REMOVE 20605]", getActions(changesFile).toString());
+
+		//second execution retrieves the identifiers and the defect modified since the first one
+		dao = new HPALMMojoDAOMockup();
+		dao.setLogger(logger);
+		for (int page = 1; page <= 3; page++)
+		{
+			dao.addToFromHPALMResultFiles(String.format(QUERY + "}&fields=id", Integer.valueOf(2 * page - 1)) + COOKIE, RESOURCES + (page < 3 ? "hpalm-entities-page-" + page + ".xml" : "hpalm-entities-ids-page-3.xml"));
+		}
+		dao.addToFromHPALMResultFiles(String.format(QUERY + ";last-modified[%%3E%%3D%%222014-05-05%%2010%%3A00%%3A00%%22]}" + FIELDS + ",last-modified", Integer.valueOf(1)) + COOKIE, RESOURCES + "hpalm-entities-delta.xml");
+
+		changesFile.delete();
+		lookupIncrementalMojo(dao).execute();
+		assertEquals("[FIX 20601, ADD 20602, ADD 20603, UPDATE 20604]", getActions(changesFile).toString());
+
+		logger.info("Test accomplished succesfully");
+	}
+
+	/**
+	 * Saves the retrieved pages to snapshot, then generates the changes file from the snapshot without contacting HP ALM
+	 * @throws Exception
+	 *             if any
+	 */
+	public void testSnapshot() throws Exception
+	{
+		Logger logger = getContainer().getLogger();
+		logger.info("Launching snapshot test case");
+
+		File changesFile = new File("out/changes-paging.xml");
+		File snapshotFile = new File("out/entities.snapshot");
+		snapshotFile.delete();
+
+		//first execution retrieves the pages and saves the snapshot
+		HPALMMojoDAOMockup dao = new HPALMMojoDAOMockup();
+		dao.setLogger(logger);
+		for (int page = 1; page <= 3; page++)
+		{
+			dao.addToFromHPALMResultFiles(String.format(QUERY_URL, Integer.valueOf(2 * page - 1)) + COOKIE, RESOURCES + "hpalm-entities-page-" + page + ".xml");
+		}
+
+		HPALMMojo myMojo = (HPALMMojo) lookupMojo("generate-change", getTestFile(RESOURCES + "plugin-conf-paging.xml"));
+		myMojo.setDao(dao);
+		setVariableValueToObject(myMojo, "snapshotFile", snapshotFile.getPath());
+		myMojo.execute();
+		assertTrue("Snapshot file was not generated",snapshotFile.exists());
+
+		//second execution reads the snapshot only
+		dao = new HPALMMojoDAOMockup();
+		dao.setLogger(logger);
+
+		changesFile.delete();
+		myMojo = (HPALMMojo) lookupMojo("generate-change", getTestFile(RESOURCES + "plugin-conf-paging.xml"));
+		myMojo.setDao(dao);
+		setVariableValueToObject(myMojo, "snapshotFile", snapshotFile.getPath());
+		setVariableValueToObject(myMojo, "useSnapshot", Boolean.TRUE);
+		myMojo.execute();
+
+		assertNull("HP ALM has been contacted",dao.getUsername());
+		assertEquals("[FIX 20601, ADD 20602, FIX 20603, UPDATE 20604, REMOVE 20605]", getActions(changesFile).toString());
+
+		logger.info("Test accomplished succesfully");
+	}
+
+	/**
+	 * Records the exchanges with HP ALM, then replays them without the mockup DAO
+	 * @throws Exception
+	 *             if any
+	 */
+	public void testRecordAndReplay() throws Exception
+	{
+		Logger logger = getContainer().getLogger();
+		logger.info("Launching record and replay test case");
+
+		File changesFile = new File("out/changes-paging.xml");
+		File recordDirectory = new File("out/record");
+		File[] recorded = recordDirectory.listFiles();
+		if (recorded != null) for (File file : recorded)
+			file.delete();
+
+		//first execution records the exchanges with the mockup DAO
+		HPALMMojoDAOMockup dao = new HPALMMojoDAOMockup();
+		dao.setLogger(logger);
+		for (int page = 1; page <= 3; page++)
+		{
+			dao.addToFromHPALMResultFiles(String.format(QUERY_URL, Integer.valueOf(2 * page - 1)) + COOKIE, RESOURCES + "hpalm-entities-page-" + page + ".xml");
+		}
+
+		HPALMMojo myMojo = (HPALMMojo) lookupMojo("generate-change", getTestFile(RESOURCES + "plugin-conf-paging.xml"));
+		myMojo.setDao(dao);
+		setVariableValueToObject(myMojo, "recordDirectory", recordDirectory.getPath());
+		myMojo.execute();
+		assertEquals("Unexpected count of recorded exchanges", 4, recordDirectory.listFiles().length);
+
+		//recording again to the same directory replaces the previous exchanges
+		myMojo.execute();
+		assertEquals("Previous exchanges not replaced", 4, recordDirectory.listFiles().length);
+
+		//second execution replays them
+		changesFile.delete();
+		myMojo = (HPALMMojo) lookupMojo("generate-change", getTestFile(RESOURCES + "plugin-conf-paging.xml"));
+		setVariableValueToObject(myMojo, "replayDirectory", recordDirectory.getPath());
+		setVariableValueToObject(myMojo, "replayLatency", Long.valueOf(1));
+		myMojo.execute();
+
+		assertEquals("[FIX 20601, ADD 20602, FIX 20603, UPDATE 20604, REMOVE 20605]", getActions(changesFile).toString());
+
+		logger.info("Test accomplished succesfully");
+	}
+
+	/**
+	 * Records an HP ALM error response and a connection failure and checks that each one is replayed with the type of the original error
+	 * @throws Exception
+	 *             if any
+	 */
+	public void testReplayErrors() throws Exception
+	{
+		File recordDirectory = new File("out/record-errors");
+		File[] recorded = recordDirectory.listFiles();
+		if (recorded != null) for (File file : recorded)
+			file.delete();
+
+		final String respondingURL = String.format(QUERY_URL, Integer.valueOf(1));
+		final String unreachableURL = String.format(QUERY_URL, Integer.valueOf(3));
+
+		HPALMMojoDAOMockup dao = new HPALMMojoDAOMockup()
+		{
+			@Override
+			public String getFromHPALM(String targetURL, String cookie) throws MojoFailureException
+			{
+				if (targetURL.equals(unreachableURL))
+					throw new MojoFailureException(this, "Connection refused", "Connection refused: " + targetURL);
+
+				return super.getFromHPALM(targetURL, cookie);
+			}
+		};
+		dao.addFromHPALMError(respondingURL + COOKIE, 503, 1);
+
+		//record the failures
+		RecordingHPALMMojoDAO recordingDao = new RecordingHPALMMojoDAO(dao, recordDirectory, new SystemStreamLog());
+		for (String targetURL : new String[] { respondingURL, unreachableURL })
+		{
+			try
+			{
+				recordingDao.getFromHPALM(targetURL, COOKIE);
+				fail("Failure of " + targetURL + " was not reported");
+			}
+			catch (MojoFailureException e)
+			{
+				// expected
+			}
+		}
+
+		//replay them
+		ReplayHPALMMojoDAO replayDao = new ReplayHPALMMojoDAO(recordDirectory, 0, 0);
+		try
+		{
+			replayDao.getFromHPALM(respondingURL, COOKIE);
+			fail("Recorded HP ALM error response was not replayed");
+		}
+		catch (HPALMResponseException e)
+		{
+			assertEquals(503, e.getResponseCode());
+		}
+
+		try
+		{
+			replayDao.getFromHPALM(unreachableURL, COOKIE);
+			fail("Recorded connection failure was not replayed");
+		}
+		catch (MojoFailureException e)
+		{
+			assertFalse("Connection failure replayed as HP ALM error response", e instanceof HPALMResponseException);
+			assertEquals("Connection refused: " + unreachableURL, e.getLongMessage());
+		}
+	}
+
+	/**
+	 * Classifies the defects with change type rules evaluated before the changes filters
+	 * @throws Exception
+	 *             if any
+	 */
+	public void testChangeTypeRules() throws Exception
+	{
+		Logger logger = getContainer().getLogger();
+		logger.info("Launching change type rules test case");
+
+		File changesFile = new File("out/changes-paging.xml");
+		changesFile.delete();
+
+		HPALMMojoDAOMockup dao = new HPALMMojoDAOMockup();
+		dao.setLogger(logger);
+		for (int page = 1; page <= 3; page++)
+		{
+			dao.addToFromHPALMResultFiles(String.format(QUERY_URL, Integer.valueOf(2 * page - 1)) + COOKIE, RESOURCES + "hpalm-entities-page-" + page + ".xml");
+		}
+
+		//the first matching rule wins, the filters apply to the defects not matching any rule
+		List<ChangeTypeRule> rules = new ArrayList<ChangeTypeRule>();
+		Map<String, String> conditions = new HashMap<String, String>();
+		conditions.put("id", "20604|20605");
+		rules.add(new ChangeTypeRule("FIX", conditions));
+		conditions = new HashMap<String, String>();
+		conditions.put("user-04", "!defect");
+		rules.add(new ChangeTypeRule("REMOVE", conditions));
+
+		HPALMMojo myMojo = (HPALMMojo) lookupMojo("generate-change", getTestFile(RESOURCES + "plugin-conf-paging.xml"));
+		myMojo.setDao(dao);
+		setVariableValueToObject(myMojo, "changesTypeRules", rules);
+		myMojo.execute();
+
+		assertEquals("[FIX 20601, REMOVE 20602, FIX 20603, FIX 20604, FIX 20605]", getActions(changesFile).toString());
+
+		//the rule without conditions matches the defects not matching the previous rules
+		rules.add(new ChangeTypeRule("ADD", null));
+		changesFile.delete();
+		myMojo = (HPALMMojo) lookupMojo("generate-change", getTestFile(RESOURCES + "plugin-conf-paging.xml"));
+		myMojo.setDao(dao);
+		setVariableValueToObject(myMojo, "changesTypeRules", rules);
+		myMojo.execute();
+
+		assertEquals("[ADD 20601, REMOVE 20602, ADD 20603, FIX 20604, FIX 20605]", getActions(changesFile).toString());
+
+		//the rule without type is rejected
+		rules.add(0, new ChangeTypeRule(null, conditions));
+		myMojo = (HPALMMojo) lookupMojo("generate-change", getTestFile(RESOURCES + "plugin-conf-paging.xml"));
+		myMojo.setDao(dao);
+		setVariableValueToObject(myMojo, "changesTypeRules", rules);
+		try
+		{
+			myMojo.execute();
+			fail("Change type rule without type has been accepted");
+		}
+		catch (MojoExecutionException e)
+		{
+			assertTrue("Unexpected failure: " + e.getCause(), e.getCause() instanceof IllegalArgumentException);
+		}
+
+		logger.info("Test accomplished succesfully");
+	}
+
+	/**
+	 * Classifies the defects with change type rule on a field neither exported nor mapped, which must be retrieved from HP ALM
+	 * @throws Exception
+	 *             if any
+	 */
+	public void testChangeTypeRuleOnUnexportedField() throws Exception
+	{
+		Logger logger = getContainer().getLogger();
+		logger.info("Launching change type rule on unexported field test case");
+
+		File changesFile = new File("out/changes-paging.xml");
+		changesFile.delete();
+
+		//the query requests the field of the rule
+		HPALMMojoDAOMockup dao = new HPALMMojoDAOMockup();
+		dao.setLogger(logger);
+		for (int page = 1; page <= 3; page++)
+		{
+			dao.addToFromHPALMResultFiles(String.format(QUERY_URL + ",last-modified", Integer.valueOf(2 * page - 1)) + COOKIE, RESOURCES + "hpalm-entities-page-" + page + ".xml");
+		}
+
+		List<ChangeTypeRule> rules = new ArrayList<ChangeTypeRule>();
+		Map<String, String> conditions = new HashMap<String, String>();
+		conditions.put("last-modified", "2014-05-02 10:00:00");
+		rules.add(new ChangeTypeRule("UPDATE", conditions));
+
+		HPALMMojo myMojo = (HPALMMojo) lookupMojo("generate-change", getTestFile(RESOURCES + "plugin-conf-paging.xml"));
+		myMojo.setDao(dao);
+		setVariableValueToObject(myMojo, "changesTypeRules", rules);
+		myMojo.execute();
+
+		assertEquals("[FIX 20601, UPDATE 20602, FIX 20603, UPDATE 20604, REMOVE 20605]", getActions(changesFile).toString());
+
+		logger.info("Test accomplished succesfully");
+	}
+
+	/**
+	 * Retrieves the pages while HP ALM is overloaded and checks that the failed pages are retrieved again
+	 * @throws Exception
+	 *             if any
+	 */
+	public void testFetchRetries() throws Exception
+	{
+		Logger logger = getContainer().getLogger();
+		logger.info("Launching fetch retries test case");
+
+		File changesFile = new File("out/changes-paging.xml");
+		changesFile.delete();
+
+		HPALMMojoDAOMockup dao = new HPALMMojoDAOMockup();
+		dao.setLogger(logger);
+		for (int page = 1; page <= 3; page++)
+		{
+			dao.addToFromHPALMResultFiles(String.format(QUERY_URL, Integer.valueOf(2 * page - 1)) + COOKIE, RESOURCES + "hpalm-entities-page-" + page + ".xml");
+		}
+		dao.addFromHPALMError(String.format(QUERY_URL, Integer.valueOf(1)) + COOKIE, 503, 1);
+		dao.addFromHPALMError(String.format(QUERY_URL, Integer.valueOf(5)) + COOKIE, 502, 2);
+
+		HPALMMojo myMojo = (HPALMMojo) lookupMojo("generate-change", getTestFile(RESOURCES + "plugin-conf-paging.xml"));
+		myMojo.setDao(dao);
+		setVariableValueToObject(myMojo, "fetchRetries", Integer.valueOf(2));
+		setVariableValueToObject(myMojo, "fetchRetryDelay", Long.valueOf(10));
+		setVariableValueToObject(myMojo, "circuitBreakerThreshold", Integer.valueOf(5));
+		myMojo.execute();
+
+		assertEquals("[FIX 20601, ADD 20602, FIX 20603, UPDATE 20604, REMOVE 20605]", getActions(changesFile).toString());
+
+		logger.info("Test accomplished succesfully");
+	}
+
+	/**
+	 * Executes twice with the same Data Access Object: it must not be replaced by its decorators nor closed by the executions
+	 * @throws Exception
+	 *             if any
+	 */
+	public void testCallerDao() throws Exception
+	{
+		Logger logger = getContainer().getLogger();
+		logger.info("Launching caller DAO test case");
+
+		class CloseableDAOMockup extends HPALMMojoDAOMockup implements Closeable
+		{
+			boolean	closed	= false;
+
+			public void close()
+			{
+				closed = true;
+			}
+		}
+
+		File changesFile = new File("out/changes-paging.xml");
+
+		CloseableDAOMockup dao = new CloseableDAOMockup();
+		dao.setLogger(logger);
+		for (int page = 1; page <= 3; page++)
+		{
+			dao.addToFromHPALMResultFiles(String.format(QUERY_URL, Integer.valueOf(2 * page - 1)) + COOKIE, RESOURCES + "hpalm-entities-page-" + page + ".xml");
+		}
+
+		HPALMMojo myMojo = (HPALMMojo) lookupMojo("generate-change", getTestFile(RESOURCES + "plugin-conf-paging.xml"));
+		myMojo.setDao(dao);
+		setVariableValueToObject(myMojo, "fetchRetries", Integer.valueOf(1));
+		setVariableValueToObject(myMojo, "fetchRetryDelay", Long.valueOf(10));
+
+		for (int execution = 1; execution <= 2; execution++)
+		{
+			changesFile.delete();
+			myMojo.execute();
+
+			assertEquals("[FIX 20601, ADD 20602, FIX 20603, UPDATE 20604, REMOVE 20605]", getActions(changesFile).toString());
+			assertSame("Data Access Object replaced after execution " + execution, dao, myMojo.getDao());
+			assertFalse("Data Access Object closed after execution " + execution, dao.closed);
+		}
+
+		logger.info("Test accomplished succesfully");
+	}
+
+	/**
+	 * Starts with pages of 4 defects, rejected by HP ALM as too large, and checks that the pages of 2 defects are retrieved instead,
+	 * while a server error unrelated to the page size fails the execution
+	 * @throws Exception
+	 *             if any
+	 */
+	public void testAdaptivePageSizeRejection() throws Exception
+	{
+		Logger logger = getContainer().getLogger();
+		logger.info("Launching adaptive page size test case");
+
+		File changesFile = new File("out/changes-paging.xml");
+		changesFile.delete();
+
+		String largePageKey = String.format(QUERY_URL, Integer.valueOf(1)).replace("page-size=2", "page-size=4") + COOKIE;
+
+		HPALMMojoDAOMockup dao = new HPALMMojoDAOMockup();
+		dao.setLogger(logger);
+		for (int page = 1; page <= 3; page++)
+		{
+			dao.addToFromHPALMResultFiles(String.format(QUERY_URL, Integer.valueOf(2 * page - 1)) + COOKIE, RESOURCES + "hpalm-entities-page-" + page + ".xml");
+		}
+		dao.addFromHPALMError(largePageKey, 413, 1);
+
+		lookupAdaptiveMojo(dao).execute();
+
+		assertEquals("[FIX 20601, ADD 20602, FIX 20603, UPDATE 20604, REMOVE 20605]", getActions(changesFile).toString());
+
+		dao.addFromHPALMError(largePageKey, 500, 1);
+		try
+		{
+			lookupAdaptiveMojo(dao).execute();
+			fail("Server error unrelated to the page size was not reported");
+		}
+		catch (MojoExecutionException e)
+		{
+			assertEquals(500, ((HPALMResponseException) e.getCause()).getResponseCode());
+		}
+
+		logger.info("Test accomplished succesfully");
+	}
+
+	/**
+	 * Feeds the adaptive page size with the retrieval times of a link where each page costs a fixed round trip:
+	 * the size is decreased when the server slows down at the same size, stepped back up since the smaller pages are less efficient,
+	 * and the bigger sizes are probed again when the run starts from a small recorded size
+	 * @throws Exception
+	 *             if any
+	 */
+	public void testAdaptivePageSizeLatency() throws Exception
+	{
+		File recordFile = new File("out/page-sizes-latency.properties");
+		recordFile.delete();
+
+		AdaptivePageSize pageSize = new AdaptivePageSize("server", 10, 1000, recordFile);
+		assertEquals(1000, pageSize.getPageSize());
+
+		// 500 ms of round trip and 1 ms per entity
+		pageSize.pageRetrieved(1000, 1000, 1500);
+		pageSize.pageRetrieved(1000, 1000, 1500);
+		assertEquals(1000, pageSize.getPageSize());
+
+		// the server slows down at the same size
+		pageSize.pageRetrieved(1000, 1000, 2500);
+		assertEquals(500, pageSize.getPageSize());
+
+		// the round trip is spread over half as many entities, the doubled size is still more efficient
+		pageSize.pageRetrieved(500, 500, 1500);
+		assertEquals("Page size collapsed on slow link", 1000, pageSize.getPageSize());
+
+		// the server is still slow, the smaller pages are more efficient for a while
+		pageSize.pageRetrieved(1000, 1000, 2500);
+		assertEquals(500, pageSize.getPageSize());
+		for (int page = 0; page < 3; page++)
+		{
+			pageSize.pageRetrieved(500, 500, 1100);
+			assertEquals(500, pageSize.getPageSize());
+		}
+
+		// then the doubled size is probed again
+		pageSize.pageRetrieved(500, 500, 1100);
+		assertEquals(1000, pageSize.getPageSize());
+
+		pageSize.pageRetrieved(1000, 1000, 1500);
+		assertEquals(1000, pageSize.getPageSize());
+		assertEquals(1000, pageSize.getBestPageSize());
+		pageSize.save();
+
+		// a run starting from a small recorded size grows it back
+		Properties record = new Properties();
+		record.setProperty("server", "125");
+		OutputStream os = new FileOutputStream(recordFile);
+		try
+		{
+			record.store(os, null);
+		}
+		finally
+		{
+			os.close();
+		}
+
+		pageSize = new AdaptivePageSize("server", 10, 1000, recordFile);
+		assertEquals(125, pageSize.getPageSize());
+		for (int page = 0; page < 20; page++)
+		{
+			int size = pageSize.getPageSize();
+			pageSize.pageRetrieved(size, size, 500 + size);
+		}
+		assertEquals(1000, pageSize.getPageSize());
+		assertEquals(1000, pageSize.getBestPageSize());
+	}
+
+	/**
+	 * Streams the first page, which fails while it is read: the execution must fail unless the page is retrieved again
+	 * @throws Exception
+	 *             if any
+	 */
+	public void testTruncatedPage() throws Exception
+	{
+		Logger logger = getContainer().getLogger();
+		logger.info("Launching truncated page test case");
+
+		File changesFile = new File("out/changes-paging.xml");
+		String firstPage = String.format(QUERY_URL, Integer.valueOf(1)) + COOKIE;
+
+		//the truncated page is not taken for the last one
+		HPALMMojoStreamingDAOMockup dao = new HPALMMojoStreamingDAOMockup();
+		dao.setLogger(logger);
+		for (int page = 1; page <= 3; page++)
+		{
+			dao.addToFromHPALMResultFiles(String.format(QUERY_URL, Integer.valueOf(2 * page - 1)) + COOKIE, RESOURCES + "hpalm-entities-page-" + page + ".xml");
+		}
+		dao.addFromHPALMTruncation(firstPage, 300, 1);
+
+		changesFile.delete();
+		HPALMMojo myMojo = (HPALMMojo) lookupMojo("generate-change", getTestFile(RESOURCES + "plugin-conf-paging.xml"));
+		myMojo.setDao(dao);
+		try
+		{
+			myMojo.execute();
+			fail("Truncated page has been accepted");
+		}
+		catch (MojoExecutionException e)
+		{
+			assertTrue("Unexpected failure: " + e.getCause(), e.getCause() instanceof HPALMResponseException);
+		}
+		assertFalse("Changes file generated from truncated result", changesFile.exists());
+
+		//the truncated page is retrieved again
+		dao.addFromHPALMTruncation(firstPage, 300, 1);
+		myMojo = (HPALMMojo) lookupMojo("generate-change", getTestFile(RESOURCES + "plugin-conf-paging.xml"));
+		myMojo.setDao(dao);
+		setVariableValueToObject(myMojo, "fetchRetries", Integer.valueOf(1));
+		setVariableValueToObject(myMojo, "fetchRetryDelay", Long.valueOf(10));
+		myMojo.execute();
+
+		assertEquals("[FIX 20601, ADD 20602, FIX 20603, UPDATE 20604, REMOVE 20605]", getActions(changesFile).toString());
+
+		logger.info("Test accomplished succesfully");
+	}
+
+	/**
+	 * Retrieves the pages in parallel while the second one is corrupt: the execution must fail instead of skipping its defects, in both execution modes
+	 * @throws Exception
+	 *             if any
+	 */
+	public void testCorruptConcurrentPage() throws Exception
+	{
+		Logger logger = getContainer().getLogger();
+		logger.info("Launching corrupt concurrent page test case");
+
+		File changesFile = new File("out/changes-paging.xml");
+		changesFile.delete();
+
+		HPALMMojoDAOMockup dao = new HPALMMojoDAOMockup();
+		dao.setLogger(logger);
+		dao.addToFromHPALMResultFiles(String.format(QUERY_URL, Integer.valueOf(1)) + COOKIE, RESOURCES + "hpalm-entities-page-1.xml");
+		dao.addToFromHPALMResultFiles(String.format(QUERY_URL, Integer.valueOf(3)) + COOKIE, RESOURCES + "hpalm-entities-corrupt.xml");
+		dao.addToFromHPALMResultFiles(String.format(QUERY_URL, Integer.valueOf(5)) + COOKIE, RESOURCES + "hpalm-entities-page-3.xml");
+
+		HPALMMojo myMojo = (HPALMMojo) lookupMojo("generate-change", getTestFile(RESOURCES + "plugin-conf-paging.xml"));
+		myMojo.setDao(dao);
+		try
+		{
+			myMojo.execute();
+			fail("Corrupt page has been skipped");
+		}
+		catch (MojoExecutionException e)
+		{
+			logger.info("Expected failure: " + e.getCause());
+		}
+		assertFalse("Changes file generated from incomplete result", changesFile.exists());
+
+		//the streaming execution writes the changes file while the pages are retrieved, it must not be left incomplete
+		myMojo = (HPALMMojo) lookupMojo("generate-change", getTestFile(RESOURCES + "plugin-conf-paging.xml"));
+		myMojo.setDao(dao);
+		setVariableValueToObject(myMojo, "streaming", Boolean.TRUE);
+		try
+		{
+			myMojo.execute();
+			fail("Corrupt page has been skipped in streaming mode");
+		}
+		catch (MojoExecutionException e)
+		{
+			logger.info("Expected failure: " + e.getCause());
+		}
+		assertFalse("Incomplete changes file left in streaming mode", changesFile.exists());
+
+		logger.info("Test accomplished succesfully");
+	}
+
+	/**
+	 * Retrieves the pages and checks the execution metrics
+	 * @throws Exception
+	 *             if any
+	 */
+	public void testMetrics() throws Exception
+	{
+		Logger logger = getContainer().getLogger();
+		logger.info("Launching metrics test case");
+
+		File metricsFile = new File("out/metrics/hpalm-metrics.json");
+		metricsFile.delete();
+
+		HPALMMojoDAOMockup dao = new HPALMMojoDAOMockup();
+		dao.setLogger(logger);
+		for (int page = 1; page <= 3; page++)
+		{
+			dao.addToFromHPALMResultFiles(String.format(QUERY_URL, Integer.valueOf(2 * page - 1)) + COOKIE, RESOURCES + "hpalm-entities-page-" + page + ".xml");
+		}
+
+		HPALMMojo myMojo = (HPALMMojo) lookupMojo("generate-change", getTestFile(RESOURCES + "plugin-conf-paging.xml"));
+		myMojo.setDao(dao);
+		setVariableValueToObject(myMojo, "metricsFile", metricsFile.getPath());
+		myMojo.execute();
+
+		assertTrue("Metrics file was not generated", metricsFile.exists());
+		StringBuilder metrics = new StringBuilder();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(metricsFile), "UTF-8"));
+		try
+		{
+			String line = null;
+			while ((line = reader.readLine()) != null)
+				metrics.append(line).append('\n');
+		}
+		finally
+		{
+			reader.close();
+		}
+
+		for (String expected : new String[] { "\"failed\": false", "\"query\": { \"count\": 1", "\"authenticate\": { \"count\": 1", "\"fetch\": { \"count\": 1", "\"parse\": { \"count\": 3",
+				"\"changes\": { \"count\": 1", "\"hpalm.authenticate\": { \"count\": 1, \"failures\": 0", "\"hpalm.get\": { \"count\": 3, \"failures\": 0", "\"entities\": 5" })
+			assertTrue("Missing " + expected + " in metrics:\n" + metrics, metrics.indexOf(expected) >= 0);
+
+		logger.info("Test accomplished succesfully");
+	}
+
+	/**
+	 * @param dao the mockup DAO
+	 * @return the mojo set up to retrieve the pages with adaptive page size
+	 * @throws Exception
+	 *             if any
+	 */
+	private HPALMMojo lookupAdaptiveMojo(HPALMMojoDAOMockup dao) throws Exception
+	{
+		File recordFile = new File("out/page-sizes.properties");
+		recordFile.delete();
+
+		HPALMMojo myMojo = (HPALMMojo) lookupMojo("generate-change", getTestFile(RESOURCES + "plugin-conf-paging.xml"));
+		myMojo.setDao(dao);
+		setVariableValueToObject(myMojo, "adaptivePageSize", Boolean.TRUE);
+		setVariableValueToObject(myMojo, "adaptivePageSizeMax", Integer.valueOf(4));
+		setVariableValueToObject(myMojo, "adaptivePageSizeRecordFile", recordFile.getPath());
+
+		return myMojo;
+	}
+
+	/**
+	 * @param dao the mockup DAO
+	 * @return the mojo set up to retrieve the pages incrementally
+	 * @throws Exception
+	 *             if any
+	 */
+	private HPALMMojo lookupIncrementalMojo(HPALMMojoDAOMockup dao) throws Exception
+	{
+		HPALMMojo myMojo = (HPALMMojo) lookupMojo("generate-change", getTestFile(RESOURCES + "plugin-conf-paging.xml"));
+		assertNotNull("Plugin not found",myMojo);
+		myMojo.setDao(dao);
+		setVariableValueToObject(myMojo, "incremental", Boolean.TRUE);
+		setVariableValueToObject(myMojo, "incrementalCacheDirectory", "out/cache");
+
+		return myMojo;
+	}
+
+	/**
+	 * Executes the goal on 3 pages of result and validates the changes file
+	 * @param streaming true to enable the streaming execution
+	 * @throws Exception
+	 *             if any
+	 */
+	private void executeAndValidate(boolean streaming) throws Exception
+	{
+		Logger logger = getContainer().getLogger();
+		logger.info("Launching paging test case" + (streaming ? " in streaming mode" : ""));
+
+		//cleanup the OUT direcotry
+		File changesFile = new File("out/changes-paging.xml");
+		if(changesFile.exists())
+			changesFile.delete();
+
+		//load the plugin configuration
+		File pom = getTestFile(RESOURCES + "plugin-conf-paging.xml");
+		assertTrue("POM file with polugin test configuration could not be found",pom.exists());
+
+		//prepare the mockup DAO with the 3 pages of result
+		HPALMMojoDAOMockup dao = new HPALMMojoDAOMockup();
+		dao.setLogger(logger);
+		for (int page = 1; page <= 3; page++)
+		{
+			dao.addToFromHPALMResultFiles(String.format(QUERY_URL, Integer.valueOf(2 * page - 1)) + COOKIE, RESOURCES + "hpalm-entities-page-" + page + ".xml");
+		}
+
+		//setup the mojo
+		HPALMMojo myMojo = (HPALMMojo) lookupMojo("generate-change", pom);
+		assertNotNull("Plugin not found",myMojo);
+		myMojo.setDao(dao);
+		setVariableValueToObject(myMojo, "streaming", Boolean.valueOf(streaming));
+		setVariableValueToObject(myMojo, "streamingBufferSize", Integer.valueOf(1));
+
+		//execute the goal
+		myMojo.execute();
+
+		//check the changes.xml file
+		assertTrue("Changes file was not generated",changesFile.exists());
+		List<String> actions = getActions(changesFile);
+		assertEquals("Unexpected changes file actions: " + actions, 5, actions.size());
+		assertEquals("FIX 20601", actions.get(0));
+		assertEquals("ADD 20602", actions.get(1));
+		assertEquals("FIX 20603", actions.get(2));
+		assertEquals("UPDATE 20604", actions.get(3));
+		assertEquals("REMOVE 20605", actions.get(4));
+
+		logger.info("Test accomplished succesfully");
+	}
+
+	/**
+	 * Extracts the type and the issue of each action in changes file
+	 * @param changesFile changes file to read
+	 * @return list of "type issue" strings in the file order
+	 * @throws Exception
+	 */
+	private List<String> getActions(File changesFile) throws Exception
+	{
+		List<String> actions = new ArrayList<String>();
+		Pattern pattern = Pattern.compile("type=\"([^\"]*)\" issue=\"([^\"]*)\"");
+
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(changesFile), "UTF-8"));
+		try
+		{
+			String line = null;
+			while ((line = reader.readLine()) != null)
+			{
+				Matcher matcher = pattern.matcher(line);
+				if (matcher.find())
+					actions.add(matcher.group(1) + " " + matcher.group(2));
+			}
+		}
+		finally
+		{
+			reader.close();
+		}
+
+		return actions;
+	}
+}
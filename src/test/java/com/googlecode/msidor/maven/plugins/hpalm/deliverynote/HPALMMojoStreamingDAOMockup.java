@@ -0,0 +1,115 @@
+/*
+Copyright 2014 Maciej SIDOR [maciejsidor@gmail.com]
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+package com.googlecode.msidor.maven.plugins.hpalm.deliverynote;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Hashtable;
+
+import org.apache.maven.plugin.MojoFailureException;
+
+/**
+ * 
+ * Streaming version of HPALMMojoDAOMockup, that allows to test responses failing while they are read.
+ * 
+ */
+public class HPALMMojoStreamingDAOMockup extends HPALMMojoDAOMockup implements StreamingHPALMMojoDAOI
+{
+	private Hashtable<String, int[]>	fromHPALMTruncations	= new Hashtable<String, int[]>();
+
+	/**
+	 * Get the content from target URL via GET method and pass it to the handler.
+	 * The content stream fails with connection reset after the count of bytes registered in fromHPALMTruncations field under targetURL+cookie key,
+	 * until it has failed the registered count of times. The failure is reported as HPALMResponseException without response code, like the real Data Access Objects do.
+	 */
+	public void getFromHPALM(String targetURL, String cookie, HPALMResponseHandlerI handler) throws MojoFailureException
+	{
+		String content = getFromHPALM(targetURL, cookie);
+		if (content == null)
+			return;
+
+		InputStream response = new ByteArrayInputStream(content.getBytes(Charset.forName("UTF-8")));
+		int[] truncation = fromHPALMTruncations.get(targetURL + cookie);
+		if (truncation != null)
+		{
+			synchronized (truncation)
+			{
+				if (truncation[1] > 0)
+				{
+					truncation[1]--;
+					response = new TruncatedInputStream(response, truncation[0]);
+				}
+			}
+		}
+
+		try
+		{
+			handler.handleResponse(response);
+		}
+		catch (Exception e)
+		{
+			throw new HPALMResponseException(e, "Error occurced while retrieving data from HP ALM", "Error occurced while retrieving data from HP ALM: " + e.getMessage(), -1);
+		}
+	}
+
+	/**
+	 * Register response failing while it is read
+	 * @param key targetURL+cookie
+	 * @param length count of bytes read before the failure
+	 * @param count count of requests failing before the whole content is returned
+	 */
+	public void addFromHPALMTruncation(String key, int length, int count)
+	{
+		fromHPALMTruncations.put(key, new int[] { length, count });
+	}
+
+	/**
+	 * Stream failing once the given count of bytes has been read
+	 */
+	private static class TruncatedInputStream extends FilterInputStream
+	{
+		private int	remaining;
+
+		TruncatedInputStream(InputStream in, int length)
+		{
+			super(in);
+			this.remaining = length;
+		}
+
+		@Override
+		public int read() throws IOException
+		{
+			if (remaining <= 0)
+				throw new IOException("Connection reset");
+			remaining--;
+			return super.read();
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException
+		{
+			if (remaining <= 0)
+				throw new IOException("Connection reset");
+			int n = super.read(b, off, Math.min(len, remaining));
+			if (n > 0)
+				remaining -= n;
+			return n;
+		}
+	}
+}
@@ -0,0 +1,241 @@
+/*
+Copyright 2014 Maciej SIDOR [maciejsidor@gmail.com]
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+package com.googlecode.msidor.maven.plugins.hpalm.deliverynote;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.testing.AbstractMojoTestCase;
+import org.codehaus.plexus.logging.Logger;
+
+/**
+ * Update test case.
+ * This is black box kind of test that validates the update of HP ALM entities.
+ * Here are some details about the test configuration:
+ * <ul>
+ * <li>5 HP ALM Defects returned in 3 pages of 2 defects</li>
+ * <li>Defects updated in bulk by batches of 2 defects or one by one by 3 threads</li>
+ * <li>Plugin configuration file: src/test/resources/com/googlecode/msidor/maven/plugins/hpalm/deliverynote/plugin-conf-paging.xml</li>
+ * <li>HP ALM Entities files: src/test/resources/com/googlecode/msidor/maven/plugins/hpalm/deliverynote/hpalm-entities-page-*.xml</li>
+ * </ul>
+ *
+ */
+public class HPALMMojoUpdateTestCase extends AbstractMojoTestCase
+{
+	private static final String	DEFECTS_URL	= "http://alm.organization.net:8080/qcbin/rest/domains/DEP1/projects/PROJECT_1/defects";
+
+	/** {@inheritDoc} */
+	protected void setUp() throws Exception
+	{
+		// required
+		super.setUp();
+	}
+
+	/** {@inheritDoc} */
+	protected void tearDown() throws Exception
+	{
+		// required
+		super.tearDown();
+	}
+
+	/**
+	 * Updates the defects by batches sent to the defects collection
+	 * @throws Exception
+	 *             if any
+	 */
+	public void testBulkUpdate() throws Exception
+	{
+		HPALMMojoDAOMockup dao = createDao();
+
+		createMojo(dao).execute();
+
+		List<String> requests = dao.getToHPALMRequests();
+		assertEquals("Unexpected update requests: " + requests, 3, requests.size());
+		for (int i = 0; i < requests.size(); i++)
+		{
+			assertEquals(DEFECTS_URL, requests.get(i));
+			assertEquals(HPALMMojoDAOI.CONTENT_TYPE_XML_COLLECTION, dao.getToHPALMContentTypes().get(i));
+		}
+
+		assertEquals(getBulkUpdateStatement("20601", "20602"), dao.getToHPALMContents().get(0));
+		assertEquals(getBulkUpdateStatement("20603", "20604"), dao.getToHPALMContents().get(1));
+		assertEquals(getBulkUpdateStatement("20605"), dao.getToHPALMContents().get(2));
+	}
+
+	/**
+	 * Updates one by one the defects missing from the bulk update response
+	 * @throws Exception
+	 *             if any
+	 */
+	public void testBulkUpdatePartiallyApplied() throws Exception
+	{
+		HPALMMojoDAOMockup dao = createDao();
+		dao.addToHPALMResponse(DEFECTS_URL, getBulkUpdateStatement("20601", "20603", "20605"));
+
+		createMojo(dao).execute();
+
+		// each batch is followed by the update of the defect it has missed
+		List<String> requests = dao.getToHPALMRequests();
+		assertEquals("Unexpected update requests: " + requests, 5, requests.size());
+		assertEquals(DEFECTS_URL, requests.get(0));
+		assertEquals(DEFECTS_URL + "/20602", requests.get(1));
+		assertEquals(DEFECTS_URL, requests.get(2));
+		assertEquals(DEFECTS_URL + "/20604", requests.get(3));
+		assertEquals(DEFECTS_URL, requests.get(4));
+		assertEquals(HPALMMojoDAOI.CONTENT_TYPE_XML, dao.getToHPALMContentTypes().get(1));
+		assertEquals(HPALMMojoDAOI.CONTENT_TYPE_XML, dao.getToHPALMContentTypes().get(3));
+	}
+
+	/**
+	 * Updates the defects one by one when the bulk update response cannot be parsed
+	 * @throws Exception
+	 *             if any
+	 */
+	public void testBulkUpdateUnparseableResponse() throws Exception
+	{
+		HPALMMojoDAOMockup dao = createDao();
+		dao.addToHPALMResponse(DEFECTS_URL, "content");
+
+		createMojo(dao).execute();
+
+		List<String> requests = dao.getToHPALMRequests();
+		assertEquals("Unexpected update requests: " + requests, 8, requests.size());
+		for (int i = 1; i <= 5; i++)
+			assertTrue("Defect 2060" + i + " was not updated", requests.contains(DEFECTS_URL + "/2060" + i));
+	}
+
+	/**
+	 * Falls back to one request per defect when the server refuses bulk update and reports each failed defect
+	 * @throws Exception
+	 *             if any
+	 */
+	public void testBulkUpdateRefused() throws Exception
+	{
+		HPALMMojoDAOMockup dao = createDao();
+		dao.addToHPALMError(DEFECTS_URL, 405);
+		dao.addToHPALMError(DEFECTS_URL + "/20603", 500);
+
+		try
+		{
+			createMojo(dao).execute();
+			fail("Failed update of defect 20603 was not reported");
+		}
+		catch (MojoExecutionException e)
+		{
+			assertTrue("Unexpected failure: " + e.getCause().getMessage(), e.getCause().getMessage().endsWith("[20603]"));
+		}
+
+		// only the first batch is sent to the defects collection
+		List<String> requests = dao.getToHPALMRequests();
+		assertEquals("Unexpected update requests: " + requests, 6, requests.size());
+		assertEquals(DEFECTS_URL, requests.get(0));
+		for (int i = 1; i <= 5; i++)
+			assertEquals(DEFECTS_URL + "/2060" + i, requests.get(i));
+	}
+
+	/**
+	 * Sends one request per defect by several threads, retries the defect rejected due to server overload and reports it once retries are exhausted
+	 * @throws Exception
+	 *             if any
+	 */
+	public void testConcurrentUpdate() throws Exception
+	{
+		HPALMMojoDAOMockup dao = createDao();
+		dao.addToHPALMError(DEFECTS_URL + "/20602", 503);
+
+		HPALMMojo myMojo = createMojo(dao);
+		setVariableValueToObject(myMojo, "bulkUpdate", Boolean.FALSE);
+		setVariableValueToObject(myMojo, "updateConcurrency", Integer.valueOf(3));
+		setVariableValueToObject(myMojo, "updateRateLimit", Double.valueOf(50));
+
+		try
+		{
+			myMojo.execute();
+			fail("Failed update of defect 20602 was not reported");
+		}
+		catch (MojoExecutionException e)
+		{
+			assertTrue("Unexpected failure: " + e.getCause().getMessage(), e.getCause().getMessage().endsWith("[20602]"));
+		}
+
+		// all the defects are updated and the overloaded one is retried once
+		List<String> requests = dao.getToHPALMRequests();
+		assertEquals("Unexpected update requests: " + requests, 6, requests.size());
+		for (int i = 1; i <= 5; i++)
+			assertTrue("Defect 2060" + i + " was not updated", requests.contains(DEFECTS_URL + "/2060" + i));
+	}
+
+	/**
+	 * @param ids ids of the defects
+	 * @return the statement updating the status of the defects in bulk
+	 */
+	private String getBulkUpdateStatement(String... ids)
+	{
+		StringBuilder xml = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\" ?><Entities>");
+		for (String id : ids)
+			xml.append("<Entity Type=\"defect\"><Fields><Field Name=\"id\"><Value>").append(id).append("</Value></Field><Field Name=\"status\"><Value>Delivered</Value></Field></Fields></Entity>");
+		xml.append("</Entities>");
+
+		return xml.toString();
+	}
+
+	/**
+	 * @return the mockup DAO with the 3 pages of result
+	 */
+	private HPALMMojoDAOMockup createDao()
+	{
+		HPALMMojoDAOMockup dao = new HPALMMojoDAOMockup();
+		dao.setLogger(getContainer().getLogger());
+		for (int page = 1; page <= 3; page++)
+		{
+			dao.addToFromHPALMResultFiles(String.format(HPALMMojoPagingTestCase.QUERY_URL, Integer.valueOf(2 * page - 1)) + HPALMMojoPagingTestCase.COOKIE, HPALMMojoPagingTestCase.RESOURCES + "hpalm-entities-page-" + page + ".xml");
+		}
+
+		return dao;
+	}
+
+	/**
+	 * @param dao the mockup DAO
+	 * @return the mojo set up to update the defects in bulk
+	 * @throws Exception
+	 *             if any
+	 */
+	private HPALMMojo createMojo(HPALMMojoDAOMockup dao) throws Exception
+	{
+		Logger logger = getContainer().getLogger();
+		logger.info("Launching update test case");
+
+		//load the plugin configuration
+		File pom = getTestFile(HPALMMojoPagingTestCase.RESOURCES + "plugin-conf-paging.xml");
+		assertTrue("POM file with polugin test configuration could not be found",pom.exists());
+
+		Map<String, String> valuesToUpdate = new HashMap<String, String>();
+		valuesToUpdate.put("status", "Delivered");
+
+		//setup the mojo
+		HPALMMojo myMojo = (HPALMMojo) lookupMojo("generate-change", pom);
+		assertNotNull("Plugin not found",myMojo);
+		myMojo.setDao(dao);
+		setVariableValueToObject(myMojo, "valuesToUpdate", valuesToUpdate);
+		setVariableValueToObject(myMojo, "bulkUpdate", Boolean.TRUE);
+		setVariableValueToObject(myMojo, "bulkUpdateBatchSize", Integer.valueOf(2));
+
+		return myMojo;
+	}
+}